@@ -0,0 +1,904 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command-line administration for scripts and headless machines.
+ *
+ * Uses the same data layer as the dashboard (SqliteVoteStore, TallyRecount, BallotChain) and
+ * never loads AWT, so it runs over SSH without a display. It can run while kiosks are
+ * voting: it only writes in short transactions, and the kiosks re-read the election epochs
+ * on every ballot, so a reset made here takes effect there immediately.
+ *
+ * Exit status is 0 on success, 1 on a usage or database error and 2 when a check or
+ * recount finds a problem.
+ */
+public class AdminCli {
+    private static final String USAGE = String.join("\n",
+            "Usage: java AdminCli <command> [arguments]",
+            "",
+            "  tally                            Print the active election's results (certified, once closed)",
+            "  export results <file.csv>        Write position,name,role,votes rows, plus rank,outcome once closed",
+            "  export voters <file.csv>         Write student_id,name,voted rows ('-' for stdout)",
+            "  import candidates <file.csv>     Add candidates from position,name[,role] rows ('-' for stdin)",
+            "  import voters <file.csv>         Register voters from student_id,name,password rows ('-' for stdin)",
+            "  reset votes                      Reset all candidate votes to zero",
+            "  reset voters                     Allow all users to vote again",
+            "  candidate list                   List the active election's candidates",
+            "  candidate add <position> <name> [role]",
+            "  candidate remove <id>",
+            "  position list                    List the active election's positions and how many can be chosen",
+            "  position seats <position> <n|approval>",
+            "  ballot publish                   Compile candidates and photos into a new ballot version for the kiosks",
+            "  ballot show                      Show the newest published ballot",
+            "  election close                   Stop voting and certify the results (stop kiosks first)",
+            "  results verify                   Check the certified results against their checksum and the tally",
+            "  check                            Database integrity check, recount and ballot chain audit",
+            "  spool review                     List ballots the kiosks kept because their election closed first",
+            "  recount                          Recount only (also accepted as --recount)",
+            "  shards merge <dir>               Combine the kiosk shard files in <dir> into one result",
+            "  plans [rows]                     Check that the hot queries use their indexes (default 100000 rows)",
+            "  backup create [dir]              Snapshot the live and archive databases (default dir: backups)",
+            "  backup list [dir]                List snapshots, verifying each one",
+            "  backup verify <snapshot>         Check a snapshot's checksums and integrity",
+            "  restore <snapshot>               Verify a snapshot and copy it over the databases (stop kiosks first)",
+            "  replica sync <replica>           Seed or catch up a standby replica of the live database",
+            "  replica promote <replica>        Make the replica the live database (stop kiosks first)",
+            "  replica stop                     Stop logging changes for replication",
+            "  store check                      Run the VoteStore conformance checks on every backend",
+            "  store bench [ballots]            Compare ballot throughput of every backend (default 2000)",
+            "  store stress [seconds]           Race logins, ballots and resets on every backend (default 3)",
+            "");
+
+    // The kiosks' spools are found beside this one; see VoteSpool.spools
+    private static final String SPOOL_PATH = System.getProperty("spool.path", "vote_spool.log");
+
+    private final Connection conn;
+    private final SqliteVoteStore store;
+    private final int electionId;
+    private final PrintStream out;
+    private final AuditLog audit;
+    private final String actor = "cli:" + System.getProperty("user.name");
+
+    private AdminCli(Connection conn, int electionId, PrintStream out, AuditLog audit) {
+        this.conn = conn;
+        this.store = new SqliteVoteStore(conn);
+        this.electionId = electionId;
+        this.out = out;
+        this.audit = audit;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    public static int run(String[] args) {
+        if (args.length == 0 || args[0].equals("help") || args[0].equals("--help")) {
+            System.out.print(USAGE);
+            return args.length == 0 ? 1 : 0;
+        }
+        if (args[0].equals("store") || args[0].equals("plans") || args[0].equals("backup")
+                || args[0].equals("restore") || args[0].equals("replica")) {
+            // These work on scratch stores or on whole database files, not through a connection of ours
+            try {
+                return args[0].equals("store") ? store(args) : args[0].equals("plans") ? plans(args)
+                        : args[0].equals("replica") ? replica(args) : backup(args);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.err.print(USAGE);
+                return 1;
+            }
+        }
+
+        try (Connection conn = DriverManager.getConnection(VotingDatabase.DB_URL)) {
+            try (Statement stmt = conn.createStatement()) {
+                // Wait out a kiosk's write instead of failing the script
+                stmt.execute("PRAGMA busy_timeout = 5000");
+            }
+            int electionId = VotingDatabase.initialize(conn, VotingDatabase.ARCHIVE_PATH);
+            try (AuditLog audit = new AuditLog(VotingDatabase.DB_URL)) {
+                audit.start();
+                return new AdminCli(conn, electionId, System.out, audit).dispatch(args);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 1;
+        } catch (SQLException | IOException | VoteStore.StoreException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private int dispatch(String[] args) throws SQLException, IOException, VoteStore.StoreException {
+        String command = args[0];
+        switch (command) {
+            case "tally": {
+                expectArgs(args, 1);
+                CertifiedResults certified = CertifiedResults.load(conn, electionId);
+                out.print(certified != null ? certified.format() : VoteStore.formatResults(store, electionId));
+                return 0;
+            }
+            case "export":
+                expectArgs(args, 3);
+                if (args[1].equals("results")) {
+                    exportResults(args[2]);
+                } else if (args[1].equals("voters")) {
+                    exportVoters(args[2]);
+                } else {
+                    throw new IllegalArgumentException("Unknown export: " + args[1]);
+                }
+                return 0;
+            case "import":
+                expectArgs(args, 3);
+                if (args[1].equals("candidates")) {
+                    importCandidates(args[2]);
+                } else if (args[1].equals("voters")) {
+                    importVoters(args[2]);
+                } else {
+                    throw new IllegalArgumentException("Unknown import: " + args[1]);
+                }
+                return 0;
+            case "reset":
+                expectArgs(args, 2);
+                if (args[1].equals("votes")) {
+                    store.resetVotes(electionId);
+                    audit.record(actor, AuditLog.RESET_VOTES, "election " + electionId);
+                    out.println("All votes have been reset to zero.");
+                } else if (args[1].equals("voters")) {
+                    store.resetVoters(electionId);
+                    audit.record(actor, AuditLog.RESET_VOTERS, "election " + electionId);
+                    out.println("All users can now vote again.");
+                } else {
+                    throw new IllegalArgumentException("Unknown reset: " + args[1]);
+                }
+                return 0;
+            case "candidate":
+                return candidate(args);
+            case "position":
+                return position(args);
+            case "ballot":
+                return ballot(args);
+            case "election":
+                expectArgs(args, 2);
+                if (!args[1].equals("close")) {
+                    throw new IllegalArgumentException("Unknown election command: " + args[1]);
+                }
+                return closeElection();
+            case "results":
+                expectArgs(args, 2);
+                if (!args[1].equals("verify")) {
+                    throw new IllegalArgumentException("Unknown results command: " + args[1]);
+                }
+                return verifyResults();
+            case "check":
+                expectArgs(args, 1);
+                return check();
+            case "shards":
+                expectArgs(args, 3);
+                if (!args[1].equals("merge")) {
+                    throw new IllegalArgumentException("Unknown shards command: " + args[1]);
+                }
+                return mergeShards(new File(args[2]));
+            case "recount":
+            case "--recount":
+                expectArgs(args, 1);
+                return recount() ? 0 : 2;
+            case "spool":
+                expectArgs(args, 2);
+                if (!args[1].equals("review")) {
+                    throw new IllegalArgumentException("Unknown spool command: " + args[1]);
+                }
+                return reviewSpools();
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private int candidate(String[] args) throws VoteStore.StoreException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing candidate command");
+        }
+        switch (args[1]) {
+            case "list":
+                expectArgs(args, 2);
+                for (VoteStore.Candidate candidate : store.candidates(electionId)) {
+                    out.println(candidate.id + ": " + candidate.name + " - " + candidate.position
+                            + (candidate.role == null ? "" : " (" + candidate.role + ")"));
+                }
+                return 0;
+            case "add":
+                if (args.length != 4 && args.length != 5) {
+                    throw new IllegalArgumentException("Usage: candidate add <position> <name> [role]");
+                }
+                int id = store.addCandidate(electionId, args[3], args[2], args.length == 5 ? args[4] : null, null);
+                audit.record(actor, AuditLog.CANDIDATE_ADD, "id " + id + ", " + args[3] + " for " + args[2]
+                        + (args.length == 5 ? " (" + args[4] + ")" : "") + " in election " + electionId);
+                out.println("Added candidate " + id);
+                return 0;
+            case "remove":
+                expectArgs(args, 3);
+                int candidateId;
+                try {
+                    candidateId = Integer.parseInt(args[2]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a candidate id: " + args[2]);
+                }
+                if (!store.removeCandidate(candidateId)) {
+                    System.err.println("No candidate with id " + candidateId);
+                    return 1;
+                }
+                audit.record(actor, AuditLog.CANDIDATE_REMOVE, "id " + candidateId + " in election " + electionId);
+                out.println("Removed candidate " + candidateId);
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown candidate command: " + args[1]);
+        }
+    }
+
+    private int position(String[] args) throws VoteStore.StoreException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing position command");
+        }
+        switch (args[1]) {
+            case "list":
+                expectArgs(args, 2);
+                Map<String, Integer> seats = store.seats(electionId);
+                Set<String> positions = new LinkedHashSet<>();
+                for (VoteStore.Candidate candidate : store.candidates(electionId)) {
+                    positions.add(candidate.position);
+                }
+                positions.addAll(seats.keySet());
+                for (String position : positions) {
+                    out.println(position + ": " + VoteStore.describeSeats(VoteStore.seatsFor(seats, position)));
+                }
+                return 0;
+            case "seats":
+                expectArgs(args, 4);
+                int count;
+                if (args[3].equals("approval")) {
+                    count = VoteStore.APPROVAL;
+                } else {
+                    try {
+                        count = Integer.parseInt(args[3]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number of seats: " + args[3]);
+                    }
+                }
+                store.setSeats(electionId, args[2], count);
+                audit.record(actor, AuditLog.POSITION_SEATS, args[2] + ": " + VoteStore.describeSeats(count)
+                        + " in election " + electionId);
+                out.println(args[2] + ": " + VoteStore.describeSeats(count));
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unknown position command: " + args[1]);
+        }
+    }
+
+    private int ballot(String[] args) throws VoteStore.StoreException, IOException {
+        expectArgs(args, 2);
+        File dir = new File(BallotBundle.DIR);
+        if (args[1].equals("publish")) {
+            BallotBundle bundle = BallotBundle.open(BallotBundle.publish(store, electionId, dir));
+            audit.record(actor, AuditLog.BALLOT_PUBLISH, "version " + bundle.version() + ", "
+                    + bundle.candidates().size() + " candidates in election " + electionId);
+            out.println("Published ballot version " + bundle.version() + " to " + bundle.file());
+            return 0;
+        }
+        if (!args[1].equals("show")) {
+            throw new IllegalArgumentException("Unknown ballot command: " + args[1]);
+        }
+        File latest = BallotBundle.latest(dir);
+        if (latest == null) {
+            out.println("No ballot has been published; kiosks build it from the database.");
+            return 0;
+        }
+        BallotBundle bundle = BallotBundle.open(latest);
+        out.println("Version " + bundle.version() + " (" + latest + "), election " + bundle.electionId()
+                + ", published " + new java.util.Date(bundle.publishedAtMillis()));
+        if (bundle.electionId() != electionId) {
+            out.println("This is for an earlier election; kiosks build the ballot from the database.");
+        } else if (bundle.ballotRevision() < store.ballotRevision(electionId)) {
+            out.println("Candidates or seats have changed since; kiosks build the ballot from the database"
+                    + " until it is published again.");
+        }
+        Map<String, Integer> seats = bundle.seats();
+        String position = null;
+        for (VoteStore.Candidate candidate : bundle.candidates()) {
+            if (!candidate.position.equals(position)) {
+                position = candidate.position;
+                out.println(position + ": " + VoteStore.describeSeats(VoteStore.seatsFor(seats, position)));
+            }
+            ByteBuffer thumbnail = bundle.thumbnail(candidate.id);
+            out.println("  " + candidate.id + ": " + candidate.name
+                    + (thumbnail == null ? " (no photo)" : " (" + thumbnail.remaining() + " byte photo)"));
+        }
+        return 0;
+    }
+
+    private int check() throws SQLException {
+        boolean ok = true;
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("PRAGMA quick_check");
+            List<String> problems = new ArrayList<>();
+            while (rs.next()) {
+                problems.add(rs.getString(1));
+            }
+            if (problems.size() == 1 && problems.get(0).equals("ok")) {
+                out.println("Database integrity: ok");
+            } else {
+                ok = false;
+                out.println("Database integrity problems:");
+                for (String problem : problems) {
+                    out.println("  " + problem);
+                }
+            }
+        }
+        out.println();
+
+        ok &= recount();
+        out.println();
+
+        int voteEpoch = VotingDatabase.readEpochs(conn, electionId)[0];
+        BallotChain.AuditResult audit = BallotChain.audit(VotingDatabase.DB_URL, electionId, voteEpoch);
+        out.print(audit.format());
+        ok &= audit.isIntact();
+        return ok ? 0 : 2;
+    }
+
+    private int closeElection() throws SQLException, IOException, VoteStore.StoreException {
+        // A kiosk's spooled ballots must be recorded before the close, or they would miss the count
+        String running = spoolInUse();
+        if (running != null) {
+            System.err.println("A kiosk is running in this folder (it holds " + running
+                    + "). Close the election from its dashboard, or stop it first.");
+            return 1;
+        }
+        List<File> unrecorded = VoteSpool.unrecorded(new File(SPOOL_PATH), true);
+        if (!unrecorded.isEmpty()) {
+            for (File file : unrecorded) {
+                System.err.println(file + " still holds ballots that haven't been recorded.");
+            }
+            System.err.println("Start the kiosks they belong to so they record them, then close the election.");
+            return 1;
+        }
+        boolean wasClosed = store.isClosed(electionId);
+        CertifiedResults results = CertifiedResults.close(conn, store, electionId);
+        if (!wasClosed) {
+            audit.record(actor, AuditLog.ELECTION_CLOSE, "election " + electionId + " \"" + results.electionName
+                    + "\", " + results.ballots + " ballots, checksum " + results.checksum);
+        }
+        out.print(results.format());
+        return 0;
+    }
+
+    private int verifyResults() throws SQLException, VoteStore.StoreException {
+        CertifiedResults results = CertifiedResults.load(conn, electionId);
+        if (results == null) {
+            System.err.println("Election " + electionId + " is still open; its results aren't certified yet");
+            return 1;
+        }
+        List<String> problems = results.verify(conn, store);
+        if (problems.isEmpty()) {
+            out.println("Certified results for election " + electionId + ": ok (checksum " + results.checksum + ")");
+            return 0;
+        }
+        out.println("Certified results for election " + electionId + " don't match:");
+        for (String problem : problems) {
+            out.println("  " + problem);
+        }
+        return 2;
+    }
+
+    private int mergeShards(File dir) throws SQLException, VoteStore.StoreException {
+        ShardMerge.Result result = ShardMerge.merge(dir, conn, electionId);
+        List<VoteStore.Candidate> candidates = store.candidates(electionId);
+        out.print(VoteStore.formatResults(candidates, result.tally(candidates, SqliteVoteStore.readSlots(conn, electionId))));
+        out.println();
+        out.print(result.format());
+        return result.isConsistent() ? 0 : 2;
+    }
+
+    /**
+     * Lists the ballots each kiosk kept because their election closed before they were
+     * recorded (see VoteSpool.keepForReview); they are in no count.
+     */
+    private int reviewSpools() throws IOException, VoteStore.StoreException {
+        Map<Integer, String> names = new HashMap<>();
+        for (VoteStore.Candidate candidate : store.candidates(electionId)) {
+            names.put(candidate.id, candidate.name);
+        }
+        int kept = 0;
+        for (File spool : VoteSpool.spools(new File(SPOOL_PATH))) {
+            File reviewFile = VoteSpool.reviewFile(spool);
+            for (VoteSpool.SpooledBallot ballot : VoteSpool.readForReview(reviewFile)) {
+                out.println(reviewFile.getName() + ": ballot " + ballot.key + ", election " + ballot.electionId
+                        + ", cast " + new java.util.Date(ballot.castAtMillis));
+                for (Map.Entry<String, int[]> choice : ballot.choices.entrySet()) {
+                    List<String> picks = new ArrayList<>();
+                    for (int candidateId : choice.getValue()) {
+                        picks.add(names.getOrDefault(candidateId, "candidate " + candidateId));
+                    }
+                    out.println("  " + choice.getKey() + ": " + (picks.isEmpty() ? "(none)" : String.join(", ", picks)));
+                }
+                kept++;
+            }
+        }
+        out.println(kept == 0 ? "No ballots were kept after their election closed."
+                : kept + " ballots arrived after their election closed and are in no count.");
+        return 0;
+    }
+
+    private boolean recount() throws SQLException {
+        TallyRecount.Result result = new TallyRecount(VotingDatabase.DB_URL, electionId).run();
+        out.print(result.format());
+        return result.isConsistent();
+    }
+
+    private void exportResults(String file) throws SQLException, IOException {
+        CertifiedResults certified = CertifiedResults.load(conn, electionId);
+        if (certified != null) {
+            try (PrintWriter writer = openWriter(file)) {
+                writer.println("position,name,role,votes,rank,outcome");
+                for (CertifiedResults.Ranking ranking : certified.rankings) {
+                    writer.println(csv(ranking.position, ranking.name, ranking.role, String.valueOf(ranking.votes),
+                            String.valueOf(ranking.rank), ranking.outcome));
+                }
+            }
+            return;
+        }
+        Map<Integer, Long> tally = SqliteVoteStore.readTally(conn, electionId);
+        List<String[]> rows = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT id, position, name, role FROM candidates WHERE election_id = ?")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                rows.add(new String[] { rs.getString("position"), rs.getString("name"), rs.getString("role"),
+                        String.valueOf(tally.get(rs.getInt("id"))) });
+            }
+        }
+        rows.sort((a, b) -> {
+            int byPosition = a[0].compareTo(b[0]);
+            return byPosition != 0 ? byPosition : Long.compare(Long.parseLong(b[3]), Long.parseLong(a[3]));
+        });
+        try (PrintWriter writer = openWriter(file)) {
+            writer.println("position,name,role,votes");
+            for (String[] row : rows) {
+                writer.println(csv(row));
+            }
+        }
+    }
+
+    private void exportVoters(String file) throws SQLException, IOException {
+        try (PrintWriter writer = openWriter(file); Statement stmt = conn.createStatement()) {
+            writer.println("student_id,name,voted");
+            ResultSet rs = stmt.executeQuery(
+                    "SELECT u.student_id, u.name, v.user_id IS NOT NULL AS voted FROM users u " +
+                    "JOIN elections e ON e.id = " + electionId + " " +
+                    "LEFT JOIN voter_status v ON v.election_id = e.id AND v.user_id = u.id AND v.epoch = e.voter_epoch " +
+                    "WHERE u.is_admin = FALSE ORDER BY u.student_id");
+            while (rs.next()) {
+                writer.println(csv(rs.getString(1), rs.getString(2), rs.getBoolean(3) ? "yes" : "no"));
+            }
+        }
+    }
+
+    private void importCandidates(String file) throws SQLException, IOException, VoteStore.StoreException {
+        List<String[]> rows = readCsv(file, 2, 3);
+        runInTransaction(() -> {
+            for (String[] row : rows) {
+                store.addCandidate(electionId, row[1], row[0], row.length > 2 ? row[2] : null, null);
+            }
+        });
+        audit.record(actor, AuditLog.CANDIDATE_IMPORT, rows.size() + " candidates from " + file
+                + " into election " + electionId);
+        out.println("Imported " + rows.size() + " candidates");
+    }
+
+    private void importVoters(String file) throws SQLException, IOException, VoteStore.StoreException {
+        List<String[]> rows = readCsv(file, 3, 3);
+        int[] added = new int[1];
+        runInTransaction(() -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT OR IGNORE INTO users (student_id, name, password) VALUES (?, ?, ?)")) {
+                for (String[] row : rows) {
+                    pstmt.setString(1, row[0]);
+                    pstmt.setString(2, row[1]);
+                    pstmt.setString(3, row[2]);
+                    added[0] += pstmt.executeUpdate();
+                }
+            }
+        });
+        audit.record(actor, AuditLog.VOTER_IMPORT, added[0] + " of " + rows.size() + " voters from " + file);
+        out.println("Registered " + added[0] + " voters" +
+                (added[0] < rows.size() ? " (" + (rows.size() - added[0]) + " student IDs already registered)" : ""));
+    }
+
+    private interface SqlAction {
+        void run() throws SQLException, VoteStore.StoreException;
+    }
+
+    private void runInTransaction(SqlAction action) throws SQLException, VoteStore.StoreException {
+        conn.setAutoCommit(false);
+        try {
+            action.run();
+            conn.commit();
+        } catch (SQLException | VoteStore.StoreException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static int backup(String[] args) {
+        String command = args[0].equals("restore") ? "restore" : args.length < 2 ? "" : args[1];
+        try {
+            switch (command) {
+                case "create": {
+                    if (args.length > 3) {
+                        expectArgs(args, 3);
+                    }
+                    File dir = new File(args.length == 3 ? args[2] : "backups");
+                    File snapshot = DatabaseBackup.snapshot(VotingDatabase.DB_URL, VotingDatabase.ARCHIVE_PATH, dir,
+                            Integer.getInteger("backup.keep", 24));
+                    System.out.println("Snapshot written to " + snapshot);
+                    return 0;
+                }
+                case "list": {
+                    if (args.length > 3) {
+                        expectArgs(args, 3);
+                    }
+                    boolean ok = true;
+                    for (File snapshot : DatabaseBackup.list(new File(args.length == 3 ? args[2] : "backups"))) {
+                        List<String> problems = DatabaseBackup.verify(snapshot);
+                        System.out.println(String.format("%-40s", snapshot.getPath())
+                                + (problems.isEmpty() ? "ok" : String.join("; ", problems)));
+                        ok &= problems.isEmpty();
+                    }
+                    return ok ? 0 : 2;
+                }
+                case "verify": {
+                    expectArgs(args, 3);
+                    List<String> problems = DatabaseBackup.verify(new File(args[2]));
+                    for (String problem : problems) {
+                        System.out.println("Problem: " + problem);
+                    }
+                    System.out.println(problems.isEmpty() ? "Snapshot is intact" : "Snapshot is damaged");
+                    return problems.isEmpty() ? 0 : 2;
+                }
+                case "restore": {
+                    expectArgs(args, 2);
+                    String running = spoolInUse();
+                    if (running != null) {
+                        System.err.println("A kiosk is running in this folder (it holds " + running
+                                + "). Stop it before restoring.");
+                        return 1;
+                    }
+                    DatabaseBackup.restore(new File(args[1]), VotingDatabase.DB_URL, VotingDatabase.ARCHIVE_PATH);
+                    System.out.println("Restored " + args[1] + "; the databases passed their integrity check");
+                    return 0;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown backup command: " + command);
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int replica(String[] args) {
+        String command = args.length < 2 ? "" : args[1];
+        try {
+            switch (command) {
+                case "sync": {
+                    expectArgs(args, 3);
+                    try (StandbyReplica replica = new StandbyReplica(VotingDatabase.DB_URL, new File(args[2]))) {
+                        replica.ship();
+                        System.out.println(replica.status() + " (log position " + replica.appliedSeq() + ")");
+                    }
+                    return 0;
+                }
+                case "promote": {
+                    expectArgs(args, 3);
+                    String running = spoolInUse();
+                    if (running != null) {
+                        System.err.println("A kiosk is running in this folder (it holds " + running
+                                + "). Stop it before promoting.");
+                        return 1;
+                    }
+                    File replicaFile = new File(args[2]);
+                    File primaryFile = new File(VotingDatabase.DB_URL.substring("jdbc:sqlite:".length()));
+                    if (!replicaFile.isFile()) {
+                        System.err.println("No replica at " + replicaFile);
+                        return 1;
+                    }
+                    if (primaryFile.isFile()) {
+                        // Whatever the live database still has is worth shipping first, but never reseed from it
+                        try (StandbyReplica replica = new StandbyReplica(VotingDatabase.DB_URL, replicaFile)) {
+                            replica.ship(false);
+                        } catch (SQLException | IOException e) {
+                            System.err.println("Could not catch up from the live database, promoting the replica"
+                                    + " as it is: " + e.getMessage());
+                        }
+                    }
+                    long applied = StandbyReplica.promote(replicaFile, primaryFile);
+                    System.out.println("Promoted " + replicaFile + " (log position " + applied
+                            + ") to the live database; start the kiosks again");
+                    return 0;
+                }
+                case "stop": {
+                    expectArgs(args, 2);
+                    try (Connection conn = DriverManager.getConnection(VotingDatabase.DB_URL)) {
+                        try (Statement stmt = conn.createStatement()) {
+                            stmt.execute("PRAGMA busy_timeout = 5000");
+                        }
+                        StandbyReplica.disable(conn);
+                    }
+                    System.out.println("Stopped logging changes; kiosks started with -Dreplica.path turn it back on");
+                    return 0;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown replica command: " + command);
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * The first spool in the folder whose lock a kiosk holds, meaning it is running against
+     * these databases, or null if none is.
+     */
+    private static String spoolInUse() throws IOException {
+        for (File spool : VoteSpool.spools(new File(SPOOL_PATH))) {
+            try (FileChannel channel = FileChannel.open(spool.toPath(), StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    return spool.getName();
+                }
+                lock.release();
+            }
+        }
+        return null;
+    }
+
+    private static int store(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing store command");
+        }
+        boolean check = args[1].equals("check");
+        boolean stress = args[1].equals("stress");
+        if (!check && !stress && !args[1].equals("bench")) {
+            throw new IllegalArgumentException("Unknown store command: " + args[1]);
+        }
+        // Ballots to benchmark, or seconds to stress
+        int amount = stress ? 3 : 2000;
+        if (check) {
+            expectArgs(args, 2);
+        } else if (args.length == 3) {
+            try {
+                amount = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a " + (stress ? "number of seconds" : "ballot count")
+                        + ": " + args[2]);
+            }
+        } else {
+            expectArgs(args, 2);
+        }
+
+        File dir;
+        try {
+            dir = Files.createTempDirectory("votestore").toFile();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+        try {
+            File db = new File(dir, "store.db");
+            File archive = new File(dir, "archive.db");
+            File log = new File(dir, "store.log");
+            Map<String, VoteStoreConformance.StoreFactory> backends = new LinkedHashMap<>();
+            backends.put("sqlite", () -> SqliteVoteStore.open("jdbc:sqlite:" + db.getPath(), archive.getPath()));
+            backends.put("sharded", () -> ShardedVoteStore.open("jdbc:sqlite:" + new File(dir, "registry.db").getPath(),
+                    archive.getPath(), new File(dir, "shards"), "kiosk"));
+            backends.put("memory", InMemoryVoteStore::new);
+            backends.put("append-log", () -> new AppendLogVoteStore(log));
+
+            boolean ok = true;
+            for (Map.Entry<String, VoteStoreConformance.StoreFactory> backend : backends.entrySet()) {
+                String name = backend.getKey();
+                if (check) {
+                    List<String> failures = VoteStoreConformance.run(backend.getValue(), !name.equals("memory"));
+                    System.out.println(String.format("%-12s", name) + (failures.isEmpty() ? "ok" : failures.size() + " failures"));
+                    for (String failure : failures) {
+                        System.out.println("  " + failure);
+                    }
+                    ok &= failures.isEmpty();
+                } else if (stress) {
+                    String probeUrl = name.equals("sqlite") ? "jdbc:sqlite:" + db.getPath()
+                            : name.equals("sharded") ? "jdbc:sqlite:" + new File(dir, "shards/"
+                            + ShardedVoteStore.shardFileName("kiosk")).getPath() : null;
+                    try (VoteStore store = backend.getValue().open()) {
+                        VoteStoreStress.Result result = VoteStoreStress.run(store, 8, amount * 1000L, probeUrl);
+                        System.out.println(String.format("%-12s", name) + (result.isOk() ? "ok  " : "FAILED  ")
+                                + result.format());
+                        for (String failure : result.failures) {
+                            System.out.println("  " + failure);
+                        }
+                        ok &= result.isOk();
+                    } catch (Exception e) {
+                        ok = false;
+                        System.out.println(String.format("%-12s", name) + "failed: " + e.getMessage());
+                    }
+                } else {
+                    try (VoteStore store = backend.getValue().open()) {
+                        VoteStoreBenchmark.Result result = VoteStoreBenchmark.run(store, amount, 4);
+                        System.out.println(String.format("%-12s%,10.0f ballots/s  (%d ballots in %d ms)", name,
+                                result.ballotsPerSecond(), result.ballots, result.nanos / 1_000_000));
+                    } catch (Exception e) {
+                        ok = false;
+                        System.out.println(String.format("%-12s", name) + "failed: " + e.getMessage());
+                    }
+                }
+            }
+            return ok ? 0 : 2;
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static int plans(String[] args) {
+        int rows = 100_000;
+        if (args.length == 2) {
+            try {
+                rows = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a row count: " + args[1]);
+            }
+        } else {
+            expectArgs(args, 1);
+        }
+        try {
+            QueryPlanCheck.Result result = QueryPlanCheck.run(rows);
+            System.out.print(result.format());
+            if (result.isOk()) {
+                System.out.println("\nEvery statement uses its indexes.");
+                return 0;
+            }
+            System.out.println("\n" + result.problems.size() + " query plan regressions:");
+            for (String problem : result.problems) {
+                System.out.println("  - " + problem);
+            }
+            return 2;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void expectArgs(String[] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("Wrong number of arguments for " + String.join(" ",
+                    Arrays.copyOf(args, Math.min(args.length, 2))));
+        }
+    }
+
+    private PrintWriter openWriter(String file) throws IOException {
+        if (file.equals("-")) {
+            return new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                @Override
+                public void close() {
+                    flush();
+                }
+            };
+        }
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)));
+    }
+
+    /** Reads the data rows of a CSV file, skipping the header row if there is one. */
+    private static List<String[]> readCsv(String file, int minColumns, int maxColumns) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] row = parseCsvLine(line);
+                if (lineNumber == 1 && isHeader(row)) {
+                    continue;
+                }
+                if (row.length < minColumns || row.length > maxColumns) {
+                    throw new IllegalArgumentException(file + " line " + lineNumber + ": expected "
+                            + (minColumns == maxColumns ? String.valueOf(minColumns) : minColumns + "-" + maxColumns)
+                            + " columns, found " + row.length);
+                }
+                for (int i = 0; i < minColumns; i++) {
+                    if (row[i].isEmpty()) {
+                        throw new IllegalArgumentException(file + " line " + lineNumber + ": column " + (i + 1) + " is empty");
+                    }
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static boolean isHeader(String[] row) {
+        String first = row[0].toLowerCase();
+        return first.equals("position") || first.equals("student_id");
+    }
+
+    private static String[] parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[0]);
+    }
+
+    private static String csv(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            String field = fields[i] == null ? "" : fields[i];
+            if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
+                sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(field);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Watches this kiosk's logins and ballots as they happen and raises an alert for patterns
+ * worth a look: a burst of ballots, many failed logins within one range of student IDs, or
+ * a candidate's share of recent ballots moving far from its share over the day.
+ *
+ * Everything is kept in fixed-size state, so memory doesn't grow with the election:
+ * <ul>
+ *   <li>Ballot rate: two exponentially decaying rates, a fast one (about a minute) compared
+ *       with a slow baseline (about half an hour). Until the kiosk has been recording for
+ *       half an hour the baseline is scaled up for the time it has covered, so a busy
+ *       start isn't a burst.</li>
+ *   <li>Failed logins: a count-min sketch keyed by ID range (the ID without its last two
+ *       characters). Two sketches take turns, each covering one window, and an estimate
+ *       adds the current window to the previous one, so old failures age out without a
+ *       per-ID list. A count-min sketch can overestimate, never underestimate.</li>
+ *   <li>Candidate shares: per candidate, a fast and a slow moving average of "picked on this
+ *       ballot", updated per ballot.</li>
+ * </ul>
+ * Each update is a few arithmetic operations under one lock, well under the cost of the
+ * ballot's own transaction. Alerts of one kind for one subject are raised at most once per
+ * {@link #ALERT_COOLDOWN_MILLIS}, handed to the sink and kept in a small ring for the
+ * dashboard.
+ */
+public class AnomalyDetector {
+    public static final long ALERT_COOLDOWN_MILLIS = 5 * 60_000;
+    private static final double FAST_RATE_MILLIS = 60_000;
+    private static final double SLOW_RATE_MILLIS = 30 * 60_000;
+    private static final double BURST_MIN_PER_MINUTE = 10;
+    private static final double BURST_FACTOR = 3;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1024;
+    private static final long FAILURE_WINDOW_MILLIS = 10 * 60_000;
+    private static final int FAILED_LOGINS_PER_RANGE = 20;
+    private static final double FAST_SHARE_WEIGHT = 1.0 / 50;
+    private static final double SLOW_SHARE_WEIGHT = 1.0 / 1000;
+    private static final int SHARE_WARM_UP_BALLOTS = 200;
+    private static final double SHARE_JUMP = 0.25;
+    private static final int MAX_CANDIDATES = 512;
+    private static final int RECENT_ALERTS = 50;
+
+    public static final class Alert {
+        public final long atMillis;
+        public final String message;
+
+        Alert(long atMillis, String message) {
+            this.atMillis = atMillis;
+            this.message = message;
+        }
+    }
+
+    private final String kiosk;
+    private final Consumer<Alert> sink;
+
+    private long firstBallotMillis;
+    private long lastBallotMillis;
+    private double fastRate;
+    private double slowRate;
+    private long ballots;
+
+    private final int[][][] sketches = new int[2][SKETCH_DEPTH][SKETCH_WIDTH];
+    private int currentSketch;
+    private long sketchWindow;
+
+    // Candidate id to { fast share, slow share }
+    private final Map<Integer, double[]> shares = new HashMap<>();
+
+    private final Map<String, Long> lastAlerted = new HashMap<>();
+    private final Alert[] recent = new Alert[RECENT_ALERTS];
+    private long alertCount;
+
+    public AnomalyDetector(String kiosk, Consumer<Alert> sink) {
+        this.kiosk = kiosk;
+        this.sink = sink;
+    }
+
+    /** Called for each ballot this kiosk records, with the candidates it picked. */
+    public void ballotRecorded(long castAtMillis, int[] candidateIds) {
+        List<Alert> raised = new ArrayList<>(0);
+        synchronized (this) {
+            // Spooled ballots replayed after a restart carry their original times
+            if (ballots == 0) {
+                firstBallotMillis = castAtMillis;
+                lastBallotMillis = castAtMillis;
+            }
+            firstBallotMillis = Math.min(firstBallotMillis, castAtMillis);
+            long elapsed = Math.max(0, castAtMillis - lastBallotMillis);
+            lastBallotMillis = Math.max(lastBallotMillis, castAtMillis);
+            fastRate = fastRate * Math.exp(-elapsed / FAST_RATE_MILLIS) + 1;
+            slowRate = slowRate * Math.exp(-elapsed / SLOW_RATE_MILLIS) + 1;
+            ballots++;
+            // A decayed count over a time constant is an events-per-constant rate
+            double perMinuteNow = fastRate * 60_000 / FAST_RATE_MILLIS;
+            // Warm-up: the slow rate has only decayed over the time covered so far, at least a minute
+            double covered = Math.max(FAST_RATE_MILLIS, lastBallotMillis - firstBallotMillis);
+            double perMinuteBaseline = slowRate * 60_000 / (SLOW_RATE_MILLIS * (1 - Math.exp(-covered / SLOW_RATE_MILLIS)));
+            if (perMinuteNow >= BURST_MIN_PER_MINUTE && perMinuteNow >= BURST_FACTOR * perMinuteBaseline
+                    && due("burst", castAtMillis)) {
+                alert(raised, castAtMillis, String.format(
+                        "Burst of ballots from kiosk %s: %.0f per minute against a baseline of %.1f",
+                        kiosk, perMinuteNow, perMinuteBaseline));
+            }
+
+            for (double[] share : shares.values()) {
+                share[0] -= share[0] * FAST_SHARE_WEIGHT;
+                share[1] -= share[1] * SLOW_SHARE_WEIGHT;
+            }
+            for (int candidateId : candidateIds) {
+                double[] share = shares.get(candidateId);
+                if (share == null) {
+                    if (shares.size() >= MAX_CANDIDATES) {
+                        continue;
+                    }
+                    share = new double[2];
+                    shares.put(candidateId, share);
+                }
+                share[0] += FAST_SHARE_WEIGHT;
+                share[1] += SLOW_SHARE_WEIGHT;
+            }
+            if (ballots >= SHARE_WARM_UP_BALLOTS) {
+                // The slow average needs a bias correction until it has seen enough ballots
+                double slowCorrection = 1 - Math.pow(1 - SLOW_SHARE_WEIGHT, ballots);
+                for (Map.Entry<Integer, double[]> entry : shares.entrySet()) {
+                    double recentShare = entry.getValue()[0];
+                    double overall = entry.getValue()[1] / slowCorrection;
+                    if (Math.abs(recentShare - overall) >= SHARE_JUMP && due("share:" + entry.getKey(), castAtMillis)) {
+                        alert(raised, castAtMillis, String.format(
+                                "Candidate #%d is on %.0f%% of the last ballots at kiosk %s, against %.0f%% overall",
+                                entry.getKey(), recentShare * 100, kiosk, overall * 100));
+                    }
+                }
+            }
+        }
+        deliver(raised);
+    }
+
+    /** Called for each failed login, before or after the throttle. */
+    public void loginFailed(String studentId, long atMillis) {
+        String range = studentId.length() > 2 ? studentId.substring(0, studentId.length() - 2) : "";
+        List<Alert> raised = new ArrayList<>(0);
+        synchronized (this) {
+            long window = atMillis / FAILURE_WINDOW_MILLIS;
+            if (window != sketchWindow) {
+                // Entering the next window: the older sketch is cleared and becomes current
+                int steps = (int) Math.min(2, Math.max(0, window - sketchWindow));
+                for (int i = 0; i < steps; i++) {
+                    currentSketch ^= 1;
+                    for (int[] row : sketches[currentSketch]) {
+                        Arrays.fill(row, 0);
+                    }
+                }
+                sketchWindow = window;
+            }
+            int estimate = Integer.MAX_VALUE;
+            int hash = range.hashCode();
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                int column = column(hash, row);
+                int count = ++sketches[currentSketch][row][column];
+                estimate = Math.min(estimate, count + sketches[currentSketch ^ 1][row][column]);
+            }
+            if (estimate >= FAILED_LOGINS_PER_RANGE && due("logins:" + range, atMillis)) {
+                alert(raised, atMillis, String.format(
+                        "About %d failed logins for student IDs %s** at kiosk %s in the last %d minutes",
+                        estimate, range, kiosk, 2 * FAILURE_WINDOW_MILLIS / 60_000));
+            }
+        }
+        deliver(raised);
+    }
+
+    /** The newest alerts raised here, newest first. */
+    public synchronized List<Alert> recentAlerts() {
+        List<Alert> alerts = new ArrayList<>();
+        for (long i = alertCount - 1; i >= 0 && i >= alertCount - RECENT_ALERTS; i--) {
+            alerts.add(recent[(int) (i % RECENT_ALERTS)]);
+        }
+        return alerts;
+    }
+
+    /** The current ballot rates, for the dashboard. */
+    public synchronized String summary() {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(0, now - lastBallotMillis);
+        return String.format("Kiosk %s: %.1f ballots/min now, %.1f/min over the last half hour, %d alerts raised",
+                kiosk, fastRate * Math.exp(-elapsed / FAST_RATE_MILLIS) * 60_000 / FAST_RATE_MILLIS,
+                slowRate * Math.exp(-elapsed / SLOW_RATE_MILLIS) * 60_000 / SLOW_RATE_MILLIS, alertCount);
+    }
+
+    /** Whether an alert about this subject is due, marking it raised if so. */
+    private boolean due(String subject, long atMillis) {
+        Long last = lastAlerted.get(subject);
+        if (last != null && atMillis - last < ALERT_COOLDOWN_MILLIS) {
+            return false;
+        }
+        if (lastAlerted.size() >= MAX_CANDIDATES) {
+            lastAlerted.values().removeIf(at -> atMillis - at >= ALERT_COOLDOWN_MILLIS);
+        }
+        lastAlerted.put(subject, atMillis);
+        return true;
+    }
+
+    private void alert(List<Alert> raised, long atMillis, String message) {
+        Alert alert = new Alert(atMillis, message);
+        recent[(int) (alertCount % RECENT_ALERTS)] = alert;
+        alertCount++;
+        raised.add(alert);
+    }
+
+    private void deliver(List<Alert> raised) {
+        // Outside the lock, so a slow sink never holds up the next ballot's update
+        for (Alert alert : raised) {
+            sink.accept(alert);
+        }
+    }
+
+    private static int column(int hash, int row) {
+        int h = hash * (0x9E3779B1 + 2 * row) + row * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        return (h & Integer.MAX_VALUE) % SKETCH_WIDTH;
+    }
+}
@@ -0,0 +1,553 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A VoteStore that appends every change to one log file and keeps the current state in
+ * memory, aimed at raw write throughput.
+ *
+ * Opening the store replays the log into an InMemoryVoteStore. After that each change's record
+ * is built first, then written once the change has passed the in-memory state's checks and
+ * only then applied, so a record that can't be written never reaches memory. Records are written
+ * to the file as they happen, so they survive the process dying, but are only forced to disk
+ * by {@link #sync()}, {@link #close()} or when the store is opened with {@code syncEachWrite}.
+ * Records use the vote spool's layout (length, payload, CRC32), and a torn record at the end
+ * of the log is dropped on open.
+ *
+ * A ballot's picks are logged without its voter: in a log, whatever record sits next to the
+ * picks would say whose they are. Voter marks go instead into one bitmap file per election
+ * next to the log ("<log>.voters-<election id>"), a bit per user id set in place, so the file
+ * keeps no order to match against the log's. Its header holds the voter epoch (the election's
+ * voter resets so far) it belongs to; a file from an earlier epoch is ignored on open and
+ * cleared. The mark is written before the picks, so a process that dies in between leaves
+ * a voter marked without a ballot rather than a ballot whose voter can vote again.
+ */
+public class AppendLogVoteStore implements VoteStore {
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private static final byte ELECTION = 1;
+    private static final byte USER = 2;
+    private static final byte CANDIDATE = 3;
+    private static final byte REMOVE_CANDIDATE = 4;
+    private static final byte RESET_VOTES = 6;
+    private static final byte RESET_VOTERS = 7;
+    private static final byte SEATS = 8;
+    private static final byte CLOSE = 9;
+    private static final byte PICKS = 10;
+    private static final String VOTER_MARKS = ".voters-";
+    private static final int MARKS_HEADER_BYTES = 4;
+
+    private final InMemoryVoteStore state = new InMemoryVoteStore();
+    private final File file;
+    private final FileChannel channel;
+    // Per election: its voter mark bitmap and how many times its voters have been reset
+    private final Map<Integer, FileChannel> voterMarks = new HashMap<>();
+    private final Map<Integer, Integer> voterEpochs = new HashMap<>();
+    private final boolean syncEachWrite;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(bytes);
+    private final ByteArrayOutputStream framed = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private boolean failed;
+    /** The election and user id to mark before the current change's records are written, if any. */
+    private int[] markVoter;
+
+    public AppendLogVoteStore(File file) throws StoreException {
+        this(file, false);
+    }
+
+    public AppendLogVoteStore(File file, boolean syncEachWrite) throws StoreException {
+        this.file = file;
+        this.syncEachWrite = syncEachWrite;
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            replay();
+            loadVoterMarks();
+            state.setChangeLog(this::write);
+        } catch (IOException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized int createElection(String name) throws StoreException {
+        checkUsable();
+        try {
+            begin(ELECTION);
+            writeString(name);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return apply(() -> state.createElection(name));
+    }
+
+    @Override
+    public synchronized int registerUser(String studentId, String name, String password, boolean admin)
+            throws StoreException {
+        checkUsable();
+        try {
+            begin(USER);
+            writeString(studentId);
+            writeString(name);
+            writeString(password);
+            record.writeBoolean(admin);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return apply(() -> state.registerUser(studentId, name, password, admin));
+    }
+
+    @Override
+    public User authenticate(String studentId, String password) {
+        return state.authenticate(studentId, password);
+    }
+
+    @Override
+    public synchronized int addCandidate(int electionId, String name, String position, String role,
+                                         String imagePath) throws StoreException {
+        checkUsable();
+        try {
+            begin(CANDIDATE);
+            record.writeInt(electionId);
+            writeString(name);
+            writeString(position);
+            writeString(role);
+            writeString(imagePath);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return apply(() -> state.addCandidate(electionId, name, position, role, imagePath));
+    }
+
+    @Override
+    public synchronized boolean removeCandidate(int candidateId) throws StoreException {
+        checkUsable();
+        try {
+            begin(REMOVE_CANDIDATE);
+            record.writeInt(candidateId);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return apply(() -> state.removeCandidate(candidateId));
+    }
+
+    @Override
+    public List<Candidate> candidates(int electionId) {
+        return state.candidates(electionId);
+    }
+
+    @Override
+    public synchronized void setSeats(int electionId, String position, int seats) throws StoreException {
+        checkUsable();
+        try {
+            begin(SEATS);
+            record.writeInt(electionId);
+            writeString(position);
+            record.writeInt(seats);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        apply(() -> {
+            state.setSeats(electionId, position, seats);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, Integer> seats(int electionId) throws StoreException {
+        return state.seats(electionId);
+    }
+
+    @Override
+    public long ballotRevision(int electionId) throws StoreException {
+        return state.ballotRevision(electionId);
+    }
+
+    @Override
+    public synchronized long castBallot(String key, int electionId, int userId, Map<String, int[]> choices)
+            throws StoreException {
+        checkUsable();
+        Map<String, Long> picks = state.encode(electionId, choices);
+        if (picks != null) {
+            try {
+                begin(PICKS);
+                writeString(key);
+                record.writeInt(electionId);
+                record.writeInt(picks.size());
+                for (Map.Entry<String, Long> entry : picks.entrySet()) {
+                    writeString(entry.getKey());
+                    record.writeLong(entry.getValue());
+                }
+                end();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+        markVoter = new int[] {electionId, userId};
+        return apply(() -> state.castPicks(key, electionId, userId, picks));
+    }
+
+    @Override
+    public boolean isValidBallot(int electionId, Map<String, int[]> choices) throws StoreException {
+        return state.isValidBallot(electionId, choices);
+    }
+
+    @Override
+    public boolean hasVoted(int electionId, int userId) throws StoreException {
+        return state.hasVoted(electionId, userId);
+    }
+
+    @Override
+    public Map<Integer, Long> tally(int electionId) throws StoreException {
+        return state.tally(electionId);
+    }
+
+    @Override
+    public long ballotCount(int electionId) throws StoreException {
+        return state.ballotCount(electionId);
+    }
+
+    @Override
+    public synchronized void resetVotes(int electionId) throws StoreException {
+        checkUsable();
+        logElection(RESET_VOTES, electionId);
+        apply(() -> {
+            state.resetVotes(electionId);
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void resetVoters(int electionId) throws StoreException {
+        checkUsable();
+        logElection(RESET_VOTERS, electionId);
+        apply(() -> {
+            state.resetVoters(electionId);
+            return null;
+        });
+        int epoch = voterEpochs.merge(electionId, 1, Integer::sum);
+        try {
+            // The reset is logged, so until this the old marks are ignored on open anyway
+            clearVoterMarks(voterMarks(electionId), epoch);
+        } catch (IOException e) {
+            failed = true;
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized void closeElection(int electionId) throws StoreException {
+        checkUsable();
+        if (state.isClosed(electionId)) {
+            return;
+        }
+        logElection(CLOSE, electionId);
+        apply(() -> {
+            state.closeElection(electionId);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isClosed(int electionId) throws StoreException {
+        return state.isClosed(electionId);
+    }
+
+    /** Forces everything appended so far to disk. */
+    public synchronized void sync() throws StoreException {
+        try {
+            for (FileChannel marks : voterMarks.values()) {
+                marks.force(false);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws StoreException {
+        try {
+            for (FileChannel marks : voterMarks.values()) {
+                if (marks.isOpen()) {
+                    marks.force(true);
+                    marks.close();
+                }
+            }
+            if (channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private void replay() throws IOException, StoreException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + 4 + length + 8 > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + 8);
+            while (body.hasRemaining()) {
+                if (channel.read(body, position + 4 + body.position()) < 0) break;
+            }
+            body.flip();
+            byte[] payload = new byte[length];
+            body.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if (crc.getValue() != body.getLong()) {
+                break;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            position += 4 + length + 8;
+        }
+        if (position < size) {
+            System.out.println("Discarding " + (size - position) + " bytes of incomplete vote log data");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+    }
+
+    private void apply(DataInputStream in) throws IOException, StoreException {
+        byte op = in.readByte();
+        switch (op) {
+            case ELECTION:
+                state.createElection(readString(in));
+                break;
+            case USER:
+                state.registerUser(readString(in), readString(in), readString(in), in.readBoolean());
+                break;
+            case CANDIDATE:
+                state.addCandidate(in.readInt(), readString(in), readString(in), readString(in), readString(in));
+                break;
+            case REMOVE_CANDIDATE:
+                state.removeCandidate(in.readInt());
+                break;
+            case PICKS: {
+                String key = readString(in);
+                int electionId = in.readInt();
+                int count = in.readInt();
+                Map<String, Long> picks = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    picks.put(readString(in), in.readLong());
+                }
+                state.replayPicks(key, electionId, picks);
+                break;
+            }
+            case SEATS:
+                state.setSeats(in.readInt(), readString(in), in.readInt());
+                break;
+            case RESET_VOTES:
+                state.resetVotes(in.readInt());
+                break;
+            case RESET_VOTERS: {
+                int electionId = in.readInt();
+                state.resetVoters(electionId);
+                voterEpochs.merge(electionId, 1, Integer::sum);
+                break;
+            }
+            case CLOSE:
+                state.closeElection(in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown vote log record type " + op);
+        }
+    }
+
+    private void checkUsable() throws StoreException {
+        if (failed) {
+            throw new StoreException("Vote log is unusable after an earlier write failure");
+        }
+    }
+
+    private interface Change<T> {
+        T run() throws StoreException;
+    }
+
+    /**
+     * Runs a change on the in-memory state with its records framed. The state calls {@link #write}
+     * once the change has passed its checks; a change it turns down writes nothing.
+     */
+    private <T> T apply(Change<T> change) throws StoreException {
+        try {
+            return change.run();
+        } finally {
+            framed.reset();
+            markVoter = null;
+        }
+    }
+
+    /** Marks the voters in each election's bitmap of its current voter epoch, clearing stale ones. */
+    private void loadVoterMarks() throws IOException, StoreException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + VOTER_MARKS;
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return;
+        }
+        for (File marksFile : files) {
+            int electionId;
+            try {
+                electionId = Integer.parseInt(marksFile.getName().substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            FileChannel marks = FileChannel.open(marksFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            voterMarks.put(electionId, marks);
+            int epoch = voterEpochs.getOrDefault(electionId, 0);
+            ByteBuffer bitmap = ByteBuffer.allocate((int) marks.size());
+            while (bitmap.hasRemaining()) {
+                if (marks.read(bitmap, bitmap.position()) < 0) break;
+            }
+            bitmap.flip();
+            if (bitmap.remaining() < MARKS_HEADER_BYTES || bitmap.getInt() != epoch) {
+                // Left over from before a logged voter reset (or never finished)
+                clearVoterMarks(marks, epoch);
+                continue;
+            }
+            for (int offset = 0; bitmap.hasRemaining(); offset++) {
+                int bits = bitmap.get() & 0xFF;
+                for (; bits != 0; bits &= bits - 1) {
+                    state.replayVoter(electionId, offset * 8 + Integer.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+    }
+
+    private FileChannel voterMarks(int electionId) throws IOException {
+        FileChannel marks = voterMarks.get(electionId);
+        if (marks == null) {
+            marks = FileChannel.open(new File(file.getPath() + VOTER_MARKS + electionId).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (marks.size() < MARKS_HEADER_BYTES) {
+                clearVoterMarks(marks, voterEpochs.getOrDefault(electionId, 0));
+            }
+            voterMarks.put(electionId, marks);
+        }
+        return marks;
+    }
+
+    private static void clearVoterMarks(FileChannel marks, int epoch) throws IOException {
+        marks.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(MARKS_HEADER_BYTES);
+        header.putInt(epoch).flip();
+        while (header.hasRemaining()) {
+            marks.write(header, header.position());
+        }
+        marks.force(false);
+    }
+
+    /** Sets the voter's bit in place; the bitmap grows as needed, zero-filled. */
+    private void writeVoterMark(int electionId, int userId) throws IOException {
+        if (userId < 0) {
+            throw new IOException("Vote log can't mark user id " + userId);
+        }
+        FileChannel marks = voterMarks(electionId);
+        long offset = MARKS_HEADER_BYTES + userId / 8;
+        ByteBuffer current = ByteBuffer.allocate(1);
+        byte bits = marks.read(current, offset) == 1 ? current.get(0) : 0;
+        ByteBuffer updated = ByteBuffer.allocate(1);
+        updated.put(0, (byte) (bits | (1 << (userId % 8))));
+        while (updated.hasRemaining()) {
+            marks.write(updated, offset);
+        }
+        if (syncEachWrite) {
+            marks.force(false);
+        }
+    }
+
+    private void logElection(byte op, int electionId) throws StoreException {
+        try {
+            begin(op);
+            record.writeInt(electionId);
+            end();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+    }
+
+    private void begin(byte op) throws IOException {
+        bytes.reset();
+        record.writeByte(op);
+    }
+
+    private void writeString(String value) throws IOException {
+        record.writeBoolean(value != null);
+        if (value != null) {
+            // Throws for strings over 64KB of modified UTF-8, before anything is applied
+            record.writeUTF(value);
+        }
+    }
+
+    /** A record that couldn't be built; nothing was written or applied, so the store stays usable. */
+    private StoreException invalid(IOException e) {
+        framed.reset();
+        return new StoreException(e);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Frames the record built since {@link #begin} (length, payload, CRC32) for the next {@link #write}. */
+    private void end() throws IOException {
+        byte[] payload = bytes.toByteArray();
+        if (payload.length > MAX_RECORD_BYTES) {
+            // Replay would stop at it and drop everything after it
+            throw new IOException("Vote log record of " + payload.length + " bytes is over the limit");
+        }
+        crc.reset();
+        crc.update(payload);
+        DataOutputStream out = new DataOutputStream(framed);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(crc.getValue());
+    }
+
+    /**
+     * Marks the current ballot's voter, then appends the records framed for the current change
+     * as one write. A failed write may leave part of a record in the file, so the store refuses
+     * further changes; the change itself was not applied, so memory still matches what a replay
+     * would load, bar a voter mark written before the failure.
+     */
+    private void write() throws StoreException {
+        try {
+            if (markVoter != null) {
+                writeVoterMark(markVoter[0], markVoter[1]);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(framed.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (syncEachWrite) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw new StoreException(e);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Who did what to the election, and when: admin logins, candidate changes, resets and new
+ * elections, from the dashboard and from AdminCli.
+ *
+ * {@link #record} only copies the entry into a fixed-size ring under a short lock, so the
+ * caller never waits on the database. A background writer wakes once a batch has built up
+ * (or every second) and inserts everything pending in one transaction on its own connection.
+ * Entries leave the ring only after their transaction commits, so a busy database delays
+ * them rather than losing them. If the ring fills up anyway, new entries are counted and
+ * dropped, and the writer records how many were lost.
+ */
+public class AuditLog implements AutoCloseable {
+    public static final String ADMIN_LOGIN = "ADMIN_LOGIN";
+    public static final String CANDIDATE_ADD = "CANDIDATE_ADD";
+    public static final String CANDIDATE_REMOVE = "CANDIDATE_REMOVE";
+    public static final String CANDIDATE_IMPORT = "CANDIDATE_IMPORT";
+    public static final String POSITION_SEATS = "POSITION_SEATS";
+    public static final String BALLOT_PUBLISH = "BALLOT_PUBLISH";
+    public static final String VOTER_IMPORT = "VOTER_IMPORT";
+    public static final String RESET_VOTES = "RESET_VOTES";
+    public static final String RESET_VOTERS = "RESET_VOTERS";
+    public static final String ELECTION_CLOSE = "ELECTION_CLOSE";
+    public static final String NEW_ELECTION = "NEW_ELECTION";
+    public static final String ANOMALY = "ANOMALY";
+    public static final String ENTRIES_DROPPED = "ENTRIES_DROPPED";
+    public static final String BALLOT_DISCARDED = "BALLOT_DISCARDED";
+    public static final String BALLOT_SET_ASIDE = "BALLOT_SET_ASIDE";
+    public static final String BALLOT_AFTER_CLOSE = "BALLOT_AFTER_CLOSE";
+    public static final String[] ACTIONS = { ADMIN_LOGIN, CANDIDATE_ADD, CANDIDATE_REMOVE, CANDIDATE_IMPORT,
+            POSITION_SEATS, BALLOT_PUBLISH, VOTER_IMPORT, RESET_VOTES, RESET_VOTERS, ELECTION_CLOSE, NEW_ELECTION,
+            ANOMALY, ENTRIES_DROPPED, BALLOT_DISCARDED, BALLOT_SET_ASIDE, BALLOT_AFTER_CLOSE };
+
+    private static final int CAPACITY = 4096;
+    private static final int BATCH = 64;
+    private static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    public static final class Entry {
+        public final long atMillis;
+        public final String actor;
+        public final String action;
+        public final String details;
+
+        Entry(long atMillis, String actor, String action, String details) {
+            this.atMillis = atMillis;
+            this.actor = actor;
+            this.action = action;
+            this.details = details;
+        }
+    }
+
+    private final String dbUrl;
+    private final Entry[] ring = new Entry[CAPACITY];
+    // Positions only grow; slot = position % CAPACITY. Only the writer advances tail.
+    private long head;
+    private long tail;
+    private long dropped;
+    private boolean closed;
+    private Thread writer;
+    private Connection conn;
+
+    public AuditLog(String dbUrl) {
+        this.dbUrl = dbUrl;
+    }
+
+    public static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS audit_log (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "at INTEGER NOT NULL," +
+                "actor TEXT NOT NULL," +
+                "action TEXT NOT NULL," +
+                "details TEXT)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_at ON audit_log (at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_action ON audit_log (action, at)");
+    }
+
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Queues an entry stamped with the current time. Never blocks on the database. */
+    public synchronized void record(String actor, String action, String details) {
+        if (closed) {
+            return;
+        }
+        if (head - tail == CAPACITY) {
+            dropped++;
+            return;
+        }
+        ring[(int) (head % CAPACITY)] = new Entry(System.currentTimeMillis(), actor, action, details);
+        head++;
+        if (head - tail >= BATCH) {
+            notifyAll();
+        }
+    }
+
+    /** Waits until everything recorded so far is in the database; false if that took too long. */
+    public synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+        long target = head;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        notifyAll();
+        while (tail < target) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || writer == null) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /** Writes what is still pending (for up to five seconds) and stops the writer. */
+    @Override
+    public void close() {
+        try {
+            flush(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Thread stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = writer;
+            notifyAll();
+        }
+        if (stopped != null) {
+            try {
+                stopped.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Entry> batch = new ArrayList<>();
+            long lost;
+            synchronized (this) {
+                try {
+                    while (!closed && head - tail < BATCH) {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                        if (head > tail || dropped > 0) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed && head == tail && dropped == 0) {
+                    closeConnection();
+                    return;
+                }
+                for (long i = tail; i < head; i++) {
+                    batch.add(ring[(int) (i % CAPACITY)]);
+                }
+                lost = dropped;
+            }
+
+            // The ring is left as it is while writing, so records keep going into free slots
+            try {
+                insert(batch, lost);
+            } catch (SQLException e) {
+                System.out.println("Audit log write failed, will retry: " + e.getMessage());
+                closeConnection();
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                for (long i = tail; i < tail + batch.size(); i++) {
+                    ring[(int) (i % CAPACITY)] = null;
+                }
+                tail += batch.size();
+                dropped -= lost;
+                notifyAll();
+            }
+        }
+    }
+
+    private void insert(List<Entry> batch, long lost) throws SQLException {
+        if (conn == null) {
+            conn = DriverManager.getConnection(dbUrl);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = 1000");
+            }
+        }
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO audit_log (at, actor, action, details) VALUES (?, ?, ?, ?)")) {
+            for (Entry entry : batch) {
+                addRow(pstmt, entry);
+            }
+            if (lost > 0) {
+                addRow(pstmt, new Entry(System.currentTimeMillis(), "system", ENTRIES_DROPPED,
+                        lost + " entries lost while the audit buffer was full"));
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void addRow(PreparedStatement pstmt, Entry entry) throws SQLException {
+        pstmt.setLong(1, entry.atMillis);
+        pstmt.setString(2, entry.actor);
+        pstmt.setString(3, entry.action);
+        pstmt.setString(4, entry.details);
+        pstmt.addBatch();
+    }
+
+    private void closeConnection() {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+            conn = null;
+        }
+    }
+
+    /**
+     * The newest entries matching every filter given: {@code action} exactly, {@code text}
+     * anywhere in the actor or details, and times from {@code sinceMillis} on. Null or 0
+     * leaves a filter out.
+     */
+    public static List<Entry> query(Connection conn, String action, String text, long sinceMillis, int limit)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(querySql(action != null, text != null))) {
+            int i = 1;
+            pstmt.setLong(i++, sinceMillis);
+            if (action != null) {
+                pstmt.setString(i++, action);
+            }
+            if (text != null) {
+                String pattern = "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+                pstmt.setString(i++, pattern);
+                pstmt.setString(i++, pattern);
+            }
+            pstmt.setInt(i, limit);
+
+            List<Entry> entries = new ArrayList<>();
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                entries.add(new Entry(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+            return entries;
+        }
+    }
+
+    /** The SQL {@link #query} runs for the filters given; QueryPlanCheck checks its plan. */
+    static String querySql(boolean byAction, boolean byText) {
+        StringBuilder sql = new StringBuilder("SELECT at, actor, action, details FROM audit_log WHERE at >= ?");
+        if (byAction) {
+            sql.append(" AND action = ?");
+        }
+        if (byText) {
+            sql.append(" AND (actor LIKE ? ESCAPE '\\' OR details LIKE ? ESCAPE '\\')");
+        }
+        sql.append(" ORDER BY at DESC, id DESC LIMIT ?");
+        return sql.toString();
+    }
+}
@@ -0,0 +1,373 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A published ballot: the election's positions, seats, candidates with their role text, and
+ * photo thumbnails already scaled for the voting window, in one read-only file. Kiosks map
+ * the newest bundle into memory and build the voting window from it, so showing the ballot
+ * reads neither the database nor candidate_images/. Each bundle records the election's ballot
+ * revision ({@link VoteStore#ballotRevision}) it was compiled from; once a candidate or seat
+ * change has bumped it, kiosks build the ballot from the database until an admin publishes again.
+ *
+ * Every publish writes a new file, {@code ballot-<version>.bin}, in the bundle folder
+ * (-Dballot.dir, default "ballot"), and kiosks switch to the highest version at their next
+ * login. Old versions are never overwritten, because Windows won't replace a file another
+ * process has mapped; they are deleted by later publishes once no kiosk holds them.
+ *
+ * The file is a header (magic, format, version, election, ballot revision, the body's length and SHA-256)
+ * followed by the body: the positions with their candidates, then the thumbnails as PNG.
+ * Strings are decoded from the mapping when asked for; thumbnails are returned as read-only
+ * slices of it and only decoded by the window that shows them.
+ */
+public class BallotBundle {
+    public static final String DIR = System.getProperty("ballot.dir", "ballot");
+    private static final int MAGIC = 0x42414C42; // "BALB"
+    private static final short FORMAT = 2;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 4 + 8 + 8 + 4 + 32;
+    private static final int THUMBNAIL_SIZE = 250;
+    private static final int KEEP = 2;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final long version;
+    private final int electionId;
+    private final long ballotRevision;
+    private final long publishedAtMillis;
+    // Candidate id to the position of its record in the mapping
+    private final Map<Integer, Integer> records = new LinkedHashMap<>();
+    private final Map<Integer, String> positions = new HashMap<>();
+    private final Map<String, Integer> seats = new LinkedHashMap<>();
+    private final int imagesStart;
+
+    private BallotBundle(File file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+            throw new IOException(file + " is not a ballot bundle");
+        }
+        if (in.getShort() != FORMAT) {
+            throw new IOException(file + " was written by a different version of the system");
+        }
+        version = in.getLong();
+        electionId = in.getInt();
+        ballotRevision = in.getLong();
+        publishedAtMillis = in.getLong();
+        int bodyLength = in.getInt();
+        byte[] expected = new byte[32];
+        in.get(expected);
+        if (in.remaining() != bodyLength) {
+            throw new IOException(file + " is truncated");
+        }
+        MessageDigest digest = sha256();
+        digest.update(in.duplicate());
+        if (!MessageDigest.isEqual(expected, digest.digest())) {
+            throw new IOException(file + " does not match its checksum");
+        }
+
+        // Only offsets and the few position names are kept; candidate names and role text stay in the mapping
+        int metaLength = in.getInt();
+        imagesStart = in.position() + metaLength;
+        int positionCount = in.getInt();
+        for (int p = 0; p < positionCount; p++) {
+            String position = readString(in);
+            seats.put(position, in.getInt());
+            int candidates = in.getInt();
+            for (int c = 0; c < candidates; c++) {
+                int record = in.position();
+                int candidateId = in.getInt();
+                records.put(candidateId, record);
+                positions.put(candidateId, position);
+                skipString(in);
+                skipString(in);
+                skipString(in);
+                in.position(in.position() + 8);
+            }
+        }
+    }
+
+    /** The newest bundle in {@code dir}, or null if none has been published. */
+    public static File latest(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("ballot-") && name.endsWith(".bin"));
+        File latest = null;
+        if (files != null) {
+            for (File file : files) {
+                if (latest == null || file.getName().compareTo(latest.getName()) > 0) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /** Maps a bundle read-only and checks its checksum. */
+    public static BallotBundle open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new BallotBundle(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int electionId() {
+        return electionId;
+    }
+
+    /** The election's ballot revision when this bundle was compiled. */
+    public long ballotRevision() {
+        return ballotRevision;
+    }
+
+    public long publishedAtMillis() {
+        return publishedAtMillis;
+    }
+
+    /** Candidates ordered by position, then name, as VoteStore.candidates returns them. */
+    public List<VoteStore.Candidate> candidates() {
+        List<VoteStore.Candidate> candidates = new ArrayList<>();
+        ByteBuffer in = buffer.duplicate();
+        for (Map.Entry<Integer, Integer> record : records.entrySet()) {
+            in.position(record.getValue() + 4);
+            String name = readString(in);
+            String role = readString(in);
+            String imagePath = readString(in);
+            candidates.add(new VoteStore.Candidate(record.getKey(), electionId, name, positions.get(record.getKey()),
+                    role, imagePath));
+        }
+        return candidates;
+    }
+
+    public Map<String, Integer> seats() {
+        return new LinkedHashMap<>(seats);
+    }
+
+    /** The candidate's PNG thumbnail as a read-only view of the mapping, or null if it has none. */
+    public ByteBuffer thumbnail(int candidateId) {
+        Integer record = records.get(candidateId);
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(record + 4);
+        skipString(in);
+        skipString(in);
+        skipString(in);
+        int offset = in.getInt();
+        int length = in.getInt();
+        if (length == 0) {
+            return null;
+        }
+        ByteBuffer image = buffer.duplicate();
+        image.position(imagesStart + offset).limit(imagesStart + offset + length);
+        return image.slice().asReadOnlyBuffer();
+    }
+
+    /** Decodes a thumbnail straight from the mapping; null if the candidate has none. */
+    public BufferedImage thumbnailImage(int candidateId) throws IOException {
+        ByteBuffer image = thumbnail(candidateId);
+        return image == null ? null : ImageIO.read(new ByteBufferInputStream(image));
+    }
+
+    /**
+     * Writes the election's current ballot as the next version in {@code dir} and deletes
+     * versions older than the previous one. Returns the new bundle's file.
+     */
+    public static File publish(VoteStore store, int electionId, File dir) throws VoteStore.StoreException, IOException {
+        // Read first, so a change made while compiling leaves the bundle stale rather than wrongly current
+        long ballotRevision = store.ballotRevision(electionId);
+        List<VoteStore.Candidate> candidates = store.candidates(electionId);
+        Map<String, Integer> seats = store.seats(electionId);
+        Map<String, List<VoteStore.Candidate>> byPosition = new LinkedHashMap<>();
+        for (VoteStore.Candidate candidate : candidates) {
+            byPosition.computeIfAbsent(candidate.position, k -> new ArrayList<>()).add(candidate);
+        }
+
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream images = new ByteArrayOutputStream();
+        DataOutputStream meta = new DataOutputStream(metaBytes);
+        meta.writeInt(byPosition.size());
+        for (Map.Entry<String, List<VoteStore.Candidate>> position : byPosition.entrySet()) {
+            writeString(meta, position.getKey());
+            meta.writeInt(VoteStore.seatsFor(seats, position.getKey()));
+            meta.writeInt(position.getValue().size());
+            for (VoteStore.Candidate candidate : position.getValue()) {
+                byte[] thumbnail = thumbnail(candidate.imagePath);
+                meta.writeInt(candidate.id);
+                writeString(meta, candidate.name);
+                writeString(meta, candidate.role);
+                writeString(meta, candidate.imagePath);
+                meta.writeInt(images.size());
+                meta.writeInt(thumbnail.length);
+                images.write(thumbnail);
+            }
+        }
+        meta.flush();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeInt(metaBytes.size());
+        metaBytes.writeTo(bodyOut);
+        images.writeTo(bodyOut);
+        bodyOut.flush();
+        byte[] bodyBytes = body.toByteArray();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        long version = 1;
+        File previous = latest(dir);
+        if (previous != null) {
+            version = versionOf(previous) + 1;
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeShort(FORMAT);
+        headerOut.writeLong(version);
+        headerOut.writeInt(electionId);
+        headerOut.writeLong(ballotRevision);
+        headerOut.writeLong(System.currentTimeMillis());
+        headerOut.writeInt(bodyBytes.length);
+        headerOut.write(sha256().digest(bodyBytes));
+        headerOut.flush();
+
+        File file = new File(dir, String.format("ballot-%06d.bin", version));
+        File partial = new File(dir, file.getName() + ".partial");
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            header.writeTo(out);
+            out.write(bodyBytes);
+            out.getFD().sync();
+        }
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        removeOldVersions(dir);
+        return file;
+    }
+
+    private static void removeOldVersions(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("ballot-") && name.endsWith(".bin"));
+        if (files == null || files.length <= KEEP) {
+            return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - KEEP; i++) {
+            // Fails on Windows while a kiosk still has it mapped; the next publish tries again
+            files[i].delete();
+        }
+    }
+
+    private static long versionOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring("ballot-".length(), name.length() - ".bin".length()));
+    }
+
+    /** The photo scaled to fit the voting window's image area, as PNG; empty if there is no readable photo. */
+    private static byte[] thumbnail(String imagePath) throws IOException {
+        if (imagePath == null || imagePath.isEmpty() || !new File(imagePath).isFile()) {
+            return new byte[0];
+        }
+        BufferedImage source = ImageIO.read(new File(imagePath));
+        if (source == null) {
+            return new byte[0];
+        }
+        int width = THUMBNAIL_SIZE;
+        int height = THUMBNAIL_SIZE;
+        if (source.getWidth() > source.getHeight()) {
+            height = Math.max(1, THUMBNAIL_SIZE * source.getHeight() / source.getWidth());
+        } else {
+            width = Math.max(1, THUMBNAIL_SIZE * source.getWidth() / source.getHeight());
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(scaled, "png", png);
+        return png.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Strings are a length (-1 for null) and UTF-8 bytes
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length > 0) {
+            in.position(in.position() + length);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
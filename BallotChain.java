@@ -0,0 +1,501 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Incremental Merkle tree over the ballots of one election, for tamper-evidence.
+ *
+ * Every recorded ballot becomes the next leaf of a fixed-depth SHA-256 tree padded with
+ * empty subtrees. Only the right-hand frontier (one hash per level) is needed to append a
+ * leaf and recompute the root, so an append costs O(depth) hashes and writes the handful of
+ * subtrees it completes. Completed subtrees are kept in ballot_tree_nodes, which is enough
+ * to build an O(depth) inclusion proof for any ballot.
+ *
+ * The chain belongs to one vote epoch of the election (see resetAllVotes): after a reset the
+ * ballots of the new epoch start a fresh tree, and nodes left over from the old one are
+ * either overwritten or removed by the epoch compactor.
+ *
+ * The root is only as trustworthy as the copy kept outside the database: anyone who can edit
+ * the file can also rebuild the tree, so admins should record the root shown on the
+ * dashboard (e.g. when printing results) and compare it with later audits.
+ */
+public class BallotChain {
+    static final int DEPTH = 32;
+    private static final int HASH_LENGTH = 32;
+    private static final int AUDIT_CHUNK_LEVEL = 12;
+    // Expands a ballot's picks into one row per picked candidate (c.candidate_id), or one
+    // null row for a ballot without picks
+    private static final String PICKED_CANDIDATES =
+            "LEFT JOIN ballot_picks p ON p.ballot_id = b.id " +
+            "LEFT JOIN candidate_slots c ON c.election_id = b.election_id AND c.position = p.position " +
+            "AND (p.picks >> c.slot) & 1 = 1 ";
+    private static final byte[][] ZERO = new byte[DEPTH + 1][];
+
+    static {
+        ZERO[0] = new byte[HASH_LENGTH];
+        MessageDigest digest = newDigest();
+        for (int h = 0; h < DEPTH; h++) {
+            ZERO[h + 1] = hashNode(digest, ZERO[h], ZERO[h]);
+        }
+    }
+
+    private final Connection conn;
+    private final int electionId;
+    private final int epoch;
+    private final MessageDigest digest = newDigest();
+    private final byte[][] frontier = new byte[DEPTH][];
+    private long size;
+    private byte[] root;
+
+    public BallotChain(Connection conn, int electionId, int epoch) throws SQLException {
+        this.conn = conn;
+        this.electionId = electionId;
+        this.epoch = epoch;
+        reload();
+        backfill();
+    }
+
+    public static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS ballot_chain (" +
+                "election_id INTEGER PRIMARY KEY," +
+                "leaf_count INTEGER NOT NULL," +
+                "frontier BLOB NOT NULL," +
+                "root TEXT NOT NULL," +
+                "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                "epoch INTEGER NOT NULL DEFAULT 0)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS ballot_tree_nodes (" +
+                "election_id INTEGER NOT NULL," +
+                "level INTEGER NOT NULL," +
+                "idx INTEGER NOT NULL," +
+                "hash BLOB NOT NULL," +
+                "PRIMARY KEY (election_id, level, idx)) WITHOUT ROWID");
+
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_ballots_chain ON ballots (election_id, chain_index)");
+    }
+
+    /** Re-reads the persisted frontier, e.g. after the transaction holding an append rolled back. */
+    public void reload() throws SQLException {
+        Arrays.fill(frontier, null);
+        size = 0;
+        PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT leaf_count, frontier FROM ballot_chain WHERE election_id = ? AND epoch = ?");
+        pstmt.setInt(1, electionId);
+        pstmt.setInt(2, epoch);
+        ResultSet rs = pstmt.executeQuery();
+        if (rs.next()) {
+            size = rs.getLong("leaf_count");
+            byte[] packed = rs.getBytes("frontier");
+            for (int h = 0; h < DEPTH; h++) {
+                if (((size >>> h) & 1) == 1) {
+                    frontier[h] = Arrays.copyOfRange(packed, h * HASH_LENGTH, (h + 1) * HASH_LENGTH);
+                }
+            }
+        }
+        root = computeRoot(null);
+    }
+
+    /** Appends ballots recorded before the chain existed, in ballot order. */
+    private void backfill() throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT b.id, c.candidate_id FROM ballots b " + PICKED_CANDIDATES +
+                "WHERE b.election_id = ? AND b.epoch = ? AND b.chain_index IS NULL ORDER BY b.id");
+        pstmt.setInt(1, electionId);
+        pstmt.setInt(2, epoch);
+        ResultSet rs = pstmt.executeQuery();
+
+        List<Long> pending = new ArrayList<>();
+        List<int[]> choices = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        long currentId = -1;
+        while (true) {
+            boolean more = rs.next();
+            long id = more ? rs.getLong(1) : -2;
+            if (id != currentId && currentId >= 0) {
+                pending.add(currentId);
+                choices.add(current.stream().mapToInt(Integer::intValue).toArray());
+                current.clear();
+            }
+            if (!more) break;
+            currentId = id;
+            int candidateId = rs.getInt(2);
+            if (!rs.wasNull()) current.add(candidateId);
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < pending.size(); i++) {
+                append(pending.get(i), choices.get(i));
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            reload();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Adds a recorded ballot as the next leaf and persists the new frontier and root. Runs in
+     * the caller's transaction; call {@link #reload()} if that transaction is rolled back.
+     */
+    public long append(long ballotId, int[] candidateIds) throws SQLException {
+        long index = size;
+        byte[] node = hashLeaf(digest, leafData(electionId, ballotId, candidateIds));
+
+        PreparedStatement nodeStmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO ballot_tree_nodes (election_id, level, idx, hash) VALUES (?, ?, ?, ?)");
+        writeNode(nodeStmt, 0, index, node);
+
+        // Carry up through every subtree this leaf completes
+        long position = index;
+        int h = 0;
+        while ((position & 1) == 1) {
+            node = hashNode(digest, frontier[h], node);
+            frontier[h] = null;
+            position >>>= 1;
+            h++;
+            writeNode(nodeStmt, h, position, node);
+        }
+        frontier[h] = node;
+        size = index + 1;
+        root = computeRoot(null);
+
+        byte[] packed = new byte[DEPTH * HASH_LENGTH];
+        for (int level = 0; level < DEPTH; level++) {
+            if (frontier[level] != null) {
+                System.arraycopy(frontier[level], 0, packed, level * HASH_LENGTH, HASH_LENGTH);
+            }
+        }
+        PreparedStatement chainStmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO ballot_chain (election_id, epoch, leaf_count, frontier, root, updated_at) " +
+                "VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)");
+        chainStmt.setInt(1, electionId);
+        chainStmt.setInt(2, epoch);
+        chainStmt.setLong(3, size);
+        chainStmt.setBytes(4, packed);
+        chainStmt.setString(5, toHex(root));
+        chainStmt.executeUpdate();
+
+        PreparedStatement ballotStmt = conn.prepareStatement("UPDATE ballots SET chain_index = ? WHERE id = ?");
+        ballotStmt.setLong(1, index);
+        ballotStmt.setLong(2, ballotId);
+        ballotStmt.executeUpdate();
+        return index;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public String rootHex() {
+        return toHex(root);
+    }
+
+    /** Sibling hashes from the leaf up to the root, one per level. */
+    public byte[][] proof(long index) throws SQLException {
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("No ballot at chain index " + index);
+        }
+        byte[][] edge = new byte[DEPTH][];
+        computeRoot(edge);
+
+        PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT hash FROM ballot_tree_nodes WHERE election_id = ? AND level = ? AND idx = ?");
+        byte[][] proof = new byte[DEPTH][];
+        for (int h = 0; h < DEPTH; h++) {
+            long sibling = (index >>> h) ^ 1;
+            long boundary = size >>> h;
+            if (sibling < boundary) {
+                pstmt.setInt(1, electionId);
+                pstmt.setInt(2, h);
+                pstmt.setLong(3, sibling);
+                ResultSet rs = pstmt.executeQuery();
+                if (!rs.next()) {
+                    throw new SQLException("Missing tree node " + h + "/" + sibling);
+                }
+                proof[h] = rs.getBytes(1);
+            } else if (sibling == boundary) {
+                proof[h] = edge[h];
+            } else {
+                proof[h] = ZERO[h];
+            }
+        }
+        return proof;
+    }
+
+    /** Checks a ballot's contents against a root using its inclusion proof. */
+    public static boolean verify(int electionId, long ballotId, int[] candidateIds, long index,
+                                 byte[][] proof, String rootHex) {
+        MessageDigest digest = newDigest();
+        byte[] node = hashLeaf(digest, leafData(electionId, ballotId, candidateIds));
+        for (int h = 0; h < DEPTH; h++) {
+            node = ((index >>> h) & 1) == 1 ? hashNode(digest, proof[h], node) : hashNode(digest, node, proof[h]);
+        }
+        return toHex(node).equals(rootHex);
+    }
+
+    /** Looks up a recorded ballot and verifies it against the current root. */
+    public boolean verifyBallot(long ballotId) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT b.chain_index, c.candidate_id FROM ballots b " + PICKED_CANDIDATES +
+                "WHERE b.id = ? AND b.election_id = ? AND b.epoch = ?");
+        pstmt.setLong(1, ballotId);
+        pstmt.setInt(2, electionId);
+        pstmt.setInt(3, epoch);
+        ResultSet rs = pstmt.executeQuery();
+
+        long index = -1;
+        List<Integer> choices = new ArrayList<>();
+        while (rs.next()) {
+            index = rs.getLong(1);
+            if (rs.wasNull()) {
+                return false;
+            }
+            int candidateId = rs.getInt(2);
+            if (!rs.wasNull()) choices.add(candidateId);
+        }
+        if (index < 0 || index >= size) {
+            return false;
+        }
+        return verify(electionId, ballotId, choices.stream().mapToInt(Integer::intValue).toArray(),
+                index, proof(index), rootHex());
+    }
+
+    /**
+     * Rebuilds the whole tree from the recorded ballots, in parallel over aligned subtrees
+     * each read on its own connection, and compares it with the stored leaves and root.
+     */
+    public static AuditResult audit(String dbUrl, int electionId, int epoch) throws SQLException {
+        AuditResult result = new AuditResult();
+        try (Connection c = DriverManager.getConnection(dbUrl)) {
+            ResultSet rs = c.createStatement().executeQuery(
+                    "SELECT leaf_count, root FROM ballot_chain WHERE election_id = " + electionId + " AND epoch = " + epoch);
+            if (rs.next()) {
+                result.leafCount = rs.getLong(1);
+                result.storedRoot = rs.getString(2);
+            } else {
+                result.storedRoot = toHex(ZERO[DEPTH]);
+            }
+        }
+
+        byte[] rebuilt = ForkJoinPool.commonPool().invoke(
+                new SubtreeTask(dbUrl, electionId, epoch, result.leafCount, DEPTH, 0, result));
+        result.rebuiltRoot = toHex(rebuilt);
+        return result;
+    }
+
+    public static class AuditResult {
+        private long leafCount;
+        private String storedRoot;
+        private String rebuiltRoot;
+        private final List<String> problems = new ArrayList<>();
+
+        private synchronized void problem(String message) {
+            problems.add(message);
+        }
+
+        public boolean isIntact() {
+            return problems.isEmpty() && storedRoot.equals(rebuiltRoot);
+        }
+
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Ballots in chain: ").append(leafCount).append("\n");
+            sb.append("Stored root:  ").append(storedRoot).append("\n");
+            sb.append("Rebuilt root: ").append(rebuiltRoot).append("\n\n");
+            if (isIntact()) {
+                sb.append("Ballot chain intact.\n");
+            } else {
+                if (!storedRoot.equals(rebuiltRoot)) {
+                    sb.append("Root mismatch: recorded ballots do not match the stored chain.\n");
+                }
+                List<String> shown = problems.subList(0, Math.min(problems.size(), 50));
+                for (String p : shown) {
+                    sb.append("  - ").append(p).append("\n");
+                }
+                if (problems.size() > shown.size()) {
+                    sb.append("  ... and ").append(problems.size() - shown.size()).append(" more\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class SubtreeTask extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final String dbUrl;
+        private final int electionId;
+        private final int epoch;
+        private final long leafCount;
+        private final int level;
+        private final long index;
+        private final AuditResult result;
+
+        SubtreeTask(String dbUrl, int electionId, int epoch, long leafCount, int level, long index, AuditResult result) {
+            this.dbUrl = dbUrl;
+            this.electionId = electionId;
+            this.epoch = epoch;
+            this.leafCount = leafCount;
+            this.level = level;
+            this.index = index;
+            this.result = result;
+        }
+
+        @Override
+        protected byte[] compute() {
+            long first = index << level;
+            if (first >= leafCount) {
+                return ZERO[level];
+            }
+            if (level <= AUDIT_CHUNK_LEVEL) {
+                return buildChunk(first, Math.min(leafCount, first + (1L << level)));
+            }
+            SubtreeTask left = new SubtreeTask(dbUrl, electionId, epoch, leafCount, level - 1, index * 2, result);
+            left.fork();
+            byte[] right = new SubtreeTask(dbUrl, electionId, epoch, leafCount, level - 1, index * 2 + 1, result).compute();
+            return hashNode(newDigest(), left.join(), right);
+        }
+
+        private byte[] buildChunk(long from, long to) {
+            MessageDigest digest = newDigest();
+            byte[][] leaves = new byte[1 << level][];
+            Arrays.fill(leaves, ZERO[0]);
+
+            try (Connection c = DriverManager.getConnection(dbUrl)) {
+                PreparedStatement stored = c.prepareStatement(
+                        "SELECT idx, hash FROM ballot_tree_nodes WHERE election_id = ? AND level = 0 AND idx BETWEEN ? AND ?");
+                stored.setInt(1, electionId);
+                stored.setLong(2, from);
+                stored.setLong(3, to - 1);
+                byte[][] storedLeaves = new byte[leaves.length][];
+                ResultSet rs = stored.executeQuery();
+                while (rs.next()) {
+                    storedLeaves[(int) (rs.getLong(1) - from)] = rs.getBytes(2);
+                }
+
+                PreparedStatement ballots = c.prepareStatement(
+                        "SELECT b.id, b.chain_index, c.candidate_id FROM ballots b " + PICKED_CANDIDATES +
+                        "WHERE b.election_id = ? AND b.epoch = ? AND b.chain_index BETWEEN ? AND ? ORDER BY b.chain_index");
+                ballots.setInt(1, electionId);
+                ballots.setInt(2, epoch);
+                ballots.setLong(3, from);
+                ballots.setLong(4, to - 1);
+                rs = ballots.executeQuery();
+
+                long ballotId = -1;
+                long chainIndex = -1;
+                List<Integer> choices = new ArrayList<>();
+                while (true) {
+                    boolean more = rs.next();
+                    long id = more ? rs.getLong(1) : -2;
+                    if (id != ballotId && ballotId >= 0) {
+                        int slot = (int) (chainIndex - from);
+                        leaves[slot] = hashLeaf(digest, leafData(electionId, ballotId,
+                                choices.stream().mapToInt(Integer::intValue).toArray()));
+                        if (storedLeaves[slot] == null || !Arrays.equals(storedLeaves[slot], leaves[slot])) {
+                            result.problem("Ballot #" + ballotId + " (chain index " + chainIndex + ") was altered");
+                        }
+                        choices.clear();
+                    }
+                    if (!more) break;
+                    ballotId = id;
+                    chainIndex = rs.getLong(2);
+                    int candidateId = rs.getInt(3);
+                    if (!rs.wasNull()) choices.add(candidateId);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Audit of chain indexes " + from + "-" + to + " failed", e);
+            }
+
+            for (long i = from; i < to; i++) {
+                if (leaves[(int) (i - from)] == ZERO[0]) {
+                    result.problem("Ballot at chain index " + i + " is missing");
+                }
+            }
+
+            for (int width = leaves.length; width > 1; width /= 2) {
+                for (int i = 0; i < width / 2; i++) {
+                    leaves[i] = hashNode(digest, leaves[2 * i], leaves[2 * i + 1]);
+                }
+            }
+            return leaves[0];
+        }
+    }
+
+    /** Root of the current tree; optionally captures the partial right-edge node at each level. */
+    private byte[] computeRoot(byte[][] edge) {
+        byte[] node = ZERO[0];
+        for (int h = 0; h < DEPTH; h++) {
+            if (edge != null) {
+                edge[h] = node;
+            }
+            node = ((size >>> h) & 1) == 1 ? hashNode(digest, frontier[h], node) : hashNode(digest, node, ZERO[h]);
+        }
+        return node;
+    }
+
+    private void writeNode(PreparedStatement pstmt, int level, long index, byte[] hash) throws SQLException {
+        pstmt.setInt(1, electionId);
+        pstmt.setInt(2, level);
+        pstmt.setLong(3, index);
+        pstmt.setBytes(4, hash);
+        pstmt.executeUpdate();
+    }
+
+    private static byte[] leafData(int electionId, long ballotId, int[] candidateIds) {
+        int[] sorted = candidateIds.clone();
+        Arrays.sort(sorted);
+        StringBuilder sb = new StringBuilder();
+        sb.append(electionId).append(':').append(ballotId).append(':');
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(sorted[i]);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hashLeaf(MessageDigest digest, byte[] data) {
+        digest.update((byte) 0);
+        return digest.digest(data);
+    }
+
+    private static byte[] hashNode(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update((byte) 1);
+        digest.update(left);
+        return digest.digest(right);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,353 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The final results of a closed election, computed once and never changed afterwards.
+ *
+ * {@link #close} closes the election in the store and computes the rankings per position,
+ * the turnout and a SHA-256 checksum in the same transaction, so the record covers exactly
+ * the ballots the close let in. Triggers refuse any update or delete of the stored rows.
+ * The results tab, {@code AdminCli tally} and the results export read the record as it is
+ * instead of recounting; {@link #verify} recomputes the checksum and, while the election's
+ * ballots are still in the live tables, compares the record with the store's tally.
+ */
+public class CertifiedResults {
+    public static final String ELECTED = "ELECTED";
+    public static final String TIED = "TIED";
+
+    public static final class Ranking {
+        public final String position;
+        public final int seats;
+        public final int rank;
+        public final int candidateId;
+        public final String name;
+        public final String role;
+        public final long votes;
+        // ELECTED, TIED for the last seat, or null
+        public final String outcome;
+
+        Ranking(String position, int seats, int rank, int candidateId, String name, String role, long votes,
+                String outcome) {
+            this.position = position;
+            this.seats = seats;
+            this.rank = rank;
+            this.candidateId = candidateId;
+            this.name = name;
+            this.role = role;
+            this.votes = votes;
+            this.outcome = outcome;
+        }
+    }
+
+    public final int electionId;
+    public final String electionName;
+    public final String closedAt;
+    public final long ballots;
+    public final long registeredVoters;
+    public final String chainRoot;
+    public final long certifiedAtMillis;
+    public final String checksum;
+    // By position, then rank, then name
+    public final List<Ranking> rankings;
+
+    private CertifiedResults(int electionId, String electionName, String closedAt, long ballots,
+                             long registeredVoters, String chainRoot, long certifiedAtMillis, String checksum,
+                             List<Ranking> rankings) {
+        this.electionId = electionId;
+        this.electionName = electionName;
+        this.closedAt = closedAt;
+        this.ballots = ballots;
+        this.registeredVoters = registeredVoters;
+        this.chainRoot = chainRoot;
+        this.certifiedAtMillis = certifiedAtMillis;
+        this.checksum = checksum;
+        this.rankings = Collections.unmodifiableList(rankings);
+    }
+
+    public static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS certified_results (" +
+                "election_id INTEGER PRIMARY KEY," +
+                "election_name TEXT NOT NULL," +
+                "closed_at TEXT NOT NULL," +
+                "ballots INTEGER NOT NULL," +
+                "registered_voters INTEGER NOT NULL," +
+                "chain_root TEXT," +
+                "certified_at INTEGER NOT NULL," +
+                "checksum TEXT NOT NULL)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS certified_rankings (" +
+                "election_id INTEGER NOT NULL," +
+                "position TEXT NOT NULL," +
+                "seats INTEGER NOT NULL," +
+                "rank INTEGER NOT NULL," +
+                "candidate_id INTEGER NOT NULL," +
+                "name TEXT NOT NULL," +
+                "role TEXT," +
+                "votes INTEGER NOT NULL," +
+                "outcome TEXT," +
+                "PRIMARY KEY (election_id, candidate_id))");
+        for (String table : new String[] { "certified_results", "certified_rankings" }) {
+            for (String event : new String[] { "UPDATE", "DELETE" }) {
+                stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_no_" + event.toLowerCase() +
+                        " BEFORE " + event + " ON " + table +
+                        " BEGIN SELECT RAISE(ABORT, 'certified results are final'); END");
+            }
+        }
+    }
+
+    /**
+     * Closes the election and certifies its results, all in one transaction on the store's
+     * connection. The close is written first, so the transaction holds the write lock before
+     * it reads anything and no ballot can commit in between. Closing an election that was
+     * already certified returns the existing record. Called inside a transaction, it joins it
+     * and leaves the commit to the caller.
+     */
+    public static CertifiedResults close(Connection conn, VoteStore store, int electionId)
+            throws SQLException, VoteStore.StoreException {
+        boolean autoCommit = conn.getAutoCommit();
+        if (!autoCommit) {
+            return certify(conn, store, electionId);
+        }
+        conn.setAutoCommit(false);
+        try {
+            CertifiedResults results = certify(conn, store, electionId);
+            conn.commit();
+            return results;
+        } catch (SQLException | VoteStore.StoreException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static CertifiedResults certify(Connection conn, VoteStore store, int electionId)
+            throws SQLException, VoteStore.StoreException {
+        store.closeElection(electionId);
+        CertifiedResults results = load(conn, electionId);
+        if (results == null) {
+            results = compute(conn, store, electionId);
+            results.insert(conn);
+        }
+        return results;
+    }
+
+    /** The election's certified results, or null if it hasn't been closed. */
+    public static CertifiedResults load(Connection conn, int electionId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT election_name, closed_at, ballots, registered_voters, chain_root, certified_at, checksum " +
+                "FROM certified_results WHERE election_id = ?");
+             PreparedStatement rankingStmt = conn.prepareStatement(
+                "SELECT position, seats, rank, candidate_id, name, role, votes, outcome FROM certified_rankings " +
+                "WHERE election_id = ? ORDER BY position, rank, name, candidate_id")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            rankingStmt.setInt(1, electionId);
+            ResultSet ranks = rankingStmt.executeQuery();
+            List<Ranking> rankings = new ArrayList<>();
+            while (ranks.next()) {
+                rankings.add(new Ranking(ranks.getString(1), ranks.getInt(2), ranks.getInt(3), ranks.getInt(4),
+                        ranks.getString(5), ranks.getString(6), ranks.getLong(7), ranks.getString(8)));
+            }
+            return new CertifiedResults(electionId, rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4),
+                    rs.getString(5), rs.getLong(6), rs.getString(7), rankings);
+        }
+    }
+
+    private static CertifiedResults compute(Connection conn, VoteStore store, int electionId)
+            throws SQLException, VoteStore.StoreException {
+        String name;
+        String closedAt;
+        String chainRoot;
+        long registered;
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name, closed_at, " +
+                    "(SELECT root FROM ballot_chain WHERE election_id = e.id AND epoch = e.vote_epoch) " +
+                    "FROM elections e WHERE id = " + electionId);
+            name = rs.getString(1);
+            closedAt = rs.getString(2);
+            chainRoot = rs.getString(3);
+            registered = stmt.executeQuery("SELECT COUNT(*) FROM users WHERE is_admin = FALSE").getLong(1);
+        }
+
+        Map<String, Integer> seats = store.seats(electionId);
+        Map<Integer, Long> tally = store.tally(electionId);
+        List<VoteStore.Candidate> candidates = new ArrayList<>(store.candidates(electionId));
+        candidates.sort((a, b) -> {
+            int byPosition = a.position.compareTo(b.position);
+            if (byPosition != 0) return byPosition;
+            int byVotes = Long.compare(tally.get(b.id), tally.get(a.id));
+            if (byVotes != 0) return byVotes;
+            int byName = a.name.compareTo(b.name);
+            return byName != 0 ? byName : Integer.compare(a.id, b.id);
+        });
+
+        List<Ranking> rankings = new ArrayList<>();
+        for (int start = 0; start < candidates.size(); ) {
+            String position = candidates.get(start).position;
+            int end = start;
+            while (end < candidates.size() && candidates.get(end).position.equals(position)) {
+                end++;
+            }
+            int positionSeats = VoteStore.seatsFor(seats, position);
+            // Equal votes share a rank (1, 2, 2, 4); a group that straddles the last seat is a tie
+            for (int group = start; group < end; ) {
+                long votes = tally.get(candidates.get(group).id);
+                int groupEnd = group;
+                while (groupEnd < end && tally.get(candidates.get(groupEnd).id) == votes) {
+                    groupEnd++;
+                }
+                int rank = group - start + 1;
+                String outcome = null;
+                if (positionSeats != VoteStore.APPROVAL && rank <= positionSeats) {
+                    outcome = groupEnd - start <= positionSeats ? ELECTED : TIED;
+                }
+                for (int i = group; i < groupEnd; i++) {
+                    VoteStore.Candidate candidate = candidates.get(i);
+                    rankings.add(new Ranking(position, positionSeats, rank, candidate.id, candidate.name,
+                            candidate.role, votes, outcome));
+                }
+                group = groupEnd;
+            }
+            start = end;
+        }
+
+        long ballots = store.ballotCount(electionId);
+        long certifiedAt = System.currentTimeMillis();
+        return new CertifiedResults(electionId, name, closedAt, ballots, registered, chainRoot, certifiedAt,
+                checksum(electionId, name, closedAt, ballots, registered, chainRoot, certifiedAt, rankings), rankings);
+    }
+
+    private void insert(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO certified_results (election_id, election_name, closed_at, ballots, registered_voters, " +
+                "chain_root, certified_at, checksum) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement rankingStmt = conn.prepareStatement(
+                "INSERT INTO certified_rankings (election_id, position, seats, rank, candidate_id, name, role, " +
+                "votes, outcome) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setString(2, electionName);
+            pstmt.setString(3, closedAt);
+            pstmt.setLong(4, ballots);
+            pstmt.setLong(5, registeredVoters);
+            pstmt.setString(6, chainRoot);
+            pstmt.setLong(7, certifiedAtMillis);
+            pstmt.setString(8, checksum);
+            pstmt.executeUpdate();
+            for (Ranking ranking : rankings) {
+                rankingStmt.setInt(1, electionId);
+                rankingStmt.setString(2, ranking.position);
+                rankingStmt.setInt(3, ranking.seats);
+                rankingStmt.setInt(4, ranking.rank);
+                rankingStmt.setInt(5, ranking.candidateId);
+                rankingStmt.setString(6, ranking.name);
+                rankingStmt.setString(7, ranking.role);
+                rankingStmt.setLong(8, ranking.votes);
+                rankingStmt.setString(9, ranking.outcome);
+                rankingStmt.addBatch();
+            }
+            rankingStmt.executeBatch();
+        }
+    }
+
+    /**
+     * What is wrong with the record: a checksum that doesn't match its rows and, while the
+     * election's ballots are still live (closed, not yet archived), votes or a ballot count
+     * that differ from the store's. Empty if everything matches.
+     */
+    public List<String> verify(Connection conn, VoteStore store) throws SQLException, VoteStore.StoreException {
+        List<String> problems = new ArrayList<>();
+        String expected = checksum(electionId, electionName, closedAt, ballots, registeredVoters, chainRoot,
+                certifiedAtMillis, rankings);
+        if (!expected.equals(checksum)) {
+            problems.add("Checksum mismatch: stored " + checksum + ", rows give " + expected);
+        }
+
+        String status;
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT status FROM elections WHERE id = " + electionId);
+            status = rs.next() ? rs.getString(1) : null;
+        }
+        if ("CLOSED".equals(status)) {
+            Map<Integer, Long> tally = store.tally(electionId);
+            for (Ranking ranking : rankings) {
+                Long live = tally.get(ranking.candidateId);
+                if (live == null || live != ranking.votes) {
+                    problems.add(ranking.name + " (" + ranking.position + "): certified " + ranking.votes
+                            + " votes, the store has " + live);
+                }
+            }
+            if (tally.size() != rankings.size()) {
+                problems.add("Certified " + rankings.size() + " candidates, the store has " + tally.size());
+            }
+            long live = store.ballotCount(electionId);
+            if (live != ballots) {
+                problems.add("Certified " + ballots + " ballots, the store has " + live);
+            }
+        }
+        return problems;
+    }
+
+    /** The results as shown on the results tab and by AdminCli tally. */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CERTIFIED RESULTS: ").append(electionName.toUpperCase()).append("\n");
+        sb.append("Closed: ").append(closedAt)
+                .append("   Certified: ").append(new java.util.Date(certifiedAtMillis)).append("\n");
+        sb.append("Ballots: ").append(ballots).append(" of ").append(registeredVoters).append(" registered voters");
+        if (registeredVoters > 0) {
+            sb.append(String.format(" (%.1f%% turnout)", 100.0 * ballots / registeredVoters));
+        }
+        sb.append("\n");
+        if (chainRoot != null) {
+            sb.append("Ballot chain root: ").append(chainRoot).append("\n");
+        }
+
+        String currentPosition = null;
+        for (Ranking ranking : rankings) {
+            if (!ranking.position.equals(currentPosition)) {
+                sb.append("\n=== ").append(ranking.position.toUpperCase()).append(" === (")
+                        .append(VoteStore.describeSeats(ranking.seats)).append(")\n\n");
+                currentPosition = ranking.position;
+            }
+            sb.append(String.format("%3d. %-25s: %d votes", ranking.rank, ranking.name, ranking.votes));
+            if (ranking.outcome != null) {
+                sb.append("  ").append(ranking.outcome);
+            }
+            sb.append("\n");
+        }
+        sb.append("\nChecksum (SHA-256): ").append(checksum).append("\n");
+        return sb.toString();
+    }
+
+    /** SHA-256 over the record's fields and one line per ranking, in candidate id order. */
+    private static String checksum(int electionId, String name, String closedAt, long ballots, long registered,
+                                   String chainRoot, long certifiedAt, List<Ranking> rankings) {
+        StringBuilder text = new StringBuilder();
+        text.append(electionId).append('\t').append(name).append('\t').append(closedAt).append('\t')
+                .append(ballots).append('\t').append(registered).append('\t').append(chainRoot).append('\t')
+                .append(certifiedAt).append('\n');
+        List<Ranking> byCandidate = new ArrayList<>(rankings);
+        byCandidate.sort((a, b) -> Integer.compare(a.candidateId, b.candidateId));
+        for (Ranking ranking : byCandidate) {
+            text.append(ranking.position).append('\t').append(ranking.seats).append('\t').append(ranking.rank)
+                    .append('\t').append(ranking.candidateId).append('\t').append(ranking.name).append('\t')
+                    .append(ranking.role).append('\t').append(ranking.votes).append('\t').append(ranking.outcome)
+                    .append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return BallotChain.toHex(digest.digest(text.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
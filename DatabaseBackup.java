@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consistent copies of the live and archive databases, taken while kiosks keep voting.
+ *
+ * Each snapshot is a folder named after the time it was taken, holding a copy of both
+ * databases and a SHA256SUMS file in sha256sum's format. The copies are made with SQLite's
+ * online backup API (the driver's "backup ... to" command), which copies a few pages per
+ * step and takes only short read locks, so ballots keep being written while it runs; a
+ * write between steps makes the copy start over, which on a database this size only costs
+ * another step or two. A snapshot is written under a temporary name, checked with
+ * quick_check and checksummed before it is renamed into place, so a folder with a plain
+ * timestamp name is always complete. Only the newest snapshots are kept, and a temporary
+ * folder is removed once nothing has been written to it for an hour, since another process
+ * may still be writing it.
+ *
+ * The copy of the live database keeps no replication log entries (see StandbyReplica).
+ *
+ * Kiosk shard files (-Dshard.dir) are not included; their folder can be copied as it is,
+ * since ShardMerge merges copies of a shard exactly.
+ */
+public class DatabaseBackup {
+    public static final String SUMS_FILE = "SHA256SUMS";
+    private static final String LIVE_FILE = "voting_system.db";
+    private static final String ARCHIVE_FILE = "voting_archive.db";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    static final long STALE_PARTIAL_MILLIS = 60 * 60 * 1000;
+
+    private DatabaseBackup() {
+    }
+
+    /**
+     * Takes a snapshot into a new folder under {@code dir}, then removes all but the newest
+     * {@code keep} snapshots. Returns the new snapshot's folder.
+     */
+    public static File snapshot(String dbUrl, String archivePath, File dir, int keep)
+            throws SQLException, IOException {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new java.util.Date());
+        File snapshot = new File(dir, name);
+        File partial = new File(dir, name + PARTIAL_SUFFIX);
+        if (snapshot.exists() || partial.exists()) {
+            throw new IOException("Snapshot " + snapshot + " already exists");
+        }
+        if (!partial.mkdirs()) {
+            throw new IOException("Could not create " + partial);
+        }
+
+        try {
+            try (Connection conn = DriverManager.getConnection(dbUrl)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout = 2000");
+                }
+                ElectionArchive.attach(conn, archivePath);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("backup main to " + quote(new File(partial, LIVE_FILE)));
+                    stmt.executeUpdate("backup archive to " + quote(new File(partial, ARCHIVE_FILE)));
+                }
+            }
+            // The log's entries are only of use on the live database; its position is kept, so a
+            // restore can still tell whether the replica can be caught up
+            StandbyReplica.clearLog(new File(partial, LIVE_FILE));
+
+            List<String> lines = new ArrayList<>();
+            for (String file : new String[] { LIVE_FILE, ARCHIVE_FILE }) {
+                File copy = new File(partial, file);
+                String problem = quickCheck(copy);
+                if (problem != null) {
+                    throw new IOException("Snapshot copy " + file + " failed its check: " + problem);
+                }
+                lines.add(sha256(copy) + "  " + file);
+            }
+            Files.write(new File(partial, SUMS_FILE).toPath(), lines);
+            Files.move(partial.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException | IOException e) {
+            deleteFolder(partial);
+            throw e;
+        }
+
+        rotate(dir, keep);
+        return snapshot;
+    }
+
+    /** Complete snapshots in {@code dir}, oldest first. */
+    public static List<File> list(File dir) {
+        List<File> snapshots = new ArrayList<>();
+        File[] entries = dir.listFiles(File::isDirectory);
+        if (entries == null) {
+            return snapshots;
+        }
+        Arrays.sort(entries);
+        for (File entry : entries) {
+            if (!entry.getName().endsWith(PARTIAL_SUFFIX) && new File(entry, SUMS_FILE).exists()) {
+                snapshots.add(entry);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Checks every file listed in the snapshot's SHA256SUMS against its checksum and runs
+     * quick_check on it. Returns the problems found; an empty list means the snapshot is good.
+     */
+    public static List<String> verify(File snapshot) throws IOException {
+        List<String> problems = new ArrayList<>();
+        Map<String, String> sums = readSums(snapshot);
+        for (String file : new String[] { LIVE_FILE, ARCHIVE_FILE }) {
+            if (!sums.containsKey(file)) {
+                problems.add(file + " is not listed in " + SUMS_FILE);
+            }
+        }
+        for (Map.Entry<String, String> sum : sums.entrySet()) {
+            File copy = new File(snapshot, sum.getKey());
+            if (!copy.isFile()) {
+                problems.add(sum.getKey() + " is missing");
+            } else if (!sha256(copy).equals(sum.getValue())) {
+                problems.add(sum.getKey() + " does not match its checksum");
+            } else {
+                String problem = quickCheck(copy);
+                if (problem != null) {
+                    problems.add(sum.getKey() + " failed quick_check: " + problem);
+                }
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Verifies the snapshot, then copies it over the live and archive databases with the
+     * backup API, so other connections see either the old database or the restored one.
+     * Kiosks should be stopped first: they keep the election's state in memory.
+     */
+    public static void restore(File snapshot, String dbUrl, String archivePath) throws SQLException, IOException {
+        List<String> problems = verify(snapshot);
+        if (!problems.isEmpty()) {
+            throw new IOException("Snapshot " + snapshot + " is damaged: " + String.join("; ", problems));
+        }
+        try (Connection conn = DriverManager.getConnection(dbUrl)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = 5000");
+            }
+            ElectionArchive.attach(conn, archivePath);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("restore main from " + quote(new File(snapshot, LIVE_FILE)));
+                stmt.executeUpdate("restore archive from " + quote(new File(snapshot, ARCHIVE_FILE)));
+
+                ResultSet rs = stmt.executeQuery("PRAGMA quick_check");
+                String result = rs.next() ? rs.getString(1) : "no result";
+                if (!result.equals("ok")) {
+                    throw new SQLException("Restored database failed quick_check: " + result);
+                }
+            }
+        }
+    }
+
+    private static void rotate(File dir, int keep) {
+        List<File> snapshots = list(dir);
+        for (int i = 0; i < snapshots.size() - keep; i++) {
+            deleteFolder(snapshots.get(i));
+        }
+        // Left behind by a snapshot that was interrupted; a recent one may still be in progress
+        File[] partials = dir.listFiles((d, name) -> name.endsWith(PARTIAL_SUFFIX));
+        if (partials != null) {
+            long staleBefore = System.currentTimeMillis() - STALE_PARTIAL_MILLIS;
+            for (File partial : partials) {
+                if (lastWritten(partial) < staleBefore) {
+                    deleteFolder(partial);
+                }
+            }
+        }
+    }
+
+    /** When the folder or any file in it was last written. */
+    private static long lastWritten(File folder) {
+        long last = folder.lastModified();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                last = Math.max(last, file.lastModified());
+            }
+        }
+        return last;
+    }
+
+    private static Map<String, String> readSums(File snapshot) throws IOException {
+        Map<String, String> sums = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(new File(snapshot, SUMS_FILE).toPath())) {
+            int split = line.indexOf("  ");
+            if (split > 0) {
+                sums.put(line.substring(split + 2), line.substring(0, split));
+            }
+        }
+        return sums;
+    }
+
+    /** Null if the file is a sound SQLite database, otherwise the first problem found. */
+    static String quickCheck(File file) {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+             Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("PRAGMA quick_check");
+            String result = rs.next() ? rs.getString(1) : "no result";
+            return result.equals("ok") ? null : result;
+        } catch (SQLException e) {
+            return e.getMessage();
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return BallotChain.toHex(digest.digest());
+    }
+
+    static String quote(File file) throws IOException {
+        String path = file.getPath();
+        if (path.contains("\"")) {
+            throw new IOException("Backup paths can't contain quotes: " + path);
+        }
+        return "\"" + path + "\"";
+    }
+
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+}
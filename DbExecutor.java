@@ -0,0 +1,67 @@
+import javax.swing.*;
+import java.awt.Component;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs the dashboard's database calls on one background thread, so the EDT never waits on
+ * JDBC. One thread keeps the calls in submission order and means the shared connection is
+ * only ever used by one thread at a time.
+ *
+ * {@link #run} is what the UI uses: it disables the given components while the call is in
+ * flight and hands the result (or the failure) back on the EDT.
+ */
+public class DbExecutor {
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private final ExecutorService executor;
+
+    public DbExecutor(String threadName) {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Runs the call on the database thread; the future completes there too. */
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs the call on the database thread with {@code busy} disabled, then on the EDT puts
+     * their enabled state back and passes on the result or the failure. Call from the EDT.
+     */
+    public <T> void run(Call<T> call, Consumer<? super T> onResult, Consumer<Throwable> onFailure,
+                        Component... busy) {
+        boolean[] wasEnabled = new boolean[busy.length];
+        for (int i = 0; i < busy.length; i++) {
+            wasEnabled[i] = busy[i].isEnabled();
+            busy[i].setEnabled(false);
+        }
+
+        submit(call).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            for (int i = 0; i < busy.length; i++) {
+                busy[i].setEnabled(wasEnabled[i]);
+            }
+            if (error != null) {
+                onFailure.accept(error);
+            } else {
+                onResult.accept(result);
+            }
+        }));
+    }
+}
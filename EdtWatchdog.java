@@ -0,0 +1,97 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+/**
+ * Logs any event that holds the EDT for longer than a threshold.
+ *
+ * Installs itself as the event queue and times every dispatch. A monitor thread checks on
+ * the dispatch in progress, so an event that is still stuck is reported with the EDT's
+ * stack at that moment (which shows what it is blocked on), not only once it finishes.
+ * An event that runs a modal dialog isn't timed once the dialog starts dispatching events
+ * of its own, since the EDT is responsive again; an idle dialog is not a blocked EDT.
+ * The threshold is -Dedt.watchdog.ms (200 by default; 0 turns the watchdog off).
+ */
+public class EdtWatchdog extends EventQueue {
+    private final long thresholdNanos;
+    private volatile long dispatchStart;
+    private volatile Thread dispatchThread;
+    private volatile AWTEvent current;
+    private volatile boolean reported;
+    // Set when an event dispatches nested events, i.e. runs a modal dialog's loop
+    private boolean nested;
+
+    private EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    public static void install() {
+        long thresholdMillis = Long.getLong("edt.watchdog.ms", 200);
+        if (thresholdMillis <= 0) {
+            return;
+        }
+        EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+
+        Thread monitor = new Thread(watchdog::monitor, "edt-watchdog");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        AWTEvent outer = current;
+        dispatchThread = Thread.currentThread();
+        current = event;
+        reported = false;
+        nested = false;
+        long start = System.nanoTime();
+        dispatchStart = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (!nested && elapsed > thresholdNanos) {
+                System.err.println("EDT blocked for " + elapsed / 1_000_000 + " ms by " + describe(event));
+            }
+            // Back in the outer event, which is running a modal dialog's loop; it is not
+            // timed any further
+            current = outer;
+            reported = false;
+            nested = outer != null;
+            dispatchStart = 0;
+        }
+    }
+
+    private void monitor() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(1, thresholdNanos / 2_000_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStart;
+            AWTEvent event = current;
+            Thread edt = dispatchThread;
+            if (start == 0 || event == null || edt == null || reported) {
+                continue;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > thresholdNanos) {
+                reported = true;
+                StringBuilder sb = new StringBuilder("EDT blocked for over " + elapsed / 1_000_000 + " ms by "
+                        + describe(event) + ", currently at:");
+                for (StackTraceElement frame : edt.getStackTrace()) {
+                    sb.append("\n\tat ").append(frame);
+                }
+                System.err.println(sb);
+            }
+        }
+    }
+
+    private static String describe(AWTEvent event) {
+        String name = event.getClass().getSimpleName();
+        Object source = event.getSource();
+        return source == null ? name : name + " on " + source.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves closed elections out of the live tables into a separate archive database.
+ *
+ * The archive keeps each election's final results as plain rows and its ballots and voter
+ * list as one compressed blob per election, so the live tables only ever hold the elections
+ * that are still in progress. Only the current vote and voter epochs are archived; rows from
+ * epochs that were reset are dropped with the rest of the election.
+ *
+ * Ballot blob layout (gzip): for each ballot in id order, the id delta from the previous
+ * ballot and the number of choices as varints, followed by that many candidate ids.
+ */
+public class ElectionArchive {
+    /** The live rows of an archived election, each statement bound to its id. */
+    private static final String[] PURGE = {
+            "DELETE FROM ballot_picks WHERE ballot_id IN (SELECT id FROM ballots WHERE election_id = ?)",
+            "DELETE FROM ballots WHERE election_id = ?",
+            "DELETE FROM applied_keys WHERE election_id = ?",
+            "DELETE FROM pick_counts WHERE election_id = ?",
+            "DELETE FROM adopted_totals WHERE election_id = ?",
+            "DELETE FROM voter_status WHERE election_id = ?",
+            "DELETE FROM candidates WHERE election_id = ?",
+            "DELETE FROM candidate_slots WHERE election_id = ?",
+            "DELETE FROM positions WHERE election_id = ?",
+            "DELETE FROM ballot_tree_nodes WHERE election_id = ?",
+            "DELETE FROM ballot_chain WHERE election_id = ?",
+            "DELETE FROM turnout_minutes WHERE election_id = ?"
+    };
+
+    private ElectionArchive() {
+    }
+
+    public static void attach(Connection conn, String path) throws SQLException {
+        Statement stmt = conn.createStatement();
+        stmt.execute("ATTACH DATABASE '" + path.replace("'", "''") + "' AS archive");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS archive.elections (" +
+                "id INTEGER PRIMARY KEY," +
+                "name TEXT NOT NULL," +
+                "created_at TIMESTAMP," +
+                "closed_at TIMESTAMP," +
+                "ballot_count INTEGER NOT NULL," +
+                "voter_count INTEGER NOT NULL," +
+                "merkle_root TEXT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS archive.results (" +
+                "election_id INTEGER NOT NULL," +
+                "candidate_id INTEGER NOT NULL," +
+                "name TEXT NOT NULL," +
+                "position TEXT NOT NULL," +
+                "role TEXT," +
+                "votes INTEGER NOT NULL," +
+                "PRIMARY KEY (election_id, candidate_id))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS archive.election_data (" +
+                "election_id INTEGER PRIMARY KEY," +
+                "ballots BLOB NOT NULL," +
+                "voters BLOB NOT NULL)");
+    }
+
+    /**
+     * Copies a closed election into the archive and marks it ARCHIVED, inside the caller's
+     * transaction, so the switch to a new election can commit the close, the copy and the new
+     * election together. Copying again is idempotent. The live rows stay until {@link #purge}.
+     */
+    public static void copy(Connection conn, int electionId) throws SQLException, IOException {
+        int voteEpoch;
+        int voterEpoch;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE elections SET status = 'ARCHIVED' WHERE id = ? AND status IN ('CLOSED', 'ARCHIVED')");
+             PreparedStatement epochs = conn.prepareStatement(
+                "SELECT vote_epoch, voter_epoch FROM elections WHERE id = ?")) {
+            pstmt.setInt(1, electionId);
+            if (pstmt.executeUpdate() == 0) {
+                throw new SQLException("Election " + electionId + " is not closed");
+            }
+            epochs.setInt(1, electionId);
+            ResultSet rs = epochs.executeQuery();
+            voteEpoch = rs.getInt(1);
+            voterEpoch = rs.getInt(2);
+        }
+
+        byte[] ballots = encodeBallots(conn, electionId, voteEpoch);
+        byte[] voters = encodeVoters(conn, electionId, voterEpoch);
+
+        try (PreparedStatement election = conn.prepareStatement("INSERT OR REPLACE INTO archive.elections " +
+                "(id, name, created_at, closed_at, ballot_count, voter_count, merkle_root) " +
+                "SELECT id, name, created_at, closed_at, " +
+                "(SELECT COUNT(*) FROM ballots WHERE election_id = e.id AND epoch = e.vote_epoch), " +
+                "(SELECT COUNT(*) FROM voter_status WHERE election_id = e.id AND epoch = e.voter_epoch), " +
+                "(SELECT root FROM ballot_chain WHERE election_id = e.id AND epoch = e.vote_epoch) " +
+                "FROM elections e WHERE id = ?");
+             PreparedStatement clear = conn.prepareStatement("DELETE FROM archive.results WHERE election_id = ?");
+             PreparedStatement results = conn.prepareStatement(
+                "INSERT INTO archive.results (election_id, candidate_id, name, position, role, votes) " +
+                "SELECT election_id, id, name, position, role, ? FROM candidates WHERE id = ?");
+             PreparedStatement data = conn.prepareStatement(
+                "INSERT OR REPLACE INTO archive.election_data (election_id, ballots, voters) VALUES (?, ?, ?)")) {
+            election.setInt(1, electionId);
+            election.executeUpdate();
+            clear.setInt(1, electionId);
+            clear.executeUpdate();
+            for (Map.Entry<Integer, Long> entry : SqliteVoteStore.readTally(conn, electionId).entrySet()) {
+                results.setLong(1, entry.getValue());
+                results.setInt(2, entry.getKey());
+                results.executeUpdate();
+            }
+            data.setInt(1, electionId);
+            data.setBytes(2, ballots);
+            data.setBytes(3, voters);
+            data.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes an archived election's live rows, in a transaction of its own. The main database
+     * runs in WAL mode, where a transaction spanning it and the attached archive is atomic per
+     * file only, so the rows are removed only once the archive copy has committed.
+     */
+    public static void purge(Connection conn, int electionId) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement check = conn.prepareStatement(
+                "SELECT 1 FROM elections e JOIN archive.elections a ON a.id = e.id " +
+                "WHERE e.id = ? AND e.status = 'ARCHIVED'")) {
+            check.setInt(1, electionId);
+            if (check.executeQuery().next()) {
+                for (String sql : PURGE) {
+                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setInt(1, electionId);
+                        pstmt.executeUpdate();
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Finishes archives that a crash or error interrupted: copies ARCHIVED elections the archive
+     * is missing, then purges any that still have live rows. Run on startup.
+     */
+    public static void finishInterrupted(Connection conn) throws SQLException, IOException {
+        List<Integer> elections = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT id FROM elections e WHERE status = 'ARCHIVED' AND (" +
+                    "NOT EXISTS (SELECT 1 FROM archive.elections a WHERE a.id = e.id) " +
+                    "OR EXISTS (SELECT 1 FROM candidates WHERE election_id = e.id) " +
+                    "OR EXISTS (SELECT 1 FROM ballots WHERE election_id = e.id) " +
+                    "OR EXISTS (SELECT 1 FROM voter_status WHERE election_id = e.id))");
+            while (rs.next()) {
+                elections.add(rs.getInt(1));
+            }
+        }
+        for (int electionId : elections) {
+            System.out.println("Finishing the interrupted archive of election " + electionId);
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                copy(conn, electionId);
+                conn.commit();
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            purge(conn, electionId);
+        }
+    }
+
+    /** Archived elections, newest first, as id to display label. */
+    public static Map<Integer, String> listArchived(Connection conn) throws SQLException {
+        Map<Integer, String> elections = new LinkedHashMap<>();
+        ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT id, name, closed_at FROM archive.elections ORDER BY id DESC");
+        while (rs.next()) {
+            elections.put(rs.getInt("id"), rs.getString("name") + " (closed " + rs.getString("closed_at") + ")");
+        }
+        return elections;
+    }
+
+    public static String formatResults(Connection conn, int electionId) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT name, created_at, closed_at, ballot_count, voter_count, merkle_root " +
+                    "FROM archive.elections WHERE id = ?");
+             PreparedStatement results = conn.prepareStatement(
+                    "SELECT position, name, votes FROM archive.results WHERE election_id = ? " +
+                    "ORDER BY position, votes DESC")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return "Election not found in archive";
+            }
+            sb.append(rs.getString("name").toUpperCase()).append("\n");
+            sb.append("Opened: ").append(rs.getString("created_at"))
+                    .append("   Closed: ").append(rs.getString("closed_at")).append("\n");
+            sb.append("Ballots: ").append(rs.getInt("ballot_count"))
+                    .append("   Voters: ").append(rs.getInt("voter_count")).append("\n");
+            if (rs.getString("merkle_root") != null) {
+                sb.append("Ballot chain root: ").append(rs.getString("merkle_root")).append("\n");
+            }
+            sb.append("\n");
+
+            results.setInt(1, electionId);
+            rs = results.executeQuery();
+            String currentPosition = null;
+            while (rs.next()) {
+                String position = rs.getString("position");
+                if (!position.equals(currentPosition)) {
+                    if (currentPosition != null) sb.append("\n");
+                    sb.append("=== ").append(position.toUpperCase()).append(" ===\n\n");
+                    currentPosition = position;
+                }
+                sb.append(String.format("%-25s", rs.getString("name")))
+                        .append(": ").append(rs.getInt("votes")).append(" votes\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Streams the archived ballots of an election, each as its array of candidate ids. */
+    public static void forEachBallot(Connection conn, int electionId, Consumer<int[]> consumer)
+            throws SQLException, IOException {
+        byte[] data;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT ballots FROM archive.election_data WHERE election_id = ?")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return;
+            }
+            data = rs.getBytes(1);
+        }
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            int first;
+            while ((first = in.read()) >= 0) {
+                readVarint(in, first);
+                int[] choices = new int[readVarint(in, in.read())];
+                for (int i = 0; i < choices.length; i++) {
+                    choices[i] = readVarint(in, in.read());
+                }
+                consumer.accept(choices);
+            }
+        }
+    }
+
+    private static byte[] encodeBallots(Connection conn, int electionId, int epoch) throws SQLException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Map<String, int[]> slots = SqliteVoteStore.readSlots(conn, electionId);
+        // LEFT JOIN, so a ballot that picked no one is archived with no choices
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+             PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT b.id, p.position, p.picks FROM ballots b LEFT JOIN ballot_picks p ON p.ballot_id = b.id " +
+                "WHERE b.election_id = ? AND b.epoch = ? ORDER BY b.id")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, epoch);
+            ResultSet rs = pstmt.executeQuery();
+            long previousId = 0;
+            long ballotId = -1;
+            List<Integer> choices = new ArrayList<>();
+            while (rs.next()) {
+                long id = rs.getLong(1);
+                if (id != ballotId && ballotId >= 0) {
+                    writeBallot(out, ballotId - previousId, choices);
+                    previousId = ballotId;
+                    choices.clear();
+                }
+                ballotId = id;
+                String position = rs.getString(2);
+                if (position == null) {
+                    continue;
+                }
+                int[] positionSlots = slots.get(position);
+                for (long bits = rs.getLong(3); bits != 0; bits &= bits - 1) {
+                    choices.add(positionSlots[Long.numberOfTrailingZeros(bits)]);
+                }
+            }
+            if (ballotId >= 0) {
+                writeBallot(out, ballotId - previousId, choices);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeVoters(Connection conn, int electionId, int epoch) throws SQLException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+             PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT user_id FROM voter_status WHERE election_id = ? AND epoch = ? ORDER BY user_id")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, epoch);
+            ResultSet rs = pstmt.executeQuery();
+            long previous = 0;
+            while (rs.next()) {
+                long userId = rs.getLong(1);
+                writeVarint(out, userId - previous);
+                previous = userId;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBallot(DataOutputStream out, long idDelta, List<Integer> choices) throws IOException {
+        writeVarint(out, idDelta);
+        writeVarint(out, choices.size());
+        for (int candidateId : choices) {
+            writeVarint(out, candidateId);
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readVarint(DataInputStream in, int first) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b = first;
+        while (true) {
+            if (b < 0) throw new EOFException("Truncated archive data");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return (int) value;
+            shift += 7;
+            b = in.read();
+        }
+    }
+}
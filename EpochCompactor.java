@@ -0,0 +1,83 @@
+import java.sql.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background cleanup of rows left behind by vote and voter-status resets.
+ *
+ * A reset only bumps an epoch on the election, so ballots, voter status rows, tallies and
+ * ballot chain nodes from earlier epochs stay in the tables until this compactor removes
+ * them. It works in small batches, each its own short transaction taken under the vote
+ * spool's apply lock, so voting continues between batches.
+ */
+public class EpochCompactor {
+    private static final int BATCH_SIZE = 500;
+    private static final long INTERVAL_SECONDS = 300;
+
+    private static final String[] BATCHES = {
+            // Chain rows from an old epoch, then tree nodes no current chain refers to
+            "DELETE FROM ballot_chain WHERE election_id IN (SELECT ch.election_id FROM ballot_chain ch " +
+                    "JOIN elections e ON e.id = ch.election_id WHERE ch.epoch <> e.vote_epoch)",
+            "DELETE FROM ballot_tree_nodes WHERE (election_id, level, idx) IN (" +
+                    "SELECT n.election_id, n.level, n.idx FROM ballot_tree_nodes n " +
+                    "LEFT JOIN ballot_chain ch ON ch.election_id = n.election_id " +
+                    "WHERE ch.election_id IS NULL OR n.idx >= (ch.leaf_count >> n.level) LIMIT " + BATCH_SIZE + ")",
+            "DELETE FROM ballot_picks WHERE rowid IN (SELECT p.rowid FROM ballots b " +
+                    "JOIN elections e ON e.id = b.election_id JOIN ballot_picks p ON p.ballot_id = b.id " +
+                    "WHERE b.epoch <> e.vote_epoch LIMIT " + BATCH_SIZE + ")",
+            "DELETE FROM ballots WHERE id IN (SELECT b.id FROM ballots b " +
+                    "JOIN elections e ON e.id = b.election_id WHERE b.epoch <> e.vote_epoch " +
+                    "AND NOT EXISTS (SELECT 1 FROM ballot_picks p WHERE p.ballot_id = b.id) LIMIT " + BATCH_SIZE + ")",
+            "DELETE FROM voter_status WHERE (election_id, user_id) IN (SELECT v.election_id, v.user_id FROM voter_status v " +
+                    "JOIN elections e ON e.id = v.election_id WHERE v.epoch <> e.voter_epoch LIMIT " + BATCH_SIZE + ")",
+            "DELETE FROM pick_counts WHERE (election_id, epoch, position, picks) IN (" +
+                    "SELECT p.election_id, p.epoch, p.position, p.picks FROM pick_counts p " +
+                    "JOIN elections e ON e.id = p.election_id WHERE p.epoch <> e.vote_epoch LIMIT " + BATCH_SIZE + ")"
+    };
+
+    private final Connection conn;
+    private final VoteSpool spool;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "epoch-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EpochCompactor(Connection conn, VoteSpool spool) {
+        this.conn = conn;
+        this.spool = spool;
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::compact, 10, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Runs a compaction pass soon, e.g. right after a reset. */
+    public void requestRun() {
+        executor.execute(this::compact);
+    }
+
+    private void compact() {
+        long removed = 0;
+        try {
+            for (String batch : BATCHES) {
+                int changed;
+                do {
+                    changed = spool.runExclusive(() -> {
+                        try (Statement stmt = conn.createStatement()) {
+                            return stmt.executeUpdate(batch);
+                        }
+                    });
+                    removed += changed;
+                } while (changed > 0 && batch.contains("LIMIT"));
+            }
+        } catch (SQLException e) {
+            // Nothing depends on compaction finishing; the next pass picks up where this one stopped
+            System.out.println("Epoch compaction interrupted: " + e.getMessage());
+        }
+        if (removed > 0) {
+            System.out.println("Epoch compaction cleaned up " + removed + " stale rows");
+        }
+    }
+}
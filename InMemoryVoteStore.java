@@ -0,0 +1,307 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A VoteStore that lives entirely in the heap, for tests, benchmarks and simulations.
+ * Nothing survives the process. Every operation takes the store's lock, which keeps it
+ * trivially consistent; throughput comes from doing no I/O at all.
+ *
+ * Ballots are kept as counts per distinct set of picks for each position, and the tally
+ * adds each count to every candidate whose bit is set in it.
+ */
+public class InMemoryVoteStore implements VoteStore {
+    private static final class Election {
+        final Set<String> ballotKeys = new HashSet<>();
+        final Set<Integer> voted = new HashSet<>();
+        final Map<String, Integer> seats = new LinkedHashMap<>();
+        // Position to candidate ids by slot; removed candidates keep their slot
+        final Map<String, List<Integer>> slots = new HashMap<>();
+        // Position to ballots per distinct picks
+        final Map<String, Map<Long, Long>> picks = new HashMap<>();
+        long ballots;
+        // Bumped by every candidate or seat change
+        long ballotRevision;
+        boolean closed;
+    }
+
+    private final Map<Integer, Election> elections = new HashMap<>();
+    private final Map<Integer, Integer> slotOf = new HashMap<>();
+    private final Map<String, User> usersByStudentId = new HashMap<>();
+    private final Map<String, String> passwords = new HashMap<>();
+    private final Map<Integer, Candidate> candidates = new LinkedHashMap<>();
+    private int nextElectionId = 1;
+    private int nextUserId = 1;
+    private int nextCandidateId = 1;
+    private long nextBallotId = 1;
+    private ChangeLog changeLog = () -> {
+    };
+
+    /**
+     * Told about each change once it has passed its checks and before it touches any state, so
+     * AppendLogVoteStore can write the change's record first and a failed write changes nothing.
+     */
+    interface ChangeLog {
+        void write() throws StoreException;
+    }
+
+    synchronized void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public synchronized int createElection(String name) throws StoreException {
+        changeLog.write();
+        int id = nextElectionId++;
+        elections.put(id, new Election());
+        return id;
+    }
+
+    @Override
+    public synchronized int registerUser(String studentId, String name, String password, boolean admin)
+            throws StoreException {
+        if (usersByStudentId.containsKey(studentId)) {
+            return -1;
+        }
+        changeLog.write();
+        User user = new User(nextUserId++, studentId, name, admin);
+        usersByStudentId.put(studentId, user);
+        passwords.put(studentId, password);
+        return user.id;
+    }
+
+    @Override
+    public synchronized User authenticate(String studentId, String password) {
+        return password.equals(passwords.get(studentId)) ? usersByStudentId.get(studentId) : null;
+    }
+
+    @Override
+    public synchronized int addCandidate(int electionId, String name, String position, String role,
+                                         String imagePath) throws StoreException {
+        Election election = openElection(electionId);
+        List<Integer> slots = election.slots.computeIfAbsent(position, p -> new ArrayList<>());
+        if (slots.size() >= MAX_CANDIDATES_PER_POSITION) {
+            throw new StoreException(position + " already has " + MAX_CANDIDATES_PER_POSITION + " candidates");
+        }
+        changeLog.write();
+        election.ballotRevision++;
+        Candidate candidate = new Candidate(nextCandidateId++, electionId, name, position, role, imagePath);
+        candidates.put(candidate.id, candidate);
+        slotOf.put(candidate.id, slots.size());
+        slots.add(candidate.id);
+        return candidate.id;
+    }
+
+    @Override
+    public synchronized boolean removeCandidate(int candidateId) throws StoreException {
+        Candidate candidate = candidates.get(candidateId);
+        if (candidate == null) {
+            return false;
+        }
+        Election election = openElection(candidate.electionId);
+        changeLog.write();
+        election.ballotRevision++;
+        candidates.remove(candidateId);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Candidate> candidates(int electionId) {
+        List<Candidate> result = new ArrayList<>();
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.electionId == electionId) {
+                result.add(candidate);
+            }
+        }
+        result.sort((a, b) -> {
+            int byPosition = a.position.compareTo(b.position);
+            return byPosition != 0 ? byPosition : a.name.compareTo(b.name);
+        });
+        return result;
+    }
+
+    @Override
+    public synchronized void setSeats(int electionId, String position, int seats) throws StoreException {
+        if (seats < 0) {
+            throw new StoreException("Seats can't be negative");
+        }
+        Election election = openElection(electionId);
+        changeLog.write();
+        election.ballotRevision++;
+        election.seats.put(position, seats);
+    }
+
+    @Override
+    public synchronized Map<String, Integer> seats(int electionId) throws StoreException {
+        return new LinkedHashMap<>(election(electionId).seats);
+    }
+
+    @Override
+    public synchronized long ballotRevision(int electionId) throws StoreException {
+        return election(electionId).ballotRevision;
+    }
+
+    @Override
+    public synchronized long castBallot(String key, int electionId, int userId, Map<String, int[]> choices)
+            throws StoreException {
+        return castPicks(key, electionId, userId, encode(electionId, choices));
+    }
+
+    /** The choices as picks per position, or null if they aren't a valid ballot; see SqliteVoteStore.encode. */
+    synchronized Map<String, Long> encode(int electionId, Map<String, int[]> choices) throws StoreException {
+        Election election = election(electionId);
+        Map<String, Long> picks = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : choices.entrySet()) {
+            List<Integer> slots = election.slots.getOrDefault(entry.getKey(), new ArrayList<>());
+            long bits = 0;
+            for (int candidateId : entry.getValue()) {
+                Integer slot = slotOf.get(candidateId);
+                if (slot == null || !candidates.containsKey(candidateId) || slot >= slots.size() || slots.get(slot) != candidateId
+                        || (bits & (1L << slot)) != 0) {
+                    return null;
+                }
+                bits |= 1L << slot;
+            }
+            if (!VoteStore.allowsPicks(VoteStore.seatsFor(election.seats, entry.getKey()), Long.bitCount(bits))) {
+                return null;
+            }
+            if (bits != 0) {
+                picks.put(entry.getKey(), bits);
+            }
+        }
+        return picks;
+    }
+
+    /** Records a ballot already encoded by {@link #encode}; null picks make it {@link #INVALID}. */
+    synchronized long castPicks(String key, int electionId, int userId, Map<String, Long> picks)
+            throws StoreException {
+        Election election = election(electionId);
+        if (key != null && election.ballotKeys.contains(key)) {
+            return DUPLICATE;
+        }
+        if (election.closed) {
+            return CLOSED;
+        }
+        if (election.voted.contains(userId)) {
+            return ALREADY_VOTED;
+        }
+        if (picks == null) {
+            return INVALID;
+        }
+        changeLog.write();
+        election.voted.add(userId);
+        return addPicks(election, key, picks);
+    }
+
+    /**
+     * Replays a recorded ballot's picks without marking anyone: AppendLogVoteStore keeps the
+     * voter marks apart from the picks and replays them with {@link #replayVoter}.
+     */
+    synchronized void replayPicks(String key, int electionId, Map<String, Long> picks) throws StoreException {
+        addPicks(election(electionId), key, picks);
+    }
+
+    /** Replays a voter mark kept apart from its ballot; see {@link #replayPicks}. */
+    synchronized void replayVoter(int electionId, int userId) throws StoreException {
+        election(electionId).voted.add(userId);
+    }
+
+    private long addPicks(Election election, String key, Map<String, Long> picks) {
+        if (key != null) {
+            election.ballotKeys.add(key);
+        }
+        for (Map.Entry<String, Long> entry : picks.entrySet()) {
+            election.picks.computeIfAbsent(entry.getKey(), p -> new HashMap<>()).merge(entry.getValue(), 1L, Long::sum);
+        }
+        election.ballots++;
+        return nextBallotId++;
+    }
+
+    @Override
+    public synchronized boolean isValidBallot(int electionId, Map<String, int[]> choices) throws StoreException {
+        return encode(electionId, choices) != null;
+    }
+
+    @Override
+    public synchronized boolean hasVoted(int electionId, int userId) throws StoreException {
+        return election(electionId).voted.contains(userId);
+    }
+
+    @Override
+    public synchronized Map<Integer, Long> tally(int electionId) throws StoreException {
+        Election election = election(electionId);
+        Map<Integer, Long> tally = new LinkedHashMap<>();
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.electionId == electionId) {
+                tally.put(candidate.id, 0L);
+            }
+        }
+        for (Map.Entry<String, Map<Long, Long>> position : election.picks.entrySet()) {
+            List<Integer> slots = election.slots.get(position.getKey());
+            for (Map.Entry<Long, Long> picks : position.getValue().entrySet()) {
+                long ballots = picks.getValue();
+                for (long bits = picks.getKey(); bits != 0; bits &= bits - 1) {
+                    tally.computeIfPresent(slots.get(Long.numberOfTrailingZeros(bits)), (id, votes) -> votes + ballots);
+                }
+            }
+        }
+        return tally;
+    }
+
+    @Override
+    public synchronized long ballotCount(int electionId) throws StoreException {
+        return election(electionId).ballots;
+    }
+
+    @Override
+    public synchronized void resetVotes(int electionId) throws StoreException {
+        Election election = openElection(electionId);
+        changeLog.write();
+        // Ballot keys are kept, so a ballot from before the reset still can't be replayed
+        election.picks.clear();
+        election.ballots = 0;
+    }
+
+    @Override
+    public synchronized void resetVoters(int electionId) throws StoreException {
+        Election election = openElection(electionId);
+        changeLog.write();
+        election.voted.clear();
+    }
+
+    @Override
+    public synchronized void closeElection(int electionId) throws StoreException {
+        Election election = election(electionId);
+        changeLog.write();
+        election.closed = true;
+    }
+
+    @Override
+    public synchronized boolean isClosed(int electionId) throws StoreException {
+        return election(electionId).closed;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Election election(int electionId) throws StoreException {
+        Election election = elections.get(electionId);
+        if (election == null) {
+            throw new StoreException("No election with id " + electionId);
+        }
+        return election;
+    }
+
+    private Election openElection(int electionId) throws StoreException {
+        Election election = election(electionId);
+        if (election.closed) {
+            throw new StoreException("Election " + electionId + " is closed");
+        }
+        return election;
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory login attempt limiting, checked before any database query.
+ *
+ * Rate limits are token buckets kept as GCRA "theoretical arrival times" in a single long,
+ * updated by CAS: one global bucket and a striped array of per-student-id buckets (ids that
+ * hash to the same stripe share a bucket). Repeated failures for an id additionally lock it
+ * out with exponential backoff; the failure count and lock expiry (or, below the lockout
+ * threshold, the time of the last failure) are packed into one AtomicLong per id so that
+ * path is lock-free too. An id's failures are forgotten {@link #FORGET_MILLIS} after its
+ * last failure or lock, checked at most once per {@link #PRUNE_INTERVAL_MILLIS}.
+ */
+public class LoginThrottle {
+    private static final int STRIPES = 4096;
+    private static final long GLOBAL_INTERVAL_NANOS = 200_000_000L;   // 5 attempts/s sustained
+    private static final long GLOBAL_BURST = 20;
+    private static final long ID_INTERVAL_NANOS = 6_000_000_000L;     // 10 attempts/min per id
+    private static final long ID_BURST = 5;
+    private static final int FREE_FAILURES = 3;
+    private static final long BASE_LOCK_MILLIS = 2_000;
+    private static final long MAX_LOCK_MILLIS = 15 * 60_000;
+    static final long FORGET_MILLIS = MAX_LOCK_MILLIS;
+    static final long PRUNE_INTERVAL_MILLIS = 60_000;
+    private static final long LOCK_MASK = (1L << 56) - 1;
+
+    private final long origin = System.nanoTime();
+    private final AtomicLong globalTat = new AtomicLong();
+    private final AtomicLongArray idTat = new AtomicLongArray(STRIPES);
+    private final ConcurrentHashMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong lastPruneMillis = new AtomicLong(System.currentTimeMillis());
+
+    public static final class Decision {
+        private static final Decision ALLOWED = new Decision(true, 0, null);
+
+        private final boolean allowed;
+        private final long retryAfterMillis;
+        private final String reason;
+
+        private Decision(boolean allowed, long retryAfterMillis, String reason) {
+            this.allowed = allowed;
+            this.retryAfterMillis = retryAfterMillis;
+            this.reason = reason;
+        }
+
+        public boolean isAllowed() {
+            return allowed;
+        }
+
+        public String getMessage() {
+            long seconds = Math.max(1, (retryAfterMillis + 999) / 1000);
+            return reason + " Please try again in " + seconds + " second" + (seconds == 1 ? "" : "s") + ".";
+        }
+    }
+
+    public static final class Lockout {
+        public final String studentId;
+        public final int failures;
+        public final long remainingMillis;
+
+        private Lockout(String studentId, int failures, long remainingMillis) {
+            this.studentId = studentId;
+            this.failures = failures;
+            this.remainingMillis = remainingMillis;
+        }
+    }
+
+    /** Decides whether an attempt for this id may go to the database at all. */
+    public Decision tryAcquire(String studentId) {
+        long nowMillis = System.currentTimeMillis();
+        AtomicLong state = failures.get(studentId);
+        if (state != null) {
+            long lockedUntil = state.get() & LOCK_MASK;
+            if (lockedUntil > nowMillis) {
+                rejected.increment();
+                return new Decision(false, lockedUntil - nowMillis, "Too many failed attempts for this student ID.");
+            }
+        }
+
+        // Global first, so an attempt the system turns away doesn't use up the id's allowance
+        long now = System.nanoTime() - origin;
+        long wait = acquire(globalTat, now, GLOBAL_INTERVAL_NANOS, GLOBAL_BURST);
+        if (wait > 0) {
+            rejected.increment();
+            return new Decision(false, wait / 1_000_000, "The system is receiving too many login attempts.");
+        }
+        wait = acquire(idTat, stripe(studentId), now, ID_INTERVAL_NANOS, ID_BURST);
+        if (wait > 0) {
+            rejected.increment();
+            return new Decision(false, wait / 1_000_000, "Too many login attempts for this student ID.");
+        }
+        return Decision.ALLOWED;
+    }
+
+    public void recordSuccess(String studentId) {
+        failures.remove(studentId);
+    }
+
+    public void recordFailure(String studentId) {
+        long nowMillis = System.currentTimeMillis();
+        long lastPrune = lastPruneMillis.get();
+        if (nowMillis - lastPrune >= PRUNE_INTERVAL_MILLIS && lastPruneMillis.compareAndSet(lastPrune, nowMillis)) {
+            prune(nowMillis);
+        }
+        AtomicLong state = failures.computeIfAbsent(studentId, k -> new AtomicLong());
+        while (true) {
+            long current = state.get();
+            int count = (int) Math.min(255, (current >>> 56) + 1);
+            // Below the threshold this is just when the last failure happened
+            long lockedUntil = nowMillis;
+            if (count > FREE_FAILURES) {
+                long lock = Math.min(MAX_LOCK_MILLIS, BASE_LOCK_MILLIS << Math.min(20, count - FREE_FAILURES - 1));
+                lockedUntil = nowMillis + lock;
+            }
+            if (state.compareAndSet(current, ((long) count << 56) | lockedUntil)) {
+                return;
+            }
+        }
+    }
+
+    public void unlock(String studentId) {
+        failures.remove(studentId);
+    }
+
+    /** Ids currently locked out, longest remaining lock first. */
+    public List<Lockout> lockedAccounts() {
+        long nowMillis = System.currentTimeMillis();
+        List<Lockout> locked = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> entry : failures.entrySet()) {
+            long state = entry.getValue().get();
+            long lockedUntil = state & LOCK_MASK;
+            if (lockedUntil > nowMillis) {
+                locked.add(new Lockout(entry.getKey(), (int) (state >>> 56), lockedUntil - nowMillis));
+            }
+        }
+        locked.sort((a, b) -> Long.compare(b.remainingMillis, a.remainingMillis));
+        return locked;
+    }
+
+    public long rejectedAttempts() {
+        return rejected.sum();
+    }
+
+    /** Drops the failures of ids whose last failure or lock ended {@link #FORGET_MILLIS} ago. */
+    private void prune(long nowMillis) {
+        failures.values().removeIf(state -> (state.get() & LOCK_MASK) + FORGET_MILLIS <= nowMillis);
+    }
+
+    private static int stripe(String studentId) {
+        int h = studentId.hashCode();
+        h ^= h >>> 16;
+        return h & (STRIPES - 1);
+    }
+
+    /** GCRA on a single cell: returns 0 if admitted, otherwise nanoseconds until the next admit. */
+    private static long acquire(AtomicLong tat, long now, long interval, long burst) {
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > interval * burst) {
+                return next - now - interval * burst;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private static long acquire(AtomicLongArray tats, int i, long now, long interval, long burst) {
+        while (true) {
+            long current = tats.get(i);
+            long next = Math.max(current, now) + interval;
+            if (next - now > interval * burst) {
+                return next - now - interval * burst;
+            }
+            if (tats.compareAndSet(i, current, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Guards the indexes the hot statements depend on. Seeds scratch databases with the current
+ * schema and a realistic amount of data, then runs EXPLAIN QUERY PLAN on each statement a
+ * kiosk or the dashboard runs per login, ballot or page, and fails if SQLite would scan a
+ * whole table or sort into a temporary B-tree where an index should do the work. Run from
+ * the command line with {@code java AdminCli plans}.
+ *
+ * Each statement is also timed on a database a tenth the size and on the full-size one; an
+ * indexed lookup should cost about the same on both, so the growth column shows a plan that
+ * passes but still gets slower with the data. The database is not ANALYZEd, because the
+ * kiosks never run ANALYZE either.
+ *
+ * The statements are the same strings the classes that run them use, shared as constants or
+ * built by the same methods, so a change to one of those queries is checked here too.
+ */
+public class QueryPlanCheck {
+    private static final int POSITIONS = 8;
+    private static final int CANDIDATES_PER_POSITION = 6;
+    private static final int ELECTIONS = 5;
+    private static final int TIMED_RUNS = 200;
+
+    private static final class HotStatement {
+        final String name;
+        final String sql;
+        // For a GROUP BY or ORDER BY over rows that were already narrowed down by an index
+        final boolean sortAllowed;
+        final Object[] params;
+
+        HotStatement(String name, String sql, boolean sortAllowed, Object... params) {
+            this.name = name;
+            this.sql = sql;
+            this.sortAllowed = sortAllowed;
+            this.params = params;
+        }
+    }
+
+    public static final class Result {
+        public final List<String> problems = new ArrayList<>();
+        private final StringBuilder report = new StringBuilder();
+
+        public boolean isOk() {
+            return problems.isEmpty();
+        }
+
+        public String format() {
+            return report.toString();
+        }
+    }
+
+    private QueryPlanCheck() {
+    }
+
+    /** Checks every statement against databases seeded with {@code rows} users and ballots. */
+    public static Result run(int rows) throws SQLException, IOException {
+        Result result = new Result();
+        File dir = Files.createTempDirectory("queryplans").toFile();
+        try {
+            File small = new File(dir, "small.db");
+            File large = new File(dir, "large.db");
+            int smallElection = seed(small, new File(dir, "small-archive.db"), Math.max(1, rows / 10));
+            int largeElection = seed(large, new File(dir, "large-archive.db"), rows);
+
+            try (Connection smallConn = DriverManager.getConnection("jdbc:sqlite:" + small.getPath());
+                 Connection largeConn = DriverManager.getConnection("jdbc:sqlite:" + large.getPath())) {
+                result.report.append(String.format("%-24s%14s%14s%8s%n", "Statement",
+                        String.format("%,d rows", Math.max(1, rows / 10)), String.format("%,d rows", rows), "growth"));
+                List<HotStatement> smallStatements = statements(smallConn, smallElection, Math.max(1, rows / 10));
+                List<HotStatement> largeStatements = statements(largeConn, largeElection, rows);
+                for (int i = 0; i < largeStatements.size(); i++) {
+                    HotStatement statement = largeStatements.get(i);
+                    List<String> plan = plan(largeConn, statement);
+                    List<String> problems = problems(statement, plan);
+                    double smallMicros = time(smallConn, smallStatements.get(i));
+                    double largeMicros = time(largeConn, statement);
+                    result.report.append(String.format("%-24s%11.1f us%11.1f us%7.1fx  %s%n", statement.name,
+                            smallMicros, largeMicros, largeMicros / smallMicros, problems.isEmpty() ? "ok" : "REGRESSED"));
+                    for (String line : plan) {
+                        result.report.append("    ").append(line).append("\n");
+                    }
+                    for (String problem : problems) {
+                        result.problems.add(statement.name + ": " + problem);
+                    }
+                }
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+        return result;
+    }
+
+    /** The hot statements, with parameters that hit rows in the middle of the seeded data. */
+    private static List<HotStatement> statements(Connection conn, int electionId, int rows) throws SQLException {
+        String studentId = String.format("S%08d", Math.max(1, rows / 2));
+        int userId = Math.max(1, rows / 2);
+        List<HotStatement> statements = new ArrayList<>();
+        // SqliteVoteStore: login, the voting window, each ballot and the dashboard
+        statements.add(new HotStatement("login", SqliteVoteStore.AUTHENTICATE_SQL, false, studentId, "pw"));
+        statements.add(new HotStatement("has voted", SqliteVoteStore.HAS_VOTED_SQL, false, electionId, userId));
+        statements.add(new HotStatement("candidates", SqliteVoteStore.CANDIDATES_SQL, false, electionId));
+        statements.add(new HotStatement("seats", SqliteVoteStore.SEATS_SQL, false, electionId));
+        statements.add(new HotStatement("ballot key", SqliteVoteStore.BALLOT_KEY_SQL, false, "key-" + rows / 2));
+        statements.add(new HotStatement("election status", SqliteVoteStore.ELECTION_STATUS_SQL, false, electionId));
+        statements.add(new HotStatement("ballot revision", SqliteVoteStore.BALLOT_REVISION_SQL, false, electionId));
+        statements.add(new HotStatement("voter status", SqliteVoteStore.VOTER_STATUS_SQL,
+                false, electionId, userId, 0));
+        statements.add(new HotStatement("candidate slots", SqliteVoteStore.CANDIDATE_SLOTS_SQL, false, electionId));
+        statements.add(new HotStatement("pick counter", SqliteVoteStore.COUNT_PICKS_SQL,
+                false, electionId, 0, "Position 0", 1L));
+        statements.add(new HotStatement("tally", SqliteVoteStore.TALLY_SQL, false, electionId));
+        statements.add(new HotStatement("ballot count", SqliteVoteStore.BALLOT_COUNT_SQL, false, electionId));
+        // TallyRecount, one range of ballots
+        statements.add(new HotStatement("recount range", TallyRecount.RANGE_PICKS_SQL,
+                true, electionId, 0, 1L, 5_000L));
+        // VoterRoll, the first page of a name search and the next page of a student ID listing
+        List<Object> byName = new ArrayList<>();
+        statements.add(new HotStatement("voter roll by name", VoterRoll.pageSql(VoterRoll.SearchBy.NAME, "voter 5",
+                electionId, 0, null, 0, true, byName), false, byName.toArray()));
+        List<Object> byId = new ArrayList<>();
+        statements.add(new HotStatement("voter roll by id", VoterRoll.pageSql(VoterRoll.SearchBy.STUDENT_ID, "",
+                electionId, 0, studentId, userId, true, byId), false, byId.toArray()));
+        // TurnoutSeries and AuditLog, on the dashboard
+        statements.add(new HotStatement("turnout minutes", TurnoutSeries.MINUTE_TOTALS_SQL,
+                false, electionId, (long) rows / 4 - 60));
+        statements.add(new HotStatement("audit by action", AuditLog.querySql(true, false),
+                false, 0L, AuditLog.CANDIDATE_ADD, 500));
+        return statements;
+    }
+
+    /** A full scan of a table, or a sort where the rows should already come in order. */
+    private static List<String> problems(HotStatement statement, List<String> plan) {
+        List<String> problems = new ArrayList<>();
+        for (String line : plan) {
+            if (line.startsWith("SCAN ") && !line.startsWith("SCAN CONSTANT ROW")) {
+                problems.add("full scan: " + line);
+            } else if (line.startsWith("USE TEMP B-TREE") && !statement.sortAllowed) {
+                problems.add("sorts into a temporary B-tree: " + line);
+            }
+        }
+        return problems;
+    }
+
+    private static List<String> plan(Connection conn, HotStatement statement) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + statement.sql)) {
+            bind(pstmt, statement);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    /** Microseconds per run, averaged after a warm-up; updates are rolled back. */
+    private static double time(Connection conn, HotStatement statement) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(statement.sql)) {
+            bind(pstmt, statement);
+            for (int i = 0; i < TIMED_RUNS / 10; i++) {
+                execute(pstmt);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                execute(pstmt);
+            }
+            return (System.nanoTime() - start) / 1_000.0 / TIMED_RUNS;
+        } finally {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void execute(PreparedStatement pstmt) throws SQLException {
+        if (pstmt.execute()) {
+            try (ResultSet rs = pstmt.getResultSet()) {
+                while (rs.next()) {
+                    rs.getObject(1);
+                }
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, HotStatement statement) throws SQLException {
+        for (int i = 0; i < statement.params.length; i++) {
+            pstmt.setObject(i + 1, statement.params[i]);
+        }
+    }
+
+    /**
+     * Creates the schema the way a kiosk does, then adds {@code rows} voters who have all
+     * voted, their ballots and a few closed elections. Returns the active election's id.
+     */
+    private static int seed(File db, File archive, int rows) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath())) {
+            int electionId = VotingDatabase.initialize(conn, archive.getPath());
+            conn.setAutoCommit(false);
+            try (java.sql.Statement stmt = conn.createStatement()) {
+                String numbers = "WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < ";
+                for (int e = 1; e < ELECTIONS; e++) {
+                    stmt.executeUpdate("INSERT INTO elections (name, status) VALUES ('Closed " + e + "', 'CLOSED')");
+                }
+                stmt.executeUpdate(numbers + (POSITIONS * CANDIDATES_PER_POSITION) + ") " +
+                        "INSERT INTO candidates (name, position, election_id) " +
+                        "SELECT 'Candidate ' || i, 'Position ' || (i % " + POSITIONS + "), e.id " +
+                        "FROM n, elections e");
+                stmt.executeUpdate("INSERT INTO candidate_slots (election_id, position, slot, candidate_id) " +
+                        "SELECT election_id, position, ROW_NUMBER() OVER (PARTITION BY election_id, position " +
+                        "ORDER BY id) - 1, id FROM candidates");
+                stmt.executeUpdate("INSERT INTO positions (election_id, position, seats) " +
+                        "SELECT id, 'Position 0', 2 FROM elections");
+                stmt.executeUpdate(numbers + rows + ") " +
+                        "INSERT INTO users (student_id, password, name) " +
+                        "SELECT printf('S%08d', i), 'pw', 'Voter ' || i FROM n");
+                stmt.executeUpdate(numbers + rows + ") " +
+                        "INSERT INTO ballots (election_id, epoch) " +
+                        "SELECT " + electionId + ", 0 FROM n");
+                stmt.executeUpdate(numbers + rows + ") " +
+                        "INSERT INTO applied_keys (spool_key, election_id) " +
+                        "SELECT 'key-' || i, " + electionId + " FROM n");
+                stmt.executeUpdate("INSERT INTO ballot_picks (ballot_id, position, picks) " +
+                        "SELECT b.id, 'Position ' || p.i, 1 << (b.id % " + CANDIDATES_PER_POSITION + ") FROM ballots b, " +
+                        "(" + numbers + POSITIONS + ") SELECT i - 1 AS i FROM n) p");
+                stmt.executeUpdate("INSERT INTO pick_counts (election_id, epoch, position, picks, ballots) " +
+                        "SELECT b.election_id, b.epoch, p.position, p.picks, COUNT(*) FROM ballots b " +
+                        "JOIN ballot_picks p ON p.ballot_id = b.id GROUP BY b.election_id, b.epoch, p.position, p.picks");
+                stmt.executeUpdate("INSERT INTO voter_status (election_id, user_id, epoch) " +
+                        "SELECT " + electionId + ", id, 0 FROM users WHERE is_admin = FALSE");
+                stmt.executeUpdate(numbers + rows + ") " +
+                        "INSERT INTO turnout_minutes (election_id, kiosk, minute, votes) " +
+                        "SELECT " + electionId + ", 'kiosk-' || (i % 4), i / 4, 1 FROM n WHERE 1 " +
+                        "ON CONFLICT (election_id, minute, kiosk) DO NOTHING");
+                stmt.executeUpdate(numbers + rows + ") " +
+                        "INSERT INTO audit_log (at, actor, action, details) " +
+                        "SELECT i * 1000, 'admin', CASE i % 3 WHEN 0 THEN '" + AuditLog.ADMIN_LOGIN + "' " +
+                        "WHEN 1 THEN '" + AuditLog.CANDIDATE_ADD + "' ELSE '" + AuditLog.CANDIDATE_REMOVE + "' END, " +
+                        "'seeded' FROM n");
+            }
+            conn.commit();
+            return electionId;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+import java.util.function.BinaryOperator;
+
+/**
+ * Combines kiosk shard files (see ShardedVoteStore) into one election result.
+ *
+ * Each position's ballots per distinct picks are a grow-only counter with one entry per
+ * shard: a shard only ever adds to its own entry. Entries from two copies of the same shard (say, today's file and a
+ * backup taken an hour ago) are merged by taking the larger, and the total is the sum over
+ * distinct shards, so merging is exact however often, in whatever order and from whatever
+ * copies it runs. Voter sets merge by union. A reset doesn't decrement anything; it starts a
+ * new epoch whose counters begin at zero, and only the current epoch is merged. The merged
+ * counters are turned into votes per candidate bit by bit, with the registry's slots.
+ */
+public class ShardMerge {
+    private ShardMerge() {
+    }
+
+    /** One shard file's state for an election's current epochs. */
+    public static final class Shard {
+        public final String name;
+        public final String file;
+        // Position to ballots per distinct picks
+        final Map<String, Map<Long, Long>> counters = new HashMap<>();
+        final Map<String, Map<Long, Long>> recounted = new HashMap<>();
+        final Set<Integer> voters = new HashSet<>();
+        long ballots;
+
+        Shard(String name, String file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    public static final class Result {
+        public final Map<String, Long> ballotsByShard = new TreeMap<>();
+        public final Map<String, Map<Long, Long>> counters = new HashMap<>();
+        public final List<String> problems = new ArrayList<>();
+        /** Voters recorded by more than one shard, with the shards. */
+        public final Map<Integer, List<String>> doubleVoters = new TreeMap<>();
+        public long ballots;
+
+        /** Votes for each of the candidates, zero included, given each position's slots. */
+        public Map<Integer, Long> tally(List<VoteStore.Candidate> candidates, Map<String, int[]> slots) {
+            Map<Integer, Long> tally = new LinkedHashMap<>();
+            for (VoteStore.Candidate candidate : candidates) {
+                tally.put(candidate.id, 0L);
+            }
+            for (Map.Entry<String, Map<Long, Long>> position : counters.entrySet()) {
+                for (Map.Entry<Long, Long> picks : position.getValue().entrySet()) {
+                    SqliteVoteStore.countPicks(tally, slots.get(position.getKey()), picks.getKey(), picks.getValue());
+                }
+            }
+            return tally;
+        }
+
+        public boolean isConsistent() {
+            return problems.isEmpty() && doubleVoters.isEmpty();
+        }
+
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Shards merged: ").append(ballotsByShard.size()).append(", ballots: ").append(ballots).append("\n");
+            for (Map.Entry<String, Long> shard : ballotsByShard.entrySet()) {
+                sb.append(String.format("  %-28s %d ballots%n", shard.getKey(), shard.getValue()));
+            }
+            for (String problem : problems) {
+                sb.append("Problem: ").append(problem).append("\n");
+            }
+            for (Map.Entry<Integer, List<String>> voter : doubleVoters.entrySet()) {
+                sb.append("Voter ").append(voter.getKey()).append(" was accepted by more than one kiosk: ")
+                        .append(String.join(", ", voter.getValue())).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Reads a shard's counters, voters and ballots, recounting the counters from its ballots.
+     * Everything is read in one transaction, so a kiosk voting meanwhile can't make the
+     * counters and the recount disagree.
+     */
+    static Shard read(Connection conn, String file, int electionId, int voteEpoch, int voterEpoch)
+            throws SQLException {
+        if (!conn.getAutoCommit()) {
+            return readSnapshot(conn, file, electionId, voteEpoch, voterEpoch);
+        }
+        conn.setAutoCommit(false);
+        try {
+            return readSnapshot(conn, file, electionId, voteEpoch, voterEpoch);
+        } finally {
+            try {
+                conn.rollback();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static Shard readSnapshot(Connection conn, String file, int electionId, int voteEpoch, int voterEpoch)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM shard_info");
+            Shard shard = new Shard(rs.next() ? rs.getString(1) : file, file);
+
+            rs = stmt.executeQuery("SELECT position, picks, ballots FROM pick_counts " +
+                    "WHERE election_id = " + electionId + " AND epoch = " + voteEpoch);
+            while (rs.next()) {
+                shard.counters.computeIfAbsent(rs.getString(1), p -> new HashMap<>()).put(rs.getLong(2), rs.getLong(3));
+            }
+            rs = stmt.executeQuery("SELECT p.position, p.picks, COUNT(*) FROM ballots b " +
+                    "JOIN ballot_picks p ON p.ballot_id = b.id " +
+                    "WHERE b.election_id = " + electionId + " AND b.epoch = " + voteEpoch + " GROUP BY p.position, p.picks");
+            while (rs.next()) {
+                shard.recounted.computeIfAbsent(rs.getString(1), p -> new HashMap<>()).put(rs.getLong(2), rs.getLong(3));
+            }
+            rs = stmt.executeQuery("SELECT COUNT(*) FROM ballots " +
+                    "WHERE election_id = " + electionId + " AND epoch = " + voteEpoch);
+            shard.ballots = rs.getLong(1);
+            rs = stmt.executeQuery("SELECT user_id FROM voters " +
+                    "WHERE election_id = " + electionId + " AND epoch = " + voterEpoch);
+            while (rs.next()) {
+                shard.voters.add(rs.getInt(1));
+            }
+            return shard;
+        }
+    }
+
+    public static Result merge(List<Shard> shards) {
+        // Copies of one shard merge entry by entry with max; distinct shards then add up
+        Map<String, Shard> byName = new TreeMap<>();
+        Result result = new Result();
+        for (Shard shard : shards) {
+            if (!shard.counters.equals(shard.recounted)) {
+                result.problems.add(shard.file + ": counters " + shard.counters
+                        + " don't match its ballots " + shard.recounted);
+            }
+            Shard merged = byName.get(shard.name);
+            if (merged == null) {
+                merged = new Shard(shard.name, shard.file);
+                byName.put(shard.name, merged);
+            }
+            addCounters(merged.counters, shard.counters, Math::max);
+            merged.voters.addAll(shard.voters);
+            merged.ballots = Math.max(merged.ballots, shard.ballots);
+        }
+
+        Map<Integer, List<String>> shardsByVoter = new HashMap<>();
+        for (Shard shard : byName.values()) {
+            addCounters(result.counters, shard.counters, Long::sum);
+            for (int voter : shard.voters) {
+                shardsByVoter.computeIfAbsent(voter, v -> new ArrayList<>()).add(shard.name);
+            }
+            result.ballots += shard.ballots;
+            result.ballotsByShard.put(shard.name, shard.ballots);
+        }
+        for (Map.Entry<Integer, List<String>> voter : shardsByVoter.entrySet()) {
+            if (voter.getValue().size() > 1) {
+                result.doubleVoters.put(voter.getKey(), voter.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void addCounters(Map<String, Map<Long, Long>> into, Map<String, Map<Long, Long>> counters,
+                                    BinaryOperator<Long> combine) {
+        for (Map.Entry<String, Map<Long, Long>> position : counters.entrySet()) {
+            Map<Long, Long> target = into.computeIfAbsent(position.getKey(), p -> new HashMap<>());
+            for (Map.Entry<Long, Long> picks : position.getValue().entrySet()) {
+                target.merge(picks.getKey(), picks.getValue(), combine);
+            }
+        }
+    }
+
+    /**
+     * Merges every shard file in the folder (and below it, for copies collected into
+     * subfolders). Other databases in the folder, such as the registry, are skipped.
+     */
+    public static Result merge(File dir, Connection registry, int electionId) throws SQLException {
+        int[] epochs = VotingDatabase.readEpochs(registry, electionId);
+        List<File> files = new ArrayList<>();
+        collect(dir, files);
+        if (files.isEmpty()) {
+            throw new SQLException("No shard files in " + dir);
+        }
+
+        List<Shard> shards = new ArrayList<>();
+        for (File file : files) {
+            try (Connection conn = ShardedVoteStore.open(file)) {
+                if (!ShardedVoteStore.isShard(conn)) {
+                    System.out.println("Skipping " + file + ": not a shard file");
+                    continue;
+                }
+                shards.add(read(conn, file.getPath(), electionId, epochs[0], epochs[1]));
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new SQLException("No shard files in " + dir);
+        }
+        return merge(shards);
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries);
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                collect(entry, files);
+            } else if (entry.getName().endsWith(".db")) {
+                files.add(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A VoteStore for several kiosks that each record ballots in their own shard file instead
+ * of all writing to voting_system.db. Enabled on a kiosk with -Dshard.dir=&lt;shared folder&gt;.
+ *
+ * Users, candidates and elections (with their epochs) stay in the shared registry database,
+ * through a SqliteVoteStore. Each kiosk appends its ballots (as picks over the registry's
+ * candidate slots), a grow-only counter per position and distinct picks, and its set of
+ * voters to {@code <shard.dir>/<kiosk>.db}; nothing else ever
+ * writes that file. Tallies are merged from every shard in the folder (see ShardMerge), and
+ * a voter is eligible only if no shard's voter set has them, so the only thing kiosks share
+ * is the folder.
+ *
+ * Two kiosks checking the same voter at the same moment can both accept them, since there
+ * is no lock across files; ShardMerge reports such voters so the double count is visible.
+ * For the same reason a close is only a clean cut per kiosk: each ballot checks the
+ * registry's status before its shard transaction, so drain the kiosks before closing.
+ */
+public class ShardedVoteStore implements VoteStore {
+    private final Connection registry;
+    private final SqliteVoteStore registryStore;
+    private final File dir;
+    private final File ownFile;
+    private final Connection own;
+    private final Map<File, Connection> peers = new HashMap<>();
+    // Other databases in the folder, by the modification time they were checked at
+    private final Map<File, Long> notShards = new HashMap<>();
+    private boolean ownsRegistry;
+
+    /** A shard store on an initialized registry connection; closing the store leaves that open. */
+    public ShardedVoteStore(Connection registry, File dir, String shardName) throws StoreException {
+        this.registry = registry;
+        this.registryStore = new SqliteVoteStore(registry);
+        this.dir = dir;
+        this.ownFile = new File(dir, shardFileName(shardName));
+        dir.mkdirs();
+        try {
+            own = open(ownFile);
+            try (Statement stmt = own.createStatement()) {
+                // Shard folders may be network shares, where WAL's shared memory doesn't work
+                stmt.execute("PRAGMA journal_mode=DELETE");
+                createTables(stmt);
+                stmt.executeUpdate("INSERT INTO shard_info (id, name) VALUES (1, '" + shardName.replace("'", "''")
+                        + "') ON CONFLICT (id) DO NOTHING");
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /** Opens the registry database, creating or migrating its schema, and this kiosk's shard. */
+    public static ShardedVoteStore open(String dbUrl, String archivePath, File dir, String shardName)
+            throws StoreException {
+        try {
+            Connection registry = DriverManager.getConnection(dbUrl);
+            VotingDatabase.initialize(registry, archivePath);
+            ShardedVoteStore store = new ShardedVoteStore(registry, dir, shardName);
+            store.ownsRegistry = true;
+            return store;
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    static void createTables(Statement stmt) throws SQLException {
+        // Copies of a shard can be merged with each other, so the shard's name lives in the file
+        stmt.execute("CREATE TABLE IF NOT EXISTS shard_info (id INTEGER PRIMARY KEY CHECK (id = 1), name TEXT NOT NULL)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS ballots (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "election_id INTEGER NOT NULL," +
+                "epoch INTEGER NOT NULL)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS applied_keys (" +
+                "spool_key TEXT PRIMARY KEY," +
+                "election_id INTEGER NOT NULL) WITHOUT ROWID");
+        stmt.execute("CREATE TABLE IF NOT EXISTS ballot_picks (" +
+                "ballot_id INTEGER NOT NULL," +
+                "position TEXT NOT NULL," +
+                "picks INTEGER NOT NULL)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_ballot_picks_ballot ON ballot_picks (ballot_id)");
+        // This shard's entry of each grow-only counter; a reset starts a new epoch's counters
+        stmt.execute("CREATE TABLE IF NOT EXISTS pick_counts (" +
+                "election_id INTEGER NOT NULL," +
+                "epoch INTEGER NOT NULL," +
+                "position TEXT NOT NULL," +
+                "picks INTEGER NOT NULL," +
+                "ballots INTEGER NOT NULL," +
+                "PRIMARY KEY (election_id, epoch, position, picks)) WITHOUT ROWID");
+        stmt.execute("CREATE TABLE IF NOT EXISTS voters (" +
+                "election_id INTEGER NOT NULL," +
+                "epoch INTEGER NOT NULL," +
+                "user_id INTEGER NOT NULL," +
+                "PRIMARY KEY (election_id, epoch, user_id)) WITHOUT ROWID");
+    }
+
+    /** The registry and shard connections the store writes through. */
+    List<Connection> connections() {
+        List<Connection> connections = new ArrayList<>();
+        connections.add(registry);
+        connections.add(own);
+        return connections;
+    }
+
+    /** Whether the database is a shard file, i.e. has its shard_info table. */
+    static boolean isShard(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'shard_info'")) {
+            return rs.next();
+        }
+    }
+
+    static String shardFileName(String shardName) {
+        return shardName.replaceAll("[^A-Za-z0-9._-]", "_") + ".db";
+    }
+
+    static Connection open(File file) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 2000");
+        }
+        return conn;
+    }
+
+    @Override
+    public int createElection(String name) throws StoreException {
+        return registryStore.createElection(name);
+    }
+
+    @Override
+    public int registerUser(String studentId, String name, String password, boolean admin) throws StoreException {
+        return registryStore.registerUser(studentId, name, password, admin);
+    }
+
+    @Override
+    public User authenticate(String studentId, String password) throws StoreException {
+        return registryStore.authenticate(studentId, password);
+    }
+
+    @Override
+    public int addCandidate(int electionId, String name, String position, String role, String imagePath)
+            throws StoreException {
+        return registryStore.addCandidate(electionId, name, position, role, imagePath);
+    }
+
+    @Override
+    public boolean removeCandidate(int candidateId) throws StoreException {
+        return registryStore.removeCandidate(candidateId);
+    }
+
+    @Override
+    public List<Candidate> candidates(int electionId) throws StoreException {
+        return registryStore.candidates(electionId);
+    }
+
+    @Override
+    public void setSeats(int electionId, String position, int seats) throws StoreException {
+        registryStore.setSeats(electionId, position, seats);
+    }
+
+    @Override
+    public Map<String, Integer> seats(int electionId) throws StoreException {
+        return registryStore.seats(electionId);
+    }
+
+    @Override
+    public long ballotRevision(int electionId) throws StoreException {
+        return registryStore.ballotRevision(electionId);
+    }
+
+    @Override
+    public synchronized long castBallot(String key, int electionId, int userId, Map<String, int[]> choices)
+            throws StoreException {
+        try {
+            boolean closed = registryStore.isClosed(electionId);
+            int[] epochs = readEpochs(electionId);
+            // Encoded against the registry's slots and seats
+            Map<String, Long> picks = registryStore.encode(electionId, choices);
+            own.setAutoCommit(false);
+            try {
+                long result = recordBallot(key, electionId, closed, epochs[0], epochs[1], userId, picks);
+                own.commit();
+                return result;
+            } catch (SQLException e) {
+                own.rollback();
+                throw e;
+            } finally {
+                own.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private long recordBallot(String key, int electionId, boolean closed, int voteEpoch, int voterEpoch, int userId,
+                              Map<String, Long> picks) throws SQLException {
+        if (key != null) {
+            try (PreparedStatement check = own.prepareStatement(SqliteVoteStore.BALLOT_KEY_SQL)) {
+                check.setString(1, key);
+                if (check.executeQuery().next()) {
+                    return DUPLICATE;
+                }
+            }
+        }
+        if (closed) {
+            return CLOSED;
+        }
+        if (votedInAnyShard(electionId, voterEpoch, userId)) {
+            return ALREADY_VOTED;
+        }
+        if (picks == null) {
+            return INVALID;
+        }
+
+        long ballotId;
+        try (PreparedStatement ballotStmt = own.prepareStatement(
+                "INSERT INTO ballots (election_id, epoch) VALUES (?, ?)")) {
+            ballotStmt.setInt(1, electionId);
+            ballotStmt.setInt(2, voteEpoch);
+            ballotStmt.executeUpdate();
+            ballotId = ballotStmt.getGeneratedKeys().getLong(1);
+        }
+        if (key != null) {
+            try (PreparedStatement keyStmt = own.prepareStatement(SqliteVoteStore.APPLY_KEY_SQL)) {
+                keyStmt.setString(1, key);
+                keyStmt.setInt(2, electionId);
+                keyStmt.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement picksStmt = own.prepareStatement(
+                "INSERT INTO ballot_picks (ballot_id, position, picks) VALUES (?, ?, ?)");
+             PreparedStatement countStmt = own.prepareStatement(SqliteVoteStore.COUNT_PICKS_SQL)) {
+            for (Map.Entry<String, Long> entry : picks.entrySet()) {
+                picksStmt.setLong(1, ballotId);
+                picksStmt.setString(2, entry.getKey());
+                picksStmt.setLong(3, entry.getValue());
+                picksStmt.executeUpdate();
+
+                countStmt.setInt(1, electionId);
+                countStmt.setInt(2, voteEpoch);
+                countStmt.setString(3, entry.getKey());
+                countStmt.setLong(4, entry.getValue());
+                countStmt.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement pstmt = own.prepareStatement(
+                "INSERT INTO voters (election_id, epoch, user_id) VALUES (?, ?, ?)")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, voterEpoch);
+            pstmt.setInt(3, userId);
+            pstmt.executeUpdate();
+        }
+        return ballotId;
+    }
+
+    @Override
+    public boolean isValidBallot(int electionId, Map<String, int[]> choices) throws StoreException {
+        return registryStore.isValidBallot(electionId, choices);
+    }
+
+    @Override
+    public synchronized boolean hasVoted(int electionId, int userId) throws StoreException {
+        try {
+            return votedInAnyShard(electionId, readEpochs(electionId)[1], userId);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private boolean votedInAnyShard(int electionId, int voterEpoch, int userId) throws SQLException {
+        List<Connection> shards = new ArrayList<>();
+        shards.add(own);
+        for (Map.Entry<File, Connection> peer : peerEntries()) {
+            shards.add(peer.getValue());
+        }
+        for (Connection shard : shards) {
+            try (PreparedStatement pstmt = shard.prepareStatement(
+                    "SELECT 1 FROM voters WHERE election_id = ? AND epoch = ? AND user_id = ?")) {
+                pstmt.setInt(1, electionId);
+                pstmt.setInt(2, voterEpoch);
+                pstmt.setInt(3, userId);
+                if (pstmt.executeQuery().next()) {
+                    return true;
+                }
+            } catch (SQLException e) {
+                // A peer's file can be mid-copy or not yet initialized; its voters are checked next time
+                if (shard == own) {
+                    throw e;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Map<Integer, Long> tally(int electionId) throws StoreException {
+        ShardMerge.Result merged = merge(electionId);
+        try {
+            synchronized (registryStore) {
+                return merged.tally(registryStore.candidates(electionId), SqliteVoteStore.readSlots(registry, electionId));
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized long ballotCount(int electionId) throws StoreException {
+        return merge(electionId).ballots;
+    }
+
+    private ShardMerge.Result merge(int electionId) throws StoreException {
+        try {
+            int[] epochs = readEpochs(electionId);
+            List<ShardMerge.Shard> shards = new ArrayList<>();
+            shards.add(ShardMerge.read(own, ownFile.getName(), electionId, epochs[0], epochs[1]));
+            for (Map.Entry<File, Connection> peer : peerEntries()) {
+                try {
+                    shards.add(ShardMerge.read(peer.getValue(), peer.getKey().getName(), electionId, epochs[0], epochs[1]));
+                } catch (SQLException e) {
+                    System.out.println("Skipping unreadable shard " + peer.getKey() + ": " + e.getMessage());
+                }
+            }
+            return ShardMerge.merge(shards);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /** Resets go to the registry: every shard reads the new epoch on its next ballot. */
+    @Override
+    public void resetVotes(int electionId) throws StoreException {
+        registryStore.resetVotes(electionId);
+    }
+
+    @Override
+    public void resetVoters(int electionId) throws StoreException {
+        registryStore.resetVoters(electionId);
+    }
+
+    @Override
+    public void closeElection(int electionId) throws StoreException {
+        registryStore.closeElection(electionId);
+    }
+
+    @Override
+    public boolean isClosed(int electionId) throws StoreException {
+        return registryStore.isClosed(electionId);
+    }
+
+    private int[] readEpochs(int electionId) throws SQLException {
+        synchronized (registryStore) {
+            return VotingDatabase.readEpochs(registry, electionId);
+        }
+    }
+
+    /**
+     * Connections to the other shard files in the folder, opening any that appeared since
+     * last time. Databases that aren't shards are looked at again only once they change,
+     * since a kiosk's new shard has no tables for a moment.
+     */
+    private List<Map.Entry<File, Connection>> peerEntries() throws SQLException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".db"));
+        if (files != null) {
+            for (File file : files) {
+                if (file.equals(ownFile) || peers.containsKey(file)) {
+                    continue;
+                }
+                long modified = file.lastModified();
+                Long checked = notShards.get(file);
+                if (checked != null && checked == modified) {
+                    continue;
+                }
+                Connection conn = open(file);
+                boolean shard;
+                try {
+                    shard = isShard(conn);
+                } catch (SQLException e) {
+                    // Busy or mid-copy; it is looked at again next time
+                    conn.close();
+                    continue;
+                }
+                if (shard) {
+                    notShards.remove(file);
+                    peers.put(file, conn);
+                } else {
+                    conn.close();
+                    notShards.put(file, modified);
+                }
+            }
+        }
+        return new ArrayList<>(peers.entrySet());
+    }
+
+    @Override
+    public synchronized void close() throws StoreException {
+        try {
+            for (Connection peer : peers.values()) {
+                peer.close();
+            }
+            peers.clear();
+            own.close();
+            if (ownsRegistry) {
+                registry.close();
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+}
@@ -0,0 +1,620 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The application's VoteStore, on the SQLite schema created by VotingDatabase.
+ *
+ * Resets bump the election's vote or voter epoch (see VotingDatabase.readEpochs) and every
+ * read filters on the current epochs, so a reset is a single-row write. A ballot is one
+ * transaction; a {@link BallotListener} can add its own writes to it, which is how the
+ * ballot chain is kept in step with the ballots.
+ *
+ * Besides its ballot_picks rows, a ballot adds one to a counter per position in pick_counts,
+ * keyed by its picks, so a ballot costs the same few writes however many seats it fills.
+ * The tally adds each counter to every candidate whose bit is set in its picks.
+ *
+ * An election is closed by setting its status. Each ballot reads the status in its own
+ * transaction, so a close is a clean cut: a ballot either committed before it or is refused.
+ */
+public class SqliteVoteStore implements VoteStore {
+    public interface BallotListener {
+        void recorded(int voteEpoch, int voterEpoch, long ballotId, int[] candidateIds) throws SQLException;
+    }
+
+    // The statements run per login, ballot or dashboard refresh. QueryPlanCheck checks the
+    // plans of these same strings, so a change here is checked too
+    static final String AUTHENTICATE_SQL =
+            "SELECT id, student_id, name, is_admin FROM users WHERE student_id = ? AND password = ?";
+    static final String HAS_VOTED_SQL =
+            "SELECT EXISTS (SELECT 1 FROM voter_status v JOIN elections e ON e.id = v.election_id " +
+            "WHERE v.election_id = ? AND v.user_id = ? AND v.epoch = e.voter_epoch)";
+    static final String CANDIDATES_SQL =
+            "SELECT id, name, position, role, image_path FROM candidates WHERE election_id = ? " +
+            "ORDER BY position, name";
+    static final String SEATS_SQL =
+            "SELECT position, seats FROM positions WHERE election_id = ? ORDER BY position";
+    static final String BALLOT_KEY_SQL = "SELECT 1 FROM applied_keys WHERE spool_key = ?";
+    static final String APPLY_KEY_SQL = "INSERT INTO applied_keys (spool_key, election_id) VALUES (?, ?)";
+    static final String ELECTION_STATUS_SQL = "SELECT status FROM elections WHERE id = ?";
+    static final String BALLOT_REVISION_SQL = "SELECT ballot_revision FROM elections WHERE id = ?";
+    static final String VOTER_STATUS_SQL =
+            "SELECT 1 FROM voter_status WHERE election_id = ? AND user_id = ? AND epoch = ?";
+    static final String CANDIDATE_SLOTS_SQL =
+            "SELECT s.candidate_id, s.position, s.slot FROM candidate_slots s " +
+            "JOIN candidates c ON c.id = s.candidate_id WHERE s.election_id = ?";
+    static final String COUNT_PICKS_SQL =
+            "INSERT INTO pick_counts (election_id, epoch, position, picks, ballots) VALUES (?, ?, ?, ?, 1) " +
+            "ON CONFLICT (election_id, epoch, position, picks) DO UPDATE SET ballots = ballots + 1";
+    static final String TALLY_SQL =
+            "SELECT p.position, p.picks, p.ballots FROM pick_counts p JOIN elections e ON e.id = p.election_id " +
+            "WHERE p.election_id = ? AND p.epoch = e.vote_epoch";
+    static final String BALLOT_COUNT_SQL =
+            "SELECT COUNT(*) FROM ballots b JOIN elections e ON e.id = b.election_id " +
+            "WHERE b.election_id = ? AND b.epoch = e.vote_epoch";
+
+    private final Connection conn;
+    private final boolean ownsConnection;
+    private BallotListener listener;
+
+    /** A store on a connection whose schema is already initialized; closing the store leaves it open. */
+    public SqliteVoteStore(Connection conn) {
+        this(conn, false);
+    }
+
+    private SqliteVoteStore(Connection conn, boolean ownsConnection) {
+        this.conn = conn;
+        this.ownsConnection = ownsConnection;
+    }
+
+    /** Opens the database, creating or migrating its schema, as a store that owns its connection. */
+    public static SqliteVoteStore open(String dbUrl, String archivePath) throws StoreException {
+        try {
+            Connection conn = DriverManager.getConnection(dbUrl);
+            VotingDatabase.initialize(conn, archivePath);
+            return new SqliteVoteStore(conn, true);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /** The connection the store writes through, for checks that it is left idle. */
+    Connection connection() {
+        return conn;
+    }
+
+    public void setBallotListener(BallotListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized int createElection(String name) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO elections (name) VALUES (?)")) {
+            pstmt.setString(1, name);
+            pstmt.executeUpdate();
+            return pstmt.getGeneratedKeys().getInt(1);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized int registerUser(String studentId, String name, String password, boolean admin)
+            throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR IGNORE INTO users (student_id, name, password, is_admin) VALUES (?, ?, ?, ?)")) {
+            pstmt.setString(1, studentId);
+            pstmt.setString(2, name);
+            pstmt.setString(3, password);
+            pstmt.setBoolean(4, admin);
+            if (pstmt.executeUpdate() == 0) {
+                return -1;
+            }
+            return pstmt.getGeneratedKeys().getInt(1);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized User authenticate(String studentId, String password) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(AUTHENTICATE_SQL)) {
+            pstmt.setString(1, studentId);
+            pstmt.setString(2, password);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            return new User(rs.getInt("id"), rs.getString("student_id"), rs.getString("name"),
+                    rs.getBoolean("is_admin"));
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized int addCandidate(int electionId, String name, String position, String role,
+                                         String imagePath) throws StoreException {
+        // Joins the caller's transaction if there is one (AdminCli imports candidates in one)
+        try {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                int id = insertCandidate(electionId, name, position, role, imagePath);
+                if (autoCommit) {
+                    conn.commit();
+                }
+                return id;
+            } catch (SQLException | StoreException e) {
+                if (autoCommit) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private int insertCandidate(int electionId, String name, String position, String role, String imagePath)
+            throws SQLException, StoreException {
+        requireOpen(electionId);
+        int slot;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT COALESCE(MAX(slot) + 1, 0) FROM candidate_slots WHERE election_id = ? AND position = ?")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setString(2, position);
+            slot = pstmt.executeQuery().getInt(1);
+        }
+        if (slot >= MAX_CANDIDATES_PER_POSITION) {
+            throw new StoreException(position + " already has " + MAX_CANDIDATES_PER_POSITION + " candidates");
+        }
+        bumpBallotRevision(electionId);
+
+        int id;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO candidates (name, position, role, image_path, election_id) VALUES (?, ?, ?, ?, ?)")) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, position);
+            pstmt.setString(3, role);
+            pstmt.setString(4, imagePath);
+            pstmt.setInt(5, electionId);
+            pstmt.executeUpdate();
+            id = pstmt.getGeneratedKeys().getInt(1);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO candidate_slots (election_id, position, slot, candidate_id) VALUES (?, ?, ?, ?)")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setString(2, position);
+            pstmt.setInt(3, slot);
+            pstmt.setInt(4, id);
+            pstmt.executeUpdate();
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized boolean removeCandidate(int candidateId) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM candidates WHERE id = ?")) {
+            try (PreparedStatement election = conn.prepareStatement("SELECT election_id FROM candidates WHERE id = ?")) {
+                election.setInt(1, candidateId);
+                ResultSet rs = election.executeQuery();
+                if (rs.next()) {
+                    requireOpen(rs.getInt(1));
+                    // Before the change, so a crash between the two only makes a bundle look stale
+                    bumpBallotRevision(rs.getInt(1));
+                }
+            }
+            pstmt.setInt(1, candidateId);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Candidate> candidates(int electionId) throws StoreException {
+        List<Candidate> candidates = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(CANDIDATES_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                candidates.add(new Candidate(rs.getInt("id"), electionId, rs.getString("name"),
+                        rs.getString("position"), rs.getString("role"), rs.getString("image_path")));
+            }
+            return candidates;
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized void setSeats(int electionId, String position, int seats) throws StoreException {
+        if (seats < 0) {
+            throw new StoreException("Seats can't be negative");
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO positions (election_id, position, seats) VALUES (?, ?, ?) " +
+                "ON CONFLICT (election_id, position) DO UPDATE SET seats = excluded.seats")) {
+            requireOpen(electionId);
+            bumpBallotRevision(electionId);
+            pstmt.setInt(1, electionId);
+            pstmt.setString(2, position);
+            pstmt.setInt(3, seats);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Integer> seats(int electionId) throws StoreException {
+        try {
+            return readSeats(electionId);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized long ballotRevision(int electionId) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(BALLOT_REVISION_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                throw new StoreException("No election with id " + electionId);
+            }
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private void bumpBallotRevision(int electionId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE elections SET ballot_revision = ballot_revision + 1 WHERE id = ?")) {
+            pstmt.setInt(1, electionId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private Map<String, Integer> readSeats(int electionId) throws SQLException {
+        Map<String, Integer> seats = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SEATS_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                seats.put(rs.getString(1), rs.getInt(2));
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * The ballot's choices as picks per position (bit n set for the candidate in slot n), or
+     * null if it picks a candidate who isn't standing for that position, picks one twice or
+     * picks more candidates than the position has seats. Positions without picks are left out.
+     */
+    synchronized Map<String, Long> encode(int electionId, Map<String, int[]> choices) throws SQLException {
+        Map<String, Integer> seats = readSeats(electionId);
+        // The slots of the election's standing candidates, read once for the whole ballot
+        Map<Integer, String> positionOf = new HashMap<>();
+        Map<Integer, Integer> slotOf = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(CANDIDATE_SLOTS_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                positionOf.put(rs.getInt(1), rs.getString(2));
+                slotOf.put(rs.getInt(1), rs.getInt(3));
+            }
+        }
+
+        Map<String, Long> picks = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : choices.entrySet()) {
+            long bits = 0;
+            for (int candidateId : entry.getValue()) {
+                if (!entry.getKey().equals(positionOf.get(candidateId))) {
+                    return null;
+                }
+                long bit = 1L << slotOf.get(candidateId);
+                if ((bits & bit) != 0) {
+                    return null;
+                }
+                bits |= bit;
+            }
+            if (!VoteStore.allowsPicks(VoteStore.seatsFor(seats, entry.getKey()), Long.bitCount(bits))) {
+                return null;
+            }
+            if (bits != 0) {
+                picks.put(entry.getKey(), bits);
+            }
+        }
+        return picks;
+    }
+
+    /** Position to the id of the candidate in each slot (0 for none), removed candidates included. */
+    static Map<String, int[]> readSlots(Connection conn, int electionId) throws SQLException {
+        Map<String, int[]> slots = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT position, slot, candidate_id FROM candidate_slots WHERE election_id = ?")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                slots.computeIfAbsent(rs.getString(1), p -> new int[MAX_CANDIDATES_PER_POSITION])
+                        [rs.getInt(2)] = rs.getInt(3);
+            }
+        }
+        return slots;
+    }
+
+    /** Adds {@code ballots} to every candidate in the tally whose bit is set in the picks. */
+    static void countPicks(Map<Integer, Long> tally, int[] slots, long picks, long ballots) {
+        if (slots == null) {
+            return;
+        }
+        for (long bits = picks; bits != 0; bits &= bits - 1) {
+            tally.computeIfPresent(slots[Long.numberOfTrailingZeros(bits)], (id, votes) -> votes + ballots);
+        }
+    }
+
+    /**
+     * Votes per candidate standing in the election, zero included, counted from the current
+     * vote epoch's pick_counts. Run it in a read transaction for a consistent count.
+     */
+    static Map<Integer, Long> readTally(Connection conn, int electionId) throws SQLException {
+        Map<Integer, Long> tally = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT id FROM candidates WHERE election_id = ? ORDER BY id")) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                tally.put(rs.getInt(1), 0L);
+            }
+        }
+        Map<String, int[]> slots = readSlots(conn, electionId);
+        try (PreparedStatement pstmt = conn.prepareStatement(TALLY_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                countPicks(tally, slots.get(rs.getString(1)), rs.getLong(2), rs.getLong(3));
+            }
+        }
+        return tally;
+    }
+
+    @Override
+    public synchronized long castBallot(String key, int electionId, int userId, Map<String, int[]> choices)
+            throws StoreException {
+        try {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long result = recordBallot(key, electionId, userId, choices);
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    private long recordBallot(String key, int electionId, int userId, Map<String, int[]> choices) throws SQLException {
+        if (key != null) {
+            try (PreparedStatement check = conn.prepareStatement(BALLOT_KEY_SQL)) {
+                check.setString(1, key);
+                if (check.executeQuery().next()) {
+                    return DUPLICATE;
+                }
+            }
+        }
+
+        // Read inside the transaction, so a close or reset from another process applies to this ballot
+        if (isClosed(status(electionId))) {
+            return CLOSED;
+        }
+        int[] epochs = VotingDatabase.readEpochs(conn, electionId);
+        int voteEpoch = epochs[0];
+        int voterEpoch = epochs[1];
+
+        try (PreparedStatement check = conn.prepareStatement(VOTER_STATUS_SQL)) {
+            check.setInt(1, electionId);
+            check.setInt(2, userId);
+            check.setInt(3, voterEpoch);
+            if (check.executeQuery().next()) {
+                return ALREADY_VOTED;
+            }
+        }
+        Map<String, Long> picks = encode(electionId, choices);
+        if (picks == null) {
+            return INVALID;
+        }
+
+        // Record the ballot itself so the counters can be recounted later
+        long ballotId;
+        try (PreparedStatement ballotStmt = conn.prepareStatement(
+                "INSERT INTO ballots (election_id, epoch) VALUES (?, ?)")) {
+            ballotStmt.setInt(1, electionId);
+            ballotStmt.setInt(2, voteEpoch);
+            ballotStmt.executeUpdate();
+            ballotId = ballotStmt.getGeneratedKeys().getLong(1);
+        }
+        if (key != null) {
+            try (PreparedStatement keyStmt = conn.prepareStatement(APPLY_KEY_SQL)) {
+                keyStmt.setString(1, key);
+                keyStmt.setInt(2, electionId);
+                keyStmt.executeUpdate();
+            }
+        }
+
+        // One row and one counter per position, however many candidates it picks
+        try (PreparedStatement picksStmt = conn.prepareStatement(
+                "INSERT INTO ballot_picks (ballot_id, position, picks) VALUES (?, ?, ?)");
+             PreparedStatement countStmt = conn.prepareStatement(COUNT_PICKS_SQL)) {
+            for (Map.Entry<String, Long> entry : picks.entrySet()) {
+                picksStmt.setLong(1, ballotId);
+                picksStmt.setString(2, entry.getKey());
+                picksStmt.setLong(3, entry.getValue());
+                picksStmt.executeUpdate();
+
+                countStmt.setInt(1, electionId);
+                countStmt.setInt(2, voteEpoch);
+                countStmt.setString(3, entry.getKey());
+                countStmt.setLong(4, entry.getValue());
+                countStmt.executeUpdate();
+            }
+        }
+
+        int[] candidateIds = VoteStore.candidateIds(choices);
+        if (listener != null) {
+            listener.recorded(voteEpoch, voterEpoch, ballotId, candidateIds);
+        }
+
+        // Replaces a status row from an earlier voter epoch, if any
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO voter_status (election_id, user_id, epoch) VALUES (?, ?, ?)")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, userId);
+            pstmt.setInt(3, voterEpoch);
+            pstmt.executeUpdate();
+        }
+        return ballotId;
+    }
+
+    @Override
+    public synchronized boolean isValidBallot(int electionId, Map<String, int[]> choices) throws StoreException {
+        try {
+            return encode(electionId, choices) != null;
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean hasVoted(int electionId, int userId) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(HAS_VOTED_SQL)) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, userId);
+            return pstmt.executeQuery().getBoolean(1);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized Map<Integer, Long> tally(int electionId) throws StoreException {
+        try {
+            // One read transaction, so the candidates and the counters agree
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                return readTally(conn, electionId);
+            } finally {
+                if (autoCommit) {
+                    conn.commit();
+                }
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized long ballotCount(int electionId) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(BALLOT_COUNT_SQL)) {
+            pstmt.setInt(1, electionId);
+            return pstmt.executeQuery().getLong(1);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /**
+     * A single-row write: counters, ballots and the ballot chain of older epochs stop counting
+     * immediately and are cleaned up later by the epoch compactor.
+     */
+    @Override
+    public synchronized void resetVotes(int electionId) throws StoreException {
+        bumpEpoch(electionId, "vote_epoch");
+    }
+
+    @Override
+    public synchronized void resetVoters(int electionId) throws StoreException {
+        bumpEpoch(electionId, "voter_epoch");
+    }
+
+    private void bumpEpoch(int electionId, String column) throws StoreException {
+        try (Statement stmt = conn.createStatement()) {
+            requireOpen(electionId);
+            stmt.executeUpdate("UPDATE elections SET " + column + " = " + column + " + 1 WHERE id = " + electionId);
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /** A single-row write, joining the caller's transaction if there is one. */
+    @Override
+    public synchronized void closeElection(int electionId) throws StoreException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE elections SET status = 'CLOSED', closed_at = COALESCE(closed_at, CURRENT_TIMESTAMP) " +
+                "WHERE id = ? AND status = 'OPEN'")) {
+            pstmt.setInt(1, electionId);
+            if (pstmt.executeUpdate() == 0 && status(electionId) == null) {
+                throw new StoreException("No election with id " + electionId);
+            }
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isClosed(int electionId) throws StoreException {
+        try {
+            return isClosed(status(electionId));
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+
+    /** The election's status, or null if there is no such election. */
+    private String status(int electionId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(ELECTION_STATUS_SQL)) {
+            pstmt.setInt(1, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    // Archived elections are closed too
+    private static boolean isClosed(String status) {
+        return status != null && !status.equals("OPEN");
+    }
+
+    private void requireOpen(int electionId) throws SQLException, StoreException {
+        if (isClosed(status(electionId))) {
+            throw new StoreException("Election " + electionId + " is closed");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws StoreException {
+        if (!ownsConnection) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            throw new StoreException(e);
+        }
+    }
+}
@@ -0,0 +1,863 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Keeps a second copy of the live database up to date, for a kiosk whose disk fails
+ * mid-election. Put the replica on another volume with -Dreplica.path.
+ *
+ * Once replication is enabled, triggers on every table of the live database append the key
+ * of each row written to replication_log, inside the writer's own transaction. A shipper
+ * then copies those rows' current state to the replica. Each pass reads the log and the
+ * rows in one read transaction on the live database, up to the newest entry in that
+ * snapshot (in batches, to bound memory), and applies them in one transaction on the
+ * replica that also records that entry as applied, so the replica is always the live
+ * database as of some earlier moment. Shipped entries are deleted from the log every
+ * half minute, since each deletion is one more writer competing with the kiosks.
+ *
+ * The ballots, their picks, voter_status and the applied spool keys are not logged: a log
+ * of their rows in write order would say which ballot followed which voter's mark, or
+ * which spooled submission (and so which voter) a ballot came from. Each pass instead
+ * copies the ballots after the replica's newest, and compares the tables' row counts (and,
+ * for voter_status and the keys, per-group counts) to find what else changed. The log has
+ * no timestamps either.
+ *
+ * The replica is seeded, and reseeded whenever it can't be caught up, with the backup API.
+ * That happens when the live schema changed, the log was restarted (as on a promoted
+ * replica), or the live database was restored from a snapshot behind the replica. The
+ * archive database is not replicated; snapshots (see DatabaseBackup) cover it.
+ */
+public class StandbyReplica implements AutoCloseable {
+    private static final int BATCH = 2000;
+    private static final String TRIGGER_PREFIX = "replicate_";
+    // Pruning is a write on the live database, so it is batched up rather than done every pass
+    private static final long PRUNE_MILLIS = 30_000;
+    // Written in the voter's own transaction, so reconciled each pass instead of logged
+    private static final String UNLOGGED = "'ballots', 'ballot_picks', 'voter_status', 'applied_keys'";
+
+    private final String dbUrl;
+    private final File replicaFile;
+    private Connection primary;
+    private Connection replica;
+    private final Map<String, Table> tables = new HashMap<>();
+    // Held while shipping; the status fields are read by the dashboard without it
+    private final Object shipLock = new Object();
+
+    private volatile long appliedSeq;
+    private volatile long pending;
+    private volatile long oldestPendingMillis;
+    private volatile long lastShippedMillis;
+    private volatile String lastError;
+    private volatile long failingSinceMillis;
+    private long lastPrunedMillis;
+    // The live schema the open replica was seeded under
+    private String replicaSchema;
+
+    /** How to read and write one table's rows by the key its triggers log. */
+    private static final class Table {
+        final String select;
+        final String delete;
+        final int keyColumns;
+        final boolean withRowid;
+
+        Table(String select, String delete, int keyColumns, boolean withRowid) {
+            this.select = select;
+            this.delete = delete;
+            this.keyColumns = keyColumns;
+            this.withRowid = withRowid;
+        }
+    }
+
+    public StandbyReplica(String dbUrl, File replicaFile) {
+        this.dbUrl = dbUrl;
+        this.replicaFile = replicaFile;
+    }
+
+    /** Starts logging changes to the live database, if it isn't already. */
+    public static void enable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS replication_log (" +
+                    "seq INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "tbl TEXT NOT NULL," +
+                    "row_key TEXT NOT NULL)");
+            // Identifies this log, so a replica fed from another log is reseeded
+            stmt.execute("CREATE TABLE IF NOT EXISTS replication (source TEXT NOT NULL)");
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM replication");
+            boolean hasSource = rs.getInt(1) > 0;
+            rs.close();
+            if (!hasSource) {
+                stmt.executeUpdate("INSERT INTO replication (source) VALUES ('" + UUID.randomUUID() + "')");
+            }
+        }
+        refreshTriggers(conn);
+    }
+
+    /**
+     * Empties the log in a copy of the live database, such as a snapshot, keeping its
+     * position. The freed pages are zeroed, so the entries can't be read back from them.
+     */
+    public static void clearLog(File copy) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy.getPath());
+             Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'replication_log'");
+            boolean enabled = rs.getInt(1) > 0;
+            rs.close();
+            if (enabled) {
+                stmt.execute("PRAGMA secure_delete = ON");
+                stmt.executeUpdate("DELETE FROM replication_log");
+            }
+        }
+    }
+
+    /** Stops logging changes and drops the log. A replica can't be caught up afterwards, only reseeded. */
+    public static void disable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String trigger : triggers(conn)) {
+                stmt.execute("DROP TRIGGER \"" + trigger + "\"");
+            }
+            stmt.execute("DROP TABLE IF EXISTS replication_log");
+            stmt.execute("DROP TABLE IF EXISTS replication");
+        }
+    }
+
+    /**
+     * Recreates the triggers for the current schema if replication is enabled. Called after
+     * every migration, so columns and tables added later are logged too.
+     */
+    public static void refreshTriggers(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'replication_log'");
+            boolean enabled = rs.getInt(1) > 0;
+            rs.close();
+            if (!enabled) {
+                return;
+            }
+            for (String trigger : triggers(conn)) {
+                stmt.execute("DROP TRIGGER \"" + trigger + "\"");
+            }
+            for (Map.Entry<String, List<String>> table : tableKeys(conn).entrySet()) {
+                String name = table.getKey();
+                String prefix = TRIGGER_PREFIX + name;
+                String log = "INSERT INTO replication_log (tbl, row_key) VALUES ('" + name + "', ";
+                stmt.execute("CREATE TRIGGER \"" + prefix + "_insert\" AFTER INSERT ON \"" + name + "\" BEGIN "
+                        + log + keyJson("NEW", table.getValue()) + "); END");
+                stmt.execute("CREATE TRIGGER \"" + prefix + "_update\" AFTER UPDATE ON \"" + name + "\" BEGIN "
+                        + log + keyJson("NEW", table.getValue()) + "); END");
+                // A changed key also leaves the old row behind on the replica
+                List<String> changed = new ArrayList<>();
+                for (String column : table.getValue()) {
+                    changed.add("OLD." + column + " IS NOT NEW." + column);
+                }
+                stmt.execute("CREATE TRIGGER \"" + prefix + "_rekey\" AFTER UPDATE ON \"" + name + "\" WHEN "
+                        + String.join(" OR ", changed) + " BEGIN "
+                        + log + keyJson("OLD", table.getValue()) + "); END");
+                stmt.execute("CREATE TRIGGER \"" + prefix + "_delete\" AFTER DELETE ON \"" + name + "\" BEGIN "
+                        + log + keyJson("OLD", table.getValue()) + "); END");
+            }
+        }
+    }
+
+    /** Ships everything logged so far, reseeding the replica first if it can't be caught up. */
+    public void ship() throws SQLException, IOException {
+        ship(true);
+    }
+
+    /**
+     * Ships everything logged so far. Without {@code reseed}, a replica that can't be caught
+     * up is left alone and this fails, as before promoting it.
+     */
+    public void ship(boolean reseed) throws SQLException, IOException {
+        synchronized (shipLock) {
+            shipLocked(reseed);
+        }
+    }
+
+    private void shipLocked(boolean reseed) throws SQLException, IOException {
+        try {
+            if (primary == null) {
+                primary = DriverManager.getConnection(dbUrl);
+                try (Statement stmt = primary.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout = 1000");
+                }
+                enable(primary);
+            }
+            shipPass(reseed);
+            lastError = null;
+            failingSinceMillis = 0;
+        } catch (SQLException | IOException e) {
+            if (lastError == null) {
+                failingSinceMillis = System.currentTimeMillis();
+            }
+            lastError = e.getMessage();
+            closeConnections();
+            throw e;
+        }
+    }
+
+    /** Applies every log entry in one snapshot of the live database and returns how many it applied. */
+    private int shipPass(boolean reseed) throws SQLException, IOException {
+        String source;
+        String schema;
+        long lastSeq;
+        try (Statement stmt = primary.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT source FROM replication");
+            source = rs.getString(1);
+            rs.close();
+            schema = schemaSignature(primary);
+            rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM sqlite_sequence WHERE name = 'replication_log'");
+            lastSeq = rs.getLong(1);
+            rs.close();
+        }
+
+        if (replica != null && !schema.equals(replicaSchema)) {
+            // Migrated since the replica was opened
+            replica.close();
+            replica = null;
+        }
+        if (replica == null && !openReplica(source, schema, lastSeq)) {
+            if (!reseed) {
+                throw new SQLException("Replica " + replicaFile + " can't be caught up from the live database");
+            }
+            seed();
+            if (!openReplica(source, schema, lastSeq)) {
+                throw new SQLException("The new replica " + replicaFile + " does not match the live database");
+            }
+        }
+
+        int applied = 0;
+        long snapshotMillis = System.currentTimeMillis();
+        Statement replicaStmt = replica.createStatement();
+        replicaStmt.execute("BEGIN IMMEDIATE");
+        try {
+            ResultSet rs = replicaStmt.executeQuery("SELECT applied_seq FROM replica_state");
+            long from = rs.getLong(1);
+            rs.close();
+
+            // One read transaction, and every row is read as of it, so every entry up to its
+            // newest is shipped before that entry is recorded as applied
+            primary.setAutoCommit(false);
+            try {
+                long to;
+                try (Statement stmt = primary.createStatement()) {
+                    ResultSet max = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM replication_log");
+                    to = Math.max(from, max.getLong(1));
+                    max.close();
+                }
+                long next = from;
+                while (next < to) {
+                    Map<String, String> changed = new LinkedHashMap<>();
+                    try (PreparedStatement pstmt = primary.prepareStatement(
+                            "SELECT seq, tbl, row_key FROM replication_log WHERE seq > ? AND seq <= ? ORDER BY seq LIMIT " + BATCH)) {
+                        pstmt.setLong(1, next);
+                        pstmt.setLong(2, to);
+                        ResultSet entries = pstmt.executeQuery();
+                        next = to;
+                        int read = 0;
+                        while (entries.next()) {
+                            String table = entries.getString(2);
+                            changed.put(table + "\n" + entries.getString(3), table);
+                            applied++;
+                            if (++read == BATCH) {
+                                next = entries.getLong(1);
+                            }
+                        }
+                    }
+                    for (Map.Entry<String, String> row : changed.entrySet()) {
+                        String key = row.getKey().substring(row.getKey().indexOf('\n') + 1);
+                        applyRow(row.getValue(), key);
+                    }
+                }
+                if (hasTable(primary, "ballots")) {
+                    applied += reconcileBallots() + reconcileVoters() + reconcileKeys();
+                }
+                try (PreparedStatement pstmt = replica.prepareStatement("UPDATE replica_state SET applied_seq = ?")) {
+                    pstmt.setLong(1, to);
+                    pstmt.executeUpdate();
+                }
+                replicaStmt.execute("COMMIT");
+                appliedSeq = to;
+            } finally {
+                primary.commit();
+                primary.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            try {
+                replicaStmt.execute("ROLLBACK");
+            } catch (SQLException ignored) {
+                // The failed statement already ended the transaction
+            }
+            throw e;
+        } finally {
+            replicaStmt.close();
+        }
+
+        try (Statement stmt = primary.createStatement()) {
+            long now = System.currentTimeMillis();
+            if (now - lastPrunedMillis >= PRUNE_MILLIS) {
+                stmt.executeUpdate("DELETE FROM replication_log WHERE seq <= " + appliedSeq);
+                lastPrunedMillis = now;
+            }
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM replication_log WHERE seq > " + appliedSeq);
+            pending = rs.getLong(1);
+            // Anything still pending was written after this pass's snapshot
+            oldestPendingMillis = snapshotMillis;
+            lastShippedMillis = System.currentTimeMillis();
+            rs.close();
+        }
+        return applied;
+    }
+
+    /**
+     * Copies the ballots (and their picks) after the replica's newest, then, if the replica
+     * still has more rows than the live database, removes the ones compaction or an archive
+     * purge deleted. Returns how many rows it copied or removed.
+     */
+    private int reconcileBallots() throws SQLException {
+        long newest;
+        try (Statement stmt = replica.createStatement()) {
+            newest = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM ballots").getLong(1);
+        }
+        int changed = copyRows("ballots", "SELECT * FROM ballots WHERE id > ?", newest, false);
+        changed += copyRows("ballot_picks", "SELECT rowid, * FROM ballot_picks WHERE ballot_id > ?", newest, true);
+        changed += removeDeleted("ballot_picks", "rowid");
+        changed += removeDeleted("ballots", "id");
+        return changed;
+    }
+
+    /** Inserts or replaces every row the query (taking one id) returns on the replica. */
+    private int copyRows(String table, String select, long after, boolean withRowid) throws SQLException {
+        int copied = 0;
+        try (PreparedStatement pstmt = primary.prepareStatement(select)) {
+            pstmt.setLong(1, after);
+            ResultSet rs = pstmt.executeQuery();
+            ResultSetMetaData meta = rs.getMetaData();
+            List<String> columns = new ArrayList<>();
+            List<String> placeholders = new ArrayList<>();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(i == 1 && withRowid ? "rowid" : "\"" + meta.getColumnName(i) + "\"");
+                placeholders.add("?");
+            }
+            try (PreparedStatement insert = replica.prepareStatement("INSERT OR REPLACE INTO \"" + table + "\" ("
+                    + String.join(", ", columns) + ") VALUES (" + String.join(", ", placeholders) + ")")) {
+                while (rs.next()) {
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        insert.setObject(i, rs.getObject(i));
+                    }
+                    insert.executeUpdate();
+                    copied++;
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Deletes the replica's rows whose integer key the live database no longer has. Only
+     * compares the keys when the row counts differ, since rows are otherwise only added.
+     */
+    private int removeDeleted(String table, String key) throws SQLException {
+        String count = "SELECT COUNT(*) FROM " + table;
+        try (Statement live = primary.createStatement(); Statement copy = replica.createStatement()) {
+            if (live.executeQuery(count).getLong(1) == copy.executeQuery(count).getLong(1)) {
+                return 0;
+            }
+            String keys = "SELECT " + key + " FROM " + table + " ORDER BY " + key;
+            ResultSet liveKeys = live.executeQuery(keys);
+            ResultSet copyKeys = copy.executeQuery(keys);
+            List<Long> gone = new ArrayList<>();
+            boolean more = liveKeys.next();
+            while (copyKeys.next()) {
+                long id = copyKeys.getLong(1);
+                while (more && liveKeys.getLong(1) < id) {
+                    more = liveKeys.next();
+                }
+                if (!more || liveKeys.getLong(1) != id) {
+                    gone.add(id);
+                }
+            }
+            try (PreparedStatement delete = replica.prepareStatement(
+                    "DELETE FROM " + table + " WHERE " + key + " = ?")) {
+                for (long id : gone) {
+                    delete.setLong(1, id);
+                    delete.executeUpdate();
+                }
+            }
+            return gone.size();
+        }
+    }
+
+    /**
+     * Brings the replica's voter_status to the live database's: for each election and epoch
+     * whose voters differ (by count and sum of ids), copies the missing marks and deletes
+     * the ones that are gone. Returns how many it copied or deleted.
+     */
+    private int reconcileVoters() throws SQLException {
+        String groups = "SELECT election_id, epoch, COUNT(*), SUM(user_id), SUM(user_id * user_id) " +
+                "FROM voter_status GROUP BY election_id, epoch";
+        Map<String, String> live = voterGroups(primary, groups);
+        Map<String, String> copy = voterGroups(replica, groups);
+        List<String> changedGroups = new ArrayList<>();
+        for (Map.Entry<String, String> group : live.entrySet()) {
+            if (!group.getValue().equals(copy.get(group.getKey()))) {
+                changedGroups.add(group.getKey());
+            }
+        }
+        for (String group : copy.keySet()) {
+            if (!live.containsKey(group)) {
+                changedGroups.add(group);
+            }
+        }
+
+        int changed = 0;
+        for (String group : changedGroups) {
+            String[] parts = group.split(" ");
+            int electionId = Integer.parseInt(parts[0]);
+            int epoch = Integer.parseInt(parts[1]);
+            List<Integer> liveVoters = voters(primary, electionId, epoch);
+            List<Integer> copyVoters = voters(replica, electionId, epoch);
+            try (PreparedStatement delete = replica.prepareStatement(
+                         "DELETE FROM voter_status WHERE election_id = ? AND user_id = ? AND epoch = ?");
+                 PreparedStatement insert = replica.prepareStatement(
+                         "INSERT OR REPLACE INTO voter_status (election_id, user_id, epoch) VALUES (?, ?, ?)")) {
+                for (PreparedStatement pstmt : new PreparedStatement[] { delete, insert }) {
+                    pstmt.setInt(1, electionId);
+                    pstmt.setInt(3, epoch);
+                }
+                for (int userId : copyVoters) {
+                    if (Collections.binarySearch(liveVoters, userId) < 0) {
+                        delete.setInt(2, userId);
+                        delete.executeUpdate();
+                        changed++;
+                    }
+                }
+                for (int userId : liveVoters) {
+                    if (Collections.binarySearch(copyVoters, userId) < 0) {
+                        insert.setInt(2, userId);
+                        insert.executeUpdate();
+                        changed++;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Brings the replica's applied spool keys to the live database's. The keys are random, so
+     * they are grouped by election and first two characters; only groups whose counts differ
+     * are compared key by key. An election's keys are only added until an archive purge
+     * deletes them all, so equal counts mean equal keys. Returns how many it copied or deleted.
+     */
+    private int reconcileKeys() throws SQLException {
+        String groups = "SELECT election_id, substr(spool_key, 1, 2), COUNT(*) FROM applied_keys GROUP BY 1, 2";
+        Map<String, Long> live = keyGroups(primary, groups);
+        Map<String, Long> copy = keyGroups(replica, groups);
+        List<String> changedGroups = new ArrayList<>();
+        for (Map.Entry<String, Long> group : live.entrySet()) {
+            if (!group.getValue().equals(copy.get(group.getKey()))) {
+                changedGroups.add(group.getKey());
+            }
+        }
+        for (String group : copy.keySet()) {
+            if (!live.containsKey(group)) {
+                changedGroups.add(group);
+            }
+        }
+
+        int changed = 0;
+        for (String group : changedGroups) {
+            int electionId = Integer.parseInt(group.substring(0, group.indexOf(' ')));
+            String prefix = group.substring(group.indexOf(' ') + 1);
+            List<String> liveKeys = keys(primary, electionId, prefix);
+            List<String> copyKeys = keys(replica, electionId, prefix);
+            try (PreparedStatement delete = replica.prepareStatement("DELETE FROM applied_keys WHERE spool_key = ?");
+                 PreparedStatement insert = replica.prepareStatement(
+                         "INSERT OR REPLACE INTO applied_keys (spool_key, election_id) VALUES (?, ?)")) {
+                for (String key : copyKeys) {
+                    if (Collections.binarySearch(liveKeys, key) < 0) {
+                        delete.setString(1, key);
+                        delete.executeUpdate();
+                        changed++;
+                    }
+                }
+                insert.setInt(2, electionId);
+                for (String key : liveKeys) {
+                    if (Collections.binarySearch(copyKeys, key) < 0) {
+                        insert.setString(1, key);
+                        insert.executeUpdate();
+                        changed++;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static Map<String, Long> keyGroups(Connection conn, String sql) throws SQLException {
+        Map<String, Long> groups = new HashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(sql);
+            while (rs.next()) {
+                groups.put(rs.getInt(1) + " " + rs.getString(2), rs.getLong(3));
+            }
+        }
+        return groups;
+    }
+
+    /** The election's keys starting with the prefix, in the order String.compareTo sorts them. */
+    private static List<String> keys(Connection conn, int electionId, String prefix) throws SQLException {
+        List<String> keys = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT spool_key FROM applied_keys WHERE spool_key >= ? AND spool_key < ? AND election_id = ?")) {
+            pstmt.setString(1, prefix);
+            pstmt.setString(2, prefix + Character.MAX_VALUE);
+            pstmt.setInt(3, electionId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                keys.add(rs.getString(1));
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static boolean hasTable(Connection conn, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, table);
+            return pstmt.executeQuery().getInt(1) > 0;
+        }
+    }
+
+    private static Map<String, String> voterGroups(Connection conn, String sql) throws SQLException {
+        Map<String, String> groups = new HashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(sql);
+            while (rs.next()) {
+                groups.put(rs.getInt(1) + " " + rs.getInt(2), rs.getLong(3) + " " + rs.getLong(4) + " " + rs.getLong(5));
+            }
+        }
+        return groups;
+    }
+
+    private static List<Integer> voters(Connection conn, int electionId, int epoch) throws SQLException {
+        List<Integer> voters = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT user_id FROM voter_status WHERE election_id = ? AND epoch = ? ORDER BY user_id")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setInt(2, epoch);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                voters.add(rs.getInt(1));
+            }
+        }
+        return voters;
+    }
+
+    /** Copies one row's current state to the replica, or deletes it there if it is gone. */
+    private void applyRow(String table, String key) throws SQLException {
+        Table info = tables.get(table);
+        if (info == null) {
+            throw new SQLException("Table " + table + " has no replication triggers");
+        }
+        try (PreparedStatement select = primary.prepareStatement(info.select)) {
+            for (int i = 1; i <= info.keyColumns; i++) {
+                select.setString(i, key);
+            }
+            ResultSet rs = select.executeQuery();
+            if (rs.next()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                List<String> columns = new ArrayList<>();
+                List<String> placeholders = new ArrayList<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    columns.add(i == 1 && info.withRowid ? "rowid" : "\"" + meta.getColumnName(i) + "\"");
+                    placeholders.add("?");
+                }
+                try (PreparedStatement insert = replica.prepareStatement("INSERT OR REPLACE INTO \"" + table + "\" ("
+                        + String.join(", ", columns) + ") VALUES (" + String.join(", ", placeholders) + ")")) {
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        insert.setObject(i, rs.getObject(i));
+                    }
+                    insert.executeUpdate();
+                }
+            } else {
+                try (PreparedStatement delete = replica.prepareStatement(info.delete)) {
+                    for (int i = 1; i <= info.keyColumns; i++) {
+                        delete.setString(i, key);
+                    }
+                    delete.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the replica and checks that it was seeded from this log, under this schema, and
+     * is not ahead of it. False if it has to be reseeded.
+     */
+    private boolean openReplica(String source, String schema, long lastSeq) throws SQLException {
+        if (!replicaFile.isFile()) {
+            return false;
+        }
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + replicaFile.getPath());
+        boolean usable = false;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            ResultSet rs = stmt.executeQuery("SELECT source, schema, applied_seq FROM replica_state");
+            usable = rs.next() && rs.getString(1).equals(source) && rs.getString(2).equals(schema)
+                    && rs.getLong(3) <= lastSeq;
+            long applied = usable ? rs.getLong(3) : 0;
+            rs.close();
+            if (usable) {
+                // Entries after the replica's must all still be in the log
+                try (Statement primaryStmt = primary.createStatement()) {
+                    ResultSet oldest = primaryStmt.executeQuery("SELECT MIN(seq) FROM replication_log");
+                    long min = oldest.getLong(1);
+                    usable = oldest.wasNull() ? applied == lastSeq : min <= applied + 1;
+                    oldest.close();
+                }
+            }
+            appliedSeq = applied;
+        } catch (SQLException e) {
+            // Not a replica, or a damaged one
+            usable = false;
+        } finally {
+            if (!usable) {
+                conn.close();
+            }
+        }
+        if (usable) {
+            replica = conn;
+            replicaSchema = schema;
+            loadTables();
+        }
+        return usable;
+    }
+
+    /** Copies the live database over the replica with the backup API, then marks it as a replica. */
+    private void seed() throws SQLException, IOException {
+        File partial = new File(replicaFile.getPath() + ".partial");
+        Files.deleteIfExists(partial.toPath());
+        try (Statement stmt = primary.createStatement()) {
+            stmt.executeUpdate("backup main to " + DatabaseBackup.quote(partial));
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + partial.getPath());
+             Statement stmt = conn.createStatement()) {
+            // A single file is simpler to move into place and to promote
+            stmt.execute("PRAGMA journal_mode=DELETE");
+            // The copy's own log says how far it goes; the copy itself must not log
+            ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM sqlite_sequence WHERE name = 'replication_log'");
+            long applied = rs.getLong(1);
+            rs.close();
+            rs = stmt.executeQuery("SELECT source FROM replication");
+            String source = rs.getString(1);
+            rs.close();
+            String schema = schemaSignature(conn);
+            disable(conn);
+            stmt.execute("CREATE TABLE replica_state (source TEXT NOT NULL, schema TEXT NOT NULL, " +
+                    "applied_seq INTEGER NOT NULL, seeded_at INTEGER NOT NULL)");
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO replica_state VALUES (?, ?, ?, ?)")) {
+                pstmt.setString(1, source);
+                pstmt.setString(2, schema);
+                pstmt.setLong(3, applied);
+                pstmt.setLong(4, System.currentTimeMillis());
+                pstmt.executeUpdate();
+            }
+        }
+        String problem = DatabaseBackup.quickCheck(partial);
+        if (problem != null) {
+            Files.deleteIfExists(partial.toPath());
+            throw new IOException("The new replica failed its check: " + problem);
+        }
+        Files.move(partial.toPath(), replicaFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Standby replica " + replicaFile + " seeded from the live database");
+    }
+
+    private void loadTables() throws SQLException {
+        tables.clear();
+        for (Map.Entry<String, List<String>> table : tableKeys(primary).entrySet()) {
+            List<String> keys = table.getValue();
+            boolean withRowid = keys.size() == 1 && keys.get(0).equals("rowid");
+            List<String> match = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                match.add(keys.get(i) + " = json_extract(?, '$[" + i + "]')");
+            }
+            String where = " WHERE " + String.join(" AND ", match);
+            tables.put(table.getKey(), new Table(
+                    "SELECT " + (withRowid ? "rowid, " : "") + "* FROM \"" + table.getKey() + "\"" + where,
+                    "DELETE FROM \"" + table.getKey() + "\"" + where, keys.size(), withRowid));
+        }
+    }
+
+    /**
+     * Replication lag as shown to admins, as of the last pass. Includes how long the oldest
+     * unshipped change has waited at most (since that pass's snapshot), which keeps growing
+     * while the shipper is failing.
+     */
+    public String status() {
+        if (lastError != null) {
+            return String.format("Standby replica failing for %d s: %s",
+                    (System.currentTimeMillis() - failingSinceMillis) / 1000, lastError);
+        }
+        if (lastShippedMillis == 0) {
+            return "Standby replica starting";
+        }
+        if (pending == 0) {
+            return "Standby replica up to date";
+        }
+        return String.format("Standby replica %d changes behind (%.1f s)", pending,
+                (System.currentTimeMillis() - oldestPendingMillis) / 1000.0);
+    }
+
+    /** Whether the last pass failed. */
+    public boolean isFailing() {
+        return lastError != null;
+    }
+
+    /** The log position the replica has applied. */
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    @Override
+    public void close() {
+        synchronized (shipLock) {
+            closeConnections();
+        }
+    }
+
+    private void closeConnections() {
+        tables.clear();
+        for (Connection conn : new Connection[] { primary, replica }) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        primary = null;
+        replica = null;
+    }
+
+    /**
+     * Makes the replica the live database: checks it, strips its replica bookkeeping and moves
+     * a copy of it over {@code primaryFile}, dropping the old database's WAL. Kiosks must be
+     * stopped; when they restart with -Dreplica.path, the replica is reseeded from the new
+     * live database.
+     */
+    public static long promote(File replicaFile, File primaryFile) throws SQLException, IOException {
+        String problem = DatabaseBackup.quickCheck(replicaFile);
+        if (problem != null) {
+            throw new IOException("Replica " + replicaFile + " failed its check: " + problem);
+        }
+        File copy = new File(primaryFile.getPath() + ".promote");
+        Files.copy(replicaFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long applied;
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy.getPath());
+             Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT applied_seq FROM replica_state");
+            applied = rs.getLong(1);
+            rs.close();
+            stmt.execute("DROP TABLE replica_state");
+            stmt.execute("PRAGMA journal_mode=WAL");
+        }
+        // A stale WAL would be replayed into the promoted file
+        Files.deleteIfExists(new File(primaryFile.getPath() + "-wal").toPath());
+        Files.deleteIfExists(new File(primaryFile.getPath() + "-shm").toPath());
+        Files.move(copy.toPath(), primaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return applied;
+    }
+
+    /** Each logged table's key columns: its primary key, or rowid for a table with a rowid. */
+    private static Map<String, List<String>> tableKeys(Connection conn) throws SQLException {
+        Map<String, List<String>> keys = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            Map<String, String> tables = new LinkedHashMap<>();
+            ResultSet rs = stmt.executeQuery("SELECT name, sql FROM sqlite_master WHERE type = 'table' "
+                    + "AND name NOT LIKE 'sqlite_%' AND name NOT IN ('replication_log', 'replication', " + UNLOGGED + ") "
+                    + "ORDER BY name");
+            while (rs.next()) {
+                tables.put(rs.getString(1), rs.getString(2));
+            }
+            rs.close();
+            for (Map.Entry<String, String> table : tables.entrySet()) {
+                List<String> columns = new ArrayList<>();
+                if (table.getValue().toUpperCase().contains("WITHOUT ROWID")) {
+                    rs = stmt.executeQuery("PRAGMA table_info(\"" + table.getKey() + "\")");
+                    Map<Integer, String> byPosition = new TreeMap<>();
+                    while (rs.next()) {
+                        if (rs.getInt("pk") > 0) {
+                            byPosition.put(rs.getInt("pk"), "\"" + rs.getString("name") + "\"");
+                        }
+                    }
+                    rs.close();
+                    columns.addAll(byPosition.values());
+                } else {
+                    columns.add("rowid");
+                }
+                keys.put(table.getKey(), columns);
+            }
+        }
+        return keys;
+    }
+
+    private static List<String> triggers(Connection conn) throws SQLException {
+        List<String> triggers = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'trigger' "
+                    + "AND name LIKE '" + TRIGGER_PREFIX + "%'");
+            while (rs.next()) {
+                triggers.add(rs.getString(1));
+            }
+            rs.close();
+        }
+        return triggers;
+    }
+
+    private static String keyJson(String row, List<String> columns) {
+        List<String> values = new ArrayList<>();
+        for (String column : columns) {
+            values.add(row + "." + column);
+        }
+        return "json_array(" + String.join(", ", values) + ")";
+    }
+
+    /** A hash of the tables and indexes, so a schema migration makes the replica reseed. */
+    private static String schemaSignature(Connection conn) throws SQLException {
+        StringBuilder schema = new StringBuilder();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT sql FROM sqlite_master WHERE type IN ('table', 'index') "
+                    + "AND sql IS NOT NULL AND name NOT IN ('replication_log', 'replication', 'replica_state') "
+                    + "ORDER BY name");
+            while (rs.next()) {
+                schema.append(rs.getString(1)).append(";\n");
+            }
+            rs.close();
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return BallotChain.toHex(digest.digest(schema.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Recomputes every candidate's total in an election from the recorded ballots and compares
+ * it with the stored counters and the election's voter status rows. Only the current vote
+ * and voter epochs are considered; older ones have been reset.
+ *
+ * A database upgraded from the single-election schema starts with totals that have no
+ * ballots behind them (see adopted_totals). Until the first reset they are added to the
+ * recount as they were adopted and listed separately, since nothing is left to check them against.
+ *
+ * The stored state is read once in a single read transaction, which under WAL gives a
+ * consistent snapshot (a ballot and its counter increments commit together). The ballots
+ * up to that snapshot are then counted in parallel over ID ranges, each range on its own
+ * connection, so voting can continue while the recount runs.
+ */
+public class TallyRecount {
+    private static final long MIN_RANGE = 5_000;
+    // Also checked by QueryPlanCheck
+    static final String RANGE_PICKS_SQL = "SELECT p.position, p.picks, COUNT(*) FROM ballots b " +
+            "JOIN ballot_picks p ON p.ballot_id = b.id " +
+            "WHERE b.election_id = ? AND b.epoch = ? AND b.id BETWEEN ? AND ? GROUP BY p.position, p.picks";
+
+    private final String dbUrl;
+    private final int electionId;
+    private final ForkJoinPool pool;
+    // Position to candidate id by slot, read with the snapshot
+    private final Map<String, int[]> slots = new HashMap<>();
+
+    public TallyRecount(String dbUrl, int electionId) {
+        this(dbUrl, electionId, ForkJoinPool.commonPool());
+    }
+
+    public TallyRecount(String dbUrl, int electionId, ForkJoinPool pool) {
+        this.dbUrl = dbUrl;
+        this.electionId = electionId;
+        this.pool = pool;
+    }
+
+    public Result run() throws SQLException {
+        Result result = new Result();
+        int voteEpoch;
+        long minId;
+        long maxId;
+
+        try (Connection snapshot = DriverManager.getConnection(dbUrl)) {
+            snapshot.setAutoCommit(false);
+            try (Statement stmt = snapshot.createStatement()) {
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT vote_epoch, voter_epoch, adopted_voters FROM elections WHERE id = " + electionId);
+                voteEpoch = rs.getInt(1);
+                int voterEpoch = rs.getInt(2);
+                result.adoptedVoters = voterEpoch == 0 ? rs.getLong(3) : 0;
+                if (voteEpoch == 0) {
+                    rs = stmt.executeQuery("SELECT candidate_id, votes FROM adopted_totals " +
+                            "WHERE election_id = " + electionId);
+                    while (rs.next()) {
+                        result.adopted.put(rs.getInt(1), rs.getLong(2));
+                    }
+                }
+
+                rs = stmt.executeQuery("SELECT COALESCE(MIN(id), 1), COALESCE(MAX(id), 0) " +
+                        "FROM ballots WHERE election_id = " + electionId + " AND epoch = " + voteEpoch);
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+
+                rs = stmt.executeQuery("SELECT id, name, position FROM candidates " +
+                        "WHERE election_id = " + electionId + " ORDER BY position, name");
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    result.names.put(id, rs.getString("name"));
+                    result.positions.put(id, rs.getString("position"));
+                }
+                result.stored.putAll(SqliteVoteStore.readTally(snapshot, electionId));
+
+                rs = stmt.executeQuery("SELECT COUNT(*) FROM voter_status WHERE election_id = " + electionId +
+                        " AND epoch = " + voterEpoch);
+                result.storedTurnout = rs.getLong(1);
+                slots.putAll(SqliteVoteStore.readSlots(snapshot, electionId));
+            } finally {
+                snapshot.commit();
+            }
+        }
+
+        long chunk = Math.max(MIN_RANGE, (maxId - minId + 1) / (pool.getParallelism() * 4L));
+        Counts counts = maxId < minId ? new Counts() : pool.invoke(new RangeTask(voteEpoch, minId, maxId, chunk));
+
+        result.ballotsCounted = counts.ballots;
+        result.recounted.putAll(counts.perCandidate);
+        result.adopted.forEach((id, n) -> result.recounted.merge(id, n, Long::sum));
+        result.lastBallotId = maxId;
+        result.compare();
+        return result;
+    }
+
+    private static class Counts {
+        long ballots;
+        final Map<Integer, Long> perCandidate = new HashMap<>();
+
+        Counts merge(Counts other) {
+            ballots += other.ballots;
+            other.perCandidate.forEach((id, n) -> perCandidate.merge(id, n, Long::sum));
+            return this;
+        }
+    }
+
+    private class RangeTask extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+
+        private final int epoch;
+        private final long from;
+        private final long to;
+        private final long chunk;
+
+        RangeTask(int epoch, long from, long to, long chunk) {
+            this.epoch = epoch;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (to - from + 1 <= chunk) {
+                return countRange();
+            }
+            long mid = from + (to - from) / 2;
+            RangeTask left = new RangeTask(epoch, from, mid, chunk);
+            left.fork();
+            Counts right = new RangeTask(epoch, mid + 1, to, chunk).compute();
+            return left.join().merge(right);
+        }
+
+        private Counts countRange() {
+            Counts counts = new Counts();
+            try (Connection c = DriverManager.getConnection(dbUrl)) {
+                PreparedStatement ballots = c.prepareStatement(
+                        "SELECT COUNT(*) FROM ballots WHERE election_id = ? AND epoch = ? AND id BETWEEN ? AND ?");
+                ballots.setInt(1, electionId);
+                ballots.setInt(2, epoch);
+                ballots.setLong(3, from);
+                ballots.setLong(4, to);
+                counts.ballots = ballots.executeQuery().getLong(1);
+
+                // Ballots are grouped by their distinct picks, then each group counts once per set bit
+                PreparedStatement picks = c.prepareStatement(RANGE_PICKS_SQL);
+                picks.setInt(1, electionId);
+                picks.setInt(2, epoch);
+                picks.setLong(3, from);
+                picks.setLong(4, to);
+                ResultSet rs = picks.executeQuery();
+                while (rs.next()) {
+                    int[] candidates = slots.get(rs.getString(1));
+                    long n = rs.getLong(3);
+                    for (long bits = rs.getLong(2); bits != 0; bits &= bits - 1) {
+                        counts.perCandidate.merge(candidates[Long.numberOfTrailingZeros(bits)], n, Long::sum);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Recount of ballots " + from + "-" + to + " failed", e);
+            }
+            return counts;
+        }
+    }
+
+    public static class Result {
+        private final Map<Integer, String> names = new HashMap<>();
+        private final Map<Integer, String> positions = new HashMap<>();
+        private final Map<Integer, Long> stored = new HashMap<>();
+        private final Map<Integer, Long> recounted = new HashMap<>();
+        // Carried over from the single-election schema, included in recounted
+        private final Map<Integer, Long> adopted = new HashMap<>();
+        private final List<String> discrepancies = new ArrayList<>();
+        private long storedTurnout;
+        private long ballotsCounted;
+        private long adoptedVoters;
+        private long lastBallotId;
+
+        private void compare() {
+            for (Map.Entry<Integer, Long> entry : stored.entrySet()) {
+                long counted = recounted.getOrDefault(entry.getKey(), 0L);
+                if (counted != entry.getValue()) {
+                    discrepancies.add(String.format("%s (%s): stored %d, recounted %d",
+                            names.get(entry.getKey()), positions.get(entry.getKey()), entry.getValue(), counted));
+                }
+            }
+            for (Map.Entry<Integer, Long> entry : recounted.entrySet()) {
+                if (!stored.containsKey(entry.getKey())) {
+                    discrepancies.add(String.format("Candidate #%d no longer exists but has %d recorded ballots",
+                            entry.getKey(), entry.getValue()));
+                }
+            }
+            if (storedTurnout != ballotsCounted + adoptedVoters) {
+                discrepancies.add(String.format("Turnout: %d voters marked as voted, %d ballots recorded",
+                        storedTurnout, ballotsCounted) + (adoptedVoters > 0 ? " and " + adoptedVoters + " adopted" : ""));
+            }
+        }
+
+        public boolean isConsistent() {
+            return discrepancies.isEmpty();
+        }
+
+        public List<String> getDiscrepancies() {
+            return discrepancies;
+        }
+
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Recount up to ballot #").append(lastBallotId).append("\n");
+            sb.append("Ballots counted: ").append(ballotsCounted)
+                    .append(", voters marked as voted: ").append(storedTurnout).append("\n");
+            if (adoptedVoters > 0 || !adopted.isEmpty()) {
+                sb.append("Adopted from the single-election schema, with no ballots to recount: ")
+                        .append(adoptedVoters).append(" voters, ")
+                        .append(adopted.values().stream().mapToLong(Long::longValue).sum()).append(" votes\n");
+            }
+            sb.append("\n");
+
+            Map<String, List<Integer>> byPosition = new TreeMap<>();
+            for (Integer id : stored.keySet()) {
+                byPosition.computeIfAbsent(positions.get(id), k -> new ArrayList<>()).add(id);
+            }
+            for (Map.Entry<String, List<Integer>> entry : byPosition.entrySet()) {
+                sb.append("=== ").append(entry.getKey().toUpperCase()).append(" ===\n");
+                for (Integer id : entry.getValue()) {
+                    sb.append(String.format("%-25s: stored %d, recounted %d",
+                            names.get(id), stored.get(id), recounted.getOrDefault(id, 0L)));
+                    if (adopted.containsKey(id)) {
+                        sb.append(" (").append(adopted.get(id)).append(" adopted)");
+                    }
+                    sb.append("\n");
+                }
+                sb.append("\n");
+            }
+
+            if (discrepancies.isEmpty()) {
+                sb.append("No discrepancies found.\n");
+            } else {
+                sb.append(discrepancies.size()).append(" discrepancies found:\n");
+                for (String d : discrepancies) {
+                    sb.append("  - ").append(d).append("\n");
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-minute turnout for this kiosk, kept in a fixed-size ring covering the last day.
+ *
+ * Each slot is one long holding the minute it belongs to (high bits) and the number of
+ * ballots recorded in that minute (low 24 bits), so recording a ballot is a single CAS with
+ * no allocation and no lock; a slot whose minute has passed is reclaimed by the next ballot
+ * that maps to it. The oldest minute counted since the last flush is tracked too, since a
+ * spooled ballot can be recorded well after it was cast. The ring is written to the
+ * turnout_minutes table periodically, from that minute on, one row
+ * per election, kiosk and minute, and the admin chart reads it back from there so every
+ * kiosk sharing the database shows up.
+ */
+public class TurnoutSeries {
+    public static final int MINUTES = 24 * 60;
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // Also checked by QueryPlanCheck
+    static final String MINUTE_TOTALS_SQL = "SELECT minute, SUM(votes) FROM turnout_minutes " +
+            "WHERE election_id = ? AND minute > ? GROUP BY minute";
+
+    private final String kiosk;
+    private final AtomicLongArray slots = new AtomicLongArray(MINUTES);
+    // Oldest minute counted into since the last flush, or Long.MAX_VALUE if none
+    private final AtomicLong dirtyFrom = new AtomicLong(Long.MAX_VALUE);
+
+    public TurnoutSeries(String kiosk) {
+        this.kiosk = kiosk;
+    }
+
+    public static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS turnout_minutes (" +
+                "election_id INTEGER NOT NULL," +
+                "kiosk TEXT NOT NULL," +
+                "minute INTEGER NOT NULL," +
+                "votes INTEGER NOT NULL," +
+                "PRIMARY KEY (election_id, minute, kiosk)) WITHOUT ROWID");
+    }
+
+    public String kiosk() {
+        return kiosk;
+    }
+
+    /** Counts one ballot cast at the given time. Ballots older than the ring are ignored. */
+    public void record(long atMillis) {
+        long minute = atMillis / 60_000;
+        int slot = (int) (minute % MINUTES);
+        while (true) {
+            long current = slots.get(slot);
+            long stamp = current >>> COUNT_BITS;
+            long next;
+            if (stamp == minute) {
+                next = current + 1;
+            } else if (stamp < minute) {
+                next = (minute << COUNT_BITS) | 1;
+            } else {
+                return;
+            }
+            if (slots.compareAndSet(slot, current, next)) {
+                break;
+            }
+        }
+        long dirty;
+        while (minute < (dirty = dirtyFrom.get()) && !dirtyFrom.compareAndSet(dirty, minute)) {
+            // Lost a race with another ballot or a flush; look again
+        }
+    }
+
+    /** Ballots this kiosk recorded in the given minute, if it is still in the ring. */
+    public long count(long minute) {
+        long current = slots.get((int) (minute % MINUTES));
+        return current >>> COUNT_BITS == minute ? current & COUNT_MASK : 0;
+    }
+
+    /** Refills the ring from this kiosk's stored rows, so a restart doesn't lose the current minute. */
+    public synchronized void load(Connection conn, int electionId) throws SQLException {
+        long now = System.currentTimeMillis() / 60_000;
+        for (int i = 0; i < MINUTES; i++) {
+            slots.set(i, 0);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT minute, votes FROM turnout_minutes WHERE election_id = ? AND kiosk = ? AND minute > ?")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setString(2, kiosk);
+            pstmt.setLong(3, now - MINUTES);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                long minute = rs.getLong(1);
+                slots.set((int) (minute % MINUTES), (minute << COUNT_BITS) | Math.min(COUNT_MASK, rs.getLong(2)));
+            }
+        }
+        dirtyFrom.set(Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes every minute counted into since the last flush. Counts only grow, so a row is
+     * never lowered by a flush that raced with a newer one. If the write fails, those
+     * minutes are written by the next flush.
+     */
+    public synchronized void flush(Connection conn, int electionId) throws SQLException {
+        long now = System.currentTimeMillis() / 60_000;
+        // A ballot counted from here on marks its minute again for the next flush
+        long dirty = dirtyFrom.getAndSet(Long.MAX_VALUE);
+        if (dirty == Long.MAX_VALUE) {
+            return;
+        }
+        long from = Math.max(Math.min(dirty, now), now - MINUTES + 1);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO turnout_minutes (election_id, kiosk, minute, votes) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (election_id, minute, kiosk) DO UPDATE SET votes = MAX(votes, excluded.votes)")) {
+            for (long minute = from; minute <= now; minute++) {
+                long votes = count(minute);
+                if (votes == 0) {
+                    continue;
+                }
+                pstmt.setInt(1, electionId);
+                pstmt.setString(2, kiosk);
+                pstmt.setLong(3, minute);
+                pstmt.setLong(4, votes);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            dirtyFrom.accumulateAndGet(dirty, Math::min);
+            throw e;
+        }
+    }
+
+    /** Ballots per minute over all kiosks for the last {@code minutes} minutes, oldest first. */
+    public static long[] minuteTotals(Connection conn, int electionId, int minutes) throws SQLException {
+        long now = System.currentTimeMillis() / 60_000;
+        long[] totals = new long[minutes];
+        try (PreparedStatement pstmt = conn.prepareStatement(MINUTE_TOTALS_SQL)) {
+            pstmt.setInt(1, electionId);
+            pstmt.setLong(2, now - minutes);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int index = (int) (rs.getLong(1) - (now - minutes + 1));
+                if (index >= 0 && index < minutes) {
+                    totals[index] = rs.getLong(2);
+                }
+            }
+        }
+        return totals;
+    }
+
+    /** Ballots per kiosk over the last {@code minutes} minutes, busiest first. */
+    public static Map<String, Long> kioskTotals(Connection conn, int electionId, int minutes) throws SQLException {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT kiosk, SUM(votes) AS votes FROM turnout_minutes WHERE election_id = ? AND minute > ? " +
+                "GROUP BY kiosk ORDER BY votes DESC")) {
+            pstmt.setInt(1, electionId);
+            pstmt.setLong(2, System.currentTimeMillis() / 60_000 - minutes);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                totals.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return totals;
+    }
+}
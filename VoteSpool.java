@@ -0,0 +1,561 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Durable hand-off between the submit button and the database.
+ *
+ * A submitted ballot is appended to an fsync'd log file and the voter is confirmed as soon
+ * as that write returns. A single background drainer then applies the spooled ballots to
+ * the database in order, retrying with backoff while the database is busy. Each ballot
+ * carries an idempotency key, so replaying the log after a crash never records a ballot
+ * twice. Once everything spooled has been applied the log is truncated.
+ *
+ * Record layout: payload length (int), payload, CRC32 of the payload (long). A torn record
+ * at the end of the file (power loss mid-write) fails its length or checksum check and is
+ * discarded on startup; it was never confirmed to the voter.
+ *
+ * A ballot that still fails after {@link #MAX_ATTEMPTS} tries is set aside, so it no longer
+ * holds up the ballots behind it: its record is moved to a ".failed" file next to the spool
+ * and the listener is told. That file can outlive the election, so its records carry no user
+ * id; the voter goes into a ".failed.voters" file instead, kept sorted so its order says
+ * nothing about which ballot is whose. On the next start each set-aside ballot is moved back
+ * into the spool with one of its election's set-aside voters and retried, so one that failed
+ * only while the database was down is still recorded and its voter is still marked. Which
+ * of those voters goes with which ballot doesn't change the count.
+ *
+ * A ballot that reaches its election only after the election closed can't be counted, but
+ * the voter was thanked for it, so {@link #keepForReview} keeps it (again without its user
+ * id) in a ".closed" file next to the spool for the admins ({@code AdminCli spool review}).
+ *
+ * Every kiosk sharing a folder has its own spool there (-Dspool.path). {@link #unrecorded}
+ * finds what any of them still holds, for the admin actions that must not run before it is
+ * recorded.
+ */
+public class VoteSpool implements Closeable {
+    private static final long MIN_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int MAX_ATTEMPTS = 20;
+
+    public interface Applier {
+        void apply(SpooledBallot ballot) throws Exception;
+    }
+
+    public interface SetAsideListener {
+        void setAside(SpooledBallot ballot, Exception cause);
+    }
+
+    public interface ExclusiveAction<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    public static final class SpooledBallot {
+        public final String key;
+        public final int electionId;
+        public final int userId;
+        public final long castAtMillis;
+        public final Map<String, int[]> choices;
+
+        SpooledBallot(String key, int electionId, int userId, long castAtMillis, Map<String, int[]> choices) {
+            this.key = key;
+            this.electionId = electionId;
+            this.userId = userId;
+            this.castAtMillis = castAtMillis;
+            this.choices = Collections.unmodifiableMap(choices);
+        }
+    }
+
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final File setAsideFile;
+    private final File setAsideVotersFile;
+    private final File reviewFile;
+    private final Applier applier;
+    private final SetAsideListener setAsideListener;
+    private final LinkedBlockingQueue<SpooledBallot> queue = new LinkedBlockingQueue<>();
+    private final Set<String> pendingVoters = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock applyLock = new ReentrantLock();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Thread drainer;
+    private volatile boolean closed;
+    private int refusedElectionId;
+
+    /**
+     * Opens (or creates) the spool and queues every intact record already in it. Fails if
+     * another process holds the spool.
+     */
+    public VoteSpool(File file, Applier applier, SetAsideListener setAsideListener) throws IOException {
+        this.applier = applier;
+        this.setAsideListener = setAsideListener;
+        this.setAsideFile = new File(file.getPath() + ".failed");
+        this.setAsideVotersFile = new File(file.getPath() + ".failed.voters");
+        this.reviewFile = reviewFile(file);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.fileLock = channel.tryLock();
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("Vote spool " + file + " is in use by another process");
+        }
+        replay();
+        this.drainer = new Thread(this::drain, "vote-spool-drainer");
+        this.drainer.setDaemon(true);
+    }
+
+    public void start() {
+        drainer.start();
+    }
+
+    /**
+     * Refuses every later ballot for the election. Takes the submit lock, so once this returns
+     * no more of its ballots can be spooled and {@link #awaitDrained} covers all of them.
+     * 0 accepts every election again.
+     */
+    public synchronized void refuse(int electionId) {
+        refusedElectionId = electionId;
+    }
+
+    /** Durably spools a ballot and returns its idempotency key once it is on disk. */
+    public synchronized String submit(int electionId, int userId, Map<String, int[]> choices) throws IOException {
+        if (electionId == refusedElectionId) {
+            throw new IOException("Voting in this election has closed");
+        }
+        SpooledBallot ballot = new SpooledBallot(UUID.randomUUID().toString(), electionId, userId,
+                System.currentTimeMillis(), new LinkedHashMap<>(choices));
+        append(channel, ballot);
+        channel.force(false);
+        enqueue(ballot);
+        return ballot.key;
+    }
+
+    /**
+     * Durably keeps a ballot that can't be recorded because its election has closed, without
+     * its user id, for an admin to review.
+     */
+    public synchronized void keepForReview(SpooledBallot ballot) throws IOException {
+        try (FileChannel out = FileChannel.open(reviewFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            append(out, new SpooledBallot(ballot.key, ballot.electionId, 0, ballot.castAtMillis, ballot.choices));
+            out.force(false);
+        }
+    }
+
+    /** The file {@link #keepForReview} writes to for the spool. */
+    public static File reviewFile(File spool) {
+        return new File(spool.getPath() + ".closed");
+    }
+
+    /** The ballots kept for review in a ".closed" file, oldest first. */
+    public static List<SpooledBallot> readForReview(File reviewFile) throws IOException {
+        List<SpooledBallot> ballots = new ArrayList<>();
+        if (reviewFile.exists()) {
+            try (FileChannel in = FileChannel.open(reviewFile.toPath(), StandardOpenOption.READ)) {
+                readRecords(in, ballots::add);
+            }
+        }
+        return ballots;
+    }
+
+    /**
+     * The spools in the spool's folder: the spool itself and every "*spool*.log" beside it,
+     * since each kiosk sharing the folder spools to its own file.
+     */
+    public static List<File> spools(File spool) {
+        File dir = spool.getAbsoluteFile().getParentFile();
+        String own = spool.getName();
+        List<File> spools = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.equals(own)
+                || (name.contains("spool") && name.endsWith(".log")));
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    spools.add(file);
+                }
+            }
+        }
+        Collections.sort(spools);
+        return spools;
+    }
+
+    /**
+     * The files in the spool's folder that hold ballots a voter was thanked for but that aren't
+     * in the database yet: spools that aren't empty and set-aside files. A kiosk leaves its own
+     * spool out, since it waits for that with {@link #awaitDrained}.
+     */
+    public static List<File> unrecorded(File spool, boolean includeOwn) {
+        List<File> unrecorded = new ArrayList<>();
+        for (File file : spools(spool)) {
+            if (file.length() > 0 && (includeOwn || !file.getName().equals(spool.getName()))) {
+                unrecorded.add(file);
+            }
+        }
+        File[] setAside = spool.getAbsoluteFile().getParentFile().listFiles((d, name) ->
+                name.endsWith(".failed") || name.endsWith(".failed.voters"));
+        if (setAside != null) {
+            Collections.addAll(unrecorded, setAside);
+        }
+        Collections.sort(unrecorded);
+        return unrecorded;
+    }
+
+    /** True while a ballot from this voter is spooled but not yet in the database. */
+    public boolean isPending(int electionId, int userId) {
+        return pendingVoters.contains(voterKey(electionId, userId));
+    }
+
+    public int pendingCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Runs an action while no spooled ballot is being applied, for operations that must not
+     * interleave with the drainer's writes (resets, archiving, chain lookups).
+     */
+    public <T, E extends Exception> T runExclusive(ExclusiveAction<T, E> action) throws E {
+        applyLock.lock();
+        try {
+            return action.run();
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /** Waits until every ballot spooled so far has been applied. */
+    public boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (pendingCount() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        drainer.interrupt();
+        fileLock.release();
+        channel.close();
+    }
+
+    private void replay() throws IOException {
+        Set<String> spooledKeys = new HashSet<>();
+        long position = readRecords(channel, ballot -> {
+            spooledKeys.add(ballot.key);
+            enqueue(ballot);
+        });
+        long size = channel.size();
+        if (position < size) {
+            System.out.println("Discarding " + (size - position) + " bytes of incomplete vote spool data");
+            channel.truncate(position);
+            channel.force(true);
+        }
+
+        if (setAsideFile.exists() || setAsideVotersFile.exists()) {
+            retrySetAside(spooledKeys);
+        }
+    }
+
+    /**
+     * Moves the set-aside ballots back into the spool, each with one of its election's
+     * set-aside voters. A crash while setting a ballot aside leaves it (and its voter) in the
+     * spool as well, so ballots and voters the spool already holds are skipped. Anything left
+     * unmatched stays set aside for an admin to look at.
+     */
+    private void retrySetAside(Set<String> spooledKeys) throws IOException {
+        List<SpooledBallot> setAside = new ArrayList<>();
+        if (setAsideFile.exists()) {
+            try (FileChannel in = FileChannel.open(setAsideFile.toPath(), StandardOpenOption.READ)) {
+                readRecords(in, setAside::add);
+            }
+        }
+        Map<Integer, ArrayDeque<Integer>> voters = new HashMap<>();
+        for (long voter : readSetAsideVoters()) {
+            int electionId = (int) (voter >>> 32);
+            int userId = (int) voter;
+            if (!isPending(electionId, userId)) {
+                voters.computeIfAbsent(electionId, id -> new ArrayDeque<>()).add(userId);
+            }
+        }
+
+        List<SpooledBallot> unmatched = new ArrayList<>();
+        int retried = 0;
+        for (SpooledBallot ballot : setAside) {
+            if (spooledKeys.contains(ballot.key)) {
+                continue;
+            }
+            ArrayDeque<Integer> left = voters.get(ballot.electionId);
+            if (left == null || left.isEmpty()) {
+                unmatched.add(ballot);
+                continue;
+            }
+            SpooledBallot retry = new SpooledBallot(ballot.key, ballot.electionId, left.poll(),
+                    ballot.castAtMillis, ballot.choices);
+            append(channel, retry);
+            enqueue(retry);
+            retried++;
+        }
+        channel.force(false);
+        System.out.println("Retrying " + retried + " set-aside ballots from " + setAsideFile);
+
+        TreeSet<Long> leftVoters = new TreeSet<>();
+        for (Map.Entry<Integer, ArrayDeque<Integer>> left : voters.entrySet()) {
+            for (int userId : left.getValue()) {
+                leftVoters.add(setAsideVoter(left.getKey(), userId));
+            }
+        }
+        if (unmatched.isEmpty() && leftVoters.isEmpty()) {
+            Files.deleteIfExists(setAsideFile.toPath());
+            Files.deleteIfExists(setAsideVotersFile.toPath());
+            return;
+        }
+        System.out.println("Keeping " + unmatched.size() + " set-aside ballots and " + leftVoters.size()
+                + " set-aside voters that have no match in " + setAsideFile + " for review");
+        File rewritten = new File(setAsideFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(rewritten.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (SpooledBallot ballot : unmatched) {
+                append(out, ballot);
+            }
+            out.force(false);
+        }
+        Files.move(rewritten.toPath(), setAsideFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeSetAsideVoters(leftVoters);
+    }
+
+    /** Passes each intact record to the consumer and returns where the intact records end. */
+    private static long readRecords(FileChannel in, Consumer<SpooledBallot> consumer) throws IOException {
+        long position = 0;
+        long size = in.size();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            header.clear();
+            in.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + 4 + length + 8 > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + 8);
+            while (body.hasRemaining()) {
+                if (in.read(body, position + 4 + body.position()) < 0) break;
+            }
+            body.flip();
+            byte[] payload = new byte[length];
+            body.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != body.getLong()) {
+                break;
+            }
+            consumer.accept(decode(payload));
+            position += 4 + length + 8;
+        }
+        return position;
+    }
+
+    private static SpooledBallot decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String key = in.readUTF();
+        int electionId = in.readInt();
+        int userId = in.readInt();
+        long castAt = in.readLong();
+        int count = in.readInt();
+        Map<String, int[]> choices = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String choicePosition = in.readUTF();
+            int[] picks = new int[in.readInt()];
+            for (int j = 0; j < picks.length; j++) {
+                picks[j] = in.readInt();
+            }
+            choices.put(choicePosition, picks);
+        }
+        return new SpooledBallot(key, electionId, userId, castAt, choices);
+    }
+
+    /** Appends the ballot's record (length, payload, CRC32) at the end of the file, unforced. */
+    private static void append(FileChannel out, SpooledBallot ballot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(bytes);
+        payloadOut.writeUTF(ballot.key);
+        payloadOut.writeInt(ballot.electionId);
+        payloadOut.writeInt(ballot.userId);
+        payloadOut.writeLong(ballot.castAtMillis);
+        payloadOut.writeInt(ballot.choices.size());
+        for (Map.Entry<String, int[]> entry : ballot.choices.entrySet()) {
+            payloadOut.writeUTF(entry.getKey());
+            payloadOut.writeInt(entry.getValue().length);
+            for (int candidateId : entry.getValue()) {
+                payloadOut.writeInt(candidateId);
+            }
+        }
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(4 + payload.length + 8);
+        record.putInt(payload.length).put(payload).putLong(crc.getValue()).flip();
+
+        out.position(out.size());
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+    }
+
+    private void enqueue(SpooledBallot ballot) {
+        pendingVoters.add(voterKey(ballot.electionId, ballot.userId));
+        outstanding.incrementAndGet();
+        queue.add(ballot);
+    }
+
+    private void drain() {
+        while (!closed) {
+            SpooledBallot ballot;
+            try {
+                ballot = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (ballot == null) {
+                continue;
+            }
+
+            long backoff = MIN_BACKOFF_MILLIS;
+            Exception failure = null;
+            for (int attempt = 1; !closed; attempt++) {
+                applyLock.lock();
+                try {
+                    applier.apply(ballot);
+                    failure = null;
+                    break;
+                } catch (Exception e) {
+                    failure = e;
+                    System.out.println("Spooled ballot " + ballot.key + " not applied yet: " + e.getMessage());
+                } finally {
+                    applyLock.unlock();
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    break;
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+            if (closed) {
+                return;
+            }
+
+            if (failure != null) {
+                try {
+                    setAside(ballot);
+                } catch (IOException e) {
+                    // Still only in the spool, so keep it there and retry it behind the others
+                    e.printStackTrace();
+                    queue.add(ballot);
+                    continue;
+                }
+                // The voter stays pending, so they can't vote again here before it is retried
+                setAsideListener.setAside(ballot, failure);
+            } else {
+                pendingVoters.remove(voterKey(ballot.electionId, ballot.userId));
+            }
+
+            synchronized (this) {
+                if (outstanding.decrementAndGet() == 0) {
+                    try {
+                        channel.truncate(0);
+                        channel.force(true);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Durably copies the ballot's record, without its user id, to the set-aside file and adds
+     * the voter to the set-aside voters, so the spool can let it go.
+     */
+    private void setAside(SpooledBallot ballot) throws IOException {
+        TreeSet<Long> voters = readSetAsideVoters();
+        voters.add(setAsideVoter(ballot.electionId, ballot.userId));
+        writeSetAsideVoters(voters);
+        try (FileChannel out = FileChannel.open(setAsideFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            append(out, new SpooledBallot(ballot.key, ballot.electionId, 0, ballot.castAtMillis, ballot.choices));
+            out.force(false);
+        }
+    }
+
+    /** The set-aside voters, one "electionId userId" line each, in order. */
+    private TreeSet<Long> readSetAsideVoters() throws IOException {
+        TreeSet<Long> voters = new TreeSet<>();
+        if (setAsideVotersFile.exists()) {
+            for (String line : Files.readAllLines(setAsideVotersFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 2) {
+                    voters.add(setAsideVoter(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+                }
+            }
+        }
+        return voters;
+    }
+
+    /** Rewrites the set-aside voters file whole, in order, replacing the old one atomically. */
+    private void writeSetAsideVoters(TreeSet<Long> voters) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (long voter : voters) {
+            lines.append(voter >>> 32).append(' ').append((int) voter).append('\n');
+        }
+        File rewritten = new File(setAsideVotersFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(rewritten.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(false);
+        }
+        Files.move(rewritten.toPath(), setAsideVotersFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long setAsideVoter(int electionId, int userId) {
+        return ((long) electionId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    private static String voterKey(int electionId, int userId) {
+        return electionId + ":" + userId;
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage for users, candidates, ballots and tallies.
+ *
+ * SqliteVoteStore is what the application runs on, or ShardedVoteStore when each kiosk
+ * keeps its own shard file. InMemoryVoteStore keeps everything in the heap for tests,
+ * benchmarks and simulations, and AppendLogVoteStore writes every change to a single
+ * append-only file for raw write throughput. All of them must pass VoteStoreConformance;
+ * {@code java AdminCli store check} runs it and {@code java AdminCli store bench} compares
+ * their throughput.
+ *
+ * Votes and voter status can be reset per election; a reset makes the tallies zero (or lets
+ * everyone vote again) without touching other elections.
+ *
+ * A position has one seat unless {@link #setSeats} says otherwise: a ballot may pick up to
+ * that many of its candidates, or any number of them for an {@link #APPROVAL} position.
+ * Stores keep each position's picks as a bitset over the position's candidate slots (a
+ * candidate's slot is fixed when it is added and never reused), so a ballot costs one entry
+ * per position however many candidates it picks, and tallies are counted bit by bit.
+ *
+ * {@link #closeElection} ends voting for good: from then on ballots come back
+ * {@link #CLOSED}, and the candidates, seats and tallies can no longer change.
+ */
+public interface VoteStore extends AutoCloseable {
+    /** {@link #castBallot} result: a ballot with this key has already been recorded. */
+    long DUPLICATE = -1;
+    /** {@link #castBallot} result: the voter has already voted in this election. */
+    long ALREADY_VOTED = -2;
+    /**
+     * {@link #castBallot} result: the ballot picks a candidate who isn't standing for that
+     * position, or more candidates than the position has seats. Nothing is recorded.
+     */
+    long INVALID = -3;
+    /** {@link #castBallot} result: the election has been closed. Nothing is recorded. */
+    long CLOSED = -4;
+
+    /** Seats value for an approval position, where a voter may pick any number of candidates. */
+    int APPROVAL = 0;
+    /** Picks are kept as a 64-bit set per position, so a position can have at most this many candidates. */
+    int MAX_CANDIDATES_PER_POSITION = 64;
+
+    final class User {
+        public final int id;
+        public final String studentId;
+        public final String name;
+        public final boolean admin;
+
+        public User(int id, String studentId, String name, boolean admin) {
+            this.id = id;
+            this.studentId = studentId;
+            this.name = name;
+            this.admin = admin;
+        }
+    }
+
+    final class Candidate {
+        public final int id;
+        public final int electionId;
+        public final String name;
+        public final String position;
+        public final String role;
+        public final String imagePath;
+
+        public Candidate(int id, int electionId, String name, String position, String role, String imagePath) {
+            this.id = id;
+            this.electionId = electionId;
+            this.name = name;
+            this.position = position;
+            this.role = role;
+            this.imagePath = imagePath;
+        }
+    }
+
+    class StoreException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public StoreException(String message) {
+            super(message);
+        }
+
+        public StoreException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    int createElection(String name) throws StoreException;
+
+    /** Registers a user and returns its id, or -1 if the student ID is already registered. */
+    int registerUser(String studentId, String name, String password, boolean admin) throws StoreException;
+
+    /** The user with these credentials, or null. */
+    User authenticate(String studentId, String password) throws StoreException;
+
+    /** Adds a candidate and returns its id; fails if the position already has the maximum number. */
+    int addCandidate(int electionId, String name, String position, String role, String imagePath)
+            throws StoreException;
+
+    boolean removeCandidate(int candidateId) throws StoreException;
+
+    /** The election's candidates ordered by position, then name. */
+    List<Candidate> candidates(int electionId) throws StoreException;
+
+    /** Sets how many candidates a voter may pick for the position ({@link #APPROVAL} for any number). */
+    void setSeats(int electionId, String position, int seats) throws StoreException;
+
+    /** The positions whose seats have been set; every other position has one seat. */
+    Map<String, Integer> seats(int electionId) throws StoreException;
+
+    /**
+     * A number that grows whenever the election's candidates or seats change, so a ballot
+     * compiled earlier (see {@link BallotBundle}) can tell it is out of date.
+     */
+    long ballotRevision(int electionId) throws StoreException;
+
+    /**
+     * Records a ballot, adds its choices (position to the picked candidate ids) to the
+     * tallies and marks the voter as voted, all or nothing. Returns the new ballot's id
+     * (positive), or {@link #DUPLICATE} / {@link #ALREADY_VOTED} / {@link #INVALID} /
+     * {@link #CLOSED}. A null key skips the duplicate check.
+     */
+    long castBallot(String key, int electionId, int userId, Map<String, int[]> choices) throws StoreException;
+
+    /**
+     * Whether the choices make a valid ballot for the election as it stands now, the check
+     * behind {@link #INVALID}, so a kiosk can turn a stale ballot down before confirming it.
+     */
+    boolean isValidBallot(int electionId, Map<String, int[]> choices) throws StoreException;
+
+    boolean hasVoted(int electionId, int userId) throws StoreException;
+
+    /** Votes per candidate id for every candidate in the election, zero included. */
+    Map<Integer, Long> tally(int electionId) throws StoreException;
+
+    /** Ballots recorded in the election since its last vote reset. */
+    long ballotCount(int electionId) throws StoreException;
+
+    void resetVotes(int electionId) throws StoreException;
+
+    void resetVoters(int electionId) throws StoreException;
+
+    /**
+     * Stops the election taking ballots: a ballot recorded before this returns counts, and
+     * every later one is {@link #CLOSED}. Adding or removing candidates, changing seats and
+     * resets fail from then on. Closing a closed election does nothing.
+     */
+    void closeElection(int electionId) throws StoreException;
+
+    boolean isClosed(int electionId) throws StoreException;
+
+    @Override
+    void close() throws StoreException;
+
+    static int seatsFor(Map<String, Integer> seats, String position) {
+        return seats.getOrDefault(position, 1);
+    }
+
+    /** Every candidate id the choices pick, in order. */
+    static int[] candidateIds(Map<String, int[]> choices) {
+        int count = 0;
+        for (int[] picked : choices.values()) {
+            count += picked.length;
+        }
+        int[] ids = new int[count];
+        int i = 0;
+        for (int[] picked : choices.values()) {
+            for (int candidateId : picked) {
+                ids[i++] = candidateId;
+            }
+        }
+        return ids;
+    }
+
+    /** Whether a position with this many seats accepts this many picks. */
+    static boolean allowsPicks(int seats, int picks) {
+        return seats == APPROVAL || picks <= seats;
+    }
+
+    /** Describes the position's seats for voters, e.g. "Choose up to 3". */
+    static String describeSeats(int seats) {
+        if (seats == APPROVAL) {
+            return "Choose any number";
+        }
+        return seats == 1 ? "Choose one" : "Choose up to " + seats;
+    }
+
+    /** The election's results grouped by position, as shown on the results tab. */
+    static String formatResults(VoteStore store, int electionId) throws StoreException {
+        return formatResults(store.candidates(electionId), store.tally(electionId));
+    }
+
+    static String formatResults(List<Candidate> electionCandidates, Map<Integer, Long> tally) {
+        List<Candidate> candidates = new ArrayList<>(electionCandidates);
+        candidates.sort((a, b) -> {
+            int byPosition = a.position.compareTo(b.position);
+            return byPosition != 0 ? byPosition : Long.compare(tally.get(b.id), tally.get(a.id));
+        });
+
+        StringBuilder sb = new StringBuilder();
+        String currentPosition = null;
+        for (Candidate candidate : candidates) {
+            if (!candidate.position.equals(currentPosition)) {
+                if (currentPosition != null) sb.append("\n");
+                sb.append("=== ").append(candidate.position.toUpperCase()).append(" ===\n\n");
+                currentPosition = candidate.position;
+            }
+            sb.append(String.format("%-25s", candidate.name))
+                    .append(": ").append(tally.get(candidate.id)).append(" votes\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ballot throughput of a VoteStore: registers voters, then times casting one two-position
+ * ballot per voter from several threads. Run from the command line with
+ * {@code java AdminCli store bench}, which measures all three backends the same way.
+ */
+public class VoteStoreBenchmark {
+    private VoteStoreBenchmark() {
+    }
+
+    public static final class Result {
+        public final int ballots;
+        public final long nanos;
+
+        Result(int ballots, long nanos) {
+            this.ballots = ballots;
+            this.nanos = nanos;
+        }
+
+        public double ballotsPerSecond() {
+            return ballots * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    public static Result run(VoteStore store, int ballots, int threads) throws Exception {
+        int electionId = store.createElection("Benchmark");
+        int[] presidents = new int[3];
+        int[] secretaries = new int[3];
+        for (int i = 0; i < 3; i++) {
+            presidents[i] = store.addCandidate(electionId, "President " + i, "President", null, null);
+            secretaries[i] = store.addCandidate(electionId, "Secretary " + i, "Secretary", null, null);
+        }
+        int[] voters = new int[ballots];
+        for (int i = 0; i < ballots; i++) {
+            voters[i] = store.registerUser("bench-" + electionId + "-" + i, "Voter " + i, "pw", false);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = first; i < ballots; i += threads) {
+                        store.castBallot("bench-" + electionId + "-" + i, electionId, voters[i],
+                                VoteStoreConformance.choices(
+                                        "President", presidents[i % 3], "Secretary", secretaries[i % 3]));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            long nanos = System.nanoTime() - start;
+
+            if (store.ballotCount(electionId) != ballots) {
+                throw new IllegalStateException("Recorded " + store.ballotCount(electionId)
+                        + " ballots, expected " + ballots);
+            }
+            return new Result(ballots, nanos);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
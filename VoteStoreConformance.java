@@ -0,0 +1,353 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The behaviour every VoteStore must have, checked against a fresh store. Run from the
+ * command line with {@code java AdminCli store check}, which checks all four backends.
+ *
+ * The checks only use elections, users and candidates they create themselves, so a store
+ * on an existing database (with its default election and admin account) can be checked too.
+ */
+public class VoteStoreConformance {
+    private static final int THREADS = 8;
+    private static final int BALLOTS_PER_THREAD = 50;
+
+    /** Opens the store under test; for a durable store, each call reopens the same data. */
+    public interface StoreFactory {
+        VoteStore open() throws VoteStore.StoreException;
+    }
+
+    private final List<String> failures = new ArrayList<>();
+
+    private VoteStoreConformance() {
+    }
+
+    /** Runs every check and returns the failures; an empty list means the store conforms. */
+    public static List<String> run(StoreFactory factory, boolean durable) {
+        VoteStoreConformance conformance = new VoteStoreConformance();
+        try {
+            conformance.runChecks(factory, durable);
+        } catch (VoteStore.StoreException | RuntimeException e) {
+            conformance.failures.add("Unexpected " + e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return conformance.failures;
+    }
+
+    private void runChecks(StoreFactory factory, boolean durable) throws VoteStore.StoreException {
+        int electionId;
+        int alice;
+        int president;
+        int[] seated;
+        int[] closed;
+        try (VoteStore store = factory.open()) {
+            electionId = store.createElection("Conformance");
+            alice = checkUsers(store);
+            int[] candidates = checkCandidates(store, electionId);
+            president = candidates[0];
+            checkBallots(store, electionId, alice, candidates);
+            checkResets(store, electionId, alice, candidates);
+            checkIsolation(store, electionId, alice, candidates[0]);
+            seated = checkSeats(store, alice);
+            closed = checkClose(store, alice);
+            checkConcurrentBallots(store);
+        }
+
+        if (durable) {
+            try (VoteStore store = factory.open()) {
+                expect(store.authenticate("conformance-alice", "secret") != null, "user survives reopening");
+                expect(store.candidates(electionId).size() == 3, "candidates survive reopening");
+                expect(store.hasVoted(electionId, alice), "voter status survives reopening");
+                expect(store.tally(electionId).get(president) == 1, "tally survives reopening");
+                expect(store.castBallot("conformance-b3", electionId, alice, choices("President", president))
+                        == VoteStore.DUPLICATE, "ballot keys survive reopening");
+                int seats = seated[0];
+                expect(store.seats(seats).get("Committee") == 2 && store.seats(seats).get("Motions") == 0,
+                        "seats survive reopening");
+                Map<Integer, Long> tally = store.tally(seats);
+                expect(tally.get(seated[1]) == 1 && tally.get(seated[2]) == 1 && tally.get(seated[3]) == 0
+                        && tally.get(seated[4]) == 1, "multi-pick tallies survive reopening, got " + tally);
+                expect(store.isClosed(closed[0]) && store.castBallot(null, closed[0], alice,
+                        choices("Motion", closed[1])) == VoteStore.CLOSED, "a close survives reopening");
+            }
+        }
+    }
+
+    private int checkUsers(VoteStore store) throws VoteStore.StoreException {
+        int alice = store.registerUser("conformance-alice", "Alice", "secret", false);
+        expect(alice > 0, "registering a user returns a positive id");
+        expect(store.registerUser("conformance-alice", "Other Alice", "other", false) == -1,
+                "registering a taken student ID returns -1");
+
+        VoteStore.User user = store.authenticate("conformance-alice", "secret");
+        expect(user != null && user.id == alice && user.name.equals("Alice") && !user.admin,
+                "authenticate returns the registered user");
+        expect(store.authenticate("conformance-alice", "wrong") == null, "a wrong password is rejected");
+        expect(store.authenticate("conformance-nobody", "secret") == null, "an unknown student ID is rejected");
+
+        int admin = store.registerUser("conformance-admin", "Admin", "secret", true);
+        user = store.authenticate("conformance-admin", "secret");
+        expect(user != null && user.id == admin && user.admin, "admin flag is kept");
+        return alice;
+    }
+
+    /** Returns the ids of the two presidents and the secretary, in that order. */
+    private int[] checkCandidates(VoteStore store, int electionId) throws VoteStore.StoreException {
+        int zed = store.addCandidate(electionId, "Zed", "President", null, null);
+        int amy = store.addCandidate(electionId, "Amy", "President", "Incumbent", "images/amy.png");
+        int sam = store.addCandidate(electionId, "Sam", "Secretary", null, null);
+        int dropped = store.addCandidate(electionId, "Dropped", "Secretary", null, null);
+
+        expect(store.removeCandidate(dropped), "removing a candidate returns true");
+        expect(!store.removeCandidate(dropped), "removing it again returns false");
+
+        List<VoteStore.Candidate> candidates = store.candidates(electionId);
+        List<String> names = new ArrayList<>();
+        for (VoteStore.Candidate candidate : candidates) {
+            names.add(candidate.name);
+        }
+        expect(names.toString().equals("[Amy, Zed, Sam]"), "candidates are ordered by position then name, got " + names);
+        VoteStore.Candidate first = candidates.get(0);
+        expect(first.id == amy && first.electionId == electionId && "Incumbent".equals(first.role)
+                && "images/amy.png".equals(first.imagePath), "candidate fields are kept");
+        expect(candidates.get(2).role == null, "a missing role stays null");
+
+        Map<Integer, Long> tally = store.tally(electionId);
+        expect(tally.size() == 3 && tally.get(zed) == 0 && tally.get(amy) == 0 && tally.get(sam) == 0,
+                "a new election tallies zero for every candidate");
+        return new int[] { amy, zed, sam };
+    }
+
+    private void checkBallots(VoteStore store, int electionId, int alice, int[] candidates)
+            throws VoteStore.StoreException {
+        int amy = candidates[0];
+        int sam = candidates[2];
+        expect(!store.hasVoted(electionId, alice), "a new voter has not voted");
+        long ballotId = store.castBallot("conformance-b1", electionId, alice,
+                choices("President", amy, "Secretary", sam));
+        expect(ballotId > 0, "casting a ballot returns a positive id");
+        expect(store.hasVoted(electionId, alice), "the voter has voted");
+        expect(store.castBallot("conformance-b1", electionId, alice, choices("President", amy))
+                == VoteStore.DUPLICATE, "a repeated ballot key is a duplicate");
+        expect(store.castBallot("conformance-b2", electionId, alice, choices("President", amy))
+                == VoteStore.ALREADY_VOTED, "a second ballot from the voter is refused");
+
+        Map<Integer, Long> tally = store.tally(electionId);
+        expect(tally.get(amy) == 1 && tally.get(sam) == 1 && tally.get(candidates[1]) == 0,
+                "the ballot is counted once, got " + tally);
+        expect(store.ballotCount(electionId) == 1, "one ballot is recorded");
+    }
+
+    private void checkResets(VoteStore store, int electionId, int alice, int[] candidates)
+            throws VoteStore.StoreException {
+        int amy = candidates[0];
+        store.resetVotes(electionId);
+        expect(store.tally(electionId).get(amy) == 0, "resetting votes zeroes the tally");
+        expect(store.ballotCount(electionId) == 0, "resetting votes zeroes the ballot count");
+        expect(store.hasVoted(electionId, alice), "resetting votes keeps voter status");
+        expect(store.castBallot("conformance-b1", electionId, alice, choices("President", amy))
+                == VoteStore.DUPLICATE, "a ballot key from before the reset is still a duplicate");
+
+        store.resetVoters(electionId);
+        expect(!store.hasVoted(electionId, alice), "resetting voters lets everyone vote again");
+        expect(store.castBallot("conformance-b3", electionId, alice, choices("President", amy)) > 0,
+                "the voter can vote again");
+        expect(store.tally(electionId).get(amy) == 1, "the new ballot counts from zero");
+    }
+
+    private void checkIsolation(VoteStore store, int electionId, int alice, int amy)
+            throws VoteStore.StoreException {
+        int other = store.createElection("Conformance (other)");
+        expect(other != electionId, "elections get distinct ids");
+        int bob = store.addCandidate(other, "Bob", "President", null, null);
+        expect(store.candidates(other).size() == 1, "candidates belong to their election");
+        expect(!store.hasVoted(other, alice), "voting in one election leaves others open");
+        expect(store.castBallot(null, other, alice, choices("President", bob)) > 0,
+                "a ballot without a key is accepted");
+
+        store.resetVotes(other);
+        store.resetVoters(other);
+        expect(store.tally(electionId).get(amy) == 1 && store.hasVoted(electionId, alice),
+                "a reset leaves other elections alone");
+    }
+
+    /**
+     * Returns the seats election's id followed by the ids of its three committee candidates
+     * and its motion, after one ballot picking the first two and the motion.
+     */
+    private int[] checkSeats(VoteStore store, int alice) throws VoteStore.StoreException {
+        int electionId = store.createElection("Conformance (seats)");
+        int ann = store.addCandidate(electionId, "Ann", "Committee", null, null);
+        int ben = store.addCandidate(electionId, "Ben", "Committee", null, null);
+        int cat = store.addCandidate(electionId, "Cat", "Committee", null, null);
+        int motion = store.addCandidate(electionId, "Longer lunch", "Motions", null, null);
+        int dropped = store.addCandidate(electionId, "Dropped", "Committee", null, null);
+        long revision = store.ballotRevision(electionId);
+        store.removeCandidate(dropped);
+        expect(store.ballotRevision(electionId) > revision, "removing a candidate bumps the ballot revision");
+        expect(store.seats(electionId).isEmpty(), "a new election has no seat limits");
+
+        revision = store.ballotRevision(electionId);
+        store.setSeats(electionId, "Committee", 2);
+        store.setSeats(electionId, "Motions", VoteStore.APPROVAL);
+        Map<String, Integer> seats = store.seats(electionId);
+        expect(seats.get("Committee") == 2 && seats.get("Motions") == VoteStore.APPROVAL, "seats are kept");
+        expect(store.ballotRevision(electionId) > revision, "setting seats bumps the ballot revision");
+
+        expect(store.castBallot("conformance-s1", electionId, alice,
+                choices("Committee", ann, "Committee", ben, "Committee", cat)) == VoteStore.INVALID,
+                "picking more candidates than seats is invalid");
+        expect(store.castBallot("conformance-s2", electionId, alice,
+                choices("Committee", ann, "Committee", ann)) == VoteStore.INVALID,
+                "picking a candidate twice is invalid");
+        expect(store.castBallot("conformance-s3", electionId, alice, choices("Motions", ann))
+                == VoteStore.INVALID, "picking a candidate from another position is invalid");
+        expect(store.castBallot("conformance-s4", electionId, alice, choices("Committee", dropped))
+                == VoteStore.INVALID, "picking a removed candidate is invalid");
+        expect(!store.hasVoted(electionId, alice), "an invalid ballot doesn't mark the voter");
+        expect(!store.isValidBallot(electionId, choices("Committee", dropped))
+                && store.isValidBallot(electionId, choices("Committee", ann, "Committee", ben)),
+                "isValidBallot agrees with castBallot");
+
+        expect(store.castBallot("conformance-s5", electionId, alice,
+                choices("Committee", ann, "Committee", ben, "Motions", motion)) > 0,
+                "a ballot within the seat limits is accepted");
+        Map<Integer, Long> tally = store.tally(electionId);
+        expect(tally.get(ann) == 1 && tally.get(ben) == 1 && tally.get(cat) == 0 && tally.get(motion) == 1,
+                "every pick on a ballot is counted, got " + tally);
+        expect(store.ballotCount(electionId) == 1, "a multi-pick ballot is one ballot");
+
+        int bob = store.registerUser("conformance-" + electionId + "-bob", "Bob", "pw", false);
+        int[] everything = new int[VoteStore.MAX_CANDIDATES_PER_POSITION - 1];
+        for (int i = 0; i < everything.length; i++) {
+            everything[i] = store.addCandidate(electionId, "Motion " + i, "Motions", null, null);
+        }
+        boolean full = false;
+        try {
+            store.addCandidate(electionId, "One too many", "Motions", null, null);
+        } catch (VoteStore.StoreException e) {
+            full = true;
+        }
+        expect(full, "a position takes at most " + VoteStore.MAX_CANDIDATES_PER_POSITION + " candidates");
+        Map<String, int[]> approveAll = new LinkedHashMap<>();
+        approveAll.put("Motions", everything);
+        expect(store.castBallot(null, electionId, bob, approveAll) > 0,
+                "an approval position takes any number of picks");
+        expect(store.tally(electionId).get(everything[everything.length - 1]) == 1,
+                "the highest slot is counted");
+        return new int[] { electionId, ann, ben, cat, motion };
+    }
+
+    /** Returns the closed election's id and its candidate's id. */
+    private int[] checkClose(VoteStore store, int alice) throws VoteStore.StoreException {
+        int electionId = store.createElection("Conformance (closed)");
+        int yes = store.addCandidate(electionId, "Yes", "Motion", null, null);
+        int other = store.createElection("Conformance (still open)");
+        int no = store.addCandidate(other, "No", "Motion", null, null);
+        int bob = store.registerUser("conformance-" + electionId + "-bob", "Bob", "pw", false);
+        expect(!store.isClosed(electionId), "a new election is open");
+        expect(store.castBallot("conformance-c1", electionId, bob, choices("Motion", yes)) > 0,
+                "an open election takes ballots");
+
+        store.closeElection(electionId);
+        expect(store.isClosed(electionId) && !store.isClosed(other), "closing closes only that election");
+        expect(store.castBallot("conformance-c2", electionId, alice, choices("Motion", yes)) == VoteStore.CLOSED,
+                "a closed election refuses ballots");
+        expect(!store.hasVoted(electionId, alice), "a refused ballot doesn't mark the voter");
+        expect(store.castBallot("conformance-c1", electionId, bob, choices("Motion", yes)) == VoteStore.DUPLICATE,
+                "a ballot recorded before the close is still a duplicate");
+        expect(store.tally(electionId).get(yes) == 1 && store.ballotCount(electionId) == 1,
+                "ballots from before the close still count");
+        store.closeElection(electionId);
+        expect(store.isClosed(electionId), "closing twice is harmless");
+
+        expectFails(() -> store.addCandidate(electionId, "Late", "Motion", null, null),
+                "adding a candidate to a closed election fails");
+        expectFails(() -> store.removeCandidate(yes), "removing a candidate from a closed election fails");
+        expectFails(() -> store.setSeats(electionId, "Motion", 2), "setting seats in a closed election fails");
+        expectFails(() -> store.resetVotes(electionId), "resetting a closed election's votes fails");
+        expectFails(() -> store.resetVoters(electionId), "resetting a closed election's voters fails");
+        expect(store.candidates(electionId).size() == 1 && store.tally(electionId).get(yes) == 1
+                && store.hasVoted(electionId, bob), "a closed election's results can't change");
+        expect(store.castBallot(null, other, alice, choices("Motion", no)) > 0,
+                "other elections keep taking ballots");
+        return new int[] { electionId, yes };
+    }
+
+    private void checkConcurrentBallots(VoteStore store) throws VoteStore.StoreException {
+        int electionId = store.createElection("Conformance (concurrent)");
+        int yes = store.addCandidate(electionId, "Yes", "Motion", null, null);
+        int[][] voters = new int[THREADS][BALLOTS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < BALLOTS_PER_THREAD; i++) {
+                voters[t][i] = store.registerUser("conformance-" + electionId + "-" + t + "-" + i, "Voter", "pw", false);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int[] mine = voters[t];
+                results.add(pool.submit(() -> {
+                    int accepted = 0;
+                    for (int voter : mine) {
+                        // Each ballot is submitted twice, as a retried spool entry would be
+                        String key = "conformance-" + electionId + "-" + voter;
+                        if (store.castBallot(key, electionId, voter, choices("Motion", yes)) > 0) accepted++;
+                        if (store.castBallot(key, electionId, voter, choices("Motion", yes)) > 0) accepted++;
+                    }
+                    return accepted;
+                }));
+            }
+            int accepted = 0;
+            for (Future<Integer> result : results) {
+                accepted += result.get();
+            }
+            int expected = THREADS * BALLOTS_PER_THREAD;
+            expect(accepted == expected, "concurrent ballots: " + accepted + " accepted, expected " + expected);
+            expect(store.tally(electionId).get(yes) == expected, "concurrent ballots are all counted");
+            expect(store.ballotCount(electionId) == expected, "concurrent ballots are all recorded");
+        } catch (Exception e) {
+            failures.add("Concurrent ballots failed: " + e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void expect(boolean condition, String description) {
+        if (!condition) {
+            failures.add(description);
+        }
+    }
+
+    private interface StoreAction {
+        void run() throws VoteStore.StoreException;
+    }
+
+    private void expectFails(StoreAction action, String description) {
+        try {
+            action.run();
+            failures.add(description);
+        } catch (VoteStore.StoreException expected) {
+            // The store refused, as it should
+        }
+    }
+
+    /** Position/candidate id pairs as a ballot's choices; a repeated position picks several. */
+    static Map<String, int[]> choices(Object... pairs) {
+        Map<String, int[]> choices = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            int[] picks = choices.getOrDefault((String) pairs[i], new int[0]);
+            int[] grown = Arrays.copyOf(picks, picks.length + 1);
+            grown[picks.length] = (Integer) pairs[i + 1];
+            choices.put((String) pairs[i], grown);
+        }
+        return choices;
+    }
+}
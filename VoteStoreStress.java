@@ -0,0 +1,301 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers a VoteStore with logins, ballots and resets from many threads at once and checks
+ * that nothing was double counted or lost. Run from the command line with
+ * {@code java AdminCli store stress}, which stresses all four backends.
+ *
+ * The race phase has every thread try to vote for every voter, the way two kiosks would if
+ * the same student logged in at both: each voter must end up with exactly one accepted
+ * ballot, and the tally must match the ballots that were accepted. The reset phase keeps
+ * voting while another thread resets votes and voters in a loop; a voter may vote again
+ * after each reset, but never twice between two resets, and every position's tally must add
+ * up to the ballot count. For a store on SQLite, the store's own connections must be back in
+ * autocommit after each phase, and a fresh connection then checks that every accepted
+ * ballot was committed and that no write transaction was left open.
+ */
+public class VoteStoreStress {
+    private static final int VOTERS_PER_THREAD = 50;
+    private static final long RESET_INTERVAL_MILLIS = 20;
+
+    public static final class Result {
+        public final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        long logins;
+        long accepted;
+        long lostRaces;
+        long resets;
+        long nanos;
+
+        public boolean isOk() {
+            return failures.isEmpty();
+        }
+
+        public String format() {
+            double seconds = nanos / 1_000_000_000.0;
+            return String.format("%,8.0f logins/s %,8.0f ballots/s  (%d resets, %d login races lost)",
+                    logins / seconds, accepted / seconds, resets, lostRaces);
+        }
+    }
+
+    private final VoteStore store;
+    private final int threads;
+    private final Result result = new Result();
+    private final int[] presidents = new int[3];
+    private final int[] secretaries = new int[3];
+    private final List<Integer> elections = new ArrayList<>();
+
+    private VoteStoreStress(VoteStore store, int threads) {
+        this.store = store;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs both phases, the reset phase for {@code millis}. {@code probeUrl}, if not null, is
+     * the SQLite database the store writes its ballots to.
+     */
+    public static Result run(VoteStore store, int threads, long millis, String probeUrl) throws Exception {
+        VoteStoreStress stress = new VoteStoreStress(store, threads);
+        long committed = stress.racePhase();
+        stress.checkIdle("race");
+        committed += stress.resetPhase(millis);
+        stress.checkIdle("resets");
+        if (probeUrl != null) {
+            stress.probe(probeUrl, committed);
+        }
+        return stress.result;
+    }
+
+    private int setUpElection(String name) throws VoteStore.StoreException {
+        int electionId = store.createElection(name);
+        elections.add(electionId);
+        for (int i = 0; i < 3; i++) {
+            presidents[i] = store.addCandidate(electionId, "President " + i, "President", null, null);
+            secretaries[i] = store.addCandidate(electionId, "Secretary " + i, "Secretary", null, null);
+        }
+        return electionId;
+    }
+
+    private int[] registerVoters(int electionId, String prefix, int count) throws VoteStore.StoreException {
+        int[] voters = new int[count];
+        for (int i = 0; i < count; i++) {
+            voters[i] = store.registerUser(prefix + electionId + "-" + i, "Voter " + i, "pw", false);
+        }
+        return voters;
+    }
+
+    /** Returns the number of ballots accepted. */
+    private long racePhase() throws Exception {
+        int electionId = setUpElection("Stress (race)");
+        int voterCount = threads * VOTERS_PER_THREAD;
+        int[] voters = registerVoters(electionId, "race-", voterCount);
+        // The thread whose ballot was accepted for each voter
+        Map<Integer, Integer> winners = new ConcurrentHashMap<>();
+
+        runThreads(t -> {
+            for (int n = 0; n < voterCount; n++) {
+                int i = (n + t * VOTERS_PER_THREAD) % voterCount;
+                if (store.authenticate("race-" + electionId + "-" + i, "pw") == null) {
+                    result.failures.add("race: voter " + i + " could not log in");
+                    continue;
+                }
+                if (store.hasVoted(electionId, voters[i])) {
+                    continue;
+                }
+                String key = "race-" + electionId + "-" + i + "-" + t;
+                long ballotId = store.castBallot(key, electionId, voters[i], choicesFor(t));
+                if (ballotId > 0) {
+                    if (winners.putIfAbsent(i, t) != null) {
+                        result.failures.add("race: voter " + i + " voted twice");
+                    }
+                    // A retried spool entry must not count again
+                    if (store.castBallot(key, electionId, voters[i], choicesFor(t)) != VoteStore.DUPLICATE) {
+                        result.failures.add("race: a retried ballot for voter " + i + " was not a duplicate");
+                    }
+                } else if (ballotId == VoteStore.ALREADY_VOTED) {
+                    synchronized (result) {
+                        result.lostRaces++;
+                    }
+                } else {
+                    result.failures.add("race: voter " + i + "'s ballot was refused with " + ballotId);
+                }
+            }
+        });
+
+        long[] expected = new long[2 * 3];
+        for (int t : winners.values()) {
+            expected[t % 3]++;
+            expected[3 + (t + 1) % 3]++;
+        }
+        Map<Integer, Long> tally = store.tally(electionId);
+        for (int i = 0; i < 3; i++) {
+            expectVotes(tally, presidents[i], expected[i], "race: President " + i);
+            expectVotes(tally, secretaries[i], expected[3 + i], "race: Secretary " + i);
+        }
+        expect(winners.size() == voterCount, "race: " + winners.size() + " of " + voterCount + " voters got a ballot in");
+        expect(store.ballotCount(electionId) == winners.size(),
+                "race: " + store.ballotCount(electionId) + " ballots recorded for " + winners.size() + " accepted");
+        for (int i = 0; i < voterCount; i++) {
+            if (!store.hasVoted(electionId, voters[i])) {
+                result.failures.add("race: voter " + i + " is not marked as voted");
+                break;
+            }
+        }
+        return winners.size();
+    }
+
+    /** Returns the number of ballots accepted. */
+    private long resetPhase(long millis) throws Exception {
+        int electionId = setUpElection("Stress (resets)");
+        int voterCount = threads * VOTERS_PER_THREAD;
+        int[] voters = registerVoters(electionId, "reset-", voterCount);
+        // Odd while a reset is running; a ballot is only checked if it didn't overlap one
+        AtomicLong generation = new AtomicLong();
+        Set<String> votedIn = ConcurrentHashMap.newKeySet();
+        AtomicLong logins = new AtomicLong();
+        AtomicLong accepted = new AtomicLong();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        Thread resetter = new Thread(() -> {
+            try {
+                while (System.nanoTime() < deadline) {
+                    Thread.sleep(RESET_INTERVAL_MILLIS);
+                    generation.incrementAndGet();
+                    store.resetVotes(electionId);
+                    store.resetVoters(electionId);
+                    generation.incrementAndGet();
+                    result.resets++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (VoteStore.StoreException e) {
+                result.failures.add("reset failed: " + e.getMessage());
+            }
+        }, "stress-resetter");
+
+        long start = System.nanoTime();
+        resetter.start();
+        runThreads(t -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                int i = random.nextInt(voterCount);
+                long before = generation.get();
+                if (store.authenticate("reset-" + electionId + "-" + i, "pw") == null) {
+                    result.failures.add("resets: voter " + i + " could not log in");
+                    return;
+                }
+                logins.incrementAndGet();
+                if (store.hasVoted(electionId, voters[i])) {
+                    continue;
+                }
+                long ballotId = store.castBallot(null, electionId, voters[i], choicesFor(random.nextInt(3)));
+                if (ballotId > 0) {
+                    accepted.incrementAndGet();
+                    if (before % 2 == 0 && generation.get() == before && !votedIn.add(before + ":" + i)) {
+                        result.failures.add("resets: voter " + i + " voted twice without a reset in between");
+                    }
+                }
+            }
+        });
+        resetter.join();
+        result.nanos = System.nanoTime() - start;
+        result.logins = logins.get();
+        result.accepted = accepted.get();
+
+        // Every ballot picks once per position, so a lost increment shows up as a short position
+        long ballots = store.ballotCount(electionId);
+        Map<Integer, Long> tally = store.tally(electionId);
+        long presidentVotes = 0;
+        long secretaryVotes = 0;
+        for (int i = 0; i < 3; i++) {
+            presidentVotes += tally.get(presidents[i]);
+            secretaryVotes += tally.get(secretaries[i]);
+        }
+        expect(presidentVotes == ballots && secretaryVotes == ballots, "resets: " + ballots + " ballots but "
+                + presidentVotes + " President and " + secretaryVotes + " Secretary votes");
+        return accepted.get();
+    }
+
+    /**
+     * Checks that the store's SQLite connections are back in autocommit. One left with
+     * autocommit off after a read-only path holds no write lock, so the probe can't see it.
+     */
+    private void checkIdle(String phase) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        if (store instanceof SqliteVoteStore) {
+            connections.add(((SqliteVoteStore) store).connection());
+        } else if (store instanceof ShardedVoteStore) {
+            connections.addAll(((ShardedVoteStore) store).connections());
+        }
+        for (Connection conn : connections) {
+            expect(conn.getAutoCommit(), phase + ": the store left a connection with autocommit off");
+        }
+    }
+
+    /** Checks from a separate connection that the ballots were committed and nothing holds the database. */
+    private void probe(String probeUrl, long accepted) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(probeUrl);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 2000");
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ballots WHERE election_id IN ("
+                    + elections.get(0) + ", " + elections.get(1) + ")");
+            long committed = rs.getLong(1);
+            rs.close();
+            expect(committed == accepted, committed + " ballots committed of " + accepted + " accepted");
+            try {
+                stmt.execute("BEGIN IMMEDIATE");
+                stmt.execute("ROLLBACK");
+            } catch (SQLException e) {
+                result.failures.add("the store left a transaction open: " + e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, int[]> choicesFor(int pick) {
+        return VoteStoreConformance.choices("President", presidents[pick % 3], "Secretary", secretaries[(pick + 1) % 3]);
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private void runThreads(Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void expectVotes(Map<Integer, Long> tally, int candidateId, long expected, String description) {
+        long votes = tally.getOrDefault(candidateId, 0L);
+        expect(votes == expected, description + " has " + votes + " votes, expected " + expected);
+    }
+
+    private void expect(boolean condition, String description) {
+        if (!condition) {
+            result.failures.add(description);
+        }
+    }
+}
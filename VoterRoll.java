@@ -0,0 +1,222 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pages through the registered users for the admin voter roll, optionally narrowed to a
+ * student ID or name prefix.
+ *
+ * Pages are fetched with keyset pagination: each page continues from the sort key of the
+ * last (or first) row of the page before it, so every page is an index range scan no matter
+ * how deep into the roll it is, where OFFSET would walk past all the skipped rows. Student
+ * IDs are ordered by their unique index and names by idx_users_name (case-insensitive name,
+ * then id to break ties). Queries run on the roll's own connection, which under WAL reads
+ * alongside the vote writer without blocking it.
+ */
+public class VoterRoll implements AutoCloseable {
+    public static final int PAGE_SIZE = 50;
+
+    public enum SearchBy {
+        STUDENT_ID("Student ID"),
+        NAME("Name");
+
+        private final String label;
+
+        SearchBy(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public static final class Voter {
+        public final int id;
+        public final String studentId;
+        public final String name;
+        public final boolean admin;
+        public final boolean voted;
+
+        private Voter(int id, String studentId, String name, boolean admin, boolean voted) {
+            this.id = id;
+            this.studentId = studentId;
+            this.name = name;
+            this.admin = admin;
+            this.voted = voted;
+        }
+    }
+
+    /** One page of the roll; pass it back to {@link #next} or {@link #previous} to move on. */
+    public static final class Page {
+        public final List<Voter> voters;
+        public final boolean hasPrevious;
+        public final boolean hasNext;
+        private final SearchBy searchBy;
+        private final String prefix;
+        private final int electionId;
+        private final int voterEpoch;
+
+        private Page(List<Voter> voters, boolean hasPrevious, boolean hasNext,
+                     SearchBy searchBy, String prefix, int electionId, int voterEpoch) {
+            this.voters = Collections.unmodifiableList(voters);
+            this.hasPrevious = hasPrevious;
+            this.hasNext = hasNext;
+            this.searchBy = searchBy;
+            this.prefix = prefix;
+            this.electionId = electionId;
+            this.voterEpoch = voterEpoch;
+        }
+    }
+
+    private final String dbUrl;
+    private Connection conn;
+
+    public VoterRoll(String dbUrl) {
+        this.dbUrl = dbUrl;
+    }
+
+    public static void createIndexes(Statement stmt) throws SQLException {
+        // Student IDs already have the index behind their UNIQUE constraint
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_users_name ON users (name COLLATE NOCASE, id)");
+    }
+
+    /** The first page of users matching the prefix (all users for an empty prefix). */
+    public synchronized Page first(SearchBy searchBy, String prefix, int electionId, int voterEpoch)
+            throws SQLException {
+        String normalized = searchBy == SearchBy.NAME ? lowerAscii(prefix.trim()) : prefix.trim();
+        return fetch(searchBy, normalized, electionId, voterEpoch, null, true);
+    }
+
+    public synchronized Page next(Page page) throws SQLException {
+        if (page.voters.isEmpty()) {
+            return page;
+        }
+        return fetch(page.searchBy, page.prefix, page.electionId, page.voterEpoch,
+                page.voters.get(page.voters.size() - 1), true);
+    }
+
+    public synchronized Page previous(Page page) throws SQLException {
+        if (page.voters.isEmpty()) {
+            return page;
+        }
+        return fetch(page.searchBy, page.prefix, page.electionId, page.voterEpoch, page.voters.get(0), false);
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        if (conn != null) {
+            conn.close();
+            conn = null;
+        }
+    }
+
+    private Page fetch(SearchBy searchBy, String prefix, int electionId, int voterEpoch,
+                       Voter anchor, boolean forward) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql = pageSql(searchBy, prefix, electionId, voterEpoch,
+                anchor == null ? null : searchBy == SearchBy.NAME ? anchor.name : anchor.studentId,
+                anchor == null ? 0 : anchor.id, forward, params);
+
+        List<Voter> voters = new ArrayList<>();
+        try (PreparedStatement pstmt = connection().prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                voters.add(new Voter(rs.getInt("id"), rs.getString("student_id"), rs.getString("name"),
+                        rs.getBoolean("is_admin"), rs.getBoolean("voted")));
+            }
+        }
+
+        // The extra row only tells whether there is more in the direction of travel
+        boolean more = voters.size() > PAGE_SIZE;
+        if (more) {
+            voters.remove(voters.size() - 1);
+        }
+        if (!forward) {
+            Collections.reverse(voters);
+            return new Page(voters, more, true, searchBy, prefix, electionId, voterEpoch);
+        }
+        return new Page(voters, anchor != null, more, searchBy, prefix, electionId, voterEpoch);
+    }
+
+    /**
+     * The SQL of one page, adding its parameters to {@code params}. The anchor is the name or
+     * student ID (and id) of the row the page continues from, or null for the first page.
+     * QueryPlanCheck checks the plans of this same SQL.
+     */
+    static String pageSql(SearchBy searchBy, String prefix, int electionId, int voterEpoch,
+                          String anchorKey, int anchorId, boolean forward, List<Object> params) {
+        // NOCASE is the collation of idx_users_name, so these comparisons can use it
+        String key = searchBy == SearchBy.NAME ? "u.name COLLATE NOCASE" : "u.student_id";
+        StringBuilder sql = new StringBuilder("SELECT u.id, u.student_id, u.name, u.is_admin, " +
+                "EXISTS (SELECT 1 FROM voter_status v WHERE v.election_id = ? AND v.user_id = u.id " +
+                "AND v.epoch = ?) AS voted FROM users u WHERE 1 = 1");
+        params.add(electionId);
+        params.add(voterEpoch);
+
+        if (!prefix.isEmpty()) {
+            sql.append(" AND ").append(key).append(" >= ?");
+            params.add(prefix);
+            String upper = prefixUpperBound(prefix, searchBy == SearchBy.NAME);
+            if (upper != null) {
+                sql.append(" AND ").append(key).append(" < ?");
+                params.add(upper);
+            }
+        }
+
+        String direction = forward ? ">" : "<";
+        if (anchorKey != null) {
+            if (searchBy == SearchBy.NAME) {
+                sql.append(" AND (").append(key).append(", u.id) ").append(direction).append(" (?, ?)");
+                params.add(anchorKey);
+                params.add(anchorId);
+            } else {
+                sql.append(" AND ").append(key).append(" ").append(direction).append(" ?");
+                params.add(anchorKey);
+            }
+        }
+
+        String order = forward ? "" : " DESC";
+        sql.append(" ORDER BY ").append(key).append(order);
+        if (searchBy == SearchBy.NAME) {
+            sql.append(", u.id").append(order);
+        }
+        sql.append(" LIMIT ").append(PAGE_SIZE + 1);
+        return sql.toString();
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null) {
+            conn = DriverManager.getConnection(dbUrl);
+        }
+        return conn;
+    }
+
+    /** Smallest string greater than every string starting with the prefix, or null if none. */
+    private static String prefixUpperBound(String prefix, boolean noCase) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                // Under NOCASE '@' + 1 would compare as 'a'; '[' is the next character that doesn't fold
+                char bound = noCase && c == '@' ? '[' : (char) (c + 1);
+                return prefix.substring(0, i) + bound;
+            }
+        }
+        return null;
+    }
+
+    /** NOCASE only folds ASCII letters, so the search prefix is folded the same way. */
+    private static String lowerAscii(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            sb.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * The schema shared by the Swing dashboard, the command-line tools in AdminCli and
+ * SqliteVoteStore. Nothing here touches AWT, so the command line runs on a headless machine.
+ */
+public class VotingDatabase {
+    public static final String DB_URL = "jdbc:sqlite:voting_system.db";
+    public static final String ARCHIVE_PATH = "voting_archive.db";
+
+    private VotingDatabase() {
+    }
+
+    /** Creates or migrates the schema and returns the id of the open election. */
+    public static int initialize(Connection conn, String archivePath) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // WAL lets recount readers run on their own connections without blocking the vote writer
+            stmt.execute("PRAGMA journal_mode=WAL");
+
+            // Create tables
+            stmt.execute("CREATE TABLE IF NOT EXISTS users (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "student_id TEXT UNIQUE NOT NULL," +
+                    "password TEXT NOT NULL," +
+                    "name TEXT NOT NULL," +
+                    "has_voted BOOLEAN DEFAULT FALSE," +
+                    "is_admin BOOLEAN DEFAULT FALSE)");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS candidates (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "name TEXT NOT NULL," +
+                    "position TEXT NOT NULL," +
+                    "role TEXT," +
+                    "image_path TEXT," +
+                    "votes INTEGER DEFAULT 0)");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS elections (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "name TEXT NOT NULL," +
+                    "status TEXT NOT NULL DEFAULT 'OPEN'," +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                    "closed_at TIMESTAMP," +
+                    // Resets bump these epochs instead of rewriting rows; see SqliteVoteStore.resetVotes
+                    "vote_epoch INTEGER NOT NULL DEFAULT 0," +
+                    "voter_epoch INTEGER NOT NULL DEFAULT 0," +
+                    // Bumped by every candidate or seat change; see BallotBundle
+                    "ballot_revision INTEGER NOT NULL DEFAULT 0," +
+                    // Voters marked as voted by the single-election schema; see adopted_totals
+                    "adopted_voters INTEGER NOT NULL DEFAULT 0)");
+
+            // One row per submitted ballot; choices are kept anonymous (no link back to users).
+            // chain_index is its leaf in the ballot chain. No cast time is kept: with the voter's
+            // row written in the same transaction it would tie the ballot to the voter
+            stmt.execute("CREATE TABLE IF NOT EXISTS ballots (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "election_id INTEGER NOT NULL," +
+                    "epoch INTEGER NOT NULL DEFAULT 0," +
+                    "chain_index INTEGER)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ballots_election ON ballots (election_id, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ballots_epoch ON ballots (election_id, epoch)");
+
+            // The idempotency key of every spooled submission already recorded. The spool ties a
+            // key to its voter, so the key is kept apart from the ballot it became, ordered by
+            // the (random) key rather than by when it was applied
+            stmt.execute("CREATE TABLE IF NOT EXISTS applied_keys (" +
+                    "spool_key TEXT PRIMARY KEY," +
+                    "election_id INTEGER NOT NULL) WITHOUT ROWID");
+
+            // A ballot's picks for one position, as a bitset over the position's candidate slots
+            stmt.execute("CREATE TABLE IF NOT EXISTS ballot_picks (" +
+                    "ballot_id INTEGER NOT NULL," +
+                    "position TEXT NOT NULL," +
+                    "picks INTEGER NOT NULL)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ballot_picks_ballot ON ballot_picks (ballot_id)");
+
+            // Ballots per distinct picks of a position, which the tally counts bit by bit
+            stmt.execute("CREATE TABLE IF NOT EXISTS pick_counts (" +
+                    "election_id INTEGER NOT NULL," +
+                    "epoch INTEGER NOT NULL," +
+                    "position TEXT NOT NULL," +
+                    "picks INTEGER NOT NULL," +
+                    "ballots INTEGER NOT NULL," +
+                    "PRIMARY KEY (election_id, epoch, position, picks)) WITHOUT ROWID");
+
+            // The per-candidate totals an upgraded database carried over from the single-election
+            // schema, which have no ballots behind them. The recount adds them in and reports them
+            // separately, until a vote reset leaves epoch 0 behind
+            stmt.execute("CREATE TABLE IF NOT EXISTS adopted_totals (" +
+                    "election_id INTEGER NOT NULL," +
+                    "candidate_id INTEGER NOT NULL," +
+                    "votes INTEGER NOT NULL," +
+                    "PRIMARY KEY (election_id, candidate_id)) WITHOUT ROWID");
+
+            // Each candidate's bit in its position's picks. Slots are never reused, so a ballot's
+            // bits keep their meaning after a candidate is removed
+            stmt.execute("CREATE TABLE IF NOT EXISTS candidate_slots (" +
+                    "election_id INTEGER NOT NULL," +
+                    "position TEXT NOT NULL," +
+                    "slot INTEGER NOT NULL," +
+                    "candidate_id INTEGER NOT NULL UNIQUE," +
+                    "PRIMARY KEY (election_id, position, slot)) WITHOUT ROWID");
+
+            // Positions with more than one seat (or approval positions, with 0)
+            stmt.execute("CREATE TABLE IF NOT EXISTS positions (" +
+                    "election_id INTEGER NOT NULL," +
+                    "position TEXT NOT NULL," +
+                    "seats INTEGER NOT NULL," +
+                    "PRIMARY KEY (election_id, position)) WITHOUT ROWID");
+
+            // Who has voted in which election; replaces the single users.has_voted flag. No
+            // time or rowid, so the rows' order can't be matched against the ballots' ids
+            stmt.execute("CREATE TABLE IF NOT EXISTS voter_status (" +
+                    "election_id INTEGER NOT NULL," +
+                    "user_id INTEGER NOT NULL," +
+                    "epoch INTEGER NOT NULL DEFAULT 0," +
+                    "PRIMARY KEY (election_id, user_id)) WITHOUT ROWID");
+
+            // Databases created before elections existed
+            addColumnIfMissing(stmt, "candidates", "election_id", "INTEGER");
+            // Also gives the voting window's ORDER BY position, name without a sort
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_candidates_ballot_order " +
+                    "ON candidates (election_id, position, name)");
+            BallotChain.createTables(stmt);
+            VoterRoll.createIndexes(stmt);
+            TurnoutSeries.createTables(stmt);
+            AuditLog.createTables(stmt);
+            CertifiedResults.createTables(stmt);
+
+            ElectionArchive.attach(conn, archivePath);
+            try {
+                ElectionArchive.finishInterrupted(conn);
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+            int electionId = loadActiveElection(stmt);
+            // Last, so the triggers cover every migrated column
+            StandbyReplica.refreshTriggers(conn);
+
+            // Check if any admin exists
+            ResultSet adminCheck = stmt.executeQuery("SELECT COUNT(*) FROM users WHERE is_admin = TRUE");
+            if (adminCheck.getInt(1) == 0) {
+                // Create default admin account if none exists
+                String defaultAdminID = "admin";
+                String defaultAdminPass = "admin123";
+                String defaultAdminName = "System Administrator";
+
+                try {
+                    PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO users (student_id, password, name, is_admin) VALUES (?, ?, ?, ?)");
+                    pstmt.setString(1, defaultAdminID);
+                    pstmt.setString(2, defaultAdminPass);
+                    pstmt.setString(3, defaultAdminName);
+                    pstmt.setBoolean(4, true);
+                    pstmt.executeUpdate();
+                    System.out.println("Created default admin account");
+                } catch (SQLException e) {
+                    System.out.println("Default admin account already exists or couldn't be created");
+                }
+            }
+
+            return electionId;
+        }
+    }
+
+    private static void addColumnIfMissing(Statement stmt, String table, String column, String definition)
+            throws SQLException {
+        ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")");
+        while (rs.next()) {
+            if (column.equalsIgnoreCase(rs.getString("name"))) {
+                return;
+            }
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    /** Gives each candidate the query returns (election_id, position, candidate_id) that has no slot the next free one. */
+    private static void assignSlots(Statement stmt, String candidates) throws SQLException {
+        stmt.executeUpdate("INSERT INTO candidate_slots (election_id, position, slot, candidate_id) " +
+                "SELECT n.election_id, n.position, " +
+                "COALESCE((SELECT MAX(s.slot) + 1 FROM candidate_slots s " +
+                "WHERE s.election_id = n.election_id AND s.position = n.position), 0) " +
+                "+ ROW_NUMBER() OVER (PARTITION BY n.election_id, n.position ORDER BY n.candidate_id) - 1, " +
+                "n.candidate_id FROM (" + candidates + ") n " +
+                "WHERE n.candidate_id NOT IN (SELECT candidate_id FROM candidate_slots)");
+    }
+
+    private static int loadActiveElection(Statement stmt) throws SQLException {
+        // A closed election stays active, with its certified results, until the next one is started
+        ResultSet rs = stmt.executeQuery(
+                "SELECT id FROM elections WHERE status IN ('OPEN', 'CLOSED') ORDER BY id DESC LIMIT 1");
+        if (rs.next()) {
+            return rs.getInt(1);
+        }
+
+        // First start (or upgrade from the single-election schema): adopt existing data
+        stmt.executeUpdate("INSERT INTO elections (name) VALUES ('General Election')");
+        int electionId = stmt.executeQuery("SELECT last_insert_rowid()").getInt(1);
+        stmt.executeUpdate("UPDATE candidates SET election_id = " + electionId + " WHERE election_id IS NULL");
+        assignSlots(stmt, "SELECT election_id, position, id AS candidate_id FROM candidates WHERE election_id IS NOT NULL");
+        // The old per-candidate totals become single-pick counters, so the tally keeps them, and
+        // are recorded as adopted, since no ballots were kept to recount them from
+        stmt.executeUpdate("INSERT INTO pick_counts (election_id, epoch, position, picks, ballots) " +
+                "SELECT c.election_id, 0, c.position, 1 << s.slot, c.votes FROM candidates c " +
+                "JOIN candidate_slots s ON s.candidate_id = c.id WHERE c.election_id = " + electionId + " AND c.votes > 0");
+        stmt.executeUpdate("INSERT INTO adopted_totals (election_id, candidate_id, votes) " +
+                "SELECT election_id, id, votes FROM candidates WHERE election_id = " + electionId + " AND votes > 0");
+        stmt.executeUpdate("INSERT OR IGNORE INTO voter_status (election_id, user_id) " +
+                "SELECT " + electionId + ", id FROM users WHERE has_voted = TRUE");
+        stmt.executeUpdate("UPDATE elections SET adopted_voters = " +
+                "(SELECT COUNT(*) FROM voter_status WHERE election_id = " + electionId + ") WHERE id = " + electionId);
+        return electionId;
+    }
+
+    /** The election's current vote and voter epochs, in that order. */
+    public static int[] readEpochs(Connection conn, int electionId) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(
+                    "SELECT vote_epoch, voter_epoch FROM elections WHERE id = " + electionId);
+            return new int[] { rs.getInt("vote_epoch"), rs.getInt("voter_epoch") };
+        }
+    }
+}
@@ -2,7 +2,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.imageio.ImageIO;
 import java.io.File;
@@ -10,11 +13,40 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class VotingSystem {
-    private static final String DB_URL = "jdbc:sqlite:voting_system.db";
+    private static final String DB_URL = VotingDatabase.DB_URL;
+    private static final String ARCHIVE_PATH = VotingDatabase.ARCHIVE_PATH;
+    // Each kiosk process needs a spool of its own; a second kiosk in the same folder sets -Dspool.path
+    private static final String SPOOL_PATH = System.getProperty("spool.path", "vote_spool.log");
+    // Folder of per-kiosk ballot shards (see ShardedVoteStore); unset, ballots go to DB_URL
+    private static final String SHARD_DIR = System.getProperty("shard.dir");
     private static Connection conn;
+    private static Connection writerConn;
+    private static VoteStore store;
+    private static VoteStore writerStore;
+    // Every dashboard query runs here rather than on the EDT
+    private static final DbExecutor db = new DbExecutor("db");
+    private static VoteSpool voteSpool;
+    private static volatile int activeElectionId;
+    private static volatile int voteEpoch;
+    private static volatile int voterEpoch;
+    // The active election's certified results once it has been closed, null while it is open
+    private static volatile CertifiedResults certifiedResults;
+    private static BallotChain ballotChain;
+    private static EpochCompactor epochCompactor;
+    // The newest published ballot, mapped once and reused until a newer version appears
+    private static BallotBundle ballotBundle;
+    private static File rejectedBundle;
     private static String currentUser = null;
+    private static String currentStudentId;
+    private static int currentUserId;
     private static boolean isAdmin = false;
     private static final Color PRIMARY_COLOR = new Color(0, 35, 102); // Dark blue
     private static final Color SECONDARY_COLOR = new Color(255, 215, 0); // Gold
@@ -23,9 +55,35 @@ public class VotingSystem {
     private static final Font LABEL_FONT = new Font("Segoe UI", Font.PLAIN, 14);
     private static final Font BUTTON_FONT = new Font("Segoe UI", Font.BOLD, 14);
     private static final String IMAGE_DIR = "candidate_images/";
+    private static final int AUDIT_PAGE_SIZE = 500;
+    // Closing waits for every spool in the folder, but another kiosk only sees the close when it next
+    // checks; a ballot cast there in between is kept for review instead of counted
+    private static final String KIOSKS_IDLE_WARNING =
+            "Make sure no one is voting at the other kiosks: a ballot cast there from now on won't count.\n";
     private static JFileChooser fileChooser;
+    private static final LoginThrottle loginThrottle = new LoginThrottle();
+    private static final VoterRoll voterRoll = new VoterRoll(DB_URL);
+    private static final TurnoutSeries turnout = new TurnoutSeries(kioskId());
+    private static final AuditLog audit = new AuditLog(DB_URL);
+    private static StandbyReplica standby;
+    // The kiosk keeps one login window, and a voting window per ballot, instead of rebuilding them per voter
+    private static JFrame loginFrame;
+    private static JTextField loginStudentIdField;
+    private static JPasswordField loginPasswordField;
+    private static VotingWindow votingWindow;
+    private static ImageIcon placeholderIcon;
+    private static boolean placeholderLoaded;
+    private static final AnomalyDetector anomalies = new AnomalyDetector(turnout.kiosk(),
+            alert -> audit.record("system", AuditLog.ANOMALY, alert.message));
 
     public static void main(String[] args) {
+        // This class builds colors, fonts and the kiosk's services as it loads, so the command-line
+        // tools run from AdminCli instead, which loads no AWT
+        if (args.length > 0) {
+            System.err.println("The command-line tools run as: java AdminCli " + String.join(" ", args));
+            System.exit(1);
+        }
+
         // Create image directory if it doesn't exist
         new File(IMAGE_DIR).mkdirs();
 
@@ -35,62 +93,263 @@ public class VotingSystem {
             e.printStackTrace();
         }
 
+        EdtWatchdog.install();
         initializeDatabase();
-        createLoginWindow();
+        startVoteSpool();
+        startBackups();
+        startStandby();
+        showLoginWindow();
     }
 
     private static void initializeDatabase() {
         try {
             conn = DriverManager.getConnection(DB_URL);
-            Statement stmt = conn.createStatement();
-
-            // Create tables
-            stmt.execute("CREATE TABLE IF NOT EXISTS users (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "student_id TEXT UNIQUE NOT NULL," +
-                    "password TEXT NOT NULL," +
-                    "name TEXT NOT NULL," +
-                    "has_voted BOOLEAN DEFAULT FALSE," +
-                    "is_admin BOOLEAN DEFAULT FALSE)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS candidates (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "name TEXT NOT NULL," +
-                    "position TEXT NOT NULL," +
-                    "role TEXT," +
-                    "image_path TEXT," +
-                    "votes INTEGER DEFAULT 0)");
-
-            // Check if any admin exists
-            ResultSet adminCheck = stmt.executeQuery("SELECT COUNT(*) FROM users WHERE is_admin = TRUE");
-            if (adminCheck.getInt(1) == 0) {
-                // Create default admin account if none exists
-                String defaultAdminID = "admin";
-                String defaultAdminPass = "admin123";
-                String defaultAdminName = "System Administrator";
+            activeElectionId = VotingDatabase.initialize(conn, ARCHIVE_PATH);
+            store = SHARD_DIR == null ? new SqliteVoteStore(conn)
+                    : new ShardedVoteStore(conn, new File(SHARD_DIR), kioskId());
+            loadEpochs();
+            certifiedResults = CertifiedResults.load(conn, activeElectionId);
+
+            // Ballots are written only by the spool drainer, on its own connection
+            writerConn = DriverManager.getConnection(DB_URL);
+            writerConn.createStatement().execute("PRAGMA busy_timeout = 1000");
+            if (SHARD_DIR == null) {
+                SqliteVoteStore sqliteStore = new SqliteVoteStore(writerConn);
+                sqliteStore.setBallotListener(VotingSystem::ballotRecorded);
+                writerStore = sqliteStore;
+            } else {
+                writerStore = new ShardedVoteStore(writerConn, new File(SHARD_DIR), kioskId());
+            }
+            ballotChain = new BallotChain(writerConn, activeElectionId, voteEpoch);
+            turnout.load(writerConn, activeElectionId);
 
-                try {
-                    PreparedStatement pstmt = conn.prepareStatement(
-                            "INSERT INTO users (student_id, password, name, is_admin) VALUES (?, ?, ?, ?)");
-                    pstmt.setString(1, defaultAdminID);
-                    pstmt.setString(2, defaultAdminPass);
-                    pstmt.setString(3, defaultAdminName);
-                    pstmt.setBoolean(4, true);
-                    pstmt.executeUpdate();
-                    System.out.println("Created default admin account");
-                } catch (SQLException e) {
-                    System.out.println("Default admin account already exists or couldn't be created");
+            audit.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(audit::close, "audit-close"));
+        } catch (SQLException | VoteStore.StoreException e) {
+            e.printStackTrace();
+            showErrorDialog(null, "Database initialization failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void startVoteSpool() {
+        try {
+            voteSpool = new VoteSpool(new File(SPOOL_PATH), VotingSystem::recordSpooledBallot,
+                    VotingSystem::ballotSetAside);
+            if (certifiedResults != null) {
+                voteSpool.refuse(activeElectionId);
+            }
+            voteSpool.start();
+            epochCompactor = new EpochCompactor(writerConn, voteSpool);
+            epochCompactor.start();
+
+            ScheduledExecutorService turnoutFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "turnout-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            turnoutFlusher.scheduleWithFixedDelay(VotingSystem::flushTurnout, 30, 30, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            e.printStackTrace();
+            showErrorDialog(null, "Vote spool could not be opened: " + e.getMessage()
+                    + "\nA second kiosk in this folder needs its own spool: start it with -Dspool.path=<file>");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Snapshots the databases every -Dbackup.minutes (15 by default; 0 turns it off) into
+     * -Dbackup.dir, keeping the newest -Dbackup.keep snapshots.
+     */
+    private static void startBackups() {
+        long minutes = Long.getLong("backup.minutes", 15);
+        if (minutes <= 0) {
+            return;
+        }
+        File dir = new File(System.getProperty("backup.dir", "backups"));
+        int keep = Integer.getInteger("backup.keep", 24);
+        ScheduledExecutorService backups = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "backup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        backups.scheduleWithFixedDelay(() -> {
+            try {
+                File snapshot = DatabaseBackup.snapshot(DB_URL, ARCHIVE_PATH, dir, keep);
+                System.out.println("Database snapshot written to " + snapshot);
+            } catch (SQLException | IOException e) {
+                e.printStackTrace();
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Ships every change to the standby replica at -Dreplica.path, every -Dreplica.millis
+     * (500 by default). Without -Dreplica.path there is no replica.
+     */
+    private static void startStandby() {
+        String path = System.getProperty("replica.path");
+        if (path == null || path.trim().isEmpty()) {
+            return;
+        }
+        standby = new StandbyReplica(DB_URL, new File(path.trim()));
+        long millis = Long.getLong("replica.millis", 500);
+        ScheduledExecutorService shipper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "standby");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shipper.scheduleWithFixedDelay(() -> {
+            boolean wasFailing = standby.isFailing();
+            try {
+                standby.ship();
+            } catch (SQLException | IOException e) {
+                // Retried every pass; the dashboard shows how long it has been failing
+                if (!wasFailing) {
+                    e.printStackTrace();
                 }
             }
+        }, 0, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies one spooled ballot through the writer store. Called only by the spool drainer;
+     * a thrown exception makes it retry the same ballot later.
+     */
+    private static void recordSpooledBallot(VoteSpool.SpooledBallot ballot)
+            throws VoteStore.StoreException, SQLException, IOException {
+        if (ballot.electionId != activeElectionId) {
+            ballotAfterClose(ballot, "election " + ballot.electionId + " is closed");
+            return;
+        }
+        long ballotId;
+        try {
+            ballotId = writerStore.castBallot(ballot.key, ballot.electionId, ballot.userId, ballot.choices);
+        } catch (VoteStore.StoreException ex) {
+            // The transaction was rolled back, so drop any chain nodes it appended
+            ballotChain.reload();
+            throw ex;
+        }
+        if (ballotId == VoteStore.CLOSED) {
+            // Spooled before the election was closed from another kiosk or AdminCli
+            ballotAfterClose(ballot, "election " + ballot.electionId + " was closed before it was recorded");
+        } else if (ballotId == VoteStore.ALREADY_VOTED) {
+            ballotDiscarded(ballot, "voter " + ballot.userId + " has already voted");
+        } else if (ballotId == VoteStore.INVALID) {
+            // A candidate was removed or the seats were changed after the ballot was checked at submit
+            ballotDiscarded(ballot, "its picks are no longer valid");
+        } else if (ballotId > 0) {
+            turnout.record(ballot.castAtMillis);
+            anomalies.ballotRecorded(ballot.castAtMillis, VoteStore.candidateIds(ballot.choices));
+        }
+    }
+
+    /**
+     * A spooled ballot the voter was thanked for but that can't be recorded. Submit checks the
+     * election, the voter and the picks first, so this is left to changes made in between,
+     * often from another kiosk; the audit log shows each one to the admins.
+     */
+    private static void ballotDiscarded(VoteSpool.SpooledBallot ballot, String reason) {
+        System.out.println("Discarding spooled ballot " + ballot.key + ": " + reason);
+        audit.record("system", AuditLog.BALLOT_DISCARDED, "ballot " + ballot.key + " on " + turnout.kiosk()
+                + ": " + reason);
+    }
+
+    /**
+     * A spooled ballot the voter was thanked for whose election closed before it was recorded.
+     * Closing waits for every spool it can see, so this is a ballot cast at another kiosk
+     * before that kiosk saw the close; it is kept for the admins to review, not dropped.
+     */
+    private static void ballotAfterClose(VoteSpool.SpooledBallot ballot, String reason) throws IOException {
+        voteSpool.keepForReview(ballot);
+        System.out.println("Keeping spooled ballot " + ballot.key + " for review: " + reason);
+        audit.record("system", AuditLog.BALLOT_AFTER_CLOSE, "ballot " + ballot.key + " on " + turnout.kiosk()
+                + ": " + reason + "; kept in " + VoteSpool.reviewFile(new File(SPOOL_PATH))
+                + " (AdminCli spool review)");
+    }
+
+    /**
+     * Turns down an admin action that ends the active election while a kiosk in this folder
+     * still holds ballots that aren't recorded: a spool that isn't empty, or set-aside ballots
+     * (retried when their kiosk restarts). This kiosk's own spool is waited for separately.
+     */
+    private static void requireSpoolsRecorded() throws IOException {
+        List<File> unrecorded = VoteSpool.unrecorded(new File(SPOOL_PATH), false);
+        if (!unrecorded.isEmpty()) {
+            List<String> names = new ArrayList<>();
+            for (File file : unrecorded) {
+                names.add(file.getName());
+            }
+            throw new IOException("ballots voters were thanked for are still waiting in " + String.join(", ", names)
+                    + ".\nLet those kiosks record them (restart a kiosk to retry its set-aside ballots), then try again.");
+        }
+    }
 
+    private static void ballotSetAside(VoteSpool.SpooledBallot ballot, Exception cause) {
+        audit.record("system", AuditLog.BALLOT_SET_ASIDE, "ballot " + ballot.key + " on " + turnout.kiosk()
+                + " kept failing (" + cause.getMessage() + "); set aside in " + SPOOL_PATH
+                + ".failed and retried on the next start");
+    }
+
+    /**
+     * Runs inside each ballot's transaction. The epochs were read in that transaction, since a
+     * reset may have come from AdminCli in another process.
+     */
+    private static void ballotRecorded(int newVoteEpoch, int newVoterEpoch, long ballotId, int[] candidateIds)
+            throws SQLException {
+        voteEpoch = newVoteEpoch;
+        voterEpoch = newVoterEpoch;
+        if (ballotChain.epoch() != newVoteEpoch) {
+            // The new epoch's chain backfills unchained ballots, this one included
+            ballotChain = new BallotChain(writerConn, activeElectionId, newVoteEpoch);
+        } else {
+            ballotChain.append(ballotId, candidateIds);
+        }
+    }
+
+    /** Identifies this machine in per-kiosk turnout; override with -Dkiosk.id=... */
+    private static String kioskId() {
+        String id = System.getProperty("kiosk.id");
+        if (id != null && !id.trim().isEmpty()) {
+            return id.trim();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "kiosk";
+        }
+    }
+
+    private static void flushTurnout() {
+        try {
+            voteSpool.runExclusive(() -> {
+                turnout.flush(writerConn, activeElectionId);
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
-            showErrorDialog(null, "Database initialization failed: " + e.getMessage());
-            System.exit(1);
         }
     }
 
-    private static void createLoginWindow() {
+    private static void loadEpochs() throws SQLException {
+        int[] epochs = VotingDatabase.readEpochs(conn, activeElectionId);
+        voteEpoch = epochs[0];
+        voterEpoch = epochs[1];
+    }
+
+    /**
+     * Shows the login window, building it the first time. While it waits for the next voter,
+     * the ballot is loaded and its voting window built if the ballot has changed.
+     */
+    private static void showLoginWindow() {
+        if (loginFrame != null) {
+            loginStudentIdField.setText("");
+            loginPasswordField.setText("");
+            loginFrame.setVisible(true);
+            loginStudentIdField.requestFocusInWindow();
+            prewarmVotingWindow();
+            return;
+        }
         JFrame frame = new JFrame("RTU Electronic Voting System - Login");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(500, 450);
@@ -195,33 +454,45 @@ public class VotingSystem {
                 return;
             }
 
-            try {
-                PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT name, has_voted, is_admin FROM users WHERE student_id = ? AND password = ?");
-                stmt.setString(1, studentId);
-                stmt.setString(2, password);
-                ResultSet rs = stmt.executeQuery();
+            // Throttled attempts are rejected here and never reach the database, but still
+            // count as failures for the anomaly detector
+            LoginThrottle.Decision decision = loginThrottle.tryAcquire(studentId);
+            if (!decision.isAllowed()) {
+                anomalies.loginFailed(studentId, System.currentTimeMillis());
+                showErrorDialog(frame, decision.getMessage());
+                return;
+            }
 
-                if (rs.next()) {
-                    currentUser = rs.getString("name");
-                    isAdmin = rs.getBoolean("is_admin");
+            db.run(() -> login(studentId, password), login -> {
+                if (login.user != null) {
+                    loginThrottle.recordSuccess(studentId);
+                    currentUser = login.user.name;
+                    currentStudentId = login.user.studentId;
+                    currentUserId = login.user.id;
+                    isAdmin = login.user.admin;
 
                     if (isAdmin) {
-                        frame.dispose();
+                        audit.record(currentStudentId, AuditLog.ADMIN_LOGIN, "kiosk " + turnout.kiosk());
+                        frame.setVisible(false);
                         createAdminDashboard();
-                    } else if (rs.getBoolean("has_voted")) {
+                    } else if (login.closed) {
+                        showErrorDialog(frame, "Voting in this election has closed.");
+                    } else if (login.hasVoted) {
                         showErrorDialog(frame, "You have already voted. Each student can only vote once.");
                     } else {
-                        frame.dispose();
-                        createVotingWindow();
+                        frame.setVisible(false);
+                        votingWindowFor(login.electionId, login.candidates, login.seats, login.bundle)
+                                .open(currentUser);
                     }
                 } else {
+                    loginThrottle.recordFailure(studentId);
+                    anomalies.loginFailed(studentId, System.currentTimeMillis());
                     showErrorDialog(frame, "Invalid student ID or password");
                 }
-            } catch (SQLException ex) {
+            }, ex -> {
                 ex.printStackTrace();
                 showErrorDialog(frame, "Database error: " + ex.getMessage());
-            }
+            }, loginButton, registerButton);
         });
 
         registerButton.addActionListener(e -> {
@@ -245,6 +516,187 @@ public class VotingSystem {
         // Center and show
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+
+        loginFrame = frame;
+        loginStudentIdField = studentIdField;
+        loginPasswordField = passwordField;
+        prewarmVotingWindow();
+    }
+
+    private static final class LoginResult {
+        // The election the checks and the ballot are for, in case another starts meanwhile
+        int electionId;
+        VoteStore.User user;
+        boolean closed;
+        boolean hasVoted;
+        List<VoteStore.Candidate> candidates;
+        Map<String, Integer> seats;
+        BallotBundle bundle;
+    }
+
+    /** Runs on the database thread: checks the credentials and loads what the next window needs. */
+    private static LoginResult login(String studentId, String password) throws VoteStore.StoreException {
+        LoginResult result = new LoginResult();
+        result.electionId = activeElectionId;
+        result.user = store.authenticate(studentId, password);
+        if (result.user != null && !result.user.admin) {
+            // Read per login, since the election may have been closed from another kiosk
+            result.closed = store.isClosed(result.electionId);
+            result.hasVoted = !result.closed && (store.hasVoted(result.electionId, result.user.id)
+                    || voteSpool.isPending(result.electionId, result.user.id));
+            if (!result.closed && !result.hasVoted) {
+                loadBallot(result);
+            }
+        }
+        return result;
+    }
+
+    /** Runs on the database thread: the candidates and seats to show, from the published ballot if there is one. */
+    private static void loadBallot(LoginResult result) throws VoteStore.StoreException {
+        result.bundle = publishedBallot(result.electionId);
+        if (result.bundle != null) {
+            result.candidates = result.bundle.candidates();
+            result.seats = result.bundle.seats();
+        } else {
+            result.candidates = store.candidates(result.electionId);
+            result.seats = store.seats(result.electionId);
+        }
+    }
+
+    /**
+     * Loads the ballot while the login window is idle and builds its voting window now if it
+     * changed (a candidate was added, a new version published), so no voter waits for it.
+     */
+    private static void prewarmVotingWindow() {
+        db.run(() -> {
+            LoginResult ballot = new LoginResult();
+            ballot.electionId = activeElectionId;
+            loadBallot(ballot);
+            return ballot;
+        }, ballot -> {
+            // A voter who got in first already has the window they need
+            if (votingWindow == null || !votingWindow.frame.isVisible()) {
+                votingWindowFor(ballot.electionId, ballot.candidates, ballot.seats, ballot.bundle);
+            }
+        }, ex -> ex.printStackTrace());
+    }
+
+    /** The voting window for this ballot: the kept one if the ballot hasn't changed, otherwise a new one. */
+    private static VotingWindow votingWindowFor(int electionId, List<VoteStore.Candidate> candidates,
+                                                Map<String, Integer> seats, BallotBundle bundle) {
+        String ballotKey;
+        if (bundle != null) {
+            ballotKey = "bundle " + bundle.file() + " " + bundle.version();
+        } else {
+            StringBuilder key = new StringBuilder("election " + electionId + " " + seats);
+            for (VoteStore.Candidate candidate : candidates) {
+                key.append('\n').append(candidate.id).append('|').append(candidate.name).append('|')
+                        .append(candidate.position).append('|').append(candidate.role).append('|')
+                        .append(candidate.imagePath);
+            }
+            ballotKey = key.toString();
+        }
+        if (votingWindow == null || !votingWindow.ballotKey.equals(ballotKey)) {
+            if (votingWindow != null) {
+                votingWindow.frame.dispose();
+            }
+            votingWindow = createVotingWindow(electionId, candidates, seats, bundle, ballotKey);
+        }
+        return votingWindow;
+    }
+
+    /** The voting window for one ballot, kept between voters and cleared as each one leaves. */
+    private static final class VotingWindow {
+        final String ballotKey;
+        // Ballots from this window are for the election it was built for, even after another starts
+        final int electionId;
+        final List<ButtonGroup> groups = new ArrayList<>();
+        final List<AbstractButton> buttons = new ArrayList<>();
+        final List<JScrollPane> scrollPanes = new ArrayList<>();
+        JFrame frame;
+        JLabel welcomeLabel;
+        JTabbedPane tabbedPane;
+        JTextArea detailsArea;
+        JLabel imageLabel;
+
+        VotingWindow(String ballotKey, int electionId) {
+            this.ballotKey = ballotKey;
+            this.electionId = electionId;
+        }
+
+        void open(String voter) {
+            welcomeLabel.setText("Welcome, " + voter);
+            frame.setVisible(true);
+        }
+
+        /** Hides the window and clears the voter's picks at once, so they never linger behind the login window. */
+        void close() {
+            frame.setVisible(false);
+            for (ButtonGroup group : groups) {
+                group.clearSelection();
+            }
+            for (AbstractButton button : buttons) {
+                button.setSelected(false);
+            }
+            detailsArea.setText("Select a candidate to view their details");
+            showPlaceholder(imageLabel);
+            for (JScrollPane scrollPane : scrollPanes) {
+                scrollPane.getVerticalScrollBar().setValue(0);
+            }
+            if (tabbedPane.getTabCount() > 0) {
+                tabbedPane.setSelectedIndex(0);
+            }
+        }
+    }
+
+    /** Shows the placeholder photo, which is read and scaled once per kiosk. */
+    private static void showPlaceholder(JLabel imageLabel) {
+        if (!placeholderLoaded) {
+            placeholderLoaded = true;
+            try {
+                ImageIcon placeholder = new ImageIcon(ImageIO.read(
+                        VotingSystem.class.getResourceAsStream("/placeholder.png")));
+                placeholderIcon = new ImageIcon(placeholder.getImage().getScaledInstance(200, 200, Image.SCALE_SMOOTH));
+            } catch (Exception e) {
+                placeholderIcon = null;
+            }
+        }
+        if (placeholderIcon != null) {
+            imageLabel.setIcon(placeholderIcon);
+            imageLabel.setText("");
+        } else {
+            imageLabel.setIcon(null);
+            imageLabel.setText("No Image Available");
+            imageLabel.setFont(new Font("Segoe UI", Font.ITALIC, 14));
+            imageLabel.setForeground(new Color(150, 150, 150));
+        }
+    }
+
+    /**
+     * The active election's published ballot, or null to build the ballot from the database
+     * (nothing published yet, only for an earlier election, or candidates or seats changed
+     * since). Only lists the bundle folder unless a new version has appeared.
+     */
+    private static BallotBundle publishedBallot(int electionId) throws VoteStore.StoreException {
+        File latest = BallotBundle.latest(new File(BallotBundle.DIR));
+        if (latest == null) {
+            return null;
+        }
+        if ((ballotBundle == null || !ballotBundle.file().equals(latest)) && !latest.equals(rejectedBundle)) {
+            try {
+                ballotBundle = BallotBundle.open(latest);
+                System.out.println("Loaded ballot version " + ballotBundle.version());
+            } catch (IOException e) {
+                // A damaged bundle is skipped rather than shown; the previous one (if any) stays in use
+                rejectedBundle = latest;
+                System.out.println("Could not load " + latest + ": " + e.getMessage());
+            }
+        }
+        if (ballotBundle == null || ballotBundle.electionId() != electionId) {
+            return null;
+        }
+        // An admin removed a candidate or changed seats and hasn't published again
+        return ballotBundle.ballotRevision() < store.ballotRevision(electionId) ? null : ballotBundle;
     }
 
     private static void showStudentRegistrationDialog(JFrame parent) {
@@ -349,25 +801,18 @@ public class VotingSystem {
                 return;
             }
 
-            try {
-                PreparedStatement pstmt = conn.prepareStatement(
-                        "INSERT INTO users (student_id, name, password) VALUES (?, ?, ?)");
-                pstmt.setString(1, studentId);
-                pstmt.setString(2, name);
-                pstmt.setString(3, password);
-                pstmt.executeUpdate();
+            db.run(() -> store.registerUser(studentId, name, password, false), userId -> {
+                if (userId < 0) {
+                    showErrorDialog(dialog, "This student ID is already registered");
+                    return;
+                }
 
                 JOptionPane.showMessageDialog(dialog,
                         "Registration successful! You can now login with your credentials.",
                         "Registration Complete", JOptionPane.INFORMATION_MESSAGE);
                 dialog.dispose();
-            } catch (SQLException ex) {
-                if (ex.getMessage().contains("UNIQUE constraint failed")) {
-                    showErrorDialog(dialog, "This student ID is already registered");
-                } else {
-                    showErrorDialog(dialog, "Error during registration: " + ex.getMessage());
-                }
-            }
+            }, ex -> showErrorDialog(dialog, "Error during registration: " + ex.getMessage()),
+                    registerButton, cancelButton);
         });
 
         cancelButton.addActionListener(e -> dialog.dispose());
@@ -382,7 +827,9 @@ public class VotingSystem {
         dialog.setVisible(true);
     }
 
-    private static void createVotingWindow() {
+    private static VotingWindow createVotingWindow(int electionId, List<VoteStore.Candidate> candidates,
+                                                   Map<String, Integer> seats, BallotBundle bundle, String ballotKey) {
+        VotingWindow window = new VotingWindow(ballotKey, electionId);
         JFrame frame = new JFrame("RTU Voting System - Cast Your Vote");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(1100, 800); // Slightly larger for better layout
@@ -399,7 +846,7 @@ public class VotingSystem {
         titleLabel.setForeground(Color.WHITE);
         headerPanel.add(titleLabel, BorderLayout.WEST);
 
-        JLabel welcomeLabel = new JLabel("Welcome, " + currentUser);
+        JLabel welcomeLabel = new JLabel();
         welcomeLabel.setFont(new Font("Segoe UI", Font.PLAIN, 16));
         welcomeLabel.setForeground(new Color(220, 220, 220));
         headerPanel.add(welcomeLabel, BorderLayout.EAST);
@@ -434,18 +881,7 @@ public class VotingSystem {
         candidateImageLabel.setHorizontalAlignment(JLabel.CENTER);
 
         // Default placeholder image
-        try {
-            ImageIcon placeholder = new ImageIcon(ImageIO.read(
-                    VotingSystem.class.getResourceAsStream("/placeholder.png")));
-            Image scaled = placeholder.getImage().getScaledInstance(200, 200, Image.SCALE_SMOOTH);
-            candidateImageLabel.setIcon(new ImageIcon(scaled));
-            candidateImageLabel.setText("");
-        } catch (Exception e) {
-            candidateImageLabel.setIcon(null);
-            candidateImageLabel.setText("No Image Available");
-            candidateImageLabel.setFont(new Font("Segoe UI", Font.ITALIC, 14));
-            candidateImageLabel.setForeground(new Color(150, 150, 150));
-        }
+        showPlaceholder(candidateImageLabel);
 
         photoPanel.add(candidateImageLabel, BorderLayout.CENTER);
         candidateDetailPanel.add(photoPanel, BorderLayout.NORTH);
@@ -475,220 +911,230 @@ public class VotingSystem {
 
         candidateDetailPanel.add(detailsPanel, BorderLayout.CENTER);
 
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT DISTINCT position FROM candidates");
-
-            Map<String, ButtonGroup> positionGroups = new HashMap<>();
-            Map<String, JPanel> positionPanels = new HashMap<>();
-
-            while (rs.next()) {
-                String position = rs.getString("position");
-                ButtonGroup group = new ButtonGroup();
-                JPanel panel = new JPanel();
-                panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
-                panel.setBackground(Color.WHITE);
-                panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-
-                JLabel positionLabel = new JLabel(position.toUpperCase());
-                positionLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
-                positionLabel.setForeground(PRIMARY_COLOR);
-                positionLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 15, 0));
-                panel.add(positionLabel);
-                panel.add(Box.createRigidArea(new Dimension(0, 10)));
+        Map<String, List<VoteStore.Candidate>> candidatesByPosition = new LinkedHashMap<>();
+        for (VoteStore.Candidate candidate : candidates) {
+            candidatesByPosition.computeIfAbsent(candidate.position, k -> new ArrayList<>()).add(candidate);
+        }
 
-                PreparedStatement pstmt = conn.prepareStatement(
-                        "SELECT id, name, role, image_path FROM candidates WHERE position = ?");
-                pstmt.setString(1, position);
-                ResultSet candidates = pstmt.executeQuery();
-
-                while (candidates.next()) {
-                    int candidateId = candidates.getInt("id");
-                    String candidateName = candidates.getString("name");
-                    String candidateRole = candidates.getString("role");
-                    String imagePath = candidates.getString("image_path");
-
-                    JPanel candidatePanel = new JPanel(new BorderLayout(15, 0));
-                    candidatePanel.setBackground(Color.WHITE);
-                    candidatePanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-
-                    JRadioButton radioButton = new JRadioButton(candidateName);
-                    radioButton.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-                    radioButton.setBackground(Color.WHITE);
-                    radioButton.setActionCommand(String.valueOf(candidateId));
+        // Radio buttons for a single seat, check boxes where several candidates can be picked
+        Map<String, List<AbstractButton>> positionButtons = new LinkedHashMap<>();
+        Map<String, JPanel> positionPanels = new HashMap<>();
+
+        for (Map.Entry<String, List<VoteStore.Candidate>> byPosition : candidatesByPosition.entrySet()) {
+            String position = byPosition.getKey();
+            int positionSeats = VoteStore.seatsFor(seats, position);
+            ButtonGroup group = new ButtonGroup();
+            window.groups.add(group);
+            List<AbstractButton> buttons = new ArrayList<>();
+            JPanel panel = new JPanel();
+            panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+            panel.setBackground(Color.WHITE);
+            panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+
+            JLabel positionLabel = new JLabel(position.toUpperCase());
+            positionLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
+            positionLabel.setForeground(PRIMARY_COLOR);
+            positionLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 5, 0));
+            panel.add(positionLabel);
+
+            JLabel seatsLabel = new JLabel(VoteStore.describeSeats(positionSeats));
+            seatsLabel.setFont(new Font("Segoe UI", Font.ITALIC, 14));
+            seatsLabel.setForeground(new Color(100, 100, 100));
+            seatsLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+            panel.add(seatsLabel);
+            panel.add(Box.createRigidArea(new Dimension(0, 10)));
+
+            for (VoteStore.Candidate candidate : byPosition.getValue()) {
+                int candidateId = candidate.id;
+                String candidateName = candidate.name;
+                String candidateRole = candidate.role;
+                String imagePath = candidate.imagePath;
+
+                JPanel candidatePanel = new JPanel(new BorderLayout(15, 0));
+                candidatePanel.setBackground(Color.WHITE);
+                candidatePanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+                AbstractButton radioButton = positionSeats == 1
+                        ? new JRadioButton(candidateName) : new JCheckBox(candidateName);
+                radioButton.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+                radioButton.setBackground(Color.WHITE);
+                radioButton.setActionCommand(String.valueOf(candidateId));
+                if (positionSeats == 1) {
                     group.add(radioButton);
+                }
+                buttons.add(radioButton);
+                window.buttons.add(radioButton);
+
+                radioButton.addActionListener(e -> {
+                    if (radioButton.isSelected() && positionSeats > 1
+                            && buttons.stream().filter(AbstractButton::isSelected).count() > positionSeats) {
+                        radioButton.setSelected(false);
+                        showErrorDialog(frame, "You can choose up to " + positionSeats + " for " + position);
+                        return;
+                    }
+                    if (radioButton.isSelected()) {
+                        StringBuilder details = new StringBuilder();
+                        details.append("Name: ").append(candidateName).append("\n\n");
+                        details.append("Position: ").append(position).append("\n\n");
+                        if (candidateRole != null && !candidateRole.isEmpty()) {
+                            details.append("Role/Duties:\n").append(candidateRole);
+                        } else {
+                            details.append("Role/Duties: Not specified");
+                        }
+                        candidateDetailsArea.setText(details.toString());
 
-                    radioButton.addActionListener(e -> {
-                        if (radioButton.isSelected()) {
-                            StringBuilder details = new StringBuilder();
-                            details.append("Name: ").append(candidateName).append("\n\n");
-                            details.append("Position: ").append(position).append("\n\n");
-                            if (candidateRole != null && !candidateRole.isEmpty()) {
-                                details.append("Role/Duties:\n").append(candidateRole);
-                            } else {
-                                details.append("Role/Duties: Not specified");
-                            }
-                            candidateDetailsArea.setText(details.toString());
-
-                            // Load and display candidate image professionally
-                            try {
-                                if (imagePath != null && !imagePath.isEmpty()) {
-                                    ImageIcon icon = new ImageIcon(imagePath);
-                                    Image img = icon.getImage();
-                                    // Scale image maintaining aspect ratio
-                                    int width = 250;
-                                    int height = 250;
-                                    if (img.getWidth(null) > img.getHeight(null)) {
-                                        height = (int) (250 * ((double) img.getHeight(null) / img.getWidth(null)));
-                                    } else {
-                                        width = (int) (250 * ((double) img.getWidth(null) / img.getHeight(null)));
-                                    }
-                                    Image scaled = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-                                    candidateImageLabel.setIcon(new ImageIcon(scaled));
-                                    candidateImageLabel.setText("");
+                        // Load and display candidate image professionally
+                        try {
+                            Image thumbnail = bundle == null ? null : bundle.thumbnailImage(candidateId);
+                            if (thumbnail != null) {
+                                // Already scaled when the ballot was published
+                                candidateImageLabel.setIcon(new ImageIcon(thumbnail));
+                                candidateImageLabel.setText("");
+                            } else if (bundle == null && imagePath != null && !imagePath.isEmpty()) {
+                                ImageIcon icon = new ImageIcon(imagePath);
+                                Image img = icon.getImage();
+                                // Scale image maintaining aspect ratio
+                                int width = 250;
+                                int height = 250;
+                                if (img.getWidth(null) > img.getHeight(null)) {
+                                    height = (int) (250 * ((double) img.getHeight(null) / img.getWidth(null)));
                                 } else {
-                                    throw new Exception("No image path");
-                                }
-                            } catch (Exception ex) {
-                                // Use placeholder if image loading fails
-                                try {
-                                    ImageIcon placeholder = new ImageIcon(ImageIO.read(
-                                            VotingSystem.class.getResourceAsStream("/placeholder.png")));
-                                    Image scaled = placeholder.getImage().getScaledInstance(200, 200, Image.SCALE_SMOOTH);
-                                    candidateImageLabel.setIcon(new ImageIcon(scaled));
-                                    candidateImageLabel.setText("");
-                                } catch (Exception e1) {
-                                    candidateImageLabel.setIcon(null);
-                                    candidateImageLabel.setText("No Image Available");
-                                    candidateImageLabel.setFont(new Font("Segoe UI", Font.ITALIC, 14));
-                                    candidateImageLabel.setForeground(new Color(150, 150, 150));
+                                    width = (int) (250 * ((double) img.getWidth(null) / img.getHeight(null)));
                                 }
+                                Image scaled = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+                                candidateImageLabel.setIcon(new ImageIcon(scaled));
+                                candidateImageLabel.setText("");
+                            } else {
+                                throw new Exception("No image path");
                             }
+                        } catch (Exception ex) {
+                            // Use placeholder if image loading fails
+                            showPlaceholder(candidateImageLabel);
                         }
-                    });
+                    }
+                });
 
-                    candidatePanel.add(radioButton, BorderLayout.CENTER);
-                    panel.add(candidatePanel);
-                    panel.add(Box.createRigidArea(new Dimension(0, 10)));
-                }
+                candidatePanel.add(radioButton, BorderLayout.CENTER);
+                panel.add(candidatePanel);
+                panel.add(Box.createRigidArea(new Dimension(0, 10)));
+            }
 
-                positionGroups.put(position, group);
-                positionPanels.put(position, panel);
+            positionButtons.put(position, buttons);
+            positionPanels.put(position, panel);
 
-                JScrollPane scrollPane = new JScrollPane(panel);
-                scrollPane.setBorder(BorderFactory.createEmptyBorder());
-                tabbedPane.addTab(position, scrollPane);
-            }
+            JScrollPane scrollPane = new JScrollPane(panel);
+            scrollPane.setBorder(BorderFactory.createEmptyBorder());
+            window.scrollPanes.add(scrollPane);
+            tabbedPane.addTab(position, scrollPane);
+        }
 
-            // Create split pane with improved proportions
-            JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, tabbedPane, candidateDetailPanel);
-            splitPane.setDividerLocation(700);
-            splitPane.setResizeWeight(0.7);
-            splitPane.setBorder(BorderFactory.createEmptyBorder());
-            frame.add(splitPane, BorderLayout.CENTER);
-
-            // Footer panel with action buttons
-            JPanel footerPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 15));
-            footerPanel.setBackground(SECONDARY_COLOR);
-            footerPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
-
-            JButton submitButton = createStyledButton("SUBMIT VOTES", SECONDARY_COLOR, PRIMARY_COLOR);
-            submitButton.setFont(new Font("Segoe UI", Font.BOLD, 16));
-            submitButton.setBorder(BorderFactory.createCompoundBorder(
-                    BorderFactory.createLineBorder(PRIMARY_COLOR, 2),
-                    BorderFactory.createEmptyBorder(10, 30, 10, 30)
-            ));
-
-            JButton logoutButton = createStyledButton("LOGOUT", SECONDARY_COLOR, PRIMARY_COLOR);
-            logoutButton.setFont(new Font("Segoe UI", Font.BOLD, 16));
-            logoutButton.setBorder(BorderFactory.createCompoundBorder(
-                    BorderFactory.createLineBorder(PRIMARY_COLOR, 2),
-                    BorderFactory.createEmptyBorder(10, 30, 10, 30)
-            ));
-
-            submitButton.addActionListener(e -> {
-                Map<String, Integer> votes = new HashMap<>();
-                boolean allPositionsVoted = true;
-
-                for (Map.Entry<String, ButtonGroup> entry : positionGroups.entrySet()) {
-                    String position = entry.getKey();
-                    ButtonGroup group = entry.getValue();
-
-                    if (group.getSelection() == null) {
-                        allPositionsVoted = false;
-                        tabbedPane.setSelectedIndex(tabbedPane.indexOfTab(position));
-                        showErrorDialog(frame, "Please select a candidate for " + position);
-                        break;
-                    } else {
-                        votes.put(position, Integer.parseInt(group.getSelection().getActionCommand()));
-                    }
-                }
+        // Create split pane with improved proportions
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, tabbedPane, candidateDetailPanel);
+        splitPane.setDividerLocation(700);
+        splitPane.setResizeWeight(0.7);
+        splitPane.setBorder(BorderFactory.createEmptyBorder());
+        frame.add(splitPane, BorderLayout.CENTER);
 
-                if (allPositionsVoted) {
-                    int confirm = JOptionPane.showConfirmDialog(frame,
-                            "Are you sure you want to submit your votes? You cannot change them afterward.",
-                            "Confirm Submission", JOptionPane.YES_NO_OPTION,
-                            JOptionPane.QUESTION_MESSAGE);
+        // Footer panel with action buttons
+        JPanel footerPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 15));
+        footerPanel.setBackground(SECONDARY_COLOR);
+        footerPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
 
-                    if (confirm == JOptionPane.YES_OPTION) {
-                        try {
-                            conn.setAutoCommit(false);
+        JButton submitButton = createStyledButton("SUBMIT VOTES", SECONDARY_COLOR, PRIMARY_COLOR);
+        submitButton.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        submitButton.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(PRIMARY_COLOR, 2),
+                BorderFactory.createEmptyBorder(10, 30, 10, 30)
+        ));
 
-                            for (Map.Entry<String, Integer> entry : votes.entrySet()) {
-                                PreparedStatement pstmt = conn.prepareStatement(
-                                        "UPDATE candidates SET votes = votes + 1 WHERE id = ?");
-                                pstmt.setInt(1, entry.getValue());
-                                pstmt.executeUpdate();
-                            }
+        JButton logoutButton = createStyledButton("LOGOUT", SECONDARY_COLOR, PRIMARY_COLOR);
+        logoutButton.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        logoutButton.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(PRIMARY_COLOR, 2),
+                BorderFactory.createEmptyBorder(10, 30, 10, 30)
+        ));
 
-                            PreparedStatement pstmt = conn.prepareStatement(
-                                    "UPDATE users SET has_voted = TRUE WHERE name = ?");
-                            pstmt.setString(1, currentUser);
-                            pstmt.executeUpdate();
+        submitButton.addActionListener(e -> {
+            Map<String, int[]> votes = new HashMap<>();
+            boolean allPositionsVoted = true;
 
-                            conn.commit();
+            for (Map.Entry<String, List<AbstractButton>> entry : positionButtons.entrySet()) {
+                String position = entry.getKey();
+                int[] picks = entry.getValue().stream().filter(AbstractButton::isSelected)
+                        .mapToInt(button -> Integer.parseInt(button.getActionCommand())).toArray();
+
+                if (picks.length == 0 && VoteStore.seatsFor(seats, position) == VoteStore.APPROVAL) {
+                    // "Choose any number" includes none
+                    continue;
+                }
+                if (picks.length == 0) {
+                    allPositionsVoted = false;
+                    tabbedPane.setSelectedIndex(tabbedPane.indexOfTab(position));
+                    showErrorDialog(frame, "Please select a candidate for " + position);
+                    break;
+                } else {
+                    votes.put(position, picks);
+                }
+            }
+
+            if (allPositionsVoted) {
+                int confirm = JOptionPane.showConfirmDialog(frame,
+                        "Are you sure you want to submit your votes? You cannot change them afterward.",
+                        "Confirm Submission", JOptionPane.YES_NO_OPTION,
+                        JOptionPane.QUESTION_MESSAGE);
+
+                if (confirm == JOptionPane.YES_OPTION) {
+                    int userId = currentUserId;
+                    // Checked against the database first, so the thank-you isn't given for a ballot the
+                    // drainer would throw away. Confirmed once the ballot is durably spooled; the drainer
+                    // writes it to the database
+                    db.run(() -> {
+                        if (electionId != activeElectionId || store.isClosed(electionId)) {
+                            return "Voting in this election has closed.";
+                        }
+                        if (store.hasVoted(electionId, userId)) {
+                            return "You have already voted in this election.";
+                        }
+                        if (!store.isValidBallot(electionId, votes)) {
+                            return "The candidates have changed since this ballot was opened. Please log in again to vote.";
+                        }
+                        voteSpool.submit(electionId, userId, votes);
+                        return null;
+                    }, refusal -> {
+                        if (refusal != null) {
+                            showErrorDialog(frame, refusal);
+                        } else {
                             JOptionPane.showMessageDialog(frame,
                                     "Thank you for voting! Your votes have been recorded.",
                                     "Voting Complete", JOptionPane.INFORMATION_MESSAGE);
-                            frame.dispose();
-                            createLoginWindow();
-                        } catch (SQLException ex) {
-                            try {
-                                conn.rollback();
-                            } catch (SQLException ex2) {
-                                ex2.printStackTrace();
-                            }
-                            ex.printStackTrace();
-                            showErrorDialog(frame, "Error recording your vote: " + ex.getMessage());
-                        } finally {
-                            try {
-                                conn.setAutoCommit(true);
-                            } catch (SQLException ex) {
-                                ex.printStackTrace();
-                            }
                         }
-                    }
+                        window.close();
+                        showLoginWindow();
+                    }, ex -> {
+                        ex.printStackTrace();
+                        showErrorDialog(frame, "Error recording your vote: " + ex.getMessage());
+                    }, submitButton, logoutButton);
                 }
-            });
-
-            logoutButton.addActionListener(e -> {
-                frame.dispose();
-                createLoginWindow();
-            });
+            }
+        });
 
-            footerPanel.add(submitButton);
-            footerPanel.add(logoutButton);
-            frame.add(footerPanel, BorderLayout.SOUTH);
+        logoutButton.addActionListener(e -> {
+            window.close();
+            showLoginWindow();
+        });
 
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            showErrorDialog(frame, "Error loading candidates: " + ex.getMessage());
-            frame.dispose();
-            createLoginWindow();
-        }
+        footerPanel.add(submitButton);
+        footerPanel.add(logoutButton);
+        frame.add(footerPanel, BorderLayout.SOUTH);
 
         frame.setLocationRelativeTo(null);
-        frame.setVisible(true);
+        // Shown by open(); built ahead of the voter who will use it
+        window.frame = frame;
+        window.welcomeLabel = welcomeLabel;
+        window.tabbedPane = tabbedPane;
+        window.detailsArea = candidateDetailsArea;
+        window.imageLabel = candidateImageLabel;
+        return window;
     }
 
     private static void createAdminDashboard() {
@@ -743,32 +1189,31 @@ public class VotingSystem {
         JButton refreshResultsButton = createStyledButton("Refresh Results", Color.WHITE, PRIMARY_COLOR);
         JButton printResultsButton = createStyledButton("Print Results", Color.WHITE, PRIMARY_COLOR);
 
-        refreshResultsButton.addActionListener(e -> {
-            try {
-                Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(
-                        "SELECT position, name, votes FROM candidates ORDER BY position, votes DESC");
-
-                StringBuilder sb = new StringBuilder();
-                String currentPosition = null;
-
-                while (rs.next()) {
-                    String position = rs.getString("position");
-                    if (!position.equals(currentPosition)) {
-                        if (currentPosition != null) sb.append("\n");
-                        sb.append("=== ").append(position.toUpperCase()).append(" ===\n\n");
-                        currentPosition = position;
-                    }
-                    sb.append(String.format("%-25s", rs.getString("name")))
-                            .append(": ").append(rs.getInt("votes")).append(" votes\n");
-                }
+        refreshResultsButton.addActionListener(e -> db.run(() -> {
+            // A closed election's results were computed once when it closed
+            CertifiedResults certified = certifiedResults;
+            if (certified != null) {
+                return certified.format();
+            }
+            StringBuilder sb = new StringBuilder(VoteStore.formatResults(store, activeElectionId));
 
-                resultsArea.setText(sb.toString());
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                showErrorDialog(frame, "Error loading results: " + ex.getMessage());
+            // Printed with the results so the root can be recorded outside the database
+            if (SHARD_DIR == null) {
+                String chain = voteSpool.runExclusive(() ->
+                        ballotChain.size() + " ballots, root " + ballotChain.rootHex());
+                sb.append("\nBallot chain: ").append(chain).append("\n");
+            } else {
+                sb.append("\nMerged from the kiosk shards in ").append(SHARD_DIR).append("\n");
             }
-        });
+            int spooled = voteSpool.pendingCount();
+            if (spooled > 0) {
+                sb.append("Ballots spooled and not yet counted: ").append(spooled).append("\n");
+            }
+            return sb.toString();
+        }, resultsArea::setText, ex -> {
+            ex.printStackTrace();
+            showErrorDialog(frame, "Error loading results: " + ex.getMessage());
+        }, refreshResultsButton));
 
         printResultsButton.addActionListener(e -> {
             try {
@@ -806,15 +1251,25 @@ public class VotingSystem {
         JButton addCandidateButton = createStyledButton("Add Candidate", Color.WHITE, PRIMARY_COLOR);
         JButton removeCandidateButton = createStyledButton("Remove Selected", Color.WHITE, PRIMARY_COLOR);
         JButton refreshCandidatesButton = createStyledButton("Refresh List", Color.WHITE, PRIMARY_COLOR);
+        JButton setSeatsButton = createStyledButton("Set Seats", Color.WHITE, PRIMARY_COLOR);
+
+        JButton publishBallotButton = createStyledButton("Publish Ballot", Color.WHITE, PRIMARY_COLOR);
 
+        setSeatsButton.addActionListener(e -> setPositionSeats(frame, candidatesList, setSeatsButton));
+        publishBallotButton.addActionListener(e -> publishBallot(frame, publishBallotButton));
         addCandidateButton.addActionListener(e -> showAddCandidateDialog(frame, refreshCandidatesButton));
         removeCandidateButton.addActionListener(e -> removeSelectedCandidate(frame, candidatesList, refreshCandidatesButton));
-        refreshCandidatesButton.addActionListener(e -> refreshCandidatesList(candidatesListModel, frame));
+        refreshCandidatesButton.addActionListener(e ->
+                refreshCandidatesList(candidatesListModel, frame, refreshCandidatesButton));
 
         candidatesButtonPanel.add(addCandidateButton);
         candidatesButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
         candidatesButtonPanel.add(removeCandidateButton);
         candidatesButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
+        candidatesButtonPanel.add(setSeatsButton);
+        candidatesButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
+        candidatesButtonPanel.add(publishBallotButton);
+        candidatesButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
         candidatesButtonPanel.add(refreshCandidatesButton);
         candidatesPanel.add(candidatesButtonPanel, BorderLayout.SOUTH);
         tabbedPane.addTab("Manage Candidates", candidatesPanel);
@@ -829,23 +1284,370 @@ public class VotingSystem {
         resetLabel.setFont(new Font("Segoe UI", Font.BOLD, 18));
         resetLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
         resetPanel.add(resetLabel);
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+
+        JLabel activeElectionLabel = new JLabel("Active election: ");
+        db.submit(() -> loadElectionName(activeElectionId)).thenAccept(name ->
+                SwingUtilities.invokeLater(() -> activeElectionLabel.setText("Active election: " + name
+                        + (certifiedResults != null ? " (closed)" : ""))));
+        activeElectionLabel.setFont(LABEL_FONT);
+        activeElectionLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        resetPanel.add(activeElectionLabel);
         resetPanel.add(Box.createRigidArea(new Dimension(0, 30)));
 
         JButton resetVotesButton = createStyledButton("Reset All Votes", Color.WHITE, PRIMARY_COLOR);
         resetVotesButton.setAlignmentX(Component.CENTER_ALIGNMENT);
         resetVotesButton.setMaximumSize(new Dimension(300, 40));
-        resetVotesButton.addActionListener(e -> resetAllVotes(frame));
+        resetVotesButton.addActionListener(e -> resetAllVotes(frame, resetVotesButton));
 
         JButton resetUsersButton = createStyledButton("Reset User Voting Status", Color.WHITE, PRIMARY_COLOR);
         resetUsersButton.setAlignmentX(Component.CENTER_ALIGNMENT);
         resetUsersButton.setMaximumSize(new Dimension(300, 40));
-        resetUsersButton.addActionListener(e -> resetUserVotingStatus(frame));
+        resetUsersButton.addActionListener(e -> resetUserVotingStatus(frame, resetUsersButton));
+
+        JButton recountButton = createStyledButton("Verify Tally (Recount)", Color.WHITE, PRIMARY_COLOR);
+        recountButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        recountButton.setMaximumSize(new Dimension(300, 40));
+        recountButton.addActionListener(e -> runRecount(frame, recountButton));
 
         resetPanel.add(resetVotesButton);
         resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         resetPanel.add(resetUsersButton);
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(recountButton);
+
+        JButton auditChainButton = createStyledButton("Audit Ballot Chain", Color.WHITE, PRIMARY_COLOR);
+        auditChainButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        auditChainButton.setMaximumSize(new Dimension(300, 40));
+        auditChainButton.addActionListener(e -> runChainAudit(frame, auditChainButton));
+
+        JButton verifyBallotButton = createStyledButton("Verify Ballot Proof", Color.WHITE, PRIMARY_COLOR);
+        verifyBallotButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        verifyBallotButton.setMaximumSize(new Dimension(300, 40));
+        verifyBallotButton.addActionListener(e -> verifyBallotProof(frame, verifyBallotButton));
+
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(auditChainButton);
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(verifyBallotButton);
+
+        JButton closeElectionButton = createStyledButton("Close Election", Color.WHITE, PRIMARY_COLOR);
+        closeElectionButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        closeElectionButton.setMaximumSize(new Dimension(300, 40));
+        closeElectionButton.addActionListener(e -> closeElection(frame, closeElectionButton, activeElectionLabel,
+                refreshResultsButton::doClick));
+
+        JButton newElectionButton = createStyledButton("Close & Start New Election", Color.WHITE, PRIMARY_COLOR);
+        newElectionButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        newElectionButton.setMaximumSize(new Dimension(300, 40));
+        newElectionButton.addActionListener(e -> startNewElection(frame, newElectionButton, activeElectionLabel, () -> {
+            refreshResultsButton.doClick();
+            refreshCandidatesButton.doClick();
+        }));
+
+        JButton archiveButton = createStyledButton("View Archived Elections", Color.WHITE, PRIMARY_COLOR);
+        archiveButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        archiveButton.setMaximumSize(new Dimension(300, 40));
+        archiveButton.addActionListener(e -> showArchivedElections(frame, archiveButton));
+
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(closeElectionButton);
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(newElectionButton);
+        resetPanel.add(Box.createRigidArea(new Dimension(0, 20)));
+        resetPanel.add(archiveButton);
         tabbedPane.addTab("Election Management", resetPanel);
 
+        // Locked Accounts Tab
+        JPanel lockedPanel = new JPanel(new BorderLayout());
+        lockedPanel.setBackground(Color.WHITE);
+        lockedPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JLabel rejectedLabel = new JLabel();
+        rejectedLabel.setFont(LABEL_FONT);
+        rejectedLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        lockedPanel.add(rejectedLabel, BorderLayout.NORTH);
+
+        DefaultListModel<LoginThrottle.Lockout> lockedListModel = new DefaultListModel<>();
+        JList<LoginThrottle.Lockout> lockedList = new JList<>(lockedListModel);
+        lockedList.setCellRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                LoginThrottle.Lockout lockout = (LoginThrottle.Lockout) value;
+                return super.getListCellRendererComponent(list, lockout.studentId + ": " + lockout.failures
+                        + " failed attempts, locked for " + (lockout.remainingMillis + 999) / 1000 + "s",
+                        index, isSelected, cellHasFocus);
+            }
+        });
+        lockedList.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        lockedList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        lockedList.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        lockedPanel.add(new JScrollPane(lockedList), BorderLayout.CENTER);
+
+        JPanel lockedButtonPanel = new JPanel();
+        lockedButtonPanel.setBackground(Color.WHITE);
+        lockedButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
+
+        JButton unlockButton = createStyledButton("Unlock Selected", Color.WHITE, PRIMARY_COLOR);
+        JButton refreshLockedButton = createStyledButton("Refresh List", Color.WHITE, PRIMARY_COLOR);
+
+        refreshLockedButton.addActionListener(e -> {
+            lockedListModel.clear();
+            for (LoginThrottle.Lockout lockout : loginThrottle.lockedAccounts()) {
+                lockedListModel.addElement(lockout);
+            }
+            rejectedLabel.setText("Login attempts rejected without a database query: "
+                    + loginThrottle.rejectedAttempts());
+        });
+        unlockButton.addActionListener(e -> {
+            LoginThrottle.Lockout selected = lockedList.getSelectedValue();
+            if (selected == null) {
+                showErrorDialog(frame, "Please select an account to unlock");
+                return;
+            }
+            loginThrottle.unlock(selected.studentId);
+            refreshLockedButton.doClick();
+        });
+
+        lockedButtonPanel.add(unlockButton);
+        lockedButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
+        lockedButtonPanel.add(refreshLockedButton);
+        lockedPanel.add(lockedButtonPanel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Locked Accounts", lockedPanel);
+
+        // Turnout Tab
+        JPanel turnoutPanel = new JPanel(new BorderLayout());
+        turnoutPanel.setBackground(Color.WHITE);
+        turnoutPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JLabel turnoutSummaryLabel = new JLabel();
+        turnoutSummaryLabel.setFont(LABEL_FONT);
+        turnoutSummaryLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        turnoutPanel.add(turnoutSummaryLabel, BorderLayout.NORTH);
+
+        TurnoutChart turnoutChart = new TurnoutChart();
+        turnoutPanel.add(turnoutChart, BorderLayout.CENTER);
+
+        JTextArea kioskArea = new JTextArea(5, 40);
+        kioskArea.setFont(new Font("Consolas", Font.PLAIN, 14));
+        kioskArea.setEditable(false);
+
+        JPanel turnoutSouthPanel = new JPanel(new BorderLayout());
+        turnoutSouthPanel.setBackground(Color.WHITE);
+        turnoutSouthPanel.add(new JScrollPane(kioskArea), BorderLayout.CENTER);
+
+        JButton refreshTurnoutButton = createStyledButton("Refresh Turnout", Color.WHITE, PRIMARY_COLOR);
+        refreshTurnoutButton.addActionListener(e -> db.run(() -> {
+            flushTurnout();
+            TurnoutView view = new TurnoutView();
+            view.lastHour = TurnoutSeries.minuteTotals(conn, activeElectionId, 60);
+            StringBuilder sb = new StringBuilder("Last hour by kiosk:\n");
+            for (Map.Entry<String, Long> entry : TurnoutSeries.kioskTotals(conn, activeElectionId, 60).entrySet()) {
+                sb.append(String.format("%-30s", entry.getKey())).append(": ")
+                        .append(entry.getValue()).append(" votes\n");
+            }
+            view.kiosks = sb.toString();
+            for (long votes : TurnoutSeries.minuteTotals(conn, activeElectionId, TurnoutSeries.MINUTES)) {
+                view.dayTotal += votes;
+            }
+            return view;
+        }, view -> {
+            long hourTotal = 0;
+            for (long votes : view.lastHour) {
+                hourTotal += votes;
+            }
+            turnoutChart.setMinutes(view.lastHour);
+            turnoutSummaryLabel.setText("Votes in the last hour: " + hourTotal
+                    + "    Last 24 hours: " + view.dayTotal);
+            kioskArea.setText(view.kiosks);
+        }, ex -> {
+            ex.printStackTrace();
+            showErrorDialog(frame, "Error loading turnout: " + ex.getMessage());
+        }, refreshTurnoutButton));
+
+        JPanel turnoutButtonPanel = new JPanel();
+        turnoutButtonPanel.setBackground(Color.WHITE);
+        turnoutButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
+        turnoutButtonPanel.add(refreshTurnoutButton);
+        turnoutSouthPanel.add(turnoutButtonPanel, BorderLayout.SOUTH);
+        turnoutPanel.add(turnoutSouthPanel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Turnout", turnoutPanel);
+
+        // Voter Roll Tab
+        JPanel rollPanel = new JPanel(new BorderLayout());
+        rollPanel.setBackground(Color.WHITE);
+        rollPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JPanel rollSearchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        rollSearchPanel.setBackground(Color.WHITE);
+        JComboBox<VoterRoll.SearchBy> searchByCombo = new JComboBox<>(VoterRoll.SearchBy.values());
+        searchByCombo.setFont(LABEL_FONT);
+        JTextField rollSearchField = new JTextField(20);
+        rollSearchField.setFont(LABEL_FONT);
+        JButton rollSearchButton = createStyledButton("Search", Color.WHITE, PRIMARY_COLOR);
+        JLabel searchLabel = new JLabel("Search by");
+        searchLabel.setFont(LABEL_FONT);
+        rollSearchPanel.add(searchLabel);
+        rollSearchPanel.add(searchByCombo);
+        rollSearchPanel.add(rollSearchField);
+        rollSearchPanel.add(rollSearchButton);
+        rollPanel.add(rollSearchPanel, BorderLayout.NORTH);
+
+        DefaultListModel<String> rollListModel = new DefaultListModel<>();
+        JList<String> rollList = new JList<>(rollListModel);
+        rollList.setFont(new Font("Consolas", Font.PLAIN, 14));
+        rollList.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        rollPanel.add(new JScrollPane(rollList), BorderLayout.CENTER);
+
+        JPanel rollButtonPanel = new JPanel();
+        rollButtonPanel.setBackground(Color.WHITE);
+        rollButtonPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
+
+        JButton previousPageButton = createStyledButton("Previous", Color.WHITE, PRIMARY_COLOR);
+        JButton nextPageButton = createStyledButton("Next", Color.WHITE, PRIMARY_COLOR);
+        JLabel rollStatusLabel = new JLabel();
+        rollStatusLabel.setFont(LABEL_FONT);
+        VoterRoll.Page[] currentPage = new VoterRoll.Page[1];
+
+        rollSearchButton.addActionListener(e -> {
+            VoterRoll.SearchBy searchBy = (VoterRoll.SearchBy) searchByCombo.getSelectedItem();
+            String prefix = rollSearchField.getText();
+            loadVoterRollPage(frame, () -> voterRoll.first(searchBy, prefix, activeElectionId, voterEpoch),
+                    currentPage, rollListModel, rollStatusLabel, rollSearchButton, previousPageButton, nextPageButton);
+        });
+        rollSearchField.addActionListener(e -> rollSearchButton.doClick());
+        previousPageButton.addActionListener(e -> {
+            VoterRoll.Page page = currentPage[0];
+            loadVoterRollPage(frame, () -> voterRoll.previous(page),
+                    currentPage, rollListModel, rollStatusLabel, rollSearchButton, previousPageButton, nextPageButton);
+        });
+        nextPageButton.addActionListener(e -> {
+            VoterRoll.Page page = currentPage[0];
+            loadVoterRollPage(frame, () -> voterRoll.next(page),
+                    currentPage, rollListModel, rollStatusLabel, rollSearchButton, previousPageButton, nextPageButton);
+        });
+        previousPageButton.setEnabled(false);
+        nextPageButton.setEnabled(false);
+
+        rollButtonPanel.add(previousPageButton);
+        rollButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
+        rollButtonPanel.add(nextPageButton);
+        rollButtonPanel.add(Box.createRigidArea(new Dimension(15, 0)));
+        rollButtonPanel.add(rollStatusLabel);
+        rollPanel.add(rollButtonPanel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Voter Roll", rollPanel);
+
+        // Audit Log Tab
+        JPanel auditPanel = new JPanel(new BorderLayout());
+        auditPanel.setBackground(Color.WHITE);
+        auditPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JPanel auditFilterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        auditFilterPanel.setBackground(Color.WHITE);
+        String[] auditActions = new String[AuditLog.ACTIONS.length + 1];
+        auditActions[0] = "All actions";
+        System.arraycopy(AuditLog.ACTIONS, 0, auditActions, 1, AuditLog.ACTIONS.length);
+        JComboBox<String> auditActionCombo = new JComboBox<>(auditActions);
+        auditActionCombo.setFont(LABEL_FONT);
+        JComboBox<String> auditPeriodCombo = new JComboBox<>(new String[] { "Last hour", "Last 24 hours", "All time" });
+        auditPeriodCombo.setFont(LABEL_FONT);
+        auditPeriodCombo.setSelectedIndex(1);
+        JTextField auditTextField = new JTextField(15);
+        auditTextField.setFont(LABEL_FONT);
+        JButton auditSearchButton = createStyledButton("Search", Color.WHITE, PRIMARY_COLOR);
+        JLabel auditTextLabel = new JLabel("Admin or details");
+        auditTextLabel.setFont(LABEL_FONT);
+        auditFilterPanel.add(auditActionCombo);
+        auditFilterPanel.add(auditPeriodCombo);
+        auditFilterPanel.add(auditTextLabel);
+        auditFilterPanel.add(auditTextField);
+        auditFilterPanel.add(auditSearchButton);
+        auditPanel.add(auditFilterPanel, BorderLayout.NORTH);
+
+        DefaultListModel<String> auditListModel = new DefaultListModel<>();
+        JList<String> auditList = new JList<>(auditListModel);
+        auditList.setFont(new Font("Consolas", Font.PLAIN, 14));
+        auditList.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        auditPanel.add(new JScrollPane(auditList), BorderLayout.CENTER);
+
+        JLabel auditStatusLabel = new JLabel();
+        auditStatusLabel.setFont(LABEL_FONT);
+        auditStatusLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+        auditPanel.add(auditStatusLabel, BorderLayout.SOUTH);
+
+        auditSearchButton.addActionListener(e -> {
+            String action = auditActionCombo.getSelectedIndex() == 0 ? null : (String) auditActionCombo.getSelectedItem();
+            String text = auditTextField.getText().trim();
+            long[] periods = { 60 * 60_000L, 24 * 60 * 60_000L, 0 };
+            long period = periods[auditPeriodCombo.getSelectedIndex()];
+            long since = period == 0 ? 0 : System.currentTimeMillis() - period;
+            db.run(() -> {
+                // Show this session's own actions too, not only what the writer has reached
+                audit.flush(2_000);
+                return AuditLog.query(conn, action, text.isEmpty() ? null : text, since, AUDIT_PAGE_SIZE);
+            }, entries -> {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                auditListModel.clear();
+                for (AuditLog.Entry entry : entries) {
+                    auditListModel.addElement(format.format(new Date(entry.atMillis)) + "  "
+                            + String.format("%-12s %-17s ", entry.actor, entry.action)
+                            + (entry.details == null ? "" : entry.details));
+                }
+                auditStatusLabel.setText(entries.size() == AUDIT_PAGE_SIZE
+                        ? "Showing the newest " + AUDIT_PAGE_SIZE + " matching entries"
+                        : entries.size() + " matching entries");
+            }, ex -> {
+                ex.printStackTrace();
+                showErrorDialog(frame, "Error loading audit log: " + ex.getMessage());
+            }, auditSearchButton);
+        });
+        auditTextField.addActionListener(e -> auditSearchButton.doClick());
+        tabbedPane.addTab("Audit Log", auditPanel);
+
+        // Alerts Tab: anomalies raised by every kiosk, through the audit log
+        JPanel alertsPanel = new JPanel(new BorderLayout());
+        alertsPanel.setBackground(Color.WHITE);
+        alertsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JLabel alertsSummaryLabel = new JLabel();
+        alertsSummaryLabel.setFont(LABEL_FONT);
+        alertsSummaryLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        alertsPanel.add(alertsSummaryLabel, BorderLayout.NORTH);
+
+        DefaultListModel<String> alertsListModel = new DefaultListModel<>();
+        JList<String> alertsList = new JList<>(alertsListModel);
+        alertsList.setFont(new Font("Consolas", Font.PLAIN, 14));
+        alertsList.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        alertsPanel.add(new JScrollPane(alertsList), BorderLayout.CENTER);
+
+        JPanel alertsButtonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        alertsButtonPanel.setBackground(Color.WHITE);
+        JButton refreshAlertsButton = createStyledButton("Refresh", Color.WHITE, PRIMARY_COLOR);
+        refreshAlertsButton.addActionListener(e -> {
+            long since = System.currentTimeMillis() - 24 * 60 * 60_000L;
+            db.run(() -> {
+                audit.flush(2_000);
+                return AuditLog.query(conn, AuditLog.ANOMALY, null, since, AUDIT_PAGE_SIZE);
+            }, entries -> {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                alertsListModel.clear();
+                for (AuditLog.Entry entry : entries) {
+                    alertsListModel.addElement(format.format(new Date(entry.atMillis)) + "  " + entry.details);
+                }
+                alertsSummaryLabel.setText("<html>" + anomalies.summary() + "<br>"
+                        + entries.size() + " alerts from all kiosks in the last 24 hours</html>");
+            }, ex -> {
+                ex.printStackTrace();
+                showErrorDialog(frame, "Error loading alerts: " + ex.getMessage());
+            }, refreshAlertsButton);
+        });
+        alertsButtonPanel.add(refreshAlertsButton);
+        alertsPanel.add(alertsButtonPanel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Alerts", alertsPanel);
+
         // Logout Panel with gold background and black text
         JPanel logoutPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         logoutPanel.setBackground(SECONDARY_COLOR);
@@ -856,9 +1658,20 @@ public class VotingSystem {
                 BorderFactory.createLineBorder(PRIMARY_COLOR, 1),
                 BorderFactory.createEmptyBorder(8, 25, 8, 25)
         ));
+        // Replication lag, refreshed from the shipper's last pass
+        Timer replicaTimer = new Timer(1000, null);
+        if (standby != null) {
+            JLabel replicaLabel = new JLabel(standby.status());
+            replicaLabel.setFont(LABEL_FONT);
+            replicaLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 20));
+            logoutPanel.add(replicaLabel);
+            replicaTimer.addActionListener(e -> replicaLabel.setText(standby.status()));
+            replicaTimer.start();
+        }
         logoutButton.addActionListener(e -> {
+            replicaTimer.stop();
             frame.dispose();
-            createLoginWindow();
+            showLoginWindow();
         });
         logoutPanel.add(logoutButton);
 
@@ -870,6 +1683,68 @@ public class VotingSystem {
         // Load initial data
         refreshResultsButton.doClick();
         refreshCandidatesButton.doClick();
+        refreshLockedButton.doClick();
+        rollSearchButton.doClick();
+        refreshAlertsButton.doClick();
+        refreshTurnoutButton.doClick();
+    }
+
+    private static final class TurnoutView {
+        long[] lastHour;
+        long dayTotal;
+        String kiosks;
+    }
+
+    /** Bar chart of ballots per minute over the last hour, oldest on the left. */
+    private static class TurnoutChart extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        private long[] minutes = new long[0];
+
+        TurnoutChart() {
+            setBackground(Color.WHITE);
+            setBorder(BorderFactory.createLineBorder(new Color(200, 200, 200)));
+        }
+
+        void setMinutes(long[] minutes) {
+            this.minutes = minutes;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (minutes.length == 0) {
+                return;
+            }
+            long max = 1;
+            for (long votes : minutes) {
+                max = Math.max(max, votes);
+            }
+
+            int left = 50;
+            int right = 15;
+            int top = 15;
+            int bottom = 30;
+            int width = getWidth() - left - right;
+            int height = getHeight() - top - bottom;
+            double barWidth = (double) width / minutes.length;
+
+            g.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            g.setColor(Color.GRAY);
+            g.drawLine(left, top + height, left + width, top + height);
+            g.drawString(String.valueOf(max), 10, top + 10);
+            g.drawString("0", 10, top + height);
+            g.drawString("-" + minutes.length + " min", left, top + height + 20);
+            g.drawString("now", left + width - 25, top + height + 20);
+
+            g.setColor(PRIMARY_COLOR);
+            for (int i = 0; i < minutes.length; i++) {
+                int barHeight = (int) (height * minutes[i] / max);
+                int x = left + (int) (i * barWidth);
+                g.fillRect(x + 1, top + height - barHeight, Math.max(1, (int) barWidth - 2), barHeight);
+            }
+        }
     }
 
     private static void showAddCandidateDialog(JFrame parent, JButton refreshButton) {
@@ -1023,30 +1898,27 @@ public class VotingSystem {
                     null : IMAGE_DIR + imagePathLabel.getText();
 
             if (!name.isEmpty() && !position.isEmpty()) {
-                try {
+                File source = fileChooser.getSelectedFile();
+                db.run(() -> {
                     // Copy image to application directory if one was selected
-                    if (imagePath != null && !imagePathLabel.getText().equals("No image selected")) {
-                        File source = fileChooser.getSelectedFile();
+                    if (imagePath != null) {
                         File dest = new File(imagePath);
                         Files.copy(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
                     }
-
-                    PreparedStatement pstmt = conn.prepareStatement(
-                            "INSERT INTO candidates (name, position, role, image_path) VALUES (?, ?, ?, ?)");
-                    pstmt.setString(1, name);
-                    pstmt.setString(2, position);
-                    pstmt.setString(3, role);
-                    pstmt.setString(4, imagePath);
-                    pstmt.executeUpdate();
+                    return store.addCandidate(activeElectionId, name, position, role, imagePath);
+                }, id -> {
+                    audit.record(currentStudentId, AuditLog.CANDIDATE_ADD, "id " + id + ", " + name + " for "
+                            + position + (role.isEmpty() ? "" : " (" + role + ")") + " in election " + activeElectionId);
                     dialog.dispose();
                     refreshButton.doClick();
-                } catch (SQLException ex) {
+                }, ex -> {
                     ex.printStackTrace();
-                    showErrorDialog(dialog, "Error adding candidate: " + ex.getMessage());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                    showErrorDialog(dialog, "Error copying image file: " + ex.getMessage());
-                }
+                    if (ex instanceof IOException) {
+                        showErrorDialog(dialog, "Error copying image file: " + ex.getMessage());
+                    } else {
+                        showErrorDialog(dialog, "Error adding candidate: " + ex.getMessage());
+                    }
+                }, saveButton, cancelButton);
             } else {
                 showErrorDialog(dialog, "Please enter at least name and position");
             }
@@ -1072,75 +1944,452 @@ public class VotingSystem {
                     "Confirm Removal", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                try {
-                    int id = Integer.parseInt(selected.split(":")[0].trim());
-                    PreparedStatement pstmt = conn.prepareStatement(
-                            "DELETE FROM candidates WHERE id = ?");
-                    pstmt.setInt(1, id);
-                    pstmt.executeUpdate();
-                    refreshButton.doClick();
-                } catch (SQLException | NumberFormatException ex) {
-                    ex.printStackTrace();
-                    showErrorDialog(parent, "Error removing candidate: " + ex.getMessage());
-                }
+                db.run(() -> store.removeCandidate(Integer.parseInt(selected.split(":")[0].trim())),
+                        removed -> {
+                            if (removed) {
+                                audit.record(currentStudentId, AuditLog.CANDIDATE_REMOVE, selected
+                                        + " in election " + activeElectionId);
+                            }
+                            refreshButton.doClick();
+                        }, ex -> {
+                            ex.printStackTrace();
+                            showErrorDialog(parent, "Error removing candidate: " + ex.getMessage());
+                        }, list);
             }
         } else {
             showErrorDialog(parent, "Please select a candidate to remove");
         }
     }
 
-    private static void refreshCandidatesList(DefaultListModel<String> model, JFrame frame) {
+    /** Sets how many candidates voters may pick for the selected candidate's position. */
+    private static void setPositionSeats(JFrame parent, JList<String> list, JButton seatsButton) {
+        String selected = list.getSelectedValue();
+        if (selected == null) {
+            showErrorDialog(parent, "Please select a candidate for the position to change");
+            return;
+        }
+        String position = selected.substring(selected.lastIndexOf(" - ") + 3);
+        String input = JOptionPane.showInputDialog(parent,
+                "How many candidates may voters choose for " + position + "?\n" +
+                "Enter 1 for a single winner, or 0 to let voters approve any number.",
+                "Set Seats", JOptionPane.QUESTION_MESSAGE);
+        if (input == null) {
+            return;
+        }
+        int seats;
         try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(
-                    "SELECT id, name, position FROM candidates ORDER BY position, name");
+            seats = Integer.parseInt(input.trim());
+        } catch (NumberFormatException ex) {
+            showErrorDialog(parent, "Seats must be a whole number");
+            return;
+        }
+        if (seats < 0) {
+            showErrorDialog(parent, "Seats can't be negative");
+            return;
+        }
 
+        db.run(() -> {
+            store.setSeats(activeElectionId, position, seats);
+            return null;
+        }, done -> {
+            audit.record(currentStudentId, AuditLog.POSITION_SEATS, position + ": "
+                    + VoteStore.describeSeats(seats) + " in election " + activeElectionId);
+            JOptionPane.showMessageDialog(parent,
+                    position + ": " + VoteStore.describeSeats(seats),
+                    "Seats Updated", JOptionPane.INFORMATION_MESSAGE);
+        }, ex -> {
+            ex.printStackTrace();
+            showErrorDialog(parent, "Error setting seats: " + ex.getMessage());
+        }, seatsButton);
+    }
+
+    /** Compiles the current candidates, seats and photos into a new ballot version for the kiosks. */
+    private static void publishBallot(JFrame parent, JButton publishButton) {
+        int confirm = JOptionPane.showConfirmDialog(parent,
+                "Publish the current candidates and photos to the kiosks?\n" +
+                "Kiosks show the new ballot from their next login.",
+                "Publish Ballot", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        db.run(() -> BallotBundle.open(BallotBundle.publish(store, activeElectionId, new File(BallotBundle.DIR))),
+                bundle -> {
+                    audit.record(currentStudentId, AuditLog.BALLOT_PUBLISH, "version " + bundle.version()
+                            + ", " + bundle.candidates().size() + " candidates in election " + activeElectionId);
+                    JOptionPane.showMessageDialog(parent,
+                            "Ballot version " + bundle.version() + " published.",
+                            "Ballot Published", JOptionPane.INFORMATION_MESSAGE);
+                }, ex -> {
+                    ex.printStackTrace();
+                    showErrorDialog(parent, "Error publishing ballot: " + ex.getMessage());
+                }, publishButton);
+    }
+
+    private static void refreshCandidatesList(DefaultListModel<String> model, JFrame frame, JButton refreshButton) {
+        db.run(() -> store.candidates(activeElectionId), candidates -> {
             model.clear();
-            while (rs.next()) {
-                model.addElement(
-                        rs.getInt("id") + ": " + rs.getString("name") + " - " + rs.getString("position"));
+            for (VoteStore.Candidate candidate : candidates) {
+                model.addElement(candidate.id + ": " + candidate.name + " - " + candidate.position);
             }
-        } catch (SQLException ex) {
+        }, ex -> {
             ex.printStackTrace();
             showErrorDialog(frame, "Error loading candidates: " + ex.getMessage());
-        }
+        }, refreshButton);
     }
 
-    private static void resetAllVotes(JFrame parent) {
+    private static void resetAllVotes(JFrame parent, JButton resetButton) {
         int confirm = JOptionPane.showConfirmDialog(parent,
                 "This will reset ALL candidate votes to zero. Are you sure you want to continue?",
                 "Confirm Reset", JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            try {
-                Statement stmt = conn.createStatement();
-                stmt.executeUpdate("UPDATE candidates SET votes = 0");
+            db.run(() -> voteSpool.runExclusive(() -> {
+                store.resetVotes(activeElectionId);
+                loadEpochs();
+                ballotChain = new BallotChain(writerConn, activeElectionId, voteEpoch);
+                return null;
+            }), done -> {
+                epochCompactor.requestRun();
+                audit.record(currentStudentId, AuditLog.RESET_VOTES, "election " + activeElectionId
+                        + ", now vote epoch " + voteEpoch);
                 JOptionPane.showMessageDialog(parent,
                         "All votes have been reset to zero.",
                         "Reset Complete", JOptionPane.INFORMATION_MESSAGE);
-            } catch (SQLException ex) {
+            }, ex -> {
                 ex.printStackTrace();
                 showErrorDialog(parent, "Error resetting votes: " + ex.getMessage());
+            }, resetButton);
+        }
+    }
+
+    private static String loadElectionName(int electionId) {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM elections WHERE id = " + electionId);
+            return rs.next() ? rs.getString(1) : "(none)";
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            return "(unavailable)";
+        }
+    }
+
+    /**
+     * Stops the active election taking ballots and certifies its results. This kiosk stops
+     * spooling ballots for it first and waits for what is already spooled to be recorded, and
+     * the close is turned down while any other spool in the folder holds ballots or any were
+     * set aside. Other kiosks only see the close when they next check the status, so a ballot
+     * cast there in between misses the count; it is kept for review (see ballotAfterClose)
+     * and the dialog asks for those kiosks to be idle first.
+     */
+    private static void closeElection(JFrame parent, JButton closeButton, JLabel activeElectionLabel,
+                                      Runnable onClosed) {
+        int confirm = JOptionPane.showConfirmDialog(parent,
+                "This will stop voting in the active election and certify its results.\n" +
+                "No more ballots will be accepted and the results can't change afterwards.\n" +
+                KIOSKS_IDLE_WARNING + "Continue?",
+                "Close Election", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        int electionId = activeElectionId;
+        db.run(() -> {
+            voteSpool.refuse(electionId);
+            boolean closed = false;
+            try {
+                if (!voteSpool.awaitDrained(10_000)) {
+                    return null;
+                }
+                requireSpoolsRecorded();
+                CertifiedResults results = voteSpool.runExclusive(() -> CertifiedResults.close(conn, store, electionId));
+                closed = true;
+                return results;
+            } finally {
+                if (!closed) {
+                    voteSpool.refuse(0);
+                }
+            }
+        }, results -> {
+            if (results == null) {
+                showErrorDialog(parent, "Ballots are still being recorded. Please try again in a moment.");
+                return;
+            }
+            certifiedResults = results;
+            audit.record(currentStudentId, AuditLog.ELECTION_CLOSE, "election " + electionId + " \""
+                    + results.electionName + "\", " + results.ballots + " ballots, checksum " + results.checksum);
+            activeElectionLabel.setText("Active election: " + results.electionName + " (closed)");
+            JOptionPane.showMessageDialog(parent,
+                    "Voting has closed. " + results.ballots + " ballots were counted and the results are certified.",
+                    "Election Closed", JOptionPane.INFORMATION_MESSAGE);
+            onClosed.run();
+        }, ex -> {
+            ex.printStackTrace();
+            showErrorDialog(parent, "Error closing the election: " + ex.getMessage());
+        }, closeButton);
+    }
+
+    private static void startNewElection(JFrame parent, JButton newElectionButton, JLabel activeElectionLabel,
+                                         Runnable onStarted) {
+        db.run(() -> loadElectionName(activeElectionId), currentName -> {
+            String name = JOptionPane.showInputDialog(parent,
+                    "This will close \"" + currentName + "\" and move it to the archive.\n" +
+                    KIOSKS_IDLE_WARNING + "Name of the new election:", "Start New Election",
+                    JOptionPane.QUESTION_MESSAGE);
+            if (name == null) {
+                return;
+            }
+            String electionName = name.trim();
+            if (electionName.isEmpty()) {
+                showErrorDialog(parent, "Please enter a name for the new election");
+                return;
+            }
+
+            int closedElectionId = activeElectionId;
+            db.run(() -> {
+                // As in closeElection: nothing more is spooled for the old election, including from a
+                // voting window opened before the switch, and what is spooled is recorded first
+                voteSpool.refuse(closedElectionId);
+                boolean started = false;
+                try {
+                    if (!voteSpool.awaitDrained(10_000)) {
+                        return false;
+                    }
+                    requireSpoolsRecorded();
+                    voteSpool.runExclusive(() -> {
+                        // One transaction, so a failure leaves the old election as it was, never closed but unarchived
+                        int newElectionId;
+                        conn.setAutoCommit(false);
+                        try {
+                            // Certified first, unless Close Election already did, so every archived election has its record
+                            CertifiedResults.close(conn, store, closedElectionId);
+                            ElectionArchive.copy(conn, closedElectionId);
+                            newElectionId = store.createElection(electionName);
+                            conn.commit();
+                        } catch (SQLException | IOException | VoteStore.StoreException e) {
+                            conn.rollback();
+                            throw e;
+                        } finally {
+                            conn.setAutoCommit(true);
+                        }
+
+                        activeElectionId = newElectionId;
+                        certifiedResults = null;
+                        loadEpochs();
+                        ballotChain = new BallotChain(writerConn, activeElectionId, voteEpoch);
+                        turnout.load(writerConn, activeElectionId);
+                        try {
+                            ElectionArchive.purge(conn, closedElectionId);
+                        } catch (SQLException e) {
+                            // The archive copy is committed; the next start removes the live rows
+                            e.printStackTrace();
+                        }
+                        return null;
+                    });
+                    started = true;
+                    return true;
+                } finally {
+                    if (!started) {
+                        voteSpool.refuse(0);
+                    }
+                }
+            }, started -> {
+                if (!started) {
+                    showErrorDialog(parent, "Ballots are still being recorded. Please try again in a moment.");
+                    return;
+                }
+                audit.record(currentStudentId, AuditLog.NEW_ELECTION, "archived election " + closedElectionId
+                        + " \"" + currentName + "\", opened election " + activeElectionId + " \"" + electionName + "\"");
+                activeElectionLabel.setText("Active election: " + electionName);
+                JOptionPane.showMessageDialog(parent,
+                        "The previous election has been archived. \"" + electionName + "\" is now open.",
+                        "Election Started", JOptionPane.INFORMATION_MESSAGE);
+                onStarted.run();
+            }, ex -> {
+                ex.printStackTrace();
+                showErrorDialog(parent, "Error starting new election: " + ex.getMessage());
+            }, newElectionButton);
+        }, ex -> showErrorDialog(parent, "Error loading election: " + ex.getMessage()), newElectionButton);
+    }
+
+    private static void showArchivedElections(JFrame parent, JButton archiveButton) {
+        db.run(() -> ElectionArchive.listArchived(conn), elections -> {
+            if (elections.isEmpty()) {
+                JOptionPane.showMessageDialog(parent, "No elections have been archived yet.",
+                        "Archived Elections", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+
+            JDialog dialog = new JDialog(parent, "Archived Elections", true);
+            dialog.setSize(600, 500);
+            dialog.setLayout(new BorderLayout());
+
+            JComboBox<String> electionCombo = new JComboBox<>(elections.values().toArray(new String[0]));
+            electionCombo.setFont(LABEL_FONT);
+            Integer[] ids = elections.keySet().toArray(new Integer[0]);
+
+            JTextArea archiveArea = new JTextArea();
+            archiveArea.setFont(new Font("Consolas", Font.PLAIN, 14));
+            archiveArea.setEditable(false);
+            archiveArea.setMargin(new Insets(10, 10, 10, 10));
+
+            Runnable loadSelected = () -> {
+                int electionId = ids[electionCombo.getSelectedIndex()];
+                db.run(() -> {
+                    // Elections closed since results were certified show the certified record
+                    CertifiedResults certified = CertifiedResults.load(conn, electionId);
+                    return certified != null ? certified.format() : ElectionArchive.formatResults(conn, electionId);
+                }, results -> {
+                    archiveArea.setText(results);
+                    archiveArea.setCaretPosition(0);
+                }, ex -> {
+                    ex.printStackTrace();
+                    showErrorDialog(dialog, "Error loading archived results: " + ex.getMessage());
+                }, electionCombo);
+            };
+            electionCombo.addActionListener(e -> loadSelected.run());
+            loadSelected.run();
+
+            dialog.add(electionCombo, BorderLayout.NORTH);
+            dialog.add(new JScrollPane(archiveArea), BorderLayout.CENTER);
+            dialog.setLocationRelativeTo(parent);
+            dialog.setVisible(true);
+        }, ex -> {
+            ex.printStackTrace();
+            showErrorDialog(parent, "Error loading archive: " + ex.getMessage());
+        }, archiveButton);
+    }
+
+    private static void runRecount(JFrame parent, JButton recountButton) {
+        int electionId = activeElectionId;
+
+        // The recount opens its own connections and never touches conn
+        db.run(() -> new TallyRecount(DB_URL, electionId).run(),
+                result -> showReport(parent, "Recount Report", result.format(), result.isConsistent(), 20, 60),
+                ex -> {
+                    ex.printStackTrace();
+                    showReport(parent, "Recount Report", "Recount failed: " + ex.getMessage(), false, 20, 60);
+                }, recountButton);
+    }
+
+    private static void showReport(JFrame parent, String title, String report, boolean ok, int rows, int columns) {
+        JTextArea reportArea = new JTextArea(report, rows, columns);
+        reportArea.setFont(new Font("Consolas", Font.PLAIN, 13));
+        reportArea.setEditable(false);
+        JOptionPane.showMessageDialog(parent, new JScrollPane(reportArea), title,
+                ok ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+    }
+
+    private interface PageQuery {
+        VoterRoll.Page fetch() throws SQLException;
+    }
+
+    /**
+     * Fetches a voter roll page on the database thread, on the roll's own connection, and
+     * shows it. The paging buttons stay disabled until the page is in.
+     */
+    private static void loadVoterRollPage(JFrame parent, PageQuery query, VoterRoll.Page[] currentPage,
+                                          DefaultListModel<String> model, JLabel statusLabel,
+                                          JButton searchButton, JButton previousButton, JButton nextButton) {
+        searchButton.setEnabled(false);
+        previousButton.setEnabled(false);
+        nextButton.setEnabled(false);
+        statusLabel.setText("Loading...");
+
+        db.run(query::fetch, loaded -> {
+            searchButton.setEnabled(true);
+            currentPage[0] = loaded;
+            model.clear();
+            for (VoterRoll.Voter voter : loaded.voters) {
+                String status;
+                if (voter.admin) {
+                    status = "Administrator";
+                } else if (voter.voted) {
+                    status = "Voted";
+                } else if (voteSpool.isPending(activeElectionId, voter.id)) {
+                    status = "Voted (being recorded)";
+                } else {
+                    status = "Not voted";
+                }
+                model.addElement(String.format("%-15s %-35s %s", voter.studentId, voter.name, status));
             }
+            previousButton.setEnabled(loaded.hasPrevious);
+            nextButton.setEnabled(loaded.hasNext);
+            statusLabel.setText(loaded.voters.isEmpty() ? "No matching voters" : loaded.voters.size() + " voters shown");
+        }, ex -> {
+            ex.printStackTrace();
+            searchButton.setEnabled(true);
+            VoterRoll.Page previous = currentPage[0];
+            previousButton.setEnabled(previous != null && previous.hasPrevious);
+            nextButton.setEnabled(previous != null && previous.hasNext);
+            statusLabel.setText("");
+            showErrorDialog(parent, "Error loading voter roll: " + ex.getMessage());
+        });
+    }
+
+    private static void runChainAudit(JFrame parent, JButton auditButton) {
+        int electionId = activeElectionId;
+        int epoch = voteEpoch;
+
+        db.run(() -> BallotChain.audit(DB_URL, electionId, epoch),
+                result -> showReport(parent, "Ballot Chain Audit", result.format(), result.isIntact(), 15, 70),
+                ex -> {
+                    ex.printStackTrace();
+                    showReport(parent, "Ballot Chain Audit", "Audit failed: " + ex.getMessage(), false, 15, 70);
+                }, auditButton);
+    }
+
+    private static void verifyBallotProof(JFrame parent, JButton verifyButton) {
+        String input = JOptionPane.showInputDialog(parent, "Ballot number to verify:",
+                "Verify Ballot Proof", JOptionPane.QUESTION_MESSAGE);
+        if (input == null || input.trim().isEmpty()) {
+            return;
+        }
+
+        long ballotId;
+        try {
+            ballotId = Long.parseLong(input.trim());
+        } catch (NumberFormatException ex) {
+            showErrorDialog(parent, "Please enter a valid ballot number");
+            return;
         }
+
+        // Returns the root the ballot was verified under, or null
+        db.run(() -> voteSpool.runExclusive(() -> ballotChain.verifyBallot(ballotId) ? ballotChain.rootHex() : null),
+                root -> {
+                    if (root != null) {
+                        JOptionPane.showMessageDialog(parent,
+                                "Ballot #" + ballotId + " is included unaltered under root\n" + root,
+                                "Ballot Verified", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        showErrorDialog(parent, "Ballot #" + ballotId + " could not be verified against the current root");
+                    }
+                }, ex -> {
+                    ex.printStackTrace();
+                    showErrorDialog(parent, "Error verifying ballot: " + ex.getMessage());
+                }, verifyButton);
     }
 
-    private static void resetUserVotingStatus(JFrame parent) {
+    private static void resetUserVotingStatus(JFrame parent, JButton resetButton) {
         int confirm = JOptionPane.showConfirmDialog(parent,
                 "This will allow ALL users to vote again. Are you sure you want to continue?",
                 "Confirm Reset", JOptionPane.YES_NO_OPTION);
 
         if (confirm == JOptionPane.YES_OPTION) {
-            try {
-                Statement stmt = conn.createStatement();
-                stmt.executeUpdate("UPDATE users SET has_voted = FALSE");
+            db.run(() -> voteSpool.runExclusive(() -> {
+                store.resetVoters(activeElectionId);
+                loadEpochs();
+                return null;
+            }), done -> {
+                epochCompactor.requestRun();
+                audit.record(currentStudentId, AuditLog.RESET_VOTERS, "election " + activeElectionId
+                        + ", now voter epoch " + voterEpoch);
                 JOptionPane.showMessageDialog(parent,
                         "All users can now vote again.",
                         "Reset Complete", JOptionPane.INFORMATION_MESSAGE);
-            } catch (SQLException ex) {
+            }, ex -> {
                 ex.printStackTrace();
                 showErrorDialog(parent, "Error resetting user voting status: " + ex.getMessage());
-            }
+            }, resetButton);
         }
     }
 
@@ -1175,4 +2424,4 @@ public class VotingSystem {
     private static void showErrorDialog(Component parent, String message) {
         JOptionPane.showMessageDialog(parent, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file